@@ -6,9 +6,12 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
+import allow.simulator.mobility.planner.TType;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -45,6 +48,24 @@ public class Configuration {
 	// Path to input data sources.
 	private final String dataPath;
 	
+	// Modes to route on the street map instead of querying planner services.
+	private final List<TType> localRoutingModes;
+	
+	// Maximum number of cached journeys, 0 disables caching.
+	private final int planCacheSize;
+	
+	// Recording or replay of planner requests (optional).
+	private final PlannerRecordingConfiguration plannerRecording;
+	
+	// Distribution of requests among planner service instances (optional).
+	private final PlannerBalancingConfiguration plannerBalancing;
+	
+	// Maximum number of journeys planned concurrently, 0 if default.
+	private final int maxConcurrentJourneys;
+	
+	// Print statistics of plan cache and planner balancing once per day.
+	private final boolean reportPlannerStatistics;
+	
 	/**
 	 * Constructor.
 	 * Creates a new configuration for the Allow Ensembles simulator.
@@ -55,6 +76,12 @@ public class Configuration {
 	 * @param dataService Data service configuration.
 	 * @param loggingPath Path to file to write logging output to.
 	 * @param worldPath Path containing simulated world.
+	 * @param localRoutingModes Modes to route on the street map (optional).
+	 * @param planCacheSize Maximum number of cached journeys (optional).
+	 * @param plannerRecording Recording or replay of planner requests (optional).
+	 * @param plannerBalancing Distribution of requests among planner service instances (optional).
+	 * @param maxConcurrentJourneys Maximum number of journeys planned concurrently (optional).
+	 * @param reportPlannerStatistics Print planner statistics once per day (optional).
 	 * @throws ParseException 
 	 */
 	@JsonCreator
@@ -66,7 +93,13 @@ public class Configuration {
 			@JsonProperty("world") WorldConfiguration worldConfig,
 			@JsonProperty("agents") AgentConfiguration agentConfig,
 			@JsonProperty("evoknowledge") EvoKnowledgeConfiguration evoConfig,
-			@JsonProperty("loggingpath") String loggingPath) throws ParseException {
+			@JsonProperty("loggingpath") String loggingPath,
+			@JsonProperty("localrouting") List<TType> localRoutingModes,
+			@JsonProperty("plancache") Integer planCacheSize,
+			@JsonProperty("plannerrecording") PlannerRecordingConfiguration plannerRecording,
+			@JsonProperty("plannerbalancing") PlannerBalancingConfiguration plannerBalancing,
+			@JsonProperty("plannerconcurrency") Integer maxConcurrentJourneys,
+			@JsonProperty("plannerstatistics") Boolean reportPlannerStatistics) throws ParseException {
 		this.dataPath = dataPath;
 		this.startingDate = LocalDateTime.parse(startingDate, DateTimeFormatter.ofPattern("dd.MM.uuuu HH:mm:ss", Locale.ITALY));
 		this.plannerServiceConfiguration = plannerServices;
@@ -76,6 +109,12 @@ public class Configuration {
 		this.agentConfiguration = agentConfig;
 		this.evoConfiguration = evoConfig;
 		this.loggingPath = loggingPath;
+		this.localRoutingModes = (localRoutingModes != null) ? localRoutingModes : Collections.<TType>emptyList();
+		this.planCacheSize = (planCacheSize != null) ? planCacheSize : 0;
+		this.plannerRecording = plannerRecording;
+		this.plannerBalancing = plannerBalancing;
+		this.maxConcurrentJourneys = (maxConcurrentJourneys != null) ? maxConcurrentJourneys : 0;
+		this.reportPlannerStatistics = (reportPlannerStatistics != null) ? reportPlannerStatistics : false;
 	}
 	
 	/**
@@ -138,6 +177,68 @@ public class Configuration {
 		return allowParallelClientRequests;
 	}
 	
+	/**
+	 * Returns the modes of journeys which are routed on the street map
+	 * directly instead of querying the planner services.
+	 * 
+	 * @return Modes of journeys to route on the street map.
+	 */
+	public List<TType> getLocalRoutingModes() {
+		return localRoutingModes;
+	}
+	
+	/**
+	 * Returns the maximum number of journeys to cache.
+	 * 
+	 * @return Maximum number of cached journeys or 0 if journeys are not
+	 * cached.
+	 */
+	public int getPlanCacheSize() {
+		return planCacheSize;
+	}
+	
+	/**
+	 * Returns the configuration of recording or replaying planner requests.
+	 * 
+	 * @return Configuration of recording or replaying planner requests or
+	 * null if planner services are queried without recording.
+	 */
+	public PlannerRecordingConfiguration getPlannerRecordingConfiguration() {
+		return plannerRecording;
+	}
+	
+	/**
+	 * Returns the configuration of distributing requests among planner
+	 * service instances.
+	 * 
+	 * @return Configuration of distributing requests among planner service
+	 * instances or null if instances are chosen by request id without
+	 * balancing.
+	 */
+	public PlannerBalancingConfiguration getPlannerBalancingConfiguration() {
+		return plannerBalancing;
+	}
+	
+	/**
+	 * Returns the maximum number of journeys planned concurrently.
+	 * 
+	 * @return Maximum number of journeys planned concurrently or 0 if the
+	 * default of the journey planner is used.
+	 */
+	public int getMaxConcurrentJourneys() {
+		return maxConcurrentJourneys;
+	}
+	
+	/**
+	 * Returns whether statistics of the plan cache and the distribution of
+	 * planner requests are printed once per simulated day.
+	 * 
+	 * @return True if planner statistics are printed, false otherwise.
+	 */
+	public boolean reportPlannerStatistics() {
+		return reportPlannerStatistics;
+	}
+	
 	/**
 	 * Returns the data service configuration.
 	 * 
@@ -4,27 +4,72 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class EvoKnowledgeConfiguration {
-
+	// Default number of pooled database connections
+	private static final int DEFAULT_MAX_CONNECTIONS = 16;
+	
+	// Default number of prepared statements cached per connection
+	private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+	
+	// Default time to wait for a pooled connection in milliseconds
+	private static final long DEFAULT_CONNECTION_TIMEOUT = 30000;
+	
+	// Default number of experiences buffered before being written to the database
+	private static final int DEFAULT_WRITE_QUEUE_CAPACITY = 10000;
+	
+	// Default number of ticks between compactions of knowledge (disabled)
+	private static final int DEFAULT_COMPACTION_INTERVAL = 0;
+	
+	// Default weights below which rows are pruned or folded (disabled)
+	private static final double DEFAULT_COMPACTION_MIN_WEIGHT = 0.0;
+	private static final double DEFAULT_COMPACTION_FOLD_WEIGHT = 0.0;
+	
+	// Default maximum number of rows of knowledge per agent (unbounded)
+	private static final int DEFAULT_MAX_ROWS_PER_AGENT = 0;
+	
 	private String modelPath;
 	private String modelName;
 	private String user;
 	private String password;
+	private int maxConnections;
+	private int statementCacheSize;
+	private long connectionTimeout;
+	private int writeQueueCapacity;
+	private int compactionInterval;
+	private double compactionMinWeight;
+	private double compactionFoldWeight;
+	private int maxRowsPerAgent;
 	
 	@JsonCreator
 	public EvoKnowledgeConfiguration(@JsonProperty("modelPath") String modelPath,
 			@JsonProperty("modelName") String modelName,
 			@JsonProperty("user") String user,
-			@JsonProperty("password") String password) {
+			@JsonProperty("password") String password,
+			@JsonProperty("maxConnections") Integer maxConnections,
+			@JsonProperty("statementCacheSize") Integer statementCacheSize,
+			@JsonProperty("connectionTimeout") Long connectionTimeout,
+			@JsonProperty("writeQueueCapacity") Integer writeQueueCapacity,
+			@JsonProperty("compactionInterval") Integer compactionInterval,
+			@JsonProperty("compactionMinWeight") Double compactionMinWeight,
+			@JsonProperty("compactionFoldWeight") Double compactionFoldWeight,
+			@JsonProperty("maxRowsPerAgent") Integer maxRowsPerAgent) {
 		this.modelPath = modelPath;
 		this.modelName = modelName;
 		this.user = user;
 		this.password = password;
+		this.maxConnections = (maxConnections != null) ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+		this.statementCacheSize = (statementCacheSize != null) ? statementCacheSize : DEFAULT_STATEMENT_CACHE_SIZE;
+		this.connectionTimeout = (connectionTimeout != null) ? connectionTimeout : DEFAULT_CONNECTION_TIMEOUT;
+		this.writeQueueCapacity = (writeQueueCapacity != null) ? writeQueueCapacity : DEFAULT_WRITE_QUEUE_CAPACITY;
+		this.compactionInterval = (compactionInterval != null) ? compactionInterval : DEFAULT_COMPACTION_INTERVAL;
+		this.compactionMinWeight = (compactionMinWeight != null) ? compactionMinWeight : DEFAULT_COMPACTION_MIN_WEIGHT;
+		this.compactionFoldWeight = (compactionFoldWeight != null) ? compactionFoldWeight : DEFAULT_COMPACTION_FOLD_WEIGHT;
+		this.maxRowsPerAgent = (maxRowsPerAgent != null) ? maxRowsPerAgent : DEFAULT_MAX_ROWS_PER_AGENT;
 	}
 	
 	public String getModelPath() {
 		return modelPath;
 	}
-
+	
 	public String getModelName() {
 		return modelName;
 	}
@@ -36,4 +81,87 @@ public class EvoKnowledgeConfiguration {
 	public String getPassword() {
 		return password;
 	}
+	
+	/**
+	 * Returns the maximum number of database connections which may be open
+	 * at the same time.
+	 *
+	 * @return Maximum number of pooled connections.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+	
+	/**
+	 * Returns the maximum number of prepared statements cached per pooled
+	 * connection.
+	 *
+	 * @return Number of prepared statements cached per connection.
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * Returns the maximum time in milliseconds to wait for a pooled
+	 * connection to become available.
+	 *
+	 * @return Maximum time to wait for a connection in milliseconds.
+	 */
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+	
+	/**
+	 * Returns the maximum number of coalesced experiences buffered before
+	 * being written to the database. In case the capacity is not positive,
+	 * experiences are written synchronously.
+	 *
+	 * @return Capacity of the write-behind queue.
+	 */
+	public int getWriteQueueCapacity() {
+		return writeQueueCapacity;
+	}
+	
+	/**
+	 * Returns the number of ticks between two compactions of the knowledge
+	 * of agents. In case the interval is not positive, knowledge is not
+	 * compacted.
+	 *
+	 * @return Number of ticks between compactions.
+	 */
+	public int getCompactionInterval() {
+		return compactionInterval;
+	}
+	
+	/**
+	 * Returns the weight below which rows which have not been modified since
+	 * the last compaction are removed.
+	 *
+	 * @return Minimum weight of rows.
+	 */
+	public double getCompactionMinWeight() {
+		return compactionMinWeight;
+	}
+	
+	/**
+	 * Returns the weight below which rows which have not been modified since
+	 * the last compaction are folded into the clear weather context.
+	 *
+	 * @return Weight below which rows are folded.
+	 */
+	public double getCompactionFoldWeight() {
+		return compactionFoldWeight;
+	}
+	
+	/**
+	 * Returns the maximum number of rows kept per agent. Rows of lowest
+	 * weight are removed first. In case the number is not positive, the
+	 * number of rows is not bounded.
+	 *
+	 * @return Maximum number of rows per agent.
+	 */
+	public int getMaxRowsPerAgent() {
+		return maxRowsPerAgent;
+	}
 }
@@ -0,0 +1,324 @@
+package allow.simulator.core;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import allow.simulator.entity.Entity;
+import allow.simulator.entity.EntityTypes;
+import allow.simulator.entity.TransportationEntity;
+import allow.simulator.flow.activity.ActivityType;
+import allow.simulator.knowledge.crf.DSFactory;
+import allow.simulator.world.StreetSegment;
+
+/**
+ * Headless engine advancing the simulation without NetLogo. Instead of being
+ * called once per NetLogo turtle, entities are partitioned and executed on a
+ * ForkJoin pool using a two-phase scheme:
+ *
+ * In the compute phase, entities execute their flows of activities. Changes
+ * of state shared among entities (i.e. number of vehicles on street segments
+ * and passengers boarding transportation entities) are deferred. In the
+ * commit phase, deferred changes are applied sequentially before knowledge
+ * is exchanged and the simulator advances time.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class ParallelTickEngine {
+	// Entity types which are executed sequentially since they schedule vehicles
+	private static final String SEQUENTIAL_TYPES[] = new String[] {
+		EntityTypes.PUBLIC_TRANSPORT_AGENCY,
+		EntityTypes.TAXI_AGENCY,
+		EntityTypes.FLEXIBUS_AGENCY
+	};
+
+	// Entity types executing their flows in parallel. Vehicles are executed
+	// before persons such that persons observe vehicles in a consistent state.
+	private static final String PARALLEL_TYPES[][] = new String[][] {
+		{ EntityTypes.BUS, EntityTypes.TAXI, EntityTypes.FLEXIBUS },
+		{ EntityTypes.PERSON }
+	};
+
+	// Entity types which are able to transport passengers
+	private static final String TRANSPORTATION_TYPES[] = PARALLEL_TYPES[0];
+
+	// Minimum number of entities executed by a single task
+	private static final int DEFAULT_THRESHOLD = 256;
+
+	// Indicates whether entities are currently executed in parallel
+	private static volatile boolean computePhase;
+
+	// Position of the entity currently executed by a thread in sequential order
+	private static final ThreadLocal<long[]> executionOrdinal = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * Task executing a range of entities recursively splitting it as long as
+	 * it exceeds the threshold.
+	 */
+	private static final class ExecuteEntities extends RecursiveAction {
+
+		private static final long serialVersionUID = -1839120624707521834L;
+
+		private final Entity entities[];
+		private final int from;
+		private final int to;
+		private final int threshold;
+		private final long offset;
+
+		public ExecuteEntities(Entity entities[], int from, int to, int threshold, long offset) {
+			this.entities = entities;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+			this.offset = offset;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= threshold) {
+				long ordinal[] = executionOrdinal.get();
+
+				for (int i = from; i < to; i++) {
+					ordinal[0] = offset + i;
+					entities[i].execute();
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ExecuteEntities(entities, from, mid, threshold, offset),
+					new ExecuteEntities(entities, mid, to, threshold, offset));
+		}
+	}
+
+	// Simulator to advance
+	private final Simulator simulator;
+
+	// Pool executing entities in parallel
+	private final ForkJoinPool pool;
+
+	// Minimum number of entities executed by a single task
+	private final int threshold;
+
+	// Determines whether entities exchange knowledge after each tick
+	private final boolean exchangeKnowledge;
+
+	// Buffer for entities to execute
+	private final List<Entity> buffer;
+
+	/**
+	 * Creates a new engine advancing the given simulator using the specified
+	 * number of threads. The simulator must have been set up before.
+	 *
+	 * @param simulator Simulator to advance.
+	 * @param parallelism Number of threads executing entities.
+	 * @param exchangeKnowledge True, if entities should exchange knowledge
+	 *        after each tick, false otherwise.
+	 */
+	public ParallelTickEngine(Simulator simulator, int parallelism, boolean exchangeKnowledge) {
+		this(simulator, parallelism, DEFAULT_THRESHOLD, exchangeKnowledge);
+	}
+
+	/**
+	 * Creates a new engine advancing the given simulator using the specified
+	 * number of threads and a minimum number of entities executed per task.
+	 *
+	 * @param simulator Simulator to advance.
+	 * @param parallelism Number of threads executing entities.
+	 * @param threshold Minimum number of entities executed by a single task.
+	 * @param exchangeKnowledge True, if entities should exchange knowledge
+	 *        after each tick, false otherwise.
+	 */
+	public ParallelTickEngine(Simulator simulator, int parallelism, int threshold, boolean exchangeKnowledge) {
+		if (simulator.getContext() == null)
+			throw new IllegalStateException("Error: Simulator must be set up before creating engine.");
+
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Error: Parallelism must be positive.");
+		this.simulator = simulator;
+		this.threshold = Math.max(threshold, 1);
+		this.exchangeKnowledge = exchangeKnowledge;
+		pool = new ForkJoinPool(parallelism);
+		buffer = new ArrayList<Entity>();
+	}
+
+	/**
+	 * Returns true, if entities are currently executed in the compute phase
+	 * of a parallel tick and changes of shared state must be deferred.
+	 *
+	 * @return True, if changes of shared state must be deferred, false otherwise.
+	 */
+	public static boolean isComputePhase() {
+		return computePhase;
+	}
+
+	/**
+	 * Returns the position of the entity executed by the calling thread in the
+	 * order entities would be executed sequentially within the current tick.
+	 * Used to apply changes deferred during the compute phase deterministically.
+	 *
+	 * @return Position of the entity executed by the calling thread.
+	 */
+	public static long getExecutionOrdinal() {
+		return executionOrdinal.get()[0];
+	}
+
+	/**
+	 * Executes all entities once, commits deferred changes, and advances the
+	 * simulation by one step.
+	 */
+	public void tick() {
+		Context context = simulator.getContext();
+		EntityManager entityManager = context.getEntityManager();
+
+		// Agencies schedule vehicles and are executed sequentially.
+		for (String type : SEQUENTIAL_TYPES) {
+
+			for (Entity e : entityManager.getEntitiesOfType(type)) {
+				e.execute();
+			}
+		}
+
+		// Compute phase.
+		long offset = 0;
+
+		for (String types[] : PARALLEL_TYPES) {
+			collectEntities(entityManager, types);
+
+			if (buffer.size() == 0)
+				continue;
+			Entity entities[] = buffer.toArray(new Entity[buffer.size()]);
+			computePhase = true;
+
+			try {
+				pool.invoke(new ExecuteEntities(entities, 0, entities.length, threshold, offset));
+
+			} finally {
+				computePhase = false;
+			}
+			offset += entities.length;
+		}
+		buffer.clear();
+
+		// Commit phase.
+		commit(entityManager);
+		context.getStatistics().commitDeferredReports();
+
+		if (exchangeKnowledge) {
+			exchangeKnowledge(entityManager);
+		}
+		simulator.tick();
+		context.getStatistics().updateGlobalStatistics(context);
+		context.getStatistics().resetCongestedStreets();
+	}
+
+	/**
+	 * Executes the given number of ticks.
+	 *
+	 * @param ticks Number of ticks to execute.
+	 */
+	public void run(long ticks) {
+
+		for (long i = 0; i < ticks; i++) {
+			tick();
+		}
+	}
+
+	/**
+	 * Shuts down the pool executing entities.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private void collectEntities(EntityManager entityManager, String types[]) {
+		buffer.clear();
+
+		for (String type : types) {
+			buffer.addAll(entityManager.getEntitiesOfType(type));
+		}
+	}
+
+	private static void commit(EntityManager entityManager) {
+		StreetSegment.commitDeferredUpdates();
+
+		for (String type : TRANSPORTATION_TYPES) {
+
+			for (Entity e : entityManager.getEntitiesOfType(type)) {
+				((TransportationEntity) e).commitBoardingPassengers();
+			}
+		}
+	}
+
+	private static void exchangeKnowledge(EntityManager entityManager) {
+		Collection<Entity> persons = entityManager.getEntitiesOfType(EntityTypes.PERSON);
+
+		for (Entity p : persons) {
+
+			if (p.getFlow().isIdle())
+				continue;
+			ActivityType type = p.getFlow().getCurrentActivity().getType();
+
+			if (type == ActivityType.DRIVE
+					|| type == ActivityType.CYCLE
+					|| type == ActivityType.WALK
+					|| type == ActivityType.USE_PUBLIC_TRANSPORT
+					|| type == ActivityType.USE_TAXI) {
+				p.exchangeKnowledge();
+			}
+		}
+	}
+
+	/**
+	 * Runs the simulator headless.
+	 *
+	 * Arguments: path to configuration file, knowledge model, adaptation
+	 * strategy, number of days to simulate, number of threads (optional),
+	 * grid resolution in x and y direction (optional).
+	 *
+	 * @param args Command line arguments.
+	 * @throws IOException
+	 */
+	public static void main(String args[]) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: ParallelTickEngine <config> <knowledge model> <adaptation strategy> <days> [threads] [gridResX gridResY]");
+			return;
+		}
+		Configuration config = Configuration.fromJSON(Paths.get(args[0]));
+		SimulationParameter params = new SimulationParameter();
+		params.BehaviourSpaceRunNumber = 0;
+		params.KnowledgeModel = args[1];
+		params.AdaptationStrategy = args[2];
+		params.GridResX = (args.length > 6) ? Integer.parseInt(args[5]) : 10;
+		params.GridResY = (args.length > 6) ? Integer.parseInt(args[6]) : 10;
+		params.Seed = params.BehaviourSpaceRunNumber;
+		int days = Integer.parseInt(args[3]);
+		int threads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+		Simulator simulator = Simulator.Instance();
+		simulator.setup(config, params);
+		ParallelTickEngine engine = new ParallelTickEngine(simulator, threads, params.KnowledgeModel.contains("exchange"));
+		Time time = simulator.getContext().getTime();
+		long start = System.currentTimeMillis();
+
+		while (time.getDays() < days) {
+			engine.tick();
+		}
+		System.out.println("Simulated " + days + " day(s) in " + (System.currentTimeMillis() - start) + " ms.");
+		System.out.println("Knowledge database: " + DSFactory.getNumberOfRequests() + " connection requests, mean wait "
+				+ DSFactory.getMeanWaitTime() + " ms, max wait " + DSFactory.getMaxWaitTime() + " ms.");
+		engine.shutdown();
+		simulator.finish();
+	}
+}
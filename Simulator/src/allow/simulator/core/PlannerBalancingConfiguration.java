@@ -0,0 +1,102 @@
+package allow.simulator.core;
+
+import allow.simulator.mobility.planner.PlannerLoadBalancer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration of distributing requests among planner service instances
+ * (see PlannerLoadBalancer).
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class PlannerBalancingConfiguration {
+	
+	// Policy to choose planner instances.
+	private PlannerLoadBalancer.Policy policy;
+	
+	// Number of consecutive failures after which an instance is removed.
+	private int failureThreshold;
+	
+	// Time an instance is removed for in milliseconds.
+	private long openTime;
+	
+	// Percentile of latencies after which requests are hedged, 0 if disabled.
+	private double hedgePercentile;
+	
+	// Number of instances a request is sent to before it fails.
+	private int attempts;
+	
+	/**
+	 * Constructor.
+	 * Creates a new configuration of distributing requests among planner
+	 * service instances.
+	 * 
+	 * @param policy Policy to choose planner instances (optional).
+	 * @param failureThreshold Number of consecutive failures after which an instance is removed (optional).
+	 * @param openTime Time an instance is removed for in milliseconds (optional).
+	 * @param hedgePercentile Percentile of latencies after which requests are hedged (optional).
+	 * @param attempts Number of instances a request is sent to before it fails (optional).
+	 */
+	@JsonCreator
+	public PlannerBalancingConfiguration(@JsonProperty("policy") PlannerLoadBalancer.Policy policy,
+			@JsonProperty("failurethreshold") Integer failureThreshold,
+			@JsonProperty("opentime") Long openTime,
+			@JsonProperty("hedgepercentile") Double hedgePercentile,
+			@JsonProperty("attempts") Integer attempts) {
+		this.policy = (policy != null) ? policy : PlannerLoadBalancer.Policy.REQUEST_ID;
+		this.failureThreshold = (failureThreshold != null) ? failureThreshold : PlannerLoadBalancer.DEFAULT_FAILURE_THRESHOLD;
+		this.openTime = (openTime != null) ? openTime : PlannerLoadBalancer.DEFAULT_OPEN_TIME;
+		this.hedgePercentile = (hedgePercentile != null) ? hedgePercentile : 0.0;
+		this.attempts = (attempts != null) ? attempts : PlannerLoadBalancer.DEFAULT_ATTEMPTS;
+	}
+	
+	/**
+	 * Returns the policy to choose planner instances.
+	 * 
+	 * @return Policy to choose planner instances.
+	 */
+	public PlannerLoadBalancer.Policy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Returns the number of consecutive failures after which an instance is
+	 * removed.
+	 * 
+	 * @return Number of consecutive failures after which an instance is removed.
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+	
+	/**
+	 * Returns the time an instance is removed for.
+	 * 
+	 * @return Time an instance is removed for in milliseconds.
+	 */
+	public long getOpenTime() {
+		return openTime;
+	}
+	
+	/**
+	 * Returns the percentile of latencies after which requests are hedged.
+	 * 
+	 * @return Percentile of latencies after which requests are hedged or 0 if
+	 * requests are not hedged.
+	 */
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+	
+	/**
+	 * Returns the number of instances a request is sent to before it fails.
+	 * 
+	 * @return Number of instances a request is sent to before it fails.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+}
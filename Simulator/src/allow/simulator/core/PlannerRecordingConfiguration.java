@@ -0,0 +1,83 @@
+package allow.simulator.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration of recording planner requests and responses to a file or
+ * replaying them from a file instead of querying planner services.
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class PlannerRecordingConfiguration {
+	
+	/**
+	 * Mode of recording.
+	 */
+	public enum Mode {
+		
+		/**
+		 * Planner services are queried and requests and responses are recorded.
+		 */
+		RECORD,
+		
+		/**
+		 * Recorded responses are replayed, planner services are not queried.
+		 */
+		REPLAY
+	}
+	
+	// Mode of recording.
+	private Mode mode;
+	
+	// Path to file to record to or replay from.
+	private String file;
+	
+	// Latency added to replayed requests in milliseconds.
+	private long latency;
+	
+	/**
+	 * Constructor.
+	 * Creates a new configuration of recording or replaying planner requests.
+	 * 
+	 * @param mode Mode of recording.
+	 * @param file Path to file to record to or replay from.
+	 * @param latency Latency added to replayed requests in milliseconds (optional).
+	 */
+	@JsonCreator
+	public PlannerRecordingConfiguration(@JsonProperty("mode") Mode mode,
+			@JsonProperty("file") String file,
+			@JsonProperty("latency") Long latency) {
+		this.mode = mode;
+		this.file = file;
+		this.latency = (latency != null) ? latency : 0;
+	}
+	
+	/**
+	 * Returns the mode of recording.
+	 * 
+	 * @return Mode of recording.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * Returns the path to the file to record to or replay from.
+	 * 
+	 * @return Path to file to record to or replay from.
+	 */
+	public String getFile() {
+		return file;
+	}
+	
+	/**
+	 * Returns the latency added to replayed requests.
+	 * 
+	 * @return Latency added to replayed requests in milliseconds.
+	 */
+	public long getLatency() {
+		return latency;
+	}
+}
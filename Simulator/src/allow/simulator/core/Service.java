@@ -21,17 +21,26 @@ public class Service {
 	 */
 	private int port;
 	
+	/**
+	 * Maximum number of outstanding asynchronous requests (optional).
+	 */
+	private int maxOutstandingRequests;
+	
 	/**
 	 * Constructor.
 	 * Creates a new service description specifying URL and port.
 	 * 
 	 * @param url URL of service.
 	 * @param port Port to use.
+	 * @param maxOutstandingRequests Maximum number of outstanding asynchronous
+	 * requests (optional).
 	 */
 	@JsonCreator
-	public Service(@JsonProperty("url") String url, @JsonProperty("port") int port) {
+	public Service(@JsonProperty("url") String url, @JsonProperty("port") int port,
+			@JsonProperty("maxOutstandingRequests") Integer maxOutstandingRequests) {
 		this.url = url;
 		this.port = port;
+		this.maxOutstandingRequests = (maxOutstandingRequests != null) ? maxOutstandingRequests : 0;
 	}
 	
 	
@@ -62,4 +71,14 @@ public class Service {
 	public int getPort() {
 		return port;
 	}
+	
+	/**
+	 * Returns the maximum number of asynchronous requests which may be sent to
+	 * the service without having been answered, or 0 if not specified.
+	 * 
+	 * @return Maximum number of outstanding requests or 0 if not specified.
+	 */
+	public int getMaxOutstandingRequests() {
+		return maxOutstandingRequests;
+	}
 }
@@ -12,4 +12,6 @@ public final class SimulationParameter {
 	
 	public int GridResY;
 	
+	public long Seed;
+	
 }
@@ -17,6 +17,7 @@ import allow.simulator.entity.EntityTypes;
 import allow.simulator.entity.Person;
 import allow.simulator.entity.PlanGenerator;
 import allow.simulator.knowledge.EvoKnowledge;
+import allow.simulator.knowledge.crf.DBConnector;
 import allow.simulator.mobility.data.IDataService;
 import allow.simulator.mobility.data.MobilityRepository;
 import allow.simulator.mobility.data.OfflineDataService;
@@ -24,8 +25,15 @@ import allow.simulator.mobility.data.OnlineDataService;
 import allow.simulator.mobility.data.TransportationRepository;
 import allow.simulator.mobility.planner.BikeRentalPlanner;
 import allow.simulator.mobility.planner.FlexiBusPlanner;
+import allow.simulator.mobility.planner.IPlannerService;
 import allow.simulator.mobility.planner.JourneyPlanner;
 import allow.simulator.mobility.planner.OTPPlannerService;
+import allow.simulator.mobility.planner.PlanCache;
+import allow.simulator.mobility.planner.PlannerLoadBalancer;
+import allow.simulator.mobility.planner.RecordingPlannerService;
+import allow.simulator.mobility.planner.ReplayPlannerService;
+import allow.simulator.mobility.planner.StreetMapPlanner;
+import allow.simulator.mobility.planner.TType;
 import allow.simulator.mobility.planner.TaxiPlanner;
 import allow.simulator.statistics.Statistics;
 import allow.simulator.util.Coordinate;
@@ -57,6 +65,15 @@ public final class Simulator {
 	// Threadpool for executing multiple tasks in parallel
 	private ExecutorService threadpool;
 	
+	// Recording of planner requests (optional)
+	private RecordingPlannerService.Recording plannerRecording;
+	
+	// Balancer distributing requests among planner instances (optional)
+	private PlannerLoadBalancer plannerBalancer;
+	
+	// Print statistics of plan cache and balancer once per day
+	private boolean reportPlannerStatistics;
+	
 	public static final String OVERLAY_DISTRICTS = "partitioning";
 	public static final String OVERLAY_RASTER = "raster";
 
@@ -66,6 +83,7 @@ public final class Simulator {
 	 */
 	public void setup(Configuration config, SimulationParameter params) throws IOException {
 		threadpool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+		reportPlannerStatistics = config.reportPlannerStatistics();
 
 		// Setup world.
 		System.out.println("Loading world...");
@@ -103,13 +121,42 @@ public final class Simulator {
 				
 		// Create planner services.
 		System.out.println("Creating planner services...");
-		List<OTPPlannerService> plannerServices = new ArrayList<OTPPlannerService>();
+		List<IPlannerService> plannerServices = new ArrayList<IPlannerService>();
 		List<Service> plannerConfigs = config.getPlannerServiceConfiguration();
+		PlannerRecordingConfiguration recordingConfig = config.getPlannerRecordingConfiguration();
 		
-		for (int i = 0; i < plannerConfigs.size(); i++) {
-			Service plannerConfig = plannerConfigs.get(i);
-			plannerServices.add(new OTPPlannerService(plannerConfig.getURL(), plannerConfig.getPort(), world, dataServices.get(0), time));
-		}		
+		if ((recordingConfig != null) && (recordingConfig.getMode() == PlannerRecordingConfiguration.Mode.REPLAY)) {
+			// Replay recorded responses instead of querying planner services
+			plannerServices.add(new ReplayPlannerService(Paths.get(recordingConfig.getFile()), world, recordingConfig.getLatency()));
+			
+		} else {
+			
+			if (recordingConfig != null)
+				plannerRecording = new RecordingPlannerService.Recording(Paths.get(recordingConfig.getFile()));
+			
+			for (int i = 0; i < plannerConfigs.size(); i++) {
+				Service plannerConfig = plannerConfigs.get(i);
+				int maxOutstandingRequests = (plannerConfig.getMaxOutstandingRequests() > 0) ? plannerConfig.getMaxOutstandingRequests()
+						: OTPPlannerService.DEFAULT_MAX_OUTSTANDING_REQUESTS;
+				IPlannerService plannerService = new OTPPlannerService(plannerConfig.getURL(), plannerConfig.getPort(), world, dataServices.get(0), time,
+						maxOutstandingRequests);
+				plannerServices.add((plannerRecording != null) ? new RecordingPlannerService(plannerService, plannerRecording) : plannerService);
+			}
+			PlannerBalancingConfiguration balancingConfig = config.getPlannerBalancingConfiguration();
+			
+			// Recorded instances are queried synchronously and cannot be balanced
+			if ((balancingConfig != null) && (plannerRecording == null)) {
+				List<OTPPlannerService> instances = new ArrayList<OTPPlannerService>(plannerServices.size());
+				
+				for (IPlannerService plannerService : plannerServices) {
+					instances.add((OTPPlannerService) plannerService);
+				}
+				plannerBalancer = new PlannerLoadBalancer(instances, balancingConfig.getPolicy(), balancingConfig.getFailureThreshold(),
+						balancingConfig.getOpenTime(), balancingConfig.getHedgePercentile(), balancingConfig.getAttempts());
+				plannerServices.clear();
+				plannerServices.add(plannerBalancer);
+			}
+		}
 		
 		// Create taxi planner service
 		Coordinate taxiRank = new Coordinate(11.1198448, 46.0719489);
@@ -121,8 +168,32 @@ public final class Simulator {
 		System.out.println("Loading weather model...");
 		Weather weather = new Weather(config.getWeatherPath(), time);
 		
+		// Create FlexiBus planner service
+		Coordinate flexiBusDepot = new Coordinate(11.1198448, 46.0719489);
+		FlexiBusPlanner flexiBusPlanner = new FlexiBusPlanner(flexiBusDepot,
+				FlexiBusPlanner.DEFAULT_NUMBER_OF_VEHICLES, FlexiBusPlanner.DEFAULT_CAPACITY);
+		
 		JourneyPlanner planner = new JourneyPlanner(plannerServices, taxiPlannerService,
-				bikeRentalPlanner, new FlexiBusPlanner(), threadpool);
+				bikeRentalPlanner, flexiBusPlanner, threadpool);
+		
+		// Route configured modes on the street map instead of querying planner services
+		if (config.getLocalRoutingModes().size() > 0) {
+			System.out.println("Creating local street map planner...");
+			StreetMapPlanner localPlanner = new StreetMapPlanner(world, time);
+			
+			for (TType mode : config.getLocalRoutingModes()) {
+				
+				if (!StreetMapPlanner.supportsMode(mode))
+					throw new IllegalArgumentException("Error: Local routing does not support transport type " + mode);
+				planner.setPlannerService(mode, localPlanner);
+			}
+		}
+		
+		if (config.getPlanCacheSize() > 0)
+			planner.setPlanCache(new PlanCache(world, dataServices.get(0), config.getPlanCacheSize(), PlanCache.DEFAULT_BUCKET_SIZE));
+		
+		if (config.getMaxConcurrentJourneys() > 0)
+			planner.setMaxConcurrentJourneys(config.getMaxConcurrentJourneys());
 		
 		// Create global context from world, time, planner and data services, and weather.
 		context = new Context(world, new EntityManager(), time, planner, 
@@ -193,6 +264,12 @@ public final class Simulator {
 				PlanGenerator.generateDayPlan((Person) p);
 				p.getRelations().resetBlackList();
 			}
+			
+			if (reportPlannerStatistics && (context.getJourneyPlanner().getPlanCache() != null))
+				System.out.println(context.getJourneyPlanner().getPlanCache());
+			
+			if (reportPlannerStatistics && (plannerBalancer != null))
+				System.out.println(plannerBalancer);
 		}
 		
 		if (context.getTime().getCurrentTime().getHour() == 3
@@ -216,6 +293,7 @@ public final class Simulator {
 	}
 	
 	public void finish() {
+		// Let worker tasks finish before closing their database connections.
 		threadpool.shutdown();
 
 		try {
@@ -224,5 +302,11 @@ public final class Simulator {
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		
+		// Merges experiences still pending in the write-behind queue.
+		DBConnector.shutdown();
+		
+		if (plannerRecording != null)
+			plannerRecording.close();
 	}
 }
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import allow.simulator.core.Context;
 import allow.simulator.flow.activity.transportagency.StartNextTrips;
@@ -20,6 +21,7 @@ public final class BusAgency extends TransportationAgency {
 	private final List<PublicTransportationTrip> nextTrips;
 	
 	// "Live" information about current trips and vehicles executing trips
+	// (trips are finished concurrently by vehicles during parallel ticks)
 	protected final Map<String, TransportationEntity> currentlyUsedVehicles;
 	
 	public BusAgency(long id, Context context, String agencyId) {
@@ -29,7 +31,7 @@ public final class BusAgency extends TransportationAgency {
 		
 		// Start scheduling next trips.
 		flow.addActivity(new StartNextTrips(this));
-		currentlyUsedVehicles = new HashMap<String, TransportationEntity>();
+		currentlyUsedVehicles = new ConcurrentHashMap<String, TransportationEntity>();
 	}
 
 	/**
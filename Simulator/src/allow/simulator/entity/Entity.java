@@ -11,6 +11,7 @@ import allow.simulator.knowledge.Knowledge;
 import allow.simulator.knowledge.Experience;
 import allow.simulator.relation.RelationGraph;
 import allow.simulator.util.Coordinate;
+import allow.simulator.util.RandomStream;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -44,6 +45,14 @@ public abstract class Entity extends Observable {
 	@JsonIgnore
 	protected Coordinate position;
 	
+	// Random stream of the entity derived from the simulation seed
+	@JsonIgnore
+	private RandomStream random;
+	
+	// Number of journey requests issued by the entity
+	@JsonIgnore
+	private long requestSequence;
+	
 	/**
 	 * Creates a new entity with in a given simulation context. Knowledge and
 	 * relations are newly initialized.
@@ -154,6 +163,35 @@ public abstract class Entity extends Observable {
 	 */
 	public void setContext(Context context) {
 		this.context = context;
+		random = null;
+	}
+	
+	/**
+	 * Returns the stream of random numbers of this entity. The stream is
+	 * derived from the seed of the simulation and the id of the entity such
+	 * that random decisions do not depend on the order entities are executed.
+	 * Entity must have been assigned to a simulation context before.
+	 * 
+	 * @return Random stream of this entity.
+	 */
+	@JsonIgnore
+	public RandomStream getRandom() {
+		
+		if (random == null) {
+			random = RandomStream.forEntity(context.getSimulationParameters().Seed, id);
+		}
+		return random;
+	}
+	
+	/**
+	 * Returns the sequence number of the next journey request of this
+	 * entity. Request ids are derived from entity id and sequence number,
+	 * hence they do not depend on the order entities are executed.
+	 * 
+	 * @return Sequence number of the next journey request.
+	 */
+	public long nextRequestSequence() {
+		return requestSequence++;
 	}
 	
 	/**
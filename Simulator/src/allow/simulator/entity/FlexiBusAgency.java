@@ -1,13 +1,19 @@
 package allow.simulator.entity;
 
+import java.util.List;
+
 import allow.simulator.core.Context;
 import allow.simulator.flow.activity.flexibusagency.StartNextTrips;
+import allow.simulator.mobility.data.Trip;
 import allow.simulator.mobility.planner.FlexiBusPlanner;
 
 public class FlexiBusAgency extends TransportationAgency {
 	// Planner instance is required to poll trips to schedule. 
 	private FlexiBusPlanner planner;
 	
+	// Number of trips started by the agency.
+	private long startedTrips;
+	
 	public FlexiBusAgency(long id, Context context, String agencyId) {
 		super(id, context, agencyId);
 		planner = (FlexiBusPlanner) context.getJourneyPlanner().getFlexiBusPlannerService();
@@ -22,6 +28,25 @@ public class FlexiBusAgency extends TransportationAgency {
 		this.planner = planner;
 	}
 	
+	/**
+	 * Starts trips polled from the planner. FlexiBus vehicles are not
+	 * simulated as entities yet, hence trips are counted only.
+	 * 
+	 * @param trips Trips ready to depart.
+	 */
+	public void startTrips(List<Trip> trips) {
+		startedTrips += trips.size();
+	}
+	
+	/**
+	 * Returns the number of trips started by the agency.
+	 * 
+	 * @return Number of started trips.
+	 */
+	public long getNumberOfStartedTrips() {
+		return startedTrips;
+	}
+	
 	@Override
 	public boolean isActive() {
 		return false;
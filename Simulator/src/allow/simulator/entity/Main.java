@@ -154,10 +154,13 @@ public class Main {
 		DayOfWeek.SUNDAY.getValue()
 	};
 		
+	// Number of requests sent to validate parameters.
+	private static long validationRequests = 0;
+	
 	private static boolean validateParameters(IPlannerService planner, TravelEvent event, boolean hasCar, boolean hasBike, StreetMap map) {
 		//List<Itinerary> it = new ArrayList<Itinerary>();
 		LocalDate date = LocalDate.of(2014, 8, 25);
-		RequestId reqId = new RequestId();
+		RequestId reqId = new RequestId(0, validationRequests++);
 		
 		// Request transit journeys.
 		JourneyRequest s = JourneyRequest.createRequest(event.getStartingPoint(), event.getDestination(), LocalDateTime.of(date, event.getTime()),
@@ -3,7 +3,6 @@ package allow.simulator.entity;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ThreadLocalRandom;
 
 import allow.simulator.core.Simulator;
 import allow.simulator.flow.activity.Activity;
@@ -12,6 +11,7 @@ import allow.simulator.flow.activity.person.RegisterToFlexiBus;
 import allow.simulator.util.Coordinate;
 import allow.simulator.util.Geometry;
 import allow.simulator.util.Pair;
+import allow.simulator.util.RandomStream;
 import allow.simulator.world.StreetNode;
 import allow.simulator.world.overlay.Area;
 import allow.simulator.world.overlay.DistrictOverlay;
@@ -135,11 +135,11 @@ public class PlanGenerator {
 		TravelEvent workToHome = routine.get(1);
 
 		if (workToHome.getHour() < 16) {
-			int rand = ThreadLocalRandom.current().nextInt(100);
+			int rand = person.getRandom().nextInt(100);
 			
 			if (rand < 10) {
 				// Intermediate journey then home (home - work - destination - work - home).
-				Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+				Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 				schedule.add(new Pair<LocalTime, Activity>(
 								workToHome.getTime(), new PlanJourney(person,
 										workToHome.getStartingPoint(), dest)));
@@ -160,7 +160,7 @@ public class PlanGenerator {
 										workToHome.getStartingPoint(), workToHome
 												.getDestination())));
 
-						Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+						Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 						LocalTime toDest = workToHome.getTime();
 						schedule.add(new Pair<LocalTime, Activity>(toDest,
 								new PlanJourney(person, workToHome.getDestination(),
@@ -172,7 +172,7 @@ public class PlanGenerator {
 
 			} else if (rand < 50) {
 				// Triangular (home - work - destination - home).
-				Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+				Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 				schedule.add(new Pair<LocalTime, Activity>(
 						workToHome.getTime(), new PlanJourney(person,
 						workToHome.getStartingPoint(), dest)));
@@ -218,11 +218,11 @@ public class PlanGenerator {
 		TravelEvent workToHome = routine.get(1);
 
 		if (workToHome.getHour() < 16) {
-			int rand = ThreadLocalRandom.current().nextInt(100);
+			int rand = person.getRandom().nextInt(100);
 			if (rand < 10) {
 				// Intermediate journey then home (home - work - destination -
 				// work - home).
-				Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+				Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 				schedule.add(new Pair<LocalTime, Activity>(
 						workToHome.getTime(), new PlanJourney(person,
 								workToHome.getStartingPoint(), dest)));
@@ -244,7 +244,7 @@ public class PlanGenerator {
 								workToHome.getStartingPoint(), workToHome
 										.getDestination())));
 
-				Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+				Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 				LocalTime toDest = workToHome.getTime();
 				schedule.add(new Pair<LocalTime, Activity>(toDest,
 						new PlanJourney(person, workToHome.getDestination(),
@@ -256,7 +256,7 @@ public class PlanGenerator {
 
 			} else if (rand < 45) {
 				// Triangular (home - work - destination - home).
-				Coordinate dest = newLocation(partitioning, PROP_DEST_STUDENT);
+				Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_STUDENT);
 				schedule.add(new Pair<LocalTime, Activity>(
 						workToHome.getTime(), new PlanJourney(person,
 								workToHome.getStartingPoint(), dest)));
@@ -294,11 +294,11 @@ public class PlanGenerator {
 
 		// 2. From work back home.
 		TravelEvent workToHome = routine.get(1);
-		int rand = ThreadLocalRandom.current().nextInt(100);
+		int rand = person.getRandom().nextInt(100);
 		
 		if (rand < 10) {
 			// Intermediate journey then home (home - work - destination - work - home).
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			schedule.add(new Pair<LocalTime, Activity>(workToHome.getTime(),
 				new PlanJourney(person, workToHome.getStartingPoint(), dest)));
 
@@ -314,7 +314,7 @@ public class PlanGenerator {
 			schedule.add(new Pair<LocalTime, Activity>(workToHome.getTime(),
 				new PlanJourney(person, workToHome.getStartingPoint(), workToHome.getDestination())));
 
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			LocalTime toDest = workToHome.getTime();
 			schedule.add(new Pair<LocalTime, Activity>(toDest,
 					new PlanJourney(person, workToHome.getDestination(), dest)));
@@ -324,7 +324,7 @@ public class PlanGenerator {
 
 		} else if (rand < 45) {
 			// Triangular (home - work - destination - home).
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			schedule.add(new Pair<LocalTime, Activity>(workToHome.getTime(),
 					new PlanJourney(person, workToHome.getStartingPoint(), dest)));
 
@@ -351,11 +351,11 @@ public class PlanGenerator {
 
 		TravelEvent workToHome = routine.get(1);
 
-		int rand = ThreadLocalRandom.current().nextInt(100);
+		int rand = person.getRandom().nextInt(100);
 		if (rand < 10) {
 			// Intermediate journey then home (home - work - destination - work
 			// - home).
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			schedule.add(new Pair<LocalTime, Activity>(
 					workToHome.getTime(),
 					new PlanJourney(person, workToHome.getStartingPoint(), dest)));
@@ -375,7 +375,7 @@ public class PlanGenerator {
 					new PlanJourney(person, workToHome.getStartingPoint(),
 							workToHome.getDestination())));
 
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			LocalTime toDest = workToHome.getTime();
 			schedule.add(new Pair<LocalTime, Activity>(toDest, new PlanJourney(
 					person, workToHome.getDestination(), dest)));
@@ -385,7 +385,7 @@ public class PlanGenerator {
 
 		} else if (rand < 45) {
 			// Triangular (home - work - destination - home).
-			Coordinate dest = newLocation(partitioning, PROP_DEST_WORKER);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_WORKER);
 			schedule.add(new Pair<LocalTime, Activity>(
 					workToHome.getTime(),
 					new PlanJourney(person, workToHome.getStartingPoint(), dest)));
@@ -409,40 +409,40 @@ public class PlanGenerator {
 		Queue<Pair<LocalTime, Activity>> schedule = person.getScheduleQueue();
 
 		// Journey in the morning?
-		int rand = ThreadLocalRandom.current().nextInt(100);
+		int rand = person.getRandom().nextInt(100);
 		if (rand < 50) {
 			// Random destination.
-			Coordinate dest = newLocation(partitioning, PROP_DEST_HOMEMAKER);
-			LocalTime tStart = gaussianPointInTime(600, 30);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_HOMEMAKER);
+			LocalTime tStart = gaussianPointInTime(person.getRandom(), 600, 30);
 
 			schedule.add(new Pair<LocalTime, Activity>(tStart, new PlanJourney(
 					person, person.getHome(), dest)));
 
 			schedule.add(new Pair<LocalTime, Activity>(
-					tStart.plusMinutes(ThreadLocalRandom.current().nextInt(120,
+					tStart.plusMinutes(person.getRandom().nextInt(120,
 							180)), new PlanJourney(person, dest, person
 							.getHome())));
 		}
 
 		// Journey in the afternoon?
-		rand = ThreadLocalRandom.current().nextInt(100);
+		rand = person.getRandom().nextInt(100);
 		if (rand < 50) {
 			// Random destination.
-			Coordinate dest = newLocation(partitioning, PROP_DEST_HOMEMAKER);
-			LocalTime tStart = gaussianPointInTime(960, 30);
+			Coordinate dest = newLocation(person.getRandom(), partitioning, PROP_DEST_HOMEMAKER);
+			LocalTime tStart = gaussianPointInTime(person.getRandom(), 960, 30);
 
 			schedule.add(new Pair<LocalTime, Activity>(tStart, new PlanJourney(
 					person, person.getHome(), dest)));
 
 			schedule.add(new Pair<LocalTime, Activity>(
-					tStart.plusMinutes(ThreadLocalRandom.current().nextInt(120,
+					tStart.plusMinutes(person.getRandom().nextInt(120,
 							180)), new PlanJourney(person, dest, person
 							.getHome())));
 		}
 	}
 
-	private static Coordinate newLocation(DistrictOverlay l, int distribution[]) {
-		int r1 = ThreadLocalRandom.current().nextInt(100);
+	private static Coordinate newLocation(RandomStream random, DistrictOverlay l, int distribution[]) {
+		int r1 = random.nextInt(100);
 		DistrictType types[] = DistrictType.values();
 		DistrictType t = types[0];
 		int acc = 0;
@@ -456,15 +456,15 @@ public class PlanGenerator {
 			}
 		}
 		List<Area> possibleAreas = l.getAreasOfType(t);
-		Area a = possibleAreas.get(ThreadLocalRandom.current().nextInt(
+		Area a = possibleAreas.get(random.nextInt(
 				possibleAreas.size()));
 		List<StreetNode> temp = l.getPointsInArea(a);
-		return temp.get(ThreadLocalRandom.current().nextInt(temp.size()))
+		return temp.get(random.nextInt(temp.size()))
 				.getPosition();
 	}
 
-	private static LocalTime gaussianPointInTime(double mean, double std) {
-		int t = (int) ((ThreadLocalRandom.current().nextGaussian() * std) + mean);
+	private static LocalTime gaussianPointInTime(RandomStream random, double mean, double std) {
+		int t = (int) ((random.nextGaussian() * std) + mean);
 		int hour = t / 60;
 		return LocalTime.of(hour, t - hour * 60);
 	}
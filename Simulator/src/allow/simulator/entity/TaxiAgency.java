@@ -1,16 +1,29 @@
 package allow.simulator.entity;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import allow.simulator.core.Context;
 import allow.simulator.flow.activity.taxi.PrepareTaxiTrip;
+import allow.simulator.flow.activity.transportagency.DispatchTaxis;
 import allow.simulator.mobility.data.TaxiStop;
 import allow.simulator.mobility.data.TaxiTrip;
+import allow.simulator.mobility.planner.ITaxiLocator;
+import allow.simulator.mobility.planner.Itinerary;
+import allow.simulator.mobility.planner.JourneyPlanner;
+import allow.simulator.mobility.planner.JourneyRequest;
 import allow.simulator.mobility.planner.TaxiPlanner;
 import allow.simulator.util.Coordinate;
+import allow.simulator.util.Pair;
 
-public final class TaxiAgency extends TransportationAgency {
+public final class TaxiAgency extends TransportationAgency implements ITaxiLocator {
 	// Collection of trips which have been requested and are being executed
 	private final Map<String, TaxiTrip> currentTrips;
 	
@@ -20,12 +33,38 @@ public final class TaxiAgency extends TransportationAgency {
 	// Taxi stop mapping for active taxi trips
 	private final Map<String, TaxiStop> taxiStops;
 	
+	// Dispatcher assigning requested trips to idle taxis
+	private final TaxiDispatcher dispatcher;
+	
+	// Trips assigned to taxis whose leg to the pickup point is being planned
+	private final List<Approach> approaches;
+	
+	/**
+	 * Trip assigned to a taxi waiting for the leg to its pickup point.
+	 */
+	private static final class Approach {
+		private final TaxiTrip trip;
+		private final Taxi taxi;
+		private final Future<List<Itinerary>> itineraries;
+		
+		public Approach(TaxiTrip trip, Taxi taxi, Future<List<Itinerary>> itineraries) {
+			this.trip = trip;
+			this.taxi = taxi;
+			this.itineraries = itineraries;
+		}
+	}
+	
 	public TaxiAgency(long id, Context context, String agencyId) {
 		super(id, context, agencyId);
 		position = new Coordinate(11.119714, 46.071988);
 		currentTrips = new HashMap<String, TaxiTrip>();
 		currentlyUsedVehicles = new HashMap<String, Taxi>();
 		taxiStops = new HashMap<String, TaxiStop>();
+		dispatcher = new TaxiDispatcher();
+		approaches = new LinkedList<Approach>();
+		
+		// Start dispatching requested trips.
+		flow.addActivity(new DispatchTaxis(this));
 	}
 
 	@Override
@@ -33,44 +72,116 @@ public final class TaxiAgency extends TransportationAgency {
 		return false;
 	}
 
-	public Taxi scheduleTrip(TaxiTrip taxiTrip) {
-		// Poll next free transportation entity
-		Taxi taxi = (Taxi) vehicles.poll();
+	/**
+	 * Assigns the trips requested since the last call to idle taxis closest
+	 * to their start and starts the trips. Trips assigned to another taxi
+	 * than the one they have been planned for drive to the pickup point from
+	 * the position of the assigned taxi. The leg to the pickup point is
+	 * requested from the journey planner without blocking and the trip is
+	 * started by the first call after it has been planned. Trips for which no
+	 * taxi is idle are assigned by a later call.
+	 */
+	public synchronized void dispatch() {
+		List<Pair<TaxiTrip, Taxi>> assignments = dispatcher.dispatch();
 		
-		if (taxi == null)
-			throw new IllegalStateException("Error: No taxi left to schedule trip " + taxiTrip.getTripId());
-		currentlyUsedVehicles.put(taxiTrip.getTripId(), taxi);
-		currentTrips.put(taxiTrip.getTripId(), taxiTrip);
-
-		for (TaxiStop stop : taxiTrip.getTaxiStops()) {
-			taxiStops.put(stop.getStopId(), stop);
+		if ((assignments.size() == 0) && (approaches.size() == 0))
+			return;
+		JourneyPlanner planner = context.getJourneyPlanner();
+		TaxiPlanner service = planner.getTaxiPlannerService();
+		
+		for (Pair<TaxiTrip, Taxi> assignment : assignments) {
+			Taxi taxi = assignment.second;
+			JourneyRequest req = service.createApproachRequest(assignment.first, taxi.getPosition(), context.getTime().getCurrentDateTime());
+			
+			if (req == null) {
+				startTrip(assignment.first, taxi);
+				continue;
+			}
+			List<Itinerary> buffer = new ArrayList<Itinerary>(1);
+			approaches.add(new Approach(assignment.first, taxi, planner.requestSingleJourney(Collections.singletonList(req), buffer)));
 		}
-		return taxi;
+		
+		// Start trips whose leg to the pickup point has been planned in order of assignment
+		Iterator<Approach> it = approaches.iterator();
+		
+		while (it.hasNext()) {
+			Approach approach = it.next();
+			
+			if (!approach.itineraries.isDone())
+				continue;
+			it.remove();
+			List<Itinerary> its = Collections.emptyList();
+			
+			try {
+				its = approach.itineraries.get();
+				
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+			startTrip(service.replanApproach(approach.trip, approach.taxi.getPosition(), its), approach.taxi);
+		}
+	}
+	
+	private void startTrip(TaxiTrip trip, Taxi taxi) {
+		currentTrips.put(trip.getTripId(), trip);
+		currentlyUsedVehicles.put(trip.getTripId(), taxi);
+		taxi.getFlow().addActivity(new PrepareTaxiTrip(taxi, trip));
 	}
 	
-	public void finishTrip(String tripId, Taxi taxi) {
+	public synchronized void finishTrip(String tripId, Taxi taxi) {
 		currentlyUsedVehicles.remove(tripId);
 		TaxiTrip trip = currentTrips.remove(tripId);
 		
 		for (TaxiStop stop : trip.getTaxiStops()) {
 			taxiStops.remove(stop.getStopId());
 		}
-		vehicles.add(taxi);
+		
+		// Taxi waits for its next trip where it dropped off the last passenger
+		dispatcher.addIdleTaxi(taxi);
 	}
 	
-	public Taxi call(String tripId) {
-		// If trip has already been scheduled (shared taxi) return assigend taxi instance
+	/**
+	 * Requests a planned trip to be executed. The trip is assigned to a taxi
+	 * by the next dispatch, its stops are available immediately. Requesting
+	 * a trip which has already been requested (shared taxi) has no effect.
+	 * 
+	 * @param tripId Id of the planned trip.
+	 */
+	public synchronized void call(String tripId) {
+		// If trip has already been requested (shared taxi) it is executed by the same taxi
 		if (currentTrips.containsKey(tripId))
-			return currentlyUsedVehicles.get(tripId);
+			return;
 		
 		TaxiPlanner service = context.getJourneyPlanner().getTaxiPlannerService();
-		TaxiTrip trip = service.getTaxiTrip(tripId);	
-		Taxi t = scheduleTrip(trip);
-		t.getFlow().addActivity(new PrepareTaxiTrip(t, trip));	
-		return t;
+		TaxiTrip trip = service.getTaxiTrip(tripId);
+		
+		if (trip == null)
+			throw new IllegalStateException("Error: Unknown taxi trip " + tripId);
+		currentTrips.put(tripId, trip);
+
+		for (TaxiStop stop : trip.getTaxiStops()) {
+			taxiStops.put(stop.getStopId(), stop);
+		}
+		dispatcher.addRequest(trip);
+	}
+	
+	@Override
+	public synchronized Coordinate getTaxiPosition(Coordinate pickup) {
+		return dispatcher.getClosestIdleTaxi(pickup);
+	}
+	
+	/**
+	 * Returns the taxi executing a trip.
+	 * 
+	 * @param tripId Id of the trip.
+	 * @return Taxi executing the trip or null if the trip has not been
+	 * assigned to a taxi yet.
+	 */
+	public synchronized Taxi getTaxi(String tripId) {
+		return currentlyUsedVehicles.get(tripId);
 	}
 	
-	public TaxiStop getTaxiStop(String stopId) {
+	public synchronized TaxiStop getTaxiStop(String stopId) {
 		return taxiStops.get(stopId);
 	}
 	
@@ -79,7 +190,7 @@ public final class TaxiAgency extends TransportationAgency {
 		service.getTaxiTrip(tripId);
 	}
 	
-	public TaxiTrip getTripInformation(String tripId) {
+	public synchronized TaxiTrip getTripInformation(String tripId) {
 		return currentTrips.get(tripId);
 	}
 	
@@ -88,8 +199,10 @@ public final class TaxiAgency extends TransportationAgency {
 	 * 
 	 * @param transportation Taxi entity to be added to the agency
 	 */
-	public void addTaxi(Taxi transportation) {
+	public synchronized void addTaxi(Taxi transportation) {
+		transportation.setPosition(position);
 		vehicles.add(transportation);
+		dispatcher.addIdleTaxi(transportation);
 	}
 	
 	@Override
@@ -0,0 +1,329 @@
+package allow.simulator.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import allow.simulator.mobility.data.TaxiTrip;
+import allow.simulator.util.Coordinate;
+import allow.simulator.util.Pair;
+
+/**
+ * Assigns requested taxi trips to idle taxis. Idle taxis are kept in a grid
+ * of cells by their position. Requests are collected and assigned in a batch
+ * once per tick: the closest idle taxis around the start of each trip are
+ * candidates for the request, and candidate pairs of all requests are
+ * matched greedily in order of their distance.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class TaxiDispatcher {
+	// Size of grid cells in degrees (about 500 m)
+	private static final double CELL_SIZE = 0.005;
+
+	// Maximum number of rings of cells searched around a position
+	private static final int MAX_SEARCH_RINGS = 20;
+
+	// Number of candidate taxis per request
+	private static final int CANDIDATES = 8;
+
+	// Radius of the earth in meters
+	private static final double EARTH_RADIUS = 6371000.0;
+
+	/**
+	 * Idle taxi and the cell it is waiting in.
+	 */
+	private static final class IdleTaxi {
+		private final Taxi taxi;
+		private final Coordinate position;
+		private final long cell;
+
+		public IdleTaxi(Taxi taxi, Coordinate position, long cell) {
+			this.taxi = taxi;
+			this.position = position;
+			this.cell = cell;
+		}
+	}
+
+	/**
+	 * Trip waiting for a taxi.
+	 */
+	private static final class Request {
+		private final TaxiTrip trip;
+		private final Coordinate start;
+		private boolean assigned;
+
+		public Request(TaxiTrip trip, Coordinate start) {
+			this.trip = trip;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * Candidate pair of a request and an idle taxi.
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+		private final Request request;
+		private final IdleTaxi taxi;
+		private final double distance;
+
+		public Candidate(Request request, IdleTaxi taxi, double distance) {
+			this.request = request;
+			this.taxi = taxi;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			int c = Double.compare(distance, other.distance);
+
+			if (c != 0)
+				return c;
+			c = Long.compare(taxi.taxi.getId(), other.taxi.taxi.getId());
+			return (c != 0) ? c : request.trip.getTripId().compareTo(other.request.trip.getTripId());
+		}
+	}
+
+	// Idle taxis by cell
+	private final Map<Long, List<IdleTaxi>> cells;
+
+	// Idle taxis by entity
+	private final Map<Taxi, IdleTaxi> idle;
+
+	// Requests waiting to be assigned
+	private final List<Request> requests;
+
+	/**
+	 * Creates a new dispatcher without idle taxis.
+	 */
+	public TaxiDispatcher() {
+		cells = new HashMap<Long, List<IdleTaxi>>();
+		idle = new IdentityHashMap<Taxi, IdleTaxi>();
+		requests = new ArrayList<Request>();
+	}
+
+	/**
+	 * Adds a taxi waiting for its next trip at its current position.
+	 *
+	 * @param taxi Idle taxi.
+	 */
+	public void addIdleTaxi(Taxi taxi) {
+		Coordinate position = taxi.getPosition();
+		IdleTaxi entry = new IdleTaxi(taxi, position, getCell(getX(position), getY(position)));
+		List<IdleTaxi> cell = cells.get(entry.cell);
+
+		if (cell == null) {
+			cell = new ArrayList<IdleTaxi>(4);
+			cells.put(entry.cell, cell);
+		}
+		cell.add(entry);
+		idle.put(taxi, entry);
+	}
+
+	/**
+	 * Returns the number of idle taxis.
+	 *
+	 * @return Number of idle taxis.
+	 */
+	public int getNumberOfIdleTaxis() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns the number of trips waiting for a taxi.
+	 *
+	 * @return Number of trips waiting for a taxi.
+	 */
+	public int getNumberOfRequests() {
+		return requests.size();
+	}
+
+	/**
+	 * Returns the position of the idle taxi closest to the given position.
+	 *
+	 * @param position Position to find closest idle taxi for.
+	 * @return Position of closest idle taxi or null if there is no idle taxi
+	 * within the search radius.
+	 */
+	public Coordinate getClosestIdleTaxi(Coordinate position) {
+		List<IdleTaxi> candidates = new ArrayList<IdleTaxi>();
+		findIdleTaxis(position, 1, candidates);
+		IdleTaxi closest = null;
+		double minDistance = Double.MAX_VALUE;
+
+		for (IdleTaxi taxi : candidates) {
+			double distance = getDistance(position, taxi.position);
+
+			if (distance < minDistance) {
+				closest = taxi;
+				minDistance = distance;
+			}
+		}
+		return (closest != null) ? new Coordinate(closest.position.x, closest.position.y) : null;
+	}
+
+	/**
+	 * Adds a trip waiting to be assigned to a taxi by the next dispatch.
+	 *
+	 * @param trip Trip to assign to a taxi.
+	 */
+	public void addRequest(TaxiTrip trip) {
+		requests.add(new Request(trip, getStart(trip)));
+	}
+
+	/**
+	 * Assigns waiting trips to idle taxis. Trips which cannot be assigned
+	 * since there are no idle taxis wait for the next dispatch.
+	 *
+	 * @return Assigned trips and the taxis they are assigned to.
+	 */
+	public List<Pair<TaxiTrip, Taxi>> dispatch() {
+		List<Pair<TaxiTrip, Taxi>> ret = new ArrayList<Pair<TaxiTrip, Taxi>>();
+
+		if (requests.size() == 0)
+			return ret;
+
+		// Requests are collected concurrently, order them to be reproducible
+		Collections.sort(requests, new Comparator<Request>() {
+
+			@Override
+			public int compare(Request r1, Request r2) {
+				return r1.trip.getTripId().compareTo(r2.trip.getTripId());
+			}
+		});
+		List<Candidate> candidates = new ArrayList<Candidate>(requests.size() * CANDIDATES);
+		List<IdleTaxi> buffer = new ArrayList<IdleTaxi>();
+
+		int maxCandidates = CANDIDATES;
+
+		// Requests whose candidates are assigned to other requests get twice
+		// as many candidates in the next round
+		while ((requests.size() > 0) && (idle.size() > 0)) {
+			candidates.clear();
+
+			for (Request request : requests) {
+				buffer.clear();
+				findIdleTaxis(request.start, maxCandidates, buffer);
+
+				// Fall back to all idle taxis if there is none around the start
+				if (buffer.size() == 0)
+					buffer.addAll(idle.values());
+				addClosest(request, buffer, maxCandidates, candidates);
+			}
+			Collections.sort(candidates);
+
+			for (Candidate c : candidates) {
+
+				if (c.request.assigned || !idle.containsKey(c.taxi.taxi))
+					continue;
+				c.request.assigned = true;
+				removeIdleTaxi(c.taxi);
+				ret.add(new Pair<TaxiTrip, Taxi>(c.request.trip, c.taxi.taxi));
+			}
+
+			for (int i = requests.size() - 1; i >= 0; i--) {
+
+				if (requests.get(i).assigned)
+					requests.remove(i);
+			}
+			maxCandidates = Math.min(2 * maxCandidates, idle.size() + 1);
+		}
+		return ret;
+	}
+
+	// Adds the given number of taxis closest to the start of a request as
+	// candidates by insertion into a sorted array
+	private static void addClosest(Request request, List<IdleTaxi> taxis, int n, List<Candidate> candidates) {
+		Candidate closest[] = new Candidate[Math.min(n, taxis.size())];
+		int size = 0;
+
+		for (IdleTaxi taxi : taxis) {
+			double distance = getDistance(request.start, taxi.position);
+
+			if ((size == closest.length) && (distance >= closest[size - 1].distance))
+				continue;
+			Candidate c = new Candidate(request, taxi, distance);
+			int i = (size < closest.length) ? size++ : size - 1;
+
+			while ((i > 0) && (c.compareTo(closest[i - 1]) < 0)) {
+				closest[i] = closest[i - 1];
+				i--;
+			}
+			closest[i] = c;
+		}
+
+		for (int i = 0; i < size; i++) {
+			candidates.add(closest[i]);
+		}
+	}
+
+	private void removeIdleTaxi(IdleTaxi taxi) {
+		idle.remove(taxi.taxi);
+		List<IdleTaxi> cell = cells.get(taxi.cell);
+		cell.remove(taxi);
+
+		if (cell.size() == 0)
+			cells.remove(taxi.cell);
+	}
+
+	// Adds idle taxis in rings of cells around a position to the buffer until
+	// at least the given number of taxis has been found. Since cells are not
+	// equally sized in meters, one more ring is searched afterwards.
+	private void findIdleTaxis(Coordinate position, int min, List<IdleTaxi> buffer) {
+		int x = getX(position);
+		int y = getY(position);
+		int lastRing = MAX_SEARCH_RINGS;
+
+		for (int ring = 0; ring <= lastRing; ring++) {
+
+			for (int i = x - ring; i <= x + ring; i++) {
+
+				for (int j = y - ring; j <= y + ring; j++) {
+
+					// Only cells on the border of the ring
+					if ((Math.abs(i - x) != ring) && (Math.abs(j - y) != ring))
+						continue;
+					List<IdleTaxi> cell = cells.get(getCell(i, j));
+
+					if (cell != null)
+						buffer.addAll(cell);
+				}
+			}
+
+			if ((buffer.size() >= min) && (lastRing == MAX_SEARCH_RINGS))
+				lastRing = Math.min(ring + 1, MAX_SEARCH_RINGS);
+		}
+	}
+
+	// Returns the position of the taxi a trip has been planned for, or its
+	// first stop if unknown
+	private static Coordinate getStart(TaxiTrip trip) {
+		Coordinate start = trip.getStartingPosition();
+		return (start != null) ? start : trip.getTaxiStops().get(0).getPosition();
+	}
+
+	// Returns the distance between two positions in meters by equirectangular
+	// approximation, which is sufficiently accurate within a city
+	private static double getDistance(Coordinate c1, Coordinate c2) {
+		double dx = Math.toRadians(c2.x - c1.x) * Math.cos(Math.toRadians((c1.y + c2.y) / 2.0));
+		double dy = Math.toRadians(c2.y - c1.y);
+		return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static int getX(Coordinate c) {
+		return (int) Math.floor(c.x / CELL_SIZE);
+	}
+
+	private static int getY(Coordinate c) {
+		return (int) Math.floor(c.y / CELL_SIZE);
+	}
+
+	private static long getCell(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
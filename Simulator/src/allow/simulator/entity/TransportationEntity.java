@@ -1,9 +1,12 @@
 package allow.simulator.entity;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import allow.simulator.core.Context;
+import allow.simulator.core.ParallelTickEngine;
 import allow.simulator.mobility.data.Stop;
 import allow.simulator.mobility.data.Trip;
 
@@ -22,6 +25,9 @@ public abstract class TransportationEntity extends Entity {
 				
 	// List of passengers
 	protected List<Person> passengers;
+	
+	// Passengers requesting to board during the compute phase of a parallel tick
+	protected List<Person> boardingPassengers;
 			
 	// Current trip the transportation entity is operating
 	protected Trip currentTrip;
@@ -45,6 +51,7 @@ public abstract class TransportationEntity extends Entity {
 		super(id, context);
 		this.capacity = capacity;
 		passengers = new ArrayList<Person>(capacity);
+		boardingPassengers = new ArrayList<Person>();
 		this.agency = agency;
 	}
 	
@@ -70,6 +77,11 @@ public abstract class TransportationEntity extends Entity {
 	 * Adds a person entity to the list of passengers of the transportation entity 
 	 * if there is enough capacity left. 
 	 * 
+	 * During the compute phase of a parallel tick, the person is registered for
+	 * boarding and true is returned. Boarding is resolved when calling
+	 * commitBoardingPassengers(), such that persons who were not admitted
+	 * can be identified calling isPassenger().
+	 * 
 	 * @param p The person to add to the list of passengers of the transportation entity
 	 * @return True, if person was added to the list of passengers, false otherwise
 	 */
@@ -78,13 +90,55 @@ public abstract class TransportationEntity extends Entity {
 		
 		synchronized(passengers) {
 			
-			if (passengers.size() < capacity) {
+			if (ParallelTickEngine.isComputePhase()) {
+				added = boardingPassengers.add(p);
+				
+			} else if (passengers.size() < capacity) {
 				added = passengers.add(p);
 			}
 		}
 		return added;
 	}
 	
+	/**
+	 * Admits persons who requested boarding during the compute phase of a
+	 * parallel tick in order of their Ids as long as there is enough
+	 * capacity left.
+	 */
+	public void commitBoardingPassengers() {
+		
+		synchronized(passengers) {
+			
+			if (boardingPassengers.size() == 0)
+				return;
+			Collections.sort(boardingPassengers, new Comparator<Person>() {
+
+				@Override
+				public int compare(Person p1, Person p2) {
+					return Long.compare(p1.getId(), p2.getId());
+				}
+			});
+			
+			for (int i = 0; (i < boardingPassengers.size()) && (passengers.size() < capacity); i++) {
+				passengers.add(boardingPassengers.get(i));
+			}
+			boardingPassengers.clear();
+		}
+	}
+	
+	/**
+	 * Checks if a person is a passenger of the transportation entity.
+	 * 
+	 * @param p Person to check
+	 * @return True, if person is a passenger, false otherwise
+	 */
+	public boolean isPassenger(Person p) {
+		
+		synchronized(passengers) {
+			return passengers.contains(p);
+		}
+	}
+	
 	/**
 	 * Removes a person entity from the list of passengers of the transportation entity.
 	 * 
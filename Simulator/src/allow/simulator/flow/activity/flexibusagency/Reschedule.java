@@ -1,19 +0,0 @@
-package allow.simulator.flow.activity.flexibusagency;
-
-import allow.simulator.entity.FlexiBusAgency;
-import allow.simulator.flow.activity.Activity;
-import allow.simulator.flow.activity.ActivityType;
-
-public class Reschedule extends Activity {
-
-	public Reschedule(FlexiBusAgency agency) {
-		super(ActivityType.SCHEDULE_NEXT_FLEXIBUS_TRIPS, agency);
-	}
-
-	@Override
-	public double execute(double deltaT) {
-		
-		return deltaT;
-	}
-
-}
@@ -1,19 +1,47 @@
 package allow.simulator.flow.activity.flexibusagency;
 
-import allow.simulator.entity.Entity;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import allow.simulator.entity.FlexiBusAgency;
 import allow.simulator.flow.activity.Activity;
 import allow.simulator.flow.activity.ActivityType;
+import allow.simulator.mobility.data.Trip;
+import allow.simulator.mobility.planner.FlexiBusPlanner;
 
+/**
+ * Activity of a FlexiBus agency scheduling the requests registered since the
+ * last tick and starting the trips which are ready to depart.
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public class StartNextTrips extends Activity {
 
-	public StartNextTrips(Entity entity) {
-		super(ActivityType.SCHEDULE_NEXT_FLEXIBUS_TRIPS, entity);
+	public StartNextTrips(FlexiBusAgency agency) {
+		super(ActivityType.SCHEDULE_NEXT_FLEXIBUS_TRIPS, agency);
 	}
 
 	@Override
 	public double execute(double deltaT) {
-
+		// Agency entity.
+		FlexiBusAgency agency = (FlexiBusAgency) entity;
+		FlexiBusPlanner planner = agency.getPlannerInstance();
+		LocalDateTime time = agency.getContext().getTime().getCurrentDateTime();
+		
+		// Insert new requests into routes of vehicles.
+		planner.reschedule(time);
+		
+		// Poll trips ready to depart.
+		List<Trip> nextTrips = planner.getTripsToDepart(time);
+		agency.startTrips(nextTrips);
+		
+		// Activity is never finished.
 		return deltaT;
 	}
 
+	@Override
+	public boolean isFinished() {
+		return false;
+	}
 }
@@ -36,8 +36,9 @@ public final class PlanJourney extends Activity {
 	
 	// The destination of the journey.
 	private final Coordinate destination;
+	
+	// Result of the journey request, polled without blocking the simulation.
 	private Future<List<Itinerary>> requestFuture;
-	private int stepsWaited;
 	
 	/**
 	 * Creates a new Activity to request a journey.
@@ -63,7 +64,7 @@ public final class PlanJourney extends Activity {
 		prefs.setWmax(Math.min(dist, 1000));
 		
 		if (requestFuture == null) {
-			RequestId reqId = new RequestId();
+			RequestId reqId = new RequestId(person.getId(), person.nextRequestSequence());
 			List<JourneyRequest> requests = new ArrayList<JourneyRequest>();
 			LocalDateTime date = person.getContext().getTime().getCurrentDateTime();
 			
@@ -93,8 +94,8 @@ public final class PlanJourney extends Activity {
 			requestFuture = person.getContext().getJourneyPlanner().requestSingleJourney(requests, person.getBuffer());
 			return deltaT;
 			
-		} else if (!requestFuture.isDone() && (stepsWaited < 3)) {
-			stepsWaited++;
+		} else if (!requestFuture.isDone()) {
+			// Keep waiting until the journey has been planned
 			return deltaT;
 			
 		} else {
@@ -8,7 +8,6 @@ import java.util.List;
 
 import allow.simulator.entity.Person;
 import allow.simulator.entity.BusAgency;
-import allow.simulator.entity.Taxi;
 import allow.simulator.entity.TaxiAgency;
 import allow.simulator.flow.activity.Activity;
 import allow.simulator.flow.activity.ActivityType;
@@ -117,10 +116,10 @@ public final class PrepareJourney extends Activity {
 			case TAXI:
 			case SHARED_TAXI:
 				TaxiAgency taxiAgency = person.getContext().getTransportationRepository().getTaxiAgency();
-				Taxi taxi = taxiAgency.call(l.tripId);
+				taxiAgency.call(l.tripId);
 				TaxiStop in2 = taxiAgency.getTaxiStop(l.stopIdFrom);
 				TaxiStop out2 = taxiAgency.getTaxiStop(l.stopIdTo);
-				entity.getFlow().addActivity(new UseTaxi(person, in2, out2, taxi,
+				entity.getFlow().addActivity(new UseTaxi(person, in2, out2,
 						LocalDateTime.ofInstant(Instant.ofEpochMilli(l.startTime), ZoneId.of("UTC+2")).toLocalTime()));
 			case WALK:
 				if (l.streets.size() == 0)
@@ -132,7 +132,15 @@ public class UsePublicTransport extends Activity {
 		} else if (enteredBus && !leftBus){
 			// If on bus, trigger knowledge exchange.
 			//entity.getRelations().addToUpdate(Relation.Type.BUS);
-			
+
+			// If boarding was rejected when committing a parallel tick, replan.
+			if (!b.isPassenger(person)) {
+				person.getFlow().clear();
+				person.getFlow().addActivity(new Replan(person));
+				setFinished();
+				return 0.0;
+			}
+
 			// If person entered bus, update position.
 			if ((b.getCurrentStop() != null)) {
 				if (b.getCurrentStop().getStopId().equals(out.getStopId())) {
@@ -20,7 +20,7 @@ public final class UseTaxi extends Activity {
 	private TaxiStop in;
 	private TaxiStop out;
 
-	// The bus a person entered.
+	// The taxi a person entered, assigned when the taxi arrives at the stop.
 	private Taxi taxi;
 
 	// Earliest starting time of the activity.
@@ -43,11 +43,9 @@ public final class UseTaxi extends Activity {
 	 * @param departure
 	 *            Time when taxi is expected to depart from stop
 	 */
-	public UseTaxi(Person person, TaxiStop start, TaxiStop dest,
-			Taxi taxi, LocalTime departure) {
+	public UseTaxi(Person person, TaxiStop start, TaxiStop dest, LocalTime departure) {
 		super(ActivityType.USE_PUBLIC_TRANSPORT, person);
 		earliestStartingTime = departure;
-		this.taxi = taxi;
 		in = start;
 		out = dest;
 	}
@@ -72,11 +70,9 @@ public final class UseTaxi extends Activity {
 			
 		} else if (!enteredTaxi) {
 			// If person has not entered the correct means yet, check in stop for waiting vehicles.
+			// Stops belong to a single trip, hence a waiting taxi is the one dispatched for the trip.
 			if (in.hasWaitingTaxi()) {
-				Taxi temp = in.getTaxi();
-				
-				if (taxi != temp)
-					throw new IllegalStateException();
+				taxi = in.getTaxi();
 				taxi.addPassenger(person);
 				in.removeWaitingPerson(person);
 				enteredTaxi = true;
@@ -36,7 +36,7 @@ public class ReturnToTaxiAgency extends Activity {
 		// Finish trip at agency.
 		taxi.getTransportationAgency().finishTrip(taxi.getCurrentTrip().getTripId(), taxi);
 
-		// Reset state and return to agency.
+		// Reset state, taxi waits for its next trip at its current position.
 		taxi.setCurrentStop(null);
 		taxi.setCurrentTrip(null);
 		setFinished();
@@ -0,0 +1,36 @@
+package allow.simulator.flow.activity.transportagency;
+
+import allow.simulator.entity.TaxiAgency;
+import allow.simulator.flow.activity.Activity;
+import allow.simulator.flow.activity.ActivityType;
+
+/**
+ * Activity of a taxi agency assigning the taxi trips requested since the
+ * last tick to idle taxis.
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class DispatchTaxis extends Activity {
+
+	public DispatchTaxis(TaxiAgency agency) {
+		super(ActivityType.SCHEDULE_NEXT_TAXI_TRIPS, agency);
+	}
+
+	@Override
+	public double execute(double deltaT) {
+		// Agency entity.
+		TaxiAgency agency = (TaxiAgency) entity;
+		
+		// Assign requested trips to idle taxis.
+		agency.dispatch();
+		
+		// Activity is never finished.
+		return deltaT;
+	}
+
+	@Override
+	public boolean isFinished() {
+		return false;
+	}
+}
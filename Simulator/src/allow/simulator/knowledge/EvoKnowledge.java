@@ -1,10 +1,9 @@
 package allow.simulator.knowledge;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 
 import allow.simulator.core.EvoKnowledgeConfiguration;
@@ -29,15 +28,11 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 public class EvoKnowledge extends Knowledge implements IPredictor<List<Itinerary>, Boolean> {
 	
 	private static Queue<Pair<Entity, List<Itinerary>>> predictBuffer;
-	private static List<Worker> tasks;
-	private static WorkerPool workerPool;
 	private static ExecutorService service;
 	
 	public static void initialize(EvoKnowledgeConfiguration config, String knowledgeModel, String prefix, ExecutorService service) {
 		DBConnector.init(config, knowledgeModel, prefix);
-		predictBuffer = new LinkedList<Pair<Entity, List<Itinerary>>>();
-		tasks = new ArrayList<Worker>();
-		workerPool = new WorkerPool(128);
+		predictBuffer = new ConcurrentLinkedQueue<Pair<Entity, List<Itinerary>>>();
 		EvoKnowledge.service = service;
 	}
 
@@ -207,33 +202,45 @@ public class EvoKnowledge extends Knowledge implements IPredictor<List<Itinerary
 		DBConnector.cleanModel(null);
 	}
 	
+	/**
+	 * Predicts all itineraries buffered during the current step at once. The
+	 * itineraries are passed to the knowledge model as a single batch such that
+	 * lookups can be grouped by knowledge table.
+	 */
 	public static void invokeRequest() {
 		if (predictBuffer.size() == 0) {
 			return;
 		}
+		List<Entity> agents = new ArrayList<Entity>();
+		List<Itinerary> itineraries = new ArrayList<Itinerary>();
+		List<List<Experience>> experiences = new ArrayList<List<Experience>>();
+		Pair<Entity, List<Itinerary>> request = null;
 		
-		CountDownLatch latch = new CountDownLatch(predictBuffer.size());
-		
-		while (predictBuffer.size() > 0) {
-			Pair<Entity, List<Itinerary>> request = predictBuffer.poll();
-			Worker w = workerPool.pop();
-			w.prepare(request.first, request.second, latch);
-			tasks.add(w);
+		while ((request = predictBuffer.poll()) != null) {
+			
+			for (Itinerary it : request.second) {
+				agents.add(request.first);
+				itineraries.add(it);
+				experiences.add(EvoKnowledgeUtil.itineraryToTravelExperience(request.first, it));
+			}
 		}
 		
 		try {
-			service.invokeAll(tasks);
-			latch.await();
-		} catch (InterruptedException e) {
+			DBConnector.getPredictedItineraries(agents, experiences, service);
+			
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		
-		for (int j = 0; j < tasks.size(); j++) {
-			Worker w = tasks.get(j);
-			w.reset();
-			workerPool.put(w);
+		for (int i = 0; i < itineraries.size(); i++) {
+			
+			try {
+				EvoKnowledgeUtil.updateItineraryFromTravelExperience(itineraries.get(i), experiences.get(i));
+				
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
-		tasks.clear();
 	}
 	
 	public boolean exchangeKnowledge(Entity other) {
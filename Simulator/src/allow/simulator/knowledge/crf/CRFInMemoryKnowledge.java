@@ -0,0 +1,125 @@
+package allow.simulator.knowledge.crf;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import allow.simulator.entity.Entity;
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Local knowledge model keeping the knowledge of each agent in the heap
+ * instead of a database table (see CRFTable). Merging of experiences and
+ * back-off prediction follow the semantics of CRFLocalKnowledge.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class CRFInMemoryKnowledge implements CRFKnowledgeModel {
+	// Knowledge tables of agents
+	private final ConcurrentHashMap<Long, CRFTable> tables;
+
+	public CRFInMemoryKnowledge() {
+		tables = new ConcurrentHashMap<Long, CRFTable>();
+	}
+
+	@Override
+	public boolean addEntry(Entity agent, List<Experience> entries, String tablePrefix) {
+
+		if (entries.size() == 0) {
+			return false;
+		}
+		CRFTable table = getOrCreateTable(agent.getId());
+
+		synchronized (table) {
+			table.addExperiences(entries);
+		}
+		return true;
+	}
+
+	@Override
+	public List<Experience> getPredictedItinerary(Entity agent, List<Experience> it, String tablePrefix) {
+		CRFTable table = tables.get(agent.getId());
+
+		if (table == null) {
+			return it;
+		}
+
+		synchronized (table) {
+			table.predict(it);
+		}
+		return it;
+	}
+
+	@Override
+	public void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, String tablePrefix, ExecutorService service) {
+
+		for (int i = 0; i < agents.size(); i++) {
+			getPredictedItinerary(agents.get(i), its.get(i), tablePrefix);
+		}
+	}
+
+	@Override
+	public void clean(Entity agent, String tablePrefix) {
+
+	}
+
+	@Override
+	public boolean exchangeKnowledge(Entity agent1, Entity agent2, String tablePrefix) {
+		long agentId1 = agent1.getId();
+		long agentId2 = agent2.getId();
+
+		if (agentId1 == agentId2)
+			return false;
+		CRFTable table1 = tables.get(agentId1);
+		CRFTable table2 = tables.get(agentId2);
+
+		if ((table1 == null) && (table2 == null))
+			return false;
+
+		if (table2 == null) {
+
+			synchronized (table1) {
+				table2 = new CRFTable(table1);
+			}
+			CRFTable existing = tables.putIfAbsent(agentId2, table2);
+			return (existing == null) || exchangeKnowledge(agent1, agent2, tablePrefix);
+		}
+
+		if (table1 == null) {
+
+			synchronized (table2) {
+				table1 = new CRFTable(table2);
+			}
+			CRFTable existing = tables.putIfAbsent(agentId1, table1);
+			return (existing == null) || exchangeKnowledge(agent1, agent2, tablePrefix);
+		}
+
+		// Lock tables in order of agent ids to avoid deadlocks
+		CRFTable first = (agentId1 < agentId2) ? table1 : table2;
+		CRFTable second = (agentId1 < agentId2) ? table2 : table1;
+
+		synchronized (first) {
+
+			synchronized (second) {
+				CRFTable ex = new CRFTable(table1);
+				table1.merge(table2);
+				table2.merge(ex);
+			}
+		}
+		return true;
+	}
+
+	private CRFTable getOrCreateTable(long agentId) {
+		CRFTable table = tables.get(agentId);
+
+		if (table == null) {
+			table = new CRFTable();
+			CRFTable existing = tables.putIfAbsent(agentId, table);
+
+			if (existing != null)
+				table = existing;
+		}
+		return table;
+	}
+}
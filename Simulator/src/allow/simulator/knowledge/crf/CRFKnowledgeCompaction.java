@@ -0,0 +1,163 @@
+package allow.simulator.knowledge.crf;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically compacts knowledge tables in the background such that the
+ * size of knowledge of agents stays bounded over long runs (see
+ * CRFTableAccess.compact()). Compaction runs on its own thread and locks a
+ * table only while removing a chunk of rows, such that merges of the table,
+ * e.g. of experiences flushed before predictions, wait for at most one chunk.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFKnowledgeCompaction {
+	// Number of ticks between compactions
+	private final int interval;
+
+	// Weight below which rows are removed
+	private final double minWeight;
+
+	// Weight below which rows are folded into coarser contexts
+	private final double foldWeight;
+
+	// Maximum number of rows per table
+	private final int maxRows;
+
+	// Thread compacting tables in the background
+	private final ExecutorService compactor;
+
+	// Indicates whether a compaction is in progress
+	private final AtomicBoolean running;
+
+	// Number of ticks since the last compaction has been scheduled
+	private int ticks;
+
+	// Version of rows at the start of the last compaction or at creation of
+	// the policy, accessed by the compacting thread only
+	private long compactedVersion;
+
+	/**
+	 * Creates a new compaction policy. In case interval is not positive,
+	 * tables are never compacted.
+	 *
+	 * @param interval Number of ticks between compactions.
+	 * @param minWeight Weight below which rows are removed.
+	 * @param foldWeight Weight below which rows are folded into coarser contexts.
+	 * @param maxRows Maximum number of rows per table.
+	 */
+	public CRFKnowledgeCompaction(int interval, double minWeight, double foldWeight, int maxRows) {
+		this.interval = interval;
+		this.minWeight = minWeight;
+		this.foldWeight = foldWeight;
+		this.maxRows = maxRows;
+		compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "knowledge-compaction");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		running = new AtomicBoolean();
+		compactedVersion = CRFTableAccess.getVersion();
+	}
+
+	/**
+	 * Notifies the policy that a tick has passed. Every interval ticks, a
+	 * compaction of the given tables is started in the background unless the
+	 * previous compaction is still in progress.
+	 *
+	 * @param tableNames Names of tables.
+	 * @param namePrefix Prefix of the names of tables to compact.
+	 */
+	public void tick(Collection<String> tableNames, String namePrefix) {
+
+		if (interval <= 0)
+			return;
+
+		if (++ticks < interval)
+			return;
+		ticks = 0;
+
+		if (!running.compareAndSet(false, true))
+			return;
+		final List<String> tables = new ArrayList<String>();
+
+		for (String tableName : tableNames) {
+
+			if (tableName.startsWith(namePrefix))
+				tables.add(tableName);
+		}
+		compactor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					compact(tables);
+
+				} finally {
+					running.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for a compaction in progress to complete and stops the background
+	 * thread.
+	 */
+	public void shutdown() {
+		compactor.shutdown();
+
+		try {
+			compactor.awaitTermination(10, TimeUnit.SECONDS);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void compact(List<String> tables) {
+		long sinceVersion = compactedVersion;
+		compactedVersion = CRFTableAccess.getVersion();
+		long start = System.currentTimeMillis();
+		long removed = 0;
+		Connection con = null;
+
+		try {
+			con = DSFactory.getConnection();
+
+			for (String tableName : tables) {
+				removed += CRFTableAccess.compact(con, tableName, minWeight, foldWeight, maxRows, sinceVersion);
+			}
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+
+		} finally {
+
+			try {
+				if (con != null)
+					con.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		System.out.println("Knowledge compaction removed " + removed + " rows from " + tables.size()
+				+ " tables in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+}
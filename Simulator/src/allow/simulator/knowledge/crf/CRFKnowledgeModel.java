@@ -1,6 +1,7 @@
 package allow.simulator.knowledge.crf;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import allow.simulator.entity.Entity;
 import allow.simulator.knowledge.Experience;
@@ -11,6 +12,19 @@ public interface CRFKnowledgeModel {
 	
 	List<Experience> getPredictedItinerary(Entity agent, List<Experience> it, String tablePrefix);
 	
+	/**
+	 * Predicts a set of itineraries at once. The i-th itinerary is predicted
+	 * from the knowledge of the i-th agent. Lookups are grouped by knowledge
+	 * table such that each table is queried a constant number of times
+	 * independent of the number of itineraries.
+	 * 
+	 * @param agents Agents requesting predictions.
+	 * @param its Experiences of itineraries to update.
+	 * @param tablePrefix Prefix of knowledge tables.
+	 * @param service Executor to query different tables in parallel.
+	 */
+	void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, String tablePrefix, ExecutorService service);
+	
 	boolean exchangeKnowledge(Entity agent1, Entity agent2, String tablePrefix);
 	
 	void clean(Entity entity, String tablePrefix);
@@ -13,8 +13,9 @@ public class CRFLocalExchangeStrategy implements IExchangeStrategy<EvoKnowledge>
 			+ "ALTER TABLE %1$s ADD PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality);";
 	
 	private static final String MY_SQL_MERGE_MUTUAL = 
-			"CREATE TEMPORARY TABLE ex AS (SELECT nodeId, prevNodeId, weather, "
-			+ "weekday, timeOfDay, modality, ttime, prevttime, filllevel, weight FROM %1$s); "
+			"DROP TEMPORARY TABLE IF EXISTS ex; "
+			+ "CREATE TEMPORARY TABLE ex AS (SELECT nodeId, prevNodeId, weather, "
+			+ "weekday, timeOfDay, modality, ttime, prevttime, filllevel, weight, version FROM %1$s); "
 			
 			+ "INSERT INTO %1$s (SELECT * FROM %2$s) "
 			+ "ON DUPLICATE KEY UPDATE "
@@ -28,7 +29,8 @@ public class CRFLocalExchangeStrategy implements IExchangeStrategy<EvoKnowledge>
 			+ "ttime=(%2$s.ttime*%2$s.weight+VALUES(ttime))/(%2$s.weight+1), "
 			+ "prevttime=(%2$s.prevttime*%2$s.weight+VALUES(prevttime))/(%2$s.weight+1), "
 			+ "filllevel=(%2$s.filllevel*%2$s.weight+VALUES(filllevel))/(%2$s.weight+1), "
-			+ "weight=(%2$s.weight+1); ";
+			+ "weight=(%2$s.weight+1); "
+			+ "DROP TEMPORARY TABLE ex; ";
 	
 	@Override
 	public boolean exchangeKnowledge(EvoKnowledge k1, EvoKnowledge k2) {
@@ -1,6 +1,7 @@
 package allow.simulator.knowledge.crf;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import allow.simulator.entity.Entity;
 import allow.simulator.knowledge.Experience;
@@ -27,6 +28,11 @@ public class CRFNoKnowledge implements CRFKnowledgeModel {
 		return it;
 	}
 	
+	@Override
+	public void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, String tablePrefix, ExecutorService service) {
+		
+	}
+	
 	@Override
 	public void clean(Entity agent, String tablePrefix) {
 		
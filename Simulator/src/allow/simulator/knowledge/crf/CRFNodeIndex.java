@@ -0,0 +1,78 @@
+package allow.simulator.knowledge.crf;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense indices of node ids shared by all in-memory knowledge tables. Keys of
+ * rows store indices instead of node ids, such that node ids of any value
+ * (including negative ids of virtual streets) fit into the bits reserved for
+ * nodes and keys of different tables agree. Indices are assigned on first use
+ * and never removed.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFNodeIndex {
+	// Largest index fitting into the bits of a key reserved for a node
+	// (previous nodes are stored as index + 1 to encode "no previous node").
+	static final int MAX_INDEX = (1 << CRFTable.NODE_BITS) - 2;
+
+	// Mapping of node ids to indices.
+	private static final ConcurrentHashMap<Long, Integer> indices = new ConcurrentHashMap<Long, Integer>();
+
+	// Mapping of indices to node ids, replaced when growing.
+	private static volatile long nodeIds[] = new long[1024];
+
+	// Number of assigned indices.
+	private static int size;
+
+	private CRFNodeIndex() {
+	}
+
+	/**
+	 * Returns the index of a node id and assigns a new index in case the node
+	 * id has not been used before.
+	 *
+	 * @param nodeId Node id.
+	 * @return Index of the node id.
+	 * @throws IllegalStateException If the number of distinct node ids exceeds
+	 * the number of indices supported by knowledge tables.
+	 */
+	static int getIndex(long nodeId) {
+		Integer index = indices.get(nodeId);
+
+		if (index != null)
+			return index;
+
+		synchronized (indices) {
+			index = indices.get(nodeId);
+
+			if (index != null)
+				return index;
+
+			if (size > MAX_INDEX)
+				throw new IllegalStateException("Error: Number of distinct node ids exceeds " + (MAX_INDEX + 1) + " supported by in-memory knowledge tables.");
+			long ids[] = nodeIds;
+
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, 2 * size);
+			ids[size] = nodeId;
+			nodeIds = ids;
+
+			// Publish index after its node id has been stored.
+			indices.put(nodeId, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Returns the node id of an index.
+	 *
+	 * @param index Index returned by getIndex().
+	 * @return Node id of the index.
+	 */
+	static long getNodeId(int index) {
+		return nodeIds[index];
+	}
+}
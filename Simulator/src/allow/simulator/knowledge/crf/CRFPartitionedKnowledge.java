@@ -0,0 +1,141 @@
+package allow.simulator.knowledge.crf;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import allow.simulator.entity.Entity;
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Local knowledge model keeping the knowledge of all agents in a single table
+ * keyed by agentId and hash-partitioned on agentId instead of one table per
+ * agent. Merging of experiences, back-off prediction, and knowledge exchange
+ * follow the semantics of CRFLocalKnowledge.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class CRFPartitionedKnowledge implements CRFKnowledgeModel {
+	// Number of partitions of the knowledge table
+	public static final int PARTITIONS = 64;
+
+	// Name of the partitioned knowledge table
+	private final String tableName;
+
+	// Queue merging experiences into the knowledge table in the background
+	private final CRFWriteBehindQueue writeQueue;
+
+	public CRFPartitionedKnowledge(String tableName, CRFWriteBehindQueue writeQueue) {
+		this.tableName = tableName;
+		this.writeQueue = writeQueue;
+	}
+
+	/**
+	 * Creates a writer for a write-behind queue merging rows into the
+	 * partitions of a partitioned knowledge table. Keys of the queue are
+	 * agent ids.
+	 *
+	 * @param tableName Name of the partitioned knowledge table.
+	 * @return Writer merging rows into the partitioned knowledge table.
+	 */
+	static CRFWriteBehindQueue.RowWriter createWriter(final String tableName) {
+		return new CRFWriteBehindQueue.RowWriter() {
+
+			@Override
+			public void write(Connection con, String agentId, CRFTable rows) throws SQLException {
+				CRFTableAccess.mergeAgentRows(con, tableName, Long.parseLong(agentId), rows);
+			}
+		};
+	}
+
+	@Override
+	public boolean addEntry(Entity agent, List<Experience> entries, String tablePrefix) {
+
+		if (entries.size() == 0) {
+			return false;
+		}
+		return writeQueue.add(String.valueOf(agent.getId()), entries);
+	}
+
+	@Override
+	public List<Experience> getPredictedItinerary(Entity agent, List<Experience> it, String tablePrefix) {
+		writeQueue.flush(Collections.singleton(String.valueOf(agent.getId())));
+		Connection con = null;
+
+		try {
+			con = DSFactory.getConnection();
+			CRFTableAccess.predictAgent(con, tableName, agent.getId(), Collections.singletonList(it));
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+
+		} finally {
+
+			try {
+				if (con != null)
+					con.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return it;
+	}
+
+	@Override
+	public void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, String tablePrefix, ExecutorService service) {
+		Map<String, List<List<Experience>>> requests = new LinkedHashMap<String, List<List<Experience>>>();
+
+		for (int i = 0; i < agents.size(); i++) {
+			CRFTableAccess.addRequest(requests, String.valueOf(agents.get(i).getId()), its.get(i));
+		}
+		writeQueue.flush(requests.keySet());
+		CRFTableAccess.predictPartitions(tableName, requests, service);
+	}
+
+	@Override
+	public void clean(Entity agent, String tablePrefix) {
+		
+	}
+
+	@Override
+	public boolean exchangeKnowledge(Entity agent1, Entity agent2, String tablePrefix) {
+
+		if (agent1.getId() == agent2.getId())
+			return false;
+		writeQueue.flush(Arrays.asList(String.valueOf(agent1.getId()), String.valueOf(agent2.getId())));
+
+		// Only rows modified since the last exchange of both agents are merged
+		long sinceVersion = agent1.getRelations().getExchangedVersion(agent2);
+		Connection con = null;
+
+		try {
+			con = DSFactory.getConnection();
+			long version = CRFTableAccess.mergeAgentDelta(con, tableName, agent1.getId(), agent2.getId(), sinceVersion);
+			agent1.getRelations().setExchangedVersion(agent2, version);
+			agent2.getRelations().setExchangedVersion(agent1, version);
+
+		} catch (SQLException e) {
+			System.out.println(agent1.getId() + "->" + agent2.getId() + ": ");
+			e.printStackTrace();
+			return false;
+
+		} finally {
+
+			try {
+				if (con != null)
+					con.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return true;
+	}
+}
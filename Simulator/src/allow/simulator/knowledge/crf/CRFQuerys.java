@@ -5,8 +5,8 @@ public class CRFQuerys {
 	public static final String MY_SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS %1$s "
 			+ "(nodeId INT, prevNodeId INT, weather TINYINT UNSIGNED, weekday TINYINT UNSIGNED, "
 			+ "timeOfDay TINYINT UNSIGNED, modality TINYINT UNSIGNED, ttime FLOAT,"
-			+ "prevttime FLOAT, fillLevel FLOAT, weight DOUBLE, "
-			+ "PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality));%2$s";
+			+ "prevttime FLOAT, fillLevel FLOAT, weight DOUBLE, version BIGINT DEFAULT 0, "
+			+ "PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality), INDEX(version));%2$s";
 	
 	public static final String SQL_INSERT_VALUES = "INSERT INTO %1$s "
 			+ " (nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight)"
@@ -18,25 +18,279 @@ public class CRFQuerys {
 			+ "filllevel=(%1$s.filllevel * %1$s.weight + VALUES(filllevel)) / (%1$s.weight + 1), "
 			+ "weight=LN(EXP(%1$s.weight) + EXP(1))";
 	
-	public static final String MY_SQL_MERGE_SIMPLE = "CREATE TABLE IF NOT EXISTS %1$s AS SELECT * FROM %2$s; "
-			+ "ALTER TABLE %1$s ADD PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality); ";
+	public static final String MY_SQL_MERGE_ON_INSERT = "ON DUPLICATE KEY UPDATE "
+			+ "ttime=(%1$s.ttime * %1$s.weight + VALUES(ttime) * VALUES(weight)) / (%1$s.weight + VALUES(weight)), "
+			+ "prevttime=(%1$s.prevttime * %1$s.weight + VALUES(prevttime) * VALUES(weight)) / (%1$s.weight + VALUES(weight)), "
+			+ "filllevel=(%1$s.filllevel * %1$s.weight + VALUES(filllevel) * VALUES(weight)) / (%1$s.weight + VALUES(weight)), "
+			+ "weight=LN(EXP(%1$s.weight) + EXP(VALUES(weight))), "
+			+ "version=VALUES(version)";
+	
+	public static final String SQL_INSERT_VERSIONED_COLUMNS = "INSERT INTO %1$s "
+			+ " (nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, version) ";
+	
+	// Temporary table holding rows to merge into a knowledge table
+	public static final String MY_SQL_CREATE_STAGED_ROWS = "DROP TEMPORARY TABLE IF EXISTS staged; "
+			+ "CREATE TEMPORARY TABLE staged (nodeId INT, prevNodeId INT, weather TINYINT UNSIGNED, "
+			+ "weekday TINYINT UNSIGNED, timeOfDay TINYINT UNSIGNED, modality TINYINT UNSIGNED, ttime FLOAT, "
+			+ "prevttime FLOAT, fillLevel FLOAT, weight DOUBLE, "
+			+ "PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality)); ";
+	
+	public static final String SQL_STAGE_ROW = SQL_INSERT_VALUES.replace("%1$s", "staged")
+			+ "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	// Merges staged rows into table %1$s marking merged rows with version %2$d
+	public static final String MY_SQL_MERGE_STAGED_ROWS = SQL_INSERT_VERSIONED_COLUMNS
+			+ "SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %2$d "
+			+ "FROM staged " + MY_SQL_MERGE_ON_INSERT + "; "
+			+ "DROP TEMPORARY TABLE staged; ";
+	
+	// Keys of rows of table %1$s modified after version %2$d
+	public static final String SQL_SELECT_MODIFIED_KEYS = "(SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, "
+			+ "modality FROM %1$s WHERE version > %2$d)";
+	
+	// Mutually merges rows of two tables modified after version %3$d marking merged rows with version %4$d
+	public static final String MY_SQL_MERGE_DELTA =
+			"DROP TEMPORARY TABLE IF EXISTS ex; "
+			+ "CREATE TEMPORARY TABLE ex AS (SELECT nodeId, prevNodeId, weather, "
+			+ "weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight FROM %1$s WHERE version > %3$d); "
+			
+			+ SQL_INSERT_VERSIONED_COLUMNS
+			+ "SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %4$d "
+			+ "FROM %2$s WHERE version > %3$d " + MY_SQL_MERGE_ON_INSERT + "; "
+			
+			+ SQL_INSERT_VERSIONED_COLUMNS.replace("%1$s", "%2$s")
+			+ "SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %4$d "
+			+ "FROM ex " + MY_SQL_MERGE_ON_INSERT.replace("%1$s", "%2$s") + "; "
+			+ "DROP TEMPORARY TABLE ex; ";
+	
+	public static final String SQL_SELECT_TRANSITION_ROWS = "SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, "
+			+ "modality, ttime, prevttime, fillLevel, weight FROM %1$s WHERE %2$s";
+	
+	public static final String SQL_TRANSITION_CONDITION = "(nodeId = ? AND prevNodeId = ?)";
+	
+	// Rollups hold sums of travel times and filling levels and the number of rows of each back-off
+	// context (level 0: node, 1: modality, 2: time of day, 3: weekday) of knowledge table %1$s
+	public static final String MY_SQL_CREATE_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS %1$s_rollup "
+			+ "(nodeId INT, level TINYINT UNSIGNED, modality TINYINT UNSIGNED, timeOfDay TINYINT UNSIGNED, "
+			+ "weekday TINYINT UNSIGNED, sumTTime DOUBLE, sumFillLevel DOUBLE, rowCount INT, "
+			+ "PRIMARY KEY(nodeId, level, modality, timeOfDay, weekday));";
+	
+	public static final String SQL_INSERT_ROLLUP_COLUMNS = "INSERT INTO %1$s_rollup "
+			+ " (nodeId, level, modality, timeOfDay, weekday, sumTTime, sumFillLevel, rowCount) ";
+	
+	private static final String SQL_ROLLUP_LEVELS = 
+			SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT b.nodeId, 0, 0, 0, 0, SUM(b.ttime), SUM(b.fillLevel), COUNT(*) FROM %1$s b JOIN touched t "
+			+ "ON b.nodeId = t.nodeId GROUP BY b.nodeId; "
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT b.nodeId, 1, b.modality, 0, 0, SUM(b.ttime), SUM(b.fillLevel), COUNT(*) FROM %1$s b JOIN touched t "
+			+ "ON b.nodeId = t.nodeId GROUP BY b.nodeId, b.modality; "
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT b.nodeId, 2, b.modality, b.timeOfDay, 0, SUM(b.ttime), SUM(b.fillLevel), COUNT(*) FROM %1$s b JOIN touched t "
+			+ "ON b.nodeId = t.nodeId GROUP BY b.nodeId, b.modality, b.timeOfDay; "
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT b.nodeId, 3, b.modality, b.timeOfDay, b.weekday, SUM(b.ttime), SUM(b.fillLevel), COUNT(*) FROM %1$s b JOIN touched t "
+			+ "ON b.nodeId = t.nodeId GROUP BY b.nodeId, b.modality, b.timeOfDay, b.weekday; ";
+	
+	// Captures travel times and filling levels of the rows of table %1$s with the keys of the rows
+	// of %2$s into temporary table %3$s before they are merged
+	public static final String MY_SQL_CAPTURE_PRIOR_ROWS =
+			"DROP TEMPORARY TABLE IF EXISTS %3$s; "
+			+ "CREATE TEMPORARY TABLE %3$s (PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality)) AS ("
+			+ "SELECT b.nodeId, b.prevNodeId, b.weather, b.weekday, b.timeOfDay, b.modality, b.ttime, b.fillLevel "
+			+ "FROM %1$s b JOIN %2$s s ON b.nodeId = s.nodeId AND b.prevNodeId = s.prevNodeId AND b.weather = s.weather "
+			+ "AND b.weekday = s.weekday AND b.timeOfDay = s.timeOfDay AND b.modality = s.modality); ";
+	
+	private static final String SQL_ADD_ROLLUP_DELTA = " ON DUPLICATE KEY UPDATE sumTTime = sumTTime + VALUES(sumTTime), "
+			+ "sumFillLevel = sumFillLevel + VALUES(sumFillLevel), rowCount = rowCount + VALUES(rowCount); ";
+	
+	private static final String SQL_ROLLUP_DELTA_LEVELS =
+			SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT nodeId, 0, 0, 0, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT nodeId, 1, modality, 0, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT nodeId, 2, modality, timeOfDay, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality, timeOfDay" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_ROLLUP_COLUMNS
+			+ "SELECT nodeId, 3, modality, timeOfDay, weekday, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality, timeOfDay, weekday" + SQL_ADD_ROLLUP_DELTA;
+	
+	// Adds the differences between rows of table %1$s marked with version %2$d and their prior values
+	// captured in temporary table %3$s to the rollups of table %1$s. Rows without prior values are new.
+	public static final String MY_SQL_ADD_ROLLUP_DELTAS =
+			"DROP TEMPORARY TABLE IF EXISTS delta; "
+			+ "CREATE TEMPORARY TABLE delta AS (SELECT b.nodeId, b.modality, b.timeOfDay, b.weekday, "
+			+ "b.ttime - COALESCE(p.ttime, 0) AS dTTime, b.fillLevel - COALESCE(p.fillLevel, 0) AS dFillLevel, "
+			+ "IF(p.nodeId IS NULL, 1, 0) AS dCount FROM %1$s b LEFT JOIN %3$s p ON b.nodeId = p.nodeId "
+			+ "AND b.prevNodeId = p.prevNodeId AND b.weather = p.weather AND b.weekday = p.weekday "
+			+ "AND b.timeOfDay = p.timeOfDay AND b.modality = p.modality WHERE b.version = %2$d); "
+			+ "START TRANSACTION; "
+			+ SQL_ROLLUP_DELTA_LEVELS
+			+ "COMMIT; "
+			+ "DROP TEMPORARY TABLE delta; "
+			+ "DROP TEMPORARY TABLE %3$s; ";
+	
+	// Recomputes all rollups of table %1$s creating the rollup table if necessary
+	public static final String MY_SQL_REBUILD_ROLLUPS =
+			MY_SQL_CREATE_ROLLUP_TABLE + " "
+			+ "DROP TEMPORARY TABLE IF EXISTS touched; "
+			+ "CREATE TEMPORARY TABLE touched AS (SELECT DISTINCT nodeId FROM %1$s); "
+			+ "START TRANSACTION; "
+			+ "DELETE FROM %1$s_rollup; "
+			+ SQL_ROLLUP_LEVELS
+			+ "COMMIT; "
+			+ "DROP TEMPORARY TABLE touched; ";
 	
-	public static final String MY_SQL_MERGE_MUTUAL = 
-			"CREATE TEMPORARY TABLE ex AS (SELECT nodeId, prevNodeId, weather, "
-			+ "weekday, timeOfDay, modality, ttime, prevttime, filllevel, weight FROM %1$s); "
+	public static final String SQL_SELECT_NODE_ROLLUPS = "SELECT nodeId, level, modality, timeOfDay, weekday, "
+			+ "sumTTime, sumFillLevel, rowCount FROM %1$s_rollup WHERE nodeId IN (%2$s)";
+	
+	public static final String MY_SQL_CREATE_PARTITIONED_TABLE = "CREATE TABLE IF NOT EXISTS %1$s "
+			+ "(agentId INT, nodeId INT, prevNodeId INT, weather TINYINT UNSIGNED, weekday TINYINT UNSIGNED, "
+			+ "timeOfDay TINYINT UNSIGNED, modality TINYINT UNSIGNED, ttime FLOAT,"
+			+ "prevttime FLOAT, fillLevel FLOAT, weight DOUBLE, version BIGINT DEFAULT 0, "
+			+ "PRIMARY KEY(agentId, nodeId, prevNodeId, weather, weekday, timeOfDay, modality), INDEX(agentId, version)) "
+			+ "PARTITION BY HASH(agentId) PARTITIONS %2$d";
+	
+	public static final String SQL_TRUNCATE_TABLE = "TRUNCATE TABLE %1$s";
+	
+	public static final String SQL_INSERT_AGENT_COLUMNS = "INSERT INTO %1$s "
+			+ " (agentId, nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, version) ";
+	
+	// Merges staged rows into the rows of agent %2$d of partitioned table %1$s marking merged rows with version %3$d
+	public static final String MY_SQL_MERGE_STAGED_AGENT_ROWS = SQL_INSERT_AGENT_COLUMNS
+			+ "SELECT %2$d, nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %3$d "
+			+ "FROM staged " + MY_SQL_MERGE_ON_INSERT + "; "
+			+ "DROP TEMPORARY TABLE staged; ";
+	
+	// Keys of rows of agent %2$d of partitioned table %1$s modified after version %3$d
+	public static final String SQL_SELECT_MODIFIED_AGENT_KEYS = "(SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, "
+			+ "modality FROM %1$s WHERE agentId = %2$d AND version > %3$d)";
+	
+	// Captures travel times and filling levels of the rows of agent %2$d of partitioned table %1$s
+	// with the keys of the rows of %3$s into temporary table %4$s before they are merged
+	public static final String MY_SQL_CAPTURE_PRIOR_AGENT_ROWS =
+			"DROP TEMPORARY TABLE IF EXISTS %4$s; "
+			+ "CREATE TEMPORARY TABLE %4$s (PRIMARY KEY(nodeId, prevNodeId, weather, weekday, timeOfDay, modality)) AS ("
+			+ "SELECT b.nodeId, b.prevNodeId, b.weather, b.weekday, b.timeOfDay, b.modality, b.ttime, b.fillLevel "
+			+ "FROM %1$s b JOIN %3$s s ON b.agentId = %2$d AND b.nodeId = s.nodeId AND b.prevNodeId = s.prevNodeId "
+			+ "AND b.weather = s.weather AND b.weekday = s.weekday AND b.timeOfDay = s.timeOfDay AND b.modality = s.modality); ";
+	
+	public static final String SQL_SELECT_AGENT_TRANSITION_ROWS = "SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, "
+			+ "modality, ttime, prevttime, fillLevel, weight FROM %1$s WHERE agentId = ? AND (%2$s)";
+	
+	public static final String MY_SQL_CREATE_PARTITIONED_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS %1$s_rollup "
+			+ "(agentId INT, nodeId INT, level TINYINT UNSIGNED, modality TINYINT UNSIGNED, timeOfDay TINYINT UNSIGNED, "
+			+ "weekday TINYINT UNSIGNED, sumTTime DOUBLE, sumFillLevel DOUBLE, rowCount INT, "
+			+ "PRIMARY KEY(agentId, nodeId, level, modality, timeOfDay, weekday)) "
+			+ "PARTITION BY HASH(agentId) PARTITIONS %2$d";
+	
+	public static final String SQL_INSERT_AGENT_ROLLUP_COLUMNS = "INSERT INTO %1$s_rollup "
+			+ " (agentId, nodeId, level, modality, timeOfDay, weekday, sumTTime, sumFillLevel, rowCount) ";
+	
+	// Adds the differences between rows of agent %2$d of partitioned table %1$s marked with version %3$d
+	// and their prior values captured in temporary table %4$s to the rollups of the agent
+	public static final String MY_SQL_ADD_AGENT_ROLLUP_DELTAS =
+			"DROP TEMPORARY TABLE IF EXISTS delta; "
+			+ "CREATE TEMPORARY TABLE delta AS (SELECT b.nodeId, b.modality, b.timeOfDay, b.weekday, "
+			+ "b.ttime - COALESCE(p.ttime, 0) AS dTTime, b.fillLevel - COALESCE(p.fillLevel, 0) AS dFillLevel, "
+			+ "IF(p.nodeId IS NULL, 1, 0) AS dCount FROM %1$s b LEFT JOIN %4$s p ON b.nodeId = p.nodeId "
+			+ "AND b.prevNodeId = p.prevNodeId AND b.weather = p.weather AND b.weekday = p.weekday "
+			+ "AND b.timeOfDay = p.timeOfDay AND b.modality = p.modality WHERE b.agentId = %2$d AND b.version = %3$d); "
+			+ "START TRANSACTION; "
+			+ SQL_INSERT_AGENT_ROLLUP_COLUMNS
+			+ "SELECT %2$d, nodeId, 0, 0, 0, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_AGENT_ROLLUP_COLUMNS
+			+ "SELECT %2$d, nodeId, 1, modality, 0, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_AGENT_ROLLUP_COLUMNS
+			+ "SELECT %2$d, nodeId, 2, modality, timeOfDay, 0, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality, timeOfDay" + SQL_ADD_ROLLUP_DELTA
+			+ SQL_INSERT_AGENT_ROLLUP_COLUMNS
+			+ "SELECT %2$d, nodeId, 3, modality, timeOfDay, weekday, SUM(dTTime), SUM(dFillLevel), SUM(dCount) FROM delta "
+			+ "GROUP BY nodeId, modality, timeOfDay, weekday" + SQL_ADD_ROLLUP_DELTA
+			+ "COMMIT; "
+			+ "DROP TEMPORARY TABLE delta; "
+			+ "DROP TEMPORARY TABLE %4$s; ";
+	
+	public static final String SQL_SELECT_AGENT_NODE_ROLLUPS = "SELECT nodeId, level, modality, timeOfDay, weekday, "
+			+ "sumTTime, sumFillLevel, rowCount FROM %1$s_rollup WHERE agentId = ? AND nodeId IN (%2$s)";
+	
+	// Mutually merges rows of agents %2$d and %3$d modified after version %4$d marking merged rows with version %5$d
+	public static final String MY_SQL_MERGE_AGENT_DELTA =
+			"DROP TEMPORARY TABLE IF EXISTS ex1; "
+			+ "DROP TEMPORARY TABLE IF EXISTS ex2; "
+			+ "CREATE TEMPORARY TABLE ex1 AS (SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, modality, "
+			+ "ttime, prevttime, fillLevel, weight FROM %1$s WHERE agentId = %2$d AND version > %4$d); "
+			+ "CREATE TEMPORARY TABLE ex2 AS (SELECT nodeId, prevNodeId, weather, weekday, timeOfDay, modality, "
+			+ "ttime, prevttime, fillLevel, weight FROM %1$s WHERE agentId = %3$d AND version > %4$d); "
 			
-			+ "INSERT INTO %1$s (SELECT * FROM %2$s) "
-			+ "ON DUPLICATE KEY UPDATE "
-			+ "ttime=(%1$s.ttime*%1$s.weight+VALUES(ttime)*VALUES(weight))/(%1$s.weight+VALUES(weight)), "
-			+ "prevttime=(%1$s.prevttime*%1$s.weight+VALUES(prevttime)*VALUES(weight))/(%1$s.weight+VALUES(weight)), "
-			+ "filllevel=(%1$s.filllevel*%1$s.weight+VALUES(filllevel))*VALUES(weight)/(%1$s.weight+VALUES(weight)), "
-			+ "weight=LN(EXP(%1$s.weight)+EXP(VALUES(weight))); "
+			+ SQL_INSERT_AGENT_COLUMNS
+			+ "SELECT %2$d, nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %5$d "
+			+ "FROM ex2 " + MY_SQL_MERGE_ON_INSERT + "; "
 			
-			+ "INSERT INTO %2$s (SELECT * FROM ex) "
-			+ "ON DUPLICATE KEY UPDATE "
-			+ "ttime=(%2$s.ttime*%2$s.weight+VALUES(ttime)*VALUES(weight))/(%2$s.weight+VALUES(weight)), "
-			+ "prevttime=(%2$s.prevttime*%2$s.weight+VALUES(prevttime)*VALUES(weight))/(%2$s.weight+VALUES(weight)), "
-			+ "filllevel=(%2$s.filllevel*%2$s.weight+VALUES(filllevel)*VALUES(weight))/(%2$s.weight+VALUES(weight)), "
-			+ "weight=LN(EXP(%2$s.weight)+EXP(VALUES(weight))); ";
+			+ SQL_INSERT_AGENT_COLUMNS
+			+ "SELECT %3$d, nodeId, prevNodeId, weather, weekday, timeOfDay, modality, ttime, prevttime, fillLevel, weight, %5$d "
+			+ "FROM ex1 " + MY_SQL_MERGE_ON_INSERT + "; "
+			+ "DROP TEMPORARY TABLE ex1; "
+			+ "DROP TEMPORARY TABLE ex2; ";
+	
+	public static final String SQL_COUNT_ROWS = "SELECT COUNT(*) FROM %1$s";
+	
+	// Selects rows of table %1$s of weight below %2$s not modified after version %3$d as candidates of compaction
+	public static final String MY_SQL_SELECT_PRUNE_CANDIDATES =
+			"DROP TEMPORARY TABLE IF EXISTS candidates; "
+			+ "CREATE TEMPORARY TABLE candidates (id INT AUTO_INCREMENT PRIMARY KEY) AS (SELECT nodeId, prevNodeId, "
+			+ "weather, weekday, timeOfDay, modality, version FROM %1$s WHERE weight < %2$s AND version <= %3$d); ";
+	
+	// Selects rows of table %1$s of weight below %2$s not modified after version %3$d which are not of the
+	// clear weather context as candidates of compaction
+	public static final String MY_SQL_SELECT_FOLD_CANDIDATES =
+			"DROP TEMPORARY TABLE IF EXISTS candidates; "
+			+ "CREATE TEMPORARY TABLE candidates (id INT AUTO_INCREMENT PRIMARY KEY) AS (SELECT nodeId, prevNodeId, "
+			+ "weather, weekday, timeOfDay, modality, version FROM %1$s WHERE weather <> 0 AND weight < %2$s AND version <= %3$d); ";
+	
+	// Selects the %2$d rows of lowest weight of table %1$s as candidates of compaction
+	public static final String MY_SQL_SELECT_LIGHTEST_CANDIDATES =
+			"DROP TEMPORARY TABLE IF EXISTS candidates; "
+			+ "CREATE TEMPORARY TABLE candidates (id INT AUTO_INCREMENT PRIMARY KEY) AS (SELECT nodeId, prevNodeId, "
+			+ "weather, weekday, timeOfDay, modality, version FROM %1$s ORDER BY weight ASC, version ASC LIMIT %2$d); ";
+	
+	public static final String SQL_SELECT_LAST_CANDIDATE = "SELECT COALESCE(MAX(id), 0) FROM candidates";
+	
+	// Removes candidates of ids in (%2$d, %3$d] from table %1$s which have not been modified since they
+	// have been selected. Removed rows are kept in temporary table removed and subtracted from the rollups.
+	public static final String MY_SQL_REMOVE_CANDIDATES =
+			"DROP TEMPORARY TABLE IF EXISTS removed; "
+			+ "CREATE TEMPORARY TABLE removed AS (SELECT b.nodeId, b.prevNodeId, b.weather, b.weekday, b.timeOfDay, "
+			+ "b.modality, b.ttime, b.prevttime, b.fillLevel, b.weight FROM %1$s b JOIN candidates c "
+			+ "ON b.nodeId = c.nodeId AND b.prevNodeId = c.prevNodeId AND b.weather = c.weather AND b.weekday = c.weekday "
+			+ "AND b.timeOfDay = c.timeOfDay AND b.modality = c.modality AND b.version = c.version "
+			+ "WHERE c.id > %2$d AND c.id <= %3$d); "
+			+ "DROP TEMPORARY TABLE IF EXISTS delta; "
+			+ "CREATE TEMPORARY TABLE delta AS (SELECT nodeId, modality, timeOfDay, weekday, -ttime AS dTTime, "
+			+ "-fillLevel AS dFillLevel, -1 AS dCount FROM removed); "
+			+ "START TRANSACTION; "
+			+ "DELETE b FROM %1$s b JOIN removed r ON b.nodeId = r.nodeId AND b.prevNodeId = r.prevNodeId "
+			+ "AND b.weather = r.weather AND b.weekday = r.weekday AND b.timeOfDay = r.timeOfDay AND b.modality = r.modality; "
+			+ SQL_ROLLUP_DELTA_LEVELS
+			+ "DELETE r FROM %1$s_rollup r JOIN (SELECT DISTINCT nodeId FROM delta) d ON r.nodeId = d.nodeId "
+			+ "WHERE r.rowCount <= 0; "
+			+ "COMMIT; "
+			+ "DROP TEMPORARY TABLE delta; ";
+	
+	// Stages removed rows folded into the clear weather context of their row keys
+	public static final String MY_SQL_STAGE_FOLDED_ROWS =
+			"DROP TEMPORARY TABLE IF EXISTS staged; "
+			+ "CREATE TEMPORARY TABLE staged AS (SELECT nodeId, prevNodeId, 0 AS weather, weekday, timeOfDay, modality, "
+			+ "SUM(ttime * weight) / SUM(weight) AS ttime, SUM(prevttime * weight) / SUM(weight) AS prevttime, "
+			+ "SUM(fillLevel * weight) / SUM(weight) AS fillLevel, LN(SUM(EXP(weight))) AS weight FROM removed "
+			+ "GROUP BY nodeId, prevNodeId, weekday, timeOfDay, modality); ";
 	
+	public static final String MY_SQL_DROP_CANDIDATES =
+			"DROP TEMPORARY TABLE IF EXISTS candidates; "
+			+ "DROP TEMPORARY TABLE IF EXISTS removed; ";
 }
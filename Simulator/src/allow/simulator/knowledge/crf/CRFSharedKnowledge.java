@@ -0,0 +1,73 @@
+package allow.simulator.knowledge.crf;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import allow.simulator.entity.Entity;
+import allow.simulator.entity.Person;
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Global or regional knowledge model keeping shared tables in the heap
+ * instead of a database (see CRFSharedKnowledgeStore). Experiences learned
+ * during a tick become visible to predictions once the model is cleaned at
+ * the end of the tick. Merging of experiences and back-off prediction follow
+ * the semantics of CRFGlobalKnowledge and CRFRegionalKnowledge.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class CRFSharedKnowledge implements CRFKnowledgeModel {
+	private static final String GLOBAL_TABLE_NAME = "global";
+
+	// Store holding shared tables
+	private final CRFSharedKnowledgeStore store;
+
+	// Determines whether agents share knowledge with agents of the same home
+	// area (true) or with all agents (false)
+	private final boolean regional;
+
+	public CRFSharedKnowledge(boolean regional) {
+		this.regional = regional;
+		store = new CRFSharedKnowledgeStore();
+	}
+
+	@Override
+	public boolean addEntry(Entity agent, List<Experience> entries, String tablePrefix) {
+
+		if (entries.size() == 0) {
+			return false;
+		}
+		return store.add(getTableName(agent, tablePrefix), agent.getId(), entries);
+	}
+
+	@Override
+	public List<Experience> getPredictedItinerary(Entity agent, List<Experience> it, String tablePrefix) {
+		store.predict(getTableName(agent, tablePrefix), Collections.singletonList(it));
+		return it;
+	}
+
+	@Override
+	public void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, String tablePrefix, ExecutorService service) {
+
+		for (int i = 0; i < agents.size(); i++) {
+			getPredictedItinerary(agents.get(i), its.get(i), tablePrefix);
+		}
+	}
+
+	@Override
+	public void clean(Entity agent, String tablePrefix) {
+		store.publish();
+	}
+
+	@Override
+	public boolean exchangeKnowledge(Entity agent1, Entity agent2, String tablePrefix) {
+		// Knowledge is shared by all agents of a table already
+		return false;
+	}
+
+	private String getTableName(Entity agent, String tablePrefix) {
+		return tablePrefix + "_tbl_" + (regional ? ((Person) agent).getHomeArea() : GLOBAL_TABLE_NAME);
+	}
+}
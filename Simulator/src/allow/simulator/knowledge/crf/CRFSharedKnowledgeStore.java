@@ -0,0 +1,218 @@
+package allow.simulator.knowledge.crf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import allow.simulator.knowledge.Experience;
+
+/**
+ * In-process store of knowledge tables shared by many agents (e.g. a global
+ * table or one table per region). Experiences are added to delta buffers
+ * owned by the adding thread, hence concurrent writers do not contend on
+ * shared rows. Buffers are merged into the published tables by publish()
+ * (once per tick) using the merge rule of CRFTable, such that predictions
+ * see a consistent snapshot of the tables during a tick. Experiences are
+ * merged in order of the ids of the adding entities and, for each entity,
+ * in the order they were added, hence published tables do not depend on
+ * which threads added experiences.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFSharedKnowledgeStore {
+
+	/**
+	 * Sequence of experiences added by an entity to a table.
+	 */
+	private static final class Delta {
+		private final String tableName;
+		private final long entityId;
+		private final List<Experience> entries;
+
+		private Delta(String tableName, long entityId, List<Experience> entries) {
+			this.tableName = tableName;
+			this.entityId = entityId;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * Experiences added by a thread since the last publication in the order
+	 * they were added. The lock is held by the owning thread while adding
+	 * experiences and by the publishing thread while draining the buffer.
+	 */
+	private static final class DeltaBuffer {
+		private final ReentrantLock lock = new ReentrantLock();
+		private List<Delta> deltas = new ArrayList<Delta>();
+	}
+
+	// Orders deltas by id of the adding entity. Sorting is stable, hence
+	// deltas of an entity keep the order they were added in by the thread
+	// updating the entity.
+	private static final Comparator<Delta> ENTITY_ORDER = new Comparator<Delta>() {
+
+		@Override
+		public int compare(Delta d1, Delta d2) {
+			return Long.compare(d1.entityId, d2.entityId);
+		}
+	};
+
+	/**
+	 * Published table guarded by a read-write lock such that predictions run
+	 * concurrently and are excluded only while deltas are merged.
+	 */
+	private static final class SharedTable {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final CRFTable table = new CRFTable();
+	}
+
+	// Published tables by name
+	private final ConcurrentHashMap<String, SharedTable> tables;
+
+	// Delta buffers of all threads which have added experiences
+	private final Queue<DeltaBuffer> buffers;
+
+	// Delta buffer of the calling thread
+	private final ThreadLocal<DeltaBuffer> localBuffer;
+
+	/**
+	 * Creates a new empty store.
+	 */
+	public CRFSharedKnowledgeStore() {
+		tables = new ConcurrentHashMap<String, SharedTable>();
+		buffers = new ConcurrentLinkedQueue<DeltaBuffer>();
+		localBuffer = new ThreadLocal<DeltaBuffer>() {
+
+			@Override
+			protected DeltaBuffer initialValue() {
+				DeltaBuffer buffer = new DeltaBuffer();
+				buffers.add(buffer);
+				return buffer;
+			}
+		};
+	}
+
+	/**
+	 * Adds a sequence of experiences of an entity to a table. Experiences
+	 * become visible to predictions after the next call to publish().
+	 *
+	 * @param tableName Name of the table to add experiences to.
+	 * @param entityId Id of the entity which made the experiences.
+	 * @param entries Experiences to add.
+	 * @return True if experiences were added, false otherwise.
+	 */
+	public boolean add(String tableName, long entityId, List<Experience> entries) {
+
+		if (entries.size() == 0)
+			return false;
+		Delta delta = new Delta(tableName, entityId, new ArrayList<Experience>(entries));
+		DeltaBuffer buffer = localBuffer.get();
+		buffer.lock.lock();
+
+		try {
+			buffer.deltas.add(delta);
+
+		} finally {
+			buffer.lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Updates travel times and filling levels of a set of itineraries from
+	 * the published state of a table. Itineraries are left unchanged in case
+	 * the table does not exist.
+	 *
+	 * @param tableName Name of the table to predict from.
+	 * @param its Experiences of the itineraries to update.
+	 */
+	public void predict(String tableName, List<List<Experience>> its) {
+		SharedTable shared = tables.get(tableName);
+
+		if (shared == null)
+			return;
+		shared.lock.readLock().lock();
+
+		try {
+
+			for (List<Experience> it : its) {
+				shared.table.predict(it);
+			}
+
+		} finally {
+			shared.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges the delta buffers of all threads into the published tables.
+	 * Experiences are coalesced into one table per published table in order
+	 * of entity ids first.
+	 *
+	 * @return Number of rows merged.
+	 */
+	public int publish() {
+		List<Delta> pending = new ArrayList<Delta>();
+
+		for (DeltaBuffer buffer : buffers) {
+			buffer.lock.lock();
+
+			try {
+
+				if (buffer.deltas.size() == 0)
+					continue;
+				pending.addAll(buffer.deltas);
+				buffer.deltas = new ArrayList<Delta>();
+
+			} finally {
+				buffer.lock.unlock();
+			}
+		}
+		Collections.sort(pending, ENTITY_ORDER);
+
+		// Coalesce deltas before locking published tables
+		Map<String, CRFTable> coalesced = new HashMap<String, CRFTable>();
+
+		for (Delta delta : pending) {
+			CRFTable table = coalesced.get(delta.tableName);
+
+			if (table == null) {
+				table = new CRFTable();
+				coalesced.put(delta.tableName, table);
+			}
+			table.addExperiences(delta.entries);
+		}
+		int merged = 0;
+
+		for (Map.Entry<String, CRFTable> delta : coalesced.entrySet()) {
+			SharedTable shared = tables.get(delta.getKey());
+
+			if (shared == null) {
+				shared = new SharedTable();
+				SharedTable existing = tables.putIfAbsent(delta.getKey(), shared);
+
+				if (existing != null)
+					shared = existing;
+			}
+			shared.lock.writeLock().lock();
+
+			try {
+				shared.table.merge(delta.getValue());
+
+			} finally {
+				shared.lock.writeLock().unlock();
+			}
+			merged += delta.getValue().size();
+		}
+		return merged;
+	}
+}
@@ -0,0 +1,465 @@
+package allow.simulator.knowledge.crf;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceArrayList;
+
+import java.util.Collection;
+import java.util.List;
+
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Knowledge table held in the heap. Rows are identified by a long key packing
+ * nodeId, prevNodeId, weather, weekday, timeOfDay, and modality using the
+ * codes of DBEncoding. Node ids are stored as indices of CRFNodeIndex. Rows are additionally indexed by transition (nodeId and
+ * prevNodeId) for the most detailed back-off level. Coarser back-off levels
+ * (node, modality, time of day, weekday) are served from rollups holding the
+ * sums of travel times and filling levels and the number of rows of each
+ * context, which are updated incrementally as rows change. Merging and
+ * prediction follow the semantics of the SQL statements of CRFQuerys.
+ *
+ * Tables are not thread-safe. Predictions may run concurrently as long as the
+ * table is not modified.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFTable {
+	// Bit layout of keys (from least significant bit)
+	private static final int MODALITY_BITS = 4;
+	private static final int TIME_OF_DAY_BITS = 3;
+	private static final int WEEKDAY_BITS = 3;
+	private static final int WEATHER_BITS = 4;
+	static final int NODE_BITS = 25;
+
+	private static final int TIME_OF_DAY_SHIFT = MODALITY_BITS;
+	private static final int WEEKDAY_SHIFT = TIME_OF_DAY_SHIFT + TIME_OF_DAY_BITS;
+	private static final int WEATHER_SHIFT = WEEKDAY_SHIFT + WEEKDAY_BITS;
+	private static final int PREV_NODE_SHIFT = WEATHER_SHIFT + WEATHER_BITS;
+	private static final int NODE_SHIFT = PREV_NODE_SHIFT + NODE_BITS;
+
+	// Bit layout of rollup keys (from least significant bit)
+	private static final int ROLLUP_LEVEL_SHIFT = MODALITY_BITS + TIME_OF_DAY_BITS + WEEKDAY_BITS;
+	private static final int ROLLUP_NODE_SHIFT = ROLLUP_LEVEL_SHIFT + 2;
+
+	// Number of back-off levels served from rollups (node, modality, time of
+	// day, weekday), the most detailed level (previous node) is evaluated on rows
+	private static final int ROLLUP_LEVELS = 4;
+
+	/**
+	 * Row of a knowledge table.
+	 */
+	static final class Row {
+		private final long key;
+		private float ttime;
+		private float prevttime;
+		private float fillLevel;
+		private double weight;
+
+		public Row(long key, float ttime, float prevttime, float fillLevel, double weight) {
+			this.key = key;
+			this.ttime = ttime;
+			this.prevttime = prevttime;
+			this.fillLevel = fillLevel;
+			this.weight = weight;
+		}
+
+		public Row(Row other) {
+			this(other.key, other.ttime, other.prevttime, other.fillLevel, other.weight);
+		}
+
+		public long getNodeId() {
+			return decodeNodeId(key);
+		}
+
+		public long getPrevNodeId() {
+			return decodePrevNodeId(key);
+		}
+
+		public int getWeather() {
+			return decodeWeather(key);
+		}
+
+		public int getWeekday() {
+			return decodeWeekday(key);
+		}
+
+		public int getTimeOfDay() {
+			return decodeTimeOfDay(key);
+		}
+
+		public int getModality() {
+			return decodeModality(key);
+		}
+
+		public float getTTime() {
+			return ttime;
+		}
+
+		public float getPrevTTime() {
+			return prevttime;
+		}
+
+		public float getFillLevel() {
+			return fillLevel;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+	}
+
+	/**
+	 * Aggregate of the rows of a back-off context.
+	 */
+	private static final class Rollup {
+		private double sumTTime;
+		private double sumFillLevel;
+		private int rowCount;
+	}
+
+	private final Long2ObjectOpenHashMap<Row> rows;
+	private final Long2ObjectOpenHashMap<ReferenceArrayList<Row>> rowsByTransition;
+	private final Long2ObjectOpenHashMap<Rollup> rollups;
+
+	/**
+	 * Creates a new empty table.
+	 */
+	public CRFTable() {
+		rows = new Long2ObjectOpenHashMap<Row>();
+		rowsByTransition = new Long2ObjectOpenHashMap<ReferenceArrayList<Row>>();
+		rollups = new Long2ObjectOpenHashMap<Rollup>();
+	}
+
+	/**
+	 * Creates a new table as a copy of another table.
+	 *
+	 * @param other Table to copy.
+	 */
+	public CRFTable(CRFTable other) {
+		this();
+
+		for (Row row : other.rows.values()) {
+			insert(new Row(row));
+		}
+	}
+
+	/**
+	 * Returns the number of rows of the table.
+	 *
+	 * @return Number of rows.
+	 */
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Returns the rows of the table.
+	 *
+	 * @return Rows of the table.
+	 */
+	public Collection<Row> getRows() {
+		return rows.values();
+	}
+
+	/**
+	 * Adds a row as stored in a database table. In case a row with the same
+	 * key exists, it is replaced. Columns are expected to be encoded using
+	 * DBEncoding.
+	 */
+	public void put(long nodeId, long prevNodeId, int weather, int weekday, int timeOfDay, int modality,
+			double ttime, double prevttime, double fillLevel, double weight) {
+		long key = encodeKey(nodeId, prevNodeId, weather, weekday, timeOfDay, modality);
+		Row existing = rows.get(key);
+
+		if (existing != null) {
+			float oldTTime = existing.ttime;
+			float oldFillLevel = existing.fillLevel;
+			existing.ttime = (float) ttime;
+			existing.prevttime = (float) prevttime;
+			existing.fillLevel = (float) fillLevel;
+			existing.weight = weight;
+			updateRollups(key, existing.ttime - oldTTime, existing.fillLevel - oldFillLevel, 0);
+			return;
+		}
+		insert(new Row(key, (float) ttime, (float) prevttime, (float) fillLevel, weight));
+	}
+
+	/**
+	 * Adds a sequence of experiences. Existing rows are updated using the
+	 * weighted mean.
+	 *
+	 * @param entries Experiences to add.
+	 */
+	public void addExperiences(List<Experience> entries) {
+		long prevNodeId = -1;
+		double prevDuration = -1;
+
+		for (Experience ex : entries) {
+			long nodeId = ex.getSegmentId();
+			double duration = ex.getTravelTime();
+			long key = encodeKey(nodeId, prevNodeId,
+					DBEncoding.encodeWeather(ex.getWeather()),
+					DBEncoding.encodeDayOfWeek(ex.getWeekday()),
+					DBEncoding.encodeTimeOfDay(ex.getTStart()),
+					DBEncoding.encodeTType(ex.getTransportationMean()));
+			double fillLevel = ex.getPublicTransportationFillingLevel();
+			Row row = rows.get(key);
+
+			if (row == null) {
+				insert(new Row(key, (float) duration, (float) prevDuration, (float) fillLevel, 1.0));
+
+			} else {
+				float oldTTime = row.ttime;
+				float oldFillLevel = row.fillLevel;
+				row.ttime = (float) ((row.ttime * row.weight + duration) / (row.weight + 1));
+				row.prevttime = (float) ((row.prevttime * row.weight + prevDuration) / (row.weight + 1));
+				row.fillLevel = (float) ((row.fillLevel * row.weight + fillLevel) / (row.weight + 1));
+				row.weight = Math.log(Math.exp(row.weight) + Math.E);
+				updateRollups(key, row.ttime - oldTTime, row.fillLevel - oldFillLevel, 0);
+			}
+			prevNodeId = nodeId;
+			prevDuration = duration;
+		}
+	}
+
+	/**
+	 * Merges the rows of another table into this table weighting values of
+	 * existing rows by their weights.
+	 *
+	 * @param other Table to merge into this table.
+	 */
+	public void merge(CRFTable other) {
+
+		for (Row row : other.rows.values()) {
+			Row existing = rows.get(row.key);
+
+			if (existing == null) {
+				insert(new Row(row));
+				continue;
+			}
+			float oldTTime = existing.ttime;
+			float oldFillLevel = existing.fillLevel;
+			double weight = existing.weight + row.weight;
+			existing.ttime = (float) ((existing.ttime * existing.weight + row.ttime * row.weight) / weight);
+			existing.prevttime = (float) ((existing.prevttime * existing.weight + row.prevttime * row.weight) / weight);
+			existing.fillLevel = (float) ((existing.fillLevel * existing.weight + row.fillLevel * row.weight) / weight);
+			existing.weight = Math.log(Math.exp(existing.weight) + Math.exp(row.weight));
+			updateRollups(existing.key, existing.ttime - oldTTime, existing.fillLevel - oldFillLevel, 0);
+		}
+	}
+
+	/**
+	 * Replaces the rollup of a back-off context as stored in a database table.
+	 * Columns are expected to be encoded using DBEncoding, fields not
+	 * belonging to the level are ignored.
+	 *
+	 * @param nodeId Id of the node.
+	 * @param level Back-off level (0: node, 1: modality, 2: time of day, 3: weekday).
+	 */
+	public void putRollup(long nodeId, int level, int modality, int timeOfDay, int weekday,
+			double sumTTime, double sumFillLevel, int rowCount) {
+		long key = encodeRollupKey(nodeId, level, modality, timeOfDay, weekday);
+		Rollup rollup = rollups.get(key);
+
+		if (rollup == null) {
+			rollup = new Rollup();
+			rollups.put(key, rollup);
+		}
+		rollup.sumTTime = sumTTime;
+		rollup.sumFillLevel = sumFillLevel;
+		rollup.rowCount = rowCount;
+	}
+
+	/**
+	 * Removes all rollups, e.g. before loading the rollups of a subset of rows
+	 * from a database table.
+	 */
+	public void clearRollups() {
+		rollups.clear();
+	}
+
+	/**
+	 * Updates travel times and filling levels of an itinerary. For each
+	 * segment, the most detailed back-off level with a positive mean travel
+	 * time is used (previous node, weekday, time of day, modality, node).
+	 *
+	 * @param it Experiences of the itinerary to update.
+	 */
+	public void predict(List<Experience> it) {
+		boolean firstSeg = true;
+		long prevNodeId = -1;
+		double prevTTime = -1;
+		long segmentTStart = 0;
+
+		for (Experience ex : it) {
+
+			if (firstSeg)
+				segmentTStart = ex.getStartingTime() / 1000;
+
+			if (ex.isTransient())
+				continue;
+
+			double predictedTravelTime = ex.getTravelTime();
+			double predictedFillLevel = 0.0;
+			long nodeId = ex.getSegmentId();
+			byte modality = DBEncoding.encodeTType(ex.getTransportationMean());
+			byte timeOfDay = DBEncoding.encodeTimeOfDay(ex.getTStart());
+			byte weekday = DBEncoding.encodeDayOfWeek(ex.getWeekday());
+			boolean matched = false;
+
+			// Most detailed level matches previous node and travel time
+			if (!firstSeg && (prevTTime != -1)) {
+				ReferenceArrayList<Row> transitionRows = rowsByTransition.get(encodeTransition(nodeId, prevNodeId));
+
+				if (transitionRows != null) {
+					long prevTTimeMin = Math.round(prevTTime * 0.7);
+					long prevTTimeMax = Math.round(prevTTime * 1.3);
+					double sumTTime = 0.0;
+					double sumFillLevel = 0.0;
+					int count = 0;
+
+					for (int i = 0; i < transitionRows.size(); i++) {
+						Row row = transitionRows.get(i);
+
+						if ((decodeModality(row.key) == modality)
+								&& (decodeTimeOfDay(row.key) == timeOfDay)
+								&& (decodeWeekday(row.key) == weekday)
+								&& (row.prevttime >= prevTTimeMin) && (row.prevttime <= prevTTimeMax)) {
+							sumTTime += row.ttime;
+							sumFillLevel += row.fillLevel;
+							count++;
+						}
+					}
+
+					if ((count > 0) && (sumTTime / count > 0)) {
+						predictedTravelTime = sumTTime / count;
+						predictedFillLevel = sumFillLevel / count;
+						matched = true;
+					}
+				}
+			}
+
+			// Coarser levels are point lookups of rollups
+			for (int level = ROLLUP_LEVELS - 1; !matched && (level >= 0); level--) {
+				Rollup rollup = rollups.get(encodeRollupKey(nodeId, level, modality, timeOfDay, weekday));
+
+				if ((rollup != null) && (rollup.rowCount > 0) && (rollup.sumTTime / rollup.rowCount > 0)) {
+					predictedTravelTime = rollup.sumTTime / rollup.rowCount;
+					predictedFillLevel = rollup.sumFillLevel / rollup.rowCount;
+					matched = true;
+				}
+			}
+			// Estimate actual ttime
+			firstSeg = false;
+			prevNodeId = nodeId;
+			prevTTime = predictedTravelTime;
+
+			ex.setStartingTime(segmentTStart * 1000);
+			segmentTStart = segmentTStart
+					+ ((int) predictedTravelTime * 1000);
+			ex.setEndTime(segmentTStart * 1000);
+			ex.setTravelTime(predictedTravelTime);
+			ex.setPublicTransportationFillingLevel(predictedFillLevel);
+		}
+	}
+
+	private void insert(Row row) {
+		rows.put(row.key, row);
+		long transition = row.key >>> PREV_NODE_SHIFT;
+		ReferenceArrayList<Row> transitionRows = rowsByTransition.get(transition);
+
+		if (transitionRows == null) {
+			transitionRows = new ReferenceArrayList<Row>(4);
+			rowsByTransition.put(transition, transitionRows);
+		}
+		transitionRows.add(row);
+		updateRollups(row.key, row.ttime, row.fillLevel, 1);
+	}
+
+	private void updateRollups(long key, double deltaTTime, double deltaFillLevel, int deltaCount) {
+		long nodeId = decodeNodeId(key);
+		int modality = decodeModality(key);
+		int timeOfDay = decodeTimeOfDay(key);
+		int weekday = decodeWeekday(key);
+
+		for (int level = 0; level < ROLLUP_LEVELS; level++) {
+			long rollupKey = encodeRollupKey(nodeId, level, modality, timeOfDay, weekday);
+			Rollup rollup = rollups.get(rollupKey);
+
+			if (rollup == null) {
+				rollup = new Rollup();
+				rollups.put(rollupKey, rollup);
+			}
+			rollup.sumTTime += deltaTTime;
+			rollup.sumFillLevel += deltaFillLevel;
+			rollup.rowCount += deltaCount;
+		}
+	}
+
+	private static long encodeKey(long nodeId, long prevNodeId, int weather, int weekday, int timeOfDay, int modality) {
+		return (encodeTransition(nodeId, prevNodeId) << PREV_NODE_SHIFT)
+				| ((long) weather << WEATHER_SHIFT)
+				| ((long) weekday << WEEKDAY_SHIFT)
+				| ((long) timeOfDay << TIME_OF_DAY_SHIFT)
+				| modality;
+	}
+
+	/**
+	 * Encodes a transition from a previous node to a node such that it can be
+	 * used as a key of lookups.
+	 */
+	static long encodeTransition(long nodeId, long prevNodeId) {
+		long prev = (prevNodeId == -1) ? 0 : CRFNodeIndex.getIndex(prevNodeId) + 1;
+		return ((long) CRFNodeIndex.getIndex(nodeId) << (NODE_SHIFT - PREV_NODE_SHIFT)) | prev;
+	}
+
+	static long decodeTransitionNodeId(long transition) {
+		return CRFNodeIndex.getNodeId((int) (transition >>> (NODE_SHIFT - PREV_NODE_SHIFT)));
+	}
+
+	static long decodeTransitionPrevNodeId(long transition) {
+		int prev = (int) (transition & ((1L << NODE_BITS) - 1));
+		return (prev == 0) ? -1 : CRFNodeIndex.getNodeId(prev - 1);
+	}
+
+	// Fields not belonging to a level are cleared such that a rollup key
+	// identifies the aggregate of all rows of a back-off context
+	private static long encodeRollupKey(long nodeId, int level, int modality, int timeOfDay, int weekday) {
+		long key = (nodeId << ROLLUP_NODE_SHIFT) | ((long) level << ROLLUP_LEVEL_SHIFT);
+
+		if (level >= 1)
+			key |= modality;
+
+		if (level >= 2)
+			key |= (long) timeOfDay << TIME_OF_DAY_SHIFT;
+
+		if (level >= 3)
+			key |= (long) weekday << WEEKDAY_SHIFT;
+		return key;
+	}
+
+	private static long decodeNodeId(long key) {
+		return decodeTransitionNodeId(key >>> PREV_NODE_SHIFT);
+	}
+
+	private static long decodePrevNodeId(long key) {
+		return decodeTransitionPrevNodeId(key >>> PREV_NODE_SHIFT);
+	}
+
+	private static int decodeWeather(long key) {
+		return (int) ((key >>> WEATHER_SHIFT) & ((1L << WEATHER_BITS) - 1));
+	}
+
+	private static int decodeWeekday(long key) {
+		return (int) ((key >>> WEEKDAY_SHIFT) & ((1L << WEEKDAY_BITS) - 1));
+	}
+
+	private static int decodeTimeOfDay(long key) {
+		return (int) ((key >>> TIME_OF_DAY_SHIFT) & ((1L << TIME_OF_DAY_BITS) - 1));
+	}
+
+	private static int decodeModality(long key) {
+		return (int) (key & ((1L << MODALITY_BITS) - 1));
+	}
+}
@@ -0,0 +1,727 @@
+package allow.simulator.knowledge.crf;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Shared access to CRF knowledge tables using the parameterised templates of
+ * CRFQuerys. Prepared statements are cached by the pooled connections of
+ * DSFactory, hence each template is parsed once per connection and table.
+ * Each knowledge table is accompanied by a rollup table holding aggregates of
+ * the back-off contexts of each node. Merges capture the prior values of the
+ * rows they modify and add the differences to the rollups, such that their
+ * cost depends on the number of merged rows only. Predictions fetch the rollups of all requested nodes
+ * and the rows of all requested transitions at once and evaluate back-off
+ * levels in memory using CRFTable.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFTableAccess {
+
+	// Number of nodes fetched per set-based lookup
+	private static final int LOOKUP_SIZE = 256;
+	private static final String LOOKUP_PARAMETERS = createParameters(LOOKUP_SIZE);
+
+	// Number of transitions fetched per set-based lookup
+	private static final int TRANSITION_LOOKUP_SIZE = 128;
+	private static final String TRANSITION_CONDITIONS = createTransitionConditions(TRANSITION_LOOKUP_SIZE);
+
+	// Locks serialising modifications of tables such that row versions of a
+	// table increase in the order modifications are committed
+	private static final int LOCK_STRIPES = 256;
+	private static final ReentrantLock tableLocks[] = createLocks(LOCK_STRIPES);
+
+	// Number of rows removed per lock of a table during compaction
+	private static final int COMPACTION_CHUNK_SIZE = 1024;
+
+	// Last version assigned to modified rows
+	private static final AtomicLong version = new AtomicLong();
+
+	private CRFTableAccess() { }
+
+	/**
+	 * Creates a knowledge table and its rollup table if they do not exist yet.
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to create.
+	 * @throws SQLException
+	 */
+	static void createTable(Connection con, String tableName) throws SQLException {
+		Statement stmt = null;
+
+		try {
+			stmt = con.createStatement();
+			stmt.execute(String.format(CRFQuerys.MY_SQL_CREATE_TABLE, tableName,
+					String.format(CRFQuerys.MY_SQL_CREATE_ROLLUP_TABLE, tableName)));
+
+		} finally {
+
+			if (stmt != null)
+				stmt.close();
+		}
+	}
+
+	/**
+	 * Merges the rows of an in-memory table into a knowledge table as a single
+	 * batch. Rows are staged in a temporary table, existing rows are merged
+	 * weighting values by their weights. Merged rows are marked with a new
+	 * version and their differences are added to the rollups.
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to merge rows into.
+	 * @param rows Rows to merge.
+	 * @throws SQLException
+	 */
+	static void mergeRows(Connection con, String tableName, CRFTable rows) throws SQLException {
+		stageRows(con, rows);
+		ReentrantLock lock = getLock(tableName);
+		lock.lock();
+
+		try {
+			long rowVersion = nextVersion();
+			execute(con, String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_ROWS, tableName, "staged", "prior")
+					+ String.format(CRFQuerys.MY_SQL_MERGE_STAGED_ROWS, tableName, rowVersion)
+					+ String.format(CRFQuerys.MY_SQL_ADD_ROLLUP_DELTAS, tableName, rowVersion, "prior"));
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Merges the rows of an in-memory table into the partition of an agent of
+	 * a partitioned knowledge table (see mergeRows()).
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the partitioned table to merge rows into.
+	 * @param agentId Id of the agent the rows belong to.
+	 * @param rows Rows to merge.
+	 * @throws SQLException
+	 */
+	static void mergeAgentRows(Connection con, String tableName, long agentId, CRFTable rows) throws SQLException {
+		stageRows(con, rows);
+		ReentrantLock lock = getLock(getPartitionKey(tableName, agentId));
+		lock.lock();
+
+		try {
+			long rowVersion = nextVersion();
+			execute(con, String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_AGENT_ROWS, tableName, agentId, "staged", "prior")
+					+ String.format(CRFQuerys.MY_SQL_MERGE_STAGED_AGENT_ROWS, tableName, agentId, rowVersion)
+					+ String.format(CRFQuerys.MY_SQL_ADD_AGENT_ROLLUP_DELTAS, tableName, agentId, rowVersion, "prior"));
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Mutually merges the rows of two knowledge tables modified after a given
+	 * version. Merged rows are marked with a new version and their differences
+	 * are added to the rollups. Both tables must exist.
+	 *
+	 * @param con Connection to use.
+	 * @param tableName1 Name of the first table.
+	 * @param tableName2 Name of the second table.
+	 * @param sinceVersion Version of the last merge of both tables.
+	 * @return Version of merged rows.
+	 * @throws SQLException
+	 */
+	static long mergeDelta(Connection con, String tableName1, String tableName2, long sinceVersion) throws SQLException {
+		lock(tableName1, tableName2);
+		Statement stmt = null;
+
+		try {
+			long rowVersion = nextVersion();
+			stmt = con.createStatement();
+			stmt.execute(String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_ROWS, tableName1,
+					String.format(CRFQuerys.SQL_SELECT_MODIFIED_KEYS, tableName2, sinceVersion), "prior1"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_ROWS, tableName2,
+					String.format(CRFQuerys.SQL_SELECT_MODIFIED_KEYS, tableName1, sinceVersion), "prior2"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_MERGE_DELTA, tableName1, tableName2, sinceVersion, rowVersion));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_ADD_ROLLUP_DELTAS, tableName1, rowVersion, "prior1"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_ADD_ROLLUP_DELTAS, tableName2, rowVersion, "prior2"));
+			return rowVersion;
+
+		} finally {
+			unlock(tableName1, tableName2);
+
+			if (stmt != null)
+				stmt.close();
+		}
+	}
+
+	/**
+	 * Mutually merges the rows of two agents of a partitioned knowledge table
+	 * modified after a given version (see mergeDelta()).
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the partitioned table.
+	 * @param agentId1 Id of the first agent.
+	 * @param agentId2 Id of the second agent.
+	 * @param sinceVersion Version of the last merge of both agents.
+	 * @return Version of merged rows.
+	 * @throws SQLException
+	 */
+	static long mergeAgentDelta(Connection con, String tableName, long agentId1, long agentId2, long sinceVersion) throws SQLException {
+		String key1 = getPartitionKey(tableName, agentId1);
+		String key2 = getPartitionKey(tableName, agentId2);
+		lock(key1, key2);
+		Statement stmt = null;
+
+		try {
+			long rowVersion = nextVersion();
+			stmt = con.createStatement();
+			stmt.execute(String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_AGENT_ROWS, tableName, agentId1,
+					String.format(CRFQuerys.SQL_SELECT_MODIFIED_AGENT_KEYS, tableName, agentId2, sinceVersion), "prior1"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_AGENT_ROWS, tableName, agentId2,
+					String.format(CRFQuerys.SQL_SELECT_MODIFIED_AGENT_KEYS, tableName, agentId1, sinceVersion), "prior2"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_MERGE_AGENT_DELTA, tableName, agentId1, agentId2, sinceVersion, rowVersion));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_ADD_AGENT_ROLLUP_DELTAS, tableName, agentId1, rowVersion, "prior1"));
+			stmt.execute(String.format(CRFQuerys.MY_SQL_ADD_AGENT_ROLLUP_DELTAS, tableName, agentId2, rowVersion, "prior2"));
+			return rowVersion;
+
+		} finally {
+			unlock(key1, key2);
+
+			if (stmt != null)
+				stmt.close();
+		}
+	}
+
+	/**
+	 * Recomputes all rollups of a knowledge table, e.g. after the table has
+	 * been modified without refreshing rollups. The rollup table is created
+	 * if necessary.
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to recompute rollups for.
+	 * @throws SQLException
+	 */
+	static void rebuildRollups(Connection con, String tableName) throws SQLException {
+		ReentrantLock lock = getLock(tableName);
+		lock.lock();
+
+		try {
+			execute(con, String.format(CRFQuerys.MY_SQL_REBUILD_ROLLUPS, tableName));
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Compacts a knowledge table. Rows which have not been modified after the
+	 * given version are removed if their weight is below minWeight or folded
+	 * into the clear weather context of their row key if their weight is
+	 * below foldWeight. Afterwards, rows of lowest weight are removed such
+	 * that at most maxRows rows remain. Non-positive thresholds disable the
+	 * respective step.
+	 *
+	 * Rows to remove are selected without locking the table and removed in
+	 * chunks of bounded size. The table is locked per chunk only, such that
+	 * merges are delayed by at most one chunk. Rows modified after they have
+	 * been selected are kept. Removed rows are subtracted from the rollups.
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to compact.
+	 * @param minWeight Weight below which rows are removed.
+	 * @param foldWeight Weight below which rows are folded.
+	 * @param maxRows Maximum number of rows to keep.
+	 * @param sinceVersion Version of rows modified by the last compaction.
+	 * @return Number of rows removed.
+	 * @throws SQLException
+	 */
+	static int compact(Connection con, String tableName, double minWeight, double foldWeight, int maxRows, long sinceVersion) throws SQLException {
+		int removed = 0;
+
+		try {
+
+			if (minWeight > 0) {
+				execute(con, String.format(CRFQuerys.MY_SQL_SELECT_PRUNE_CANDIDATES, tableName, String.valueOf(minWeight), sinceVersion));
+				removed += removeCandidates(con, tableName, false);
+			}
+
+			if (foldWeight > 0) {
+				execute(con, String.format(CRFQuerys.MY_SQL_SELECT_FOLD_CANDIDATES, tableName, String.valueOf(foldWeight), sinceVersion));
+				removed += removeCandidates(con, tableName, true);
+			}
+
+			if (maxRows > 0) {
+				int excess = countRows(con, tableName) - maxRows;
+
+				if (excess > 0) {
+					execute(con, String.format(CRFQuerys.MY_SQL_SELECT_LIGHTEST_CANDIDATES, tableName, excess));
+					removed += removeCandidates(con, tableName, false);
+				}
+			}
+			return removed;
+
+		} finally {
+			execute(con, CRFQuerys.MY_SQL_DROP_CANDIDATES);
+		}
+	}
+
+	// Removes selected candidates in chunks and folds them into the clear
+	// weather context if requested, returns the number of rows removed
+	private static int removeCandidates(Connection con, String tableName, boolean fold) throws SQLException {
+		int lastCandidate = queryInt(con, CRFQuerys.SQL_SELECT_LAST_CANDIDATE);
+		ReentrantLock lock = getLock(tableName);
+		int removed = 0;
+
+		for (int first = 0; first < lastCandidate; first += COMPACTION_CHUNK_SIZE) {
+			lock.lock();
+
+			try {
+				execute(con, String.format(CRFQuerys.MY_SQL_REMOVE_CANDIDATES, tableName, first, first + COMPACTION_CHUNK_SIZE));
+				removed += countRows(con, "removed");
+
+				if (!fold)
+					continue;
+				long rowVersion = nextVersion();
+				execute(con, CRFQuerys.MY_SQL_STAGE_FOLDED_ROWS
+						+ String.format(CRFQuerys.MY_SQL_CAPTURE_PRIOR_ROWS, tableName, "staged", "prior"));
+
+				// Folded rows not merged into existing rows are added
+				removed -= countRows(con, "staged") - countRows(con, "prior");
+				execute(con, String.format(CRFQuerys.MY_SQL_MERGE_STAGED_ROWS, tableName, rowVersion)
+						+ String.format(CRFQuerys.MY_SQL_ADD_ROLLUP_DELTAS, tableName, rowVersion, "prior"));
+
+			} finally {
+				lock.unlock();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the last version assigned to modified rows.
+	 *
+	 * @return Last version of modified rows.
+	 */
+	static long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Updates travel times and filling levels of an itinerary from a knowledge
+	 * table (see predict(Connection, String, List)).
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to predict from.
+	 * @param it Experiences of the itinerary to update.
+	 * @throws SQLException
+	 */
+	static void predict(Connection con, String tableName, List<Experience> it) throws SQLException {
+		predictAll(con, tableName, Collections.singletonList(it));
+	}
+
+	/**
+	 * Updates travel times and filling levels of a set of itineraries from a
+	 * knowledge table. Rollups of the nodes and rows of the transitions
+	 * traversed by the itineraries are fetched with set-based lookups. For
+	 * each segment, the most detailed back-off level with a match is then
+	 * evaluated in memory (previous node, weekday, time of day, modality,
+	 * node).
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the table to predict from.
+	 * @param its Experiences of the itineraries to update.
+	 * @throws SQLException
+	 */
+	static void predictAll(Connection con, String tableName, List<List<Experience>> its) throws SQLException {
+		predictAll(con, String.format(CRFQuerys.SQL_SELECT_NODE_ROLLUPS, tableName, LOOKUP_PARAMETERS),
+				String.format(CRFQuerys.SQL_SELECT_TRANSITION_ROWS, tableName, TRANSITION_CONDITIONS), -1, its);
+	}
+
+	/**
+	 * Updates travel times and filling levels of a set of itineraries from the
+	 * partition of an agent of a partitioned knowledge table (see
+	 * predictAll(Connection, String, List)).
+	 *
+	 * @param con Connection to use.
+	 * @param tableName Name of the partitioned table to predict from.
+	 * @param agentId Id of the agent whose knowledge is used.
+	 * @param its Experiences of the itineraries to update.
+	 * @throws SQLException
+	 */
+	static void predictAgent(Connection con, String tableName, long agentId, List<List<Experience>> its) throws SQLException {
+		predictAll(con, String.format(CRFQuerys.SQL_SELECT_AGENT_NODE_ROLLUPS, tableName, LOOKUP_PARAMETERS),
+				String.format(CRFQuerys.SQL_SELECT_AGENT_TRANSITION_ROWS, tableName, TRANSITION_CONDITIONS), agentId, its);
+	}
+
+	private static void predictAll(Connection con, String rollupSql, String transitionSql, long agentId,
+			List<List<Experience>> its) throws SQLException {
+		LongOpenHashSet nodeIds = new LongOpenHashSet();
+		LongOpenHashSet transitions = new LongOpenHashSet();
+
+		for (List<Experience> it : its) {
+			long prevNodeId = -1;
+			boolean firstSeg = true;
+
+			for (Experience ex : it) {
+
+				if (ex.isTransient())
+					continue;
+				long nodeId = ex.getSegmentId();
+				nodeIds.add(nodeId);
+
+				if (!firstSeg)
+					transitions.add(CRFTable.encodeTransition(nodeId, prevNodeId));
+				firstSeg = false;
+				prevNodeId = nodeId;
+			}
+		}
+
+		if (nodeIds.size() == 0)
+			return;
+		CRFTable table = new CRFTable();
+
+		// Node ids follow the agent id in case the table is partitioned
+		int offset = (agentId >= 0) ? 1 : 0;
+
+		if (transitions.size() > 0) {
+			PreparedStatement stmt = con.prepareStatement(transitionSql);
+
+			try {
+
+				if (agentId >= 0)
+					stmt.setLong(1, agentId);
+				LongIterator iter = transitions.iterator();
+
+				while (iter.hasNext()) {
+					long transition = 0;
+					int i = 0;
+
+					for (; (i < TRANSITION_LOOKUP_SIZE) && iter.hasNext(); i++) {
+						transition = iter.nextLong();
+						setTransition(stmt, offset + 2 * i, transition);
+					}
+
+					// Pad remaining parameters such that the statement can be reused
+					for (; i < TRANSITION_LOOKUP_SIZE; i++) {
+						setTransition(stmt, offset + 2 * i, transition);
+					}
+					loadRows(stmt, table);
+				}
+
+			} finally {
+				stmt.close();
+			}
+		}
+
+		// Rollups derived from the subset of rows loaded before are replaced
+		table.clearRollups();
+		PreparedStatement stmt = con.prepareStatement(rollupSql);
+
+		try {
+
+			if (agentId >= 0)
+				stmt.setLong(1, agentId);
+			LongIterator iter = nodeIds.iterator();
+
+			while (iter.hasNext()) {
+				long nodeId = 0;
+				int i = 1;
+
+				for (; (i <= LOOKUP_SIZE) && iter.hasNext(); i++) {
+					nodeId = iter.nextLong();
+					stmt.setLong(offset + i, nodeId);
+				}
+
+				// Pad remaining parameters such that the statement can be reused
+				for (; i <= LOOKUP_SIZE; i++) {
+					stmt.setLong(offset + i, nodeId);
+				}
+				loadRollups(stmt, table);
+			}
+
+		} finally {
+			stmt.close();
+		}
+
+		for (List<Experience> it : its) {
+			table.predict(it);
+		}
+	}
+
+	/**
+	 * Updates travel times and filling levels of itineraries grouped by
+	 * knowledge table. Each table is queried on its own pooled connection,
+	 * different tables are queried in parallel.
+	 *
+	 * @param requests Experiences of itineraries to update by table name.
+	 * @param service Executor to query different tables in parallel.
+	 */
+	static void predictAll(Map<String, List<List<Experience>>> requests, ExecutorService service) {
+		predictAll(null, requests, service);
+	}
+
+	/**
+	 * Updates travel times and filling levels of itineraries grouped by agent
+	 * from a partitioned knowledge table. Partitions of different agents are
+	 * queried in parallel.
+	 *
+	 * @param tableName Name of the partitioned table to predict from.
+	 * @param requests Experiences of itineraries to update by agent id.
+	 * @param service Executor to query different partitions in parallel.
+	 */
+	static void predictPartitions(String tableName, Map<String, List<List<Experience>>> requests, ExecutorService service) {
+		predictAll(tableName, requests, service);
+	}
+
+	private static void predictAll(final String partitionedTable, Map<String, List<List<Experience>>> requests, ExecutorService service) {
+
+		if (requests.size() == 0)
+			return;
+
+		if (requests.size() == 1) {
+			Map.Entry<String, List<List<Experience>>> request = requests.entrySet().iterator().next();
+			predictRequest(partitionedTable, request.getKey(), request.getValue());
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(requests.size());
+
+		for (final Map.Entry<String, List<List<Experience>>> request : requests.entrySet()) {
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					predictRequest(partitionedTable, request.getKey(), request.getValue());
+					return null;
+				}
+			});
+		}
+
+		try {
+
+			for (Future<Void> f : service.invokeAll(tasks)) {
+				f.get();
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds an itinerary to the requests of a knowledge table.
+	 *
+	 * @param requests Experiences of itineraries to update by table name.
+	 * @param tableName Name of the table to predict from.
+	 * @param it Experiences of the itinerary to update.
+	 */
+	static void addRequest(Map<String, List<List<Experience>>> requests, String tableName, List<Experience> it) {
+		List<List<Experience>> its = requests.get(tableName);
+
+		if (its == null) {
+			its = new ArrayList<List<Experience>>();
+			requests.put(tableName, its);
+		}
+		its.add(it);
+	}
+
+	private static void predictRequest(String partitionedTable, String key, List<List<Experience>> its) {
+		Connection con = null;
+
+		try {
+			con = DSFactory.getConnection();
+
+			// Keys are agent ids in case the table is partitioned, table names otherwise
+			if (partitionedTable == null) {
+				predictAll(con, key, its);
+
+			} else {
+				predictAgent(con, partitionedTable, Long.parseLong(key), its);
+			}
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+
+		} finally {
+
+			try {
+				if (con != null)
+					con.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static void loadRows(PreparedStatement stmt, CRFTable table) throws SQLException {
+		ResultSet rs = stmt.executeQuery();
+
+		try {
+
+			while (rs.next()) {
+				table.put(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6),
+						rs.getFloat(7), rs.getFloat(8), rs.getFloat(9), rs.getDouble(10));
+			}
+
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static void loadRollups(PreparedStatement stmt, CRFTable table) throws SQLException {
+		ResultSet rs = stmt.executeQuery();
+
+		try {
+
+			while (rs.next()) {
+				table.putRollup(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5),
+						rs.getDouble(6), rs.getDouble(7), rs.getInt(8));
+			}
+
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static void setTransition(PreparedStatement stmt, int offset, long transition) throws SQLException {
+		stmt.setLong(offset + 1, CRFTable.decodeTransitionNodeId(transition));
+		stmt.setLong(offset + 2, CRFTable.decodeTransitionPrevNodeId(transition));
+	}
+
+	private static int countRows(Connection con, String tableName) throws SQLException {
+		return queryInt(con, String.format(CRFQuerys.SQL_COUNT_ROWS, tableName));
+	}
+
+	private static int queryInt(Connection con, String sql) throws SQLException {
+		Statement stmt = con.createStatement();
+		ResultSet rs = null;
+
+		try {
+			rs = stmt.executeQuery(sql);
+			return rs.next() ? rs.getInt(1) : 0;
+
+		} finally {
+
+			if (rs != null)
+				rs.close();
+			stmt.close();
+		}
+	}
+
+	private static void execute(Connection con, String sql) throws SQLException {
+		Statement stmt = con.createStatement();
+
+		try {
+			stmt.execute(sql);
+
+		} finally {
+			stmt.close();
+		}
+	}
+
+	// Inserts rows into the temporary table staged of the connection as a single batch
+	private static void stageRows(Connection con, CRFTable rows) throws SQLException {
+		execute(con, CRFQuerys.MY_SQL_CREATE_STAGED_ROWS);
+		PreparedStatement stmt = con.prepareStatement(CRFQuerys.SQL_STAGE_ROW);
+
+		try {
+
+			for (CRFTable.Row row : rows.getRows()) {
+				stmt.setLong(1, row.getNodeId());
+				stmt.setLong(2, row.getPrevNodeId());
+				stmt.setInt(3, row.getWeather());
+				stmt.setInt(4, row.getWeekday());
+				stmt.setInt(5, row.getTimeOfDay());
+				stmt.setInt(6, row.getModality());
+				stmt.setDouble(7, row.getTTime());
+				stmt.setDouble(8, row.getPrevTTime());
+				stmt.setDouble(9, row.getFillLevel());
+				stmt.setDouble(10, row.getWeight());
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static String getPartitionKey(String tableName, long agentId) {
+		return tableName + "_" + agentId;
+	}
+
+	// Locks two tables in order of stripes to avoid deadlocks
+	private static void lock(String key1, String key2) {
+		int stripe1 = getStripe(key1);
+		int stripe2 = getStripe(key2);
+		tableLocks[Math.min(stripe1, stripe2)].lock();
+		tableLocks[Math.max(stripe1, stripe2)].lock();
+	}
+
+	private static void unlock(String key1, String key2) {
+		int stripe1 = getStripe(key1);
+		int stripe2 = getStripe(key2);
+		tableLocks[Math.max(stripe1, stripe2)].unlock();
+		tableLocks[Math.min(stripe1, stripe2)].unlock();
+	}
+
+	private static ReentrantLock getLock(String tableName) {
+		return tableLocks[getStripe(tableName)];
+	}
+
+	private static int getStripe(String tableName) {
+		return (tableName.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+	}
+
+	private static long nextVersion() {
+		return version.incrementAndGet();
+	}
+
+	private static ReentrantLock[] createLocks(int n) {
+		ReentrantLock locks[] = new ReentrantLock[n];
+
+		for (int i = 0; i < n; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		return locks;
+	}
+
+	private static String createParameters(int n) {
+		StringBuilder parameters = new StringBuilder();
+
+		for (int i = 0; i < n; i++) {
+			parameters.append((i == 0) ? "?" : ", ?");
+		}
+		return parameters.toString();
+	}
+
+	private static String createTransitionConditions(int n) {
+		StringBuilder conditions = new StringBuilder();
+
+		for (int i = 0; i < n; i++) {
+
+			if (i > 0)
+				conditions.append(" OR ");
+			conditions.append(CRFQuerys.SQL_TRANSITION_CONDITION);
+		}
+		return conditions.toString();
+	}
+}
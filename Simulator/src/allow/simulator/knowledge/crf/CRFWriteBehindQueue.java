@@ -0,0 +1,296 @@
+package allow.simulator.knowledge.crf;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import allow.simulator.knowledge.Experience;
+
+/**
+ * Bounded write-behind queue for experiences added to knowledge tables.
+ * Experiences are coalesced per key (a table or a partition of a table) and
+ * row key using the weighted mean (see CRFTable) and written by a background
+ * thread as soon as half of the capacity is used. Threads adding experiences
+ * block while the queue is full.
+ *
+ * Readers must call flush() for the keys they read before querying them to
+ * see all experiences added before. All pending rows are merged at the
+ * first call of flushOnDayChange() of each simulated day and on shutdown().
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class CRFWriteBehindQueue {
+
+	/**
+	 * Writes coalesced rows of a key to the knowledge database.
+	 */
+	interface RowWriter {
+
+		void write(Connection con, String key, CRFTable rows) throws SQLException;
+	}
+
+	/**
+	 * Merges rows into the table named by the key creating the table first
+	 * if necessary.
+	 */
+	static final class TableWriter implements RowWriter {
+		// Tables which have been created by this writer
+		private final Set<String> createdTables = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public void write(Connection con, String tableName, CRFTable rows) throws SQLException {
+
+			if (!createdTables.contains(tableName)) {
+				CRFTableAccess.createTable(con, tableName);
+				createdTables.add(tableName);
+			}
+			CRFTableAccess.mergeRows(con, tableName, rows);
+		}
+	}
+
+	// Maximum number of pending rows
+	private final int capacity;
+
+	// Thread merging pending rows into knowledge tables in the background
+	private final ExecutorService flusher;
+
+	// Pending rows by table name, guarded by this
+	private Map<String, CRFTable> pending;
+	private int pendingRows;
+	private boolean flushScheduled;
+
+	// Day of the last call of flushOnDayChange(), guarded by this
+	private int lastDay = Integer.MIN_VALUE;
+
+	// Serialises writes such that flushed rows are visible once flush() returns
+	private final ReentrantLock writeLock;
+
+	// Writer merging coalesced rows into the knowledge database
+	private final RowWriter writer;
+
+	/**
+	 * Creates a new write-behind queue. In case capacity is not positive,
+	 * experiences are written synchronously.
+	 *
+	 * @param capacity Maximum number of pending rows.
+	 * @param writer Writer merging coalesced rows into the knowledge database.
+	 */
+	public CRFWriteBehindQueue(int capacity, RowWriter writer) {
+		this.capacity = capacity;
+		this.writer = writer;
+		flusher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "knowledge-write-behind");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pending = new HashMap<String, CRFTable>();
+		writeLock = new ReentrantLock();
+	}
+
+	/**
+	 * Adds a sequence of experiences to be merged into a knowledge table.
+	 * Blocks while the queue is full.
+	 *
+	 * @param key Table or partition to add experiences to.
+	 * @param entries Experiences to add.
+	 * @return True if experiences were added, false otherwise.
+	 */
+	public boolean add(String key, List<Experience> entries) {
+
+		if (entries.size() == 0)
+			return false;
+
+		if (capacity <= 0) {
+			CRFTable rows = new CRFTable();
+			rows.addExperiences(entries);
+			Map<String, CRFTable> batch = new HashMap<String, CRFTable>();
+			batch.put(key, rows);
+
+			writeLock.lock();
+
+			try {
+				return write(batch);
+
+			} finally {
+				writeLock.unlock();
+			}
+		}
+
+		synchronized (this) {
+
+			while (pendingRows >= capacity) {
+				scheduleFlush();
+
+				try {
+					wait();
+
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			CRFTable rows = pending.get(key);
+
+			if (rows == null) {
+				rows = new CRFTable();
+				pending.put(key, rows);
+			}
+			int sizeBefore = rows.size();
+			rows.addExperiences(entries);
+			pendingRows += rows.size() - sizeBefore;
+
+			if (pendingRows >= capacity / 2)
+				scheduleFlush();
+		}
+		return true;
+	}
+
+	/**
+	 * Merges pending rows of the given keys into the knowledge tables and
+	 * waits for writes in progress to complete.
+	 *
+	 * @param keys Tables or partitions to flush.
+	 */
+	public void flush(Collection<String> keys) {
+		writeLock.lock();
+
+		try {
+			Map<String, CRFTable> batch = new HashMap<String, CRFTable>();
+
+			synchronized (this) {
+
+				for (String key : keys) {
+					CRFTable rows = pending.remove(key);
+
+					if (rows != null) {
+						batch.put(key, rows);
+						pendingRows -= rows.size();
+					}
+				}
+				notifyAll();
+			}
+			write(batch);
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Merges all pending rows into the knowledge tables and waits for writes
+	 * in progress to complete.
+	 */
+	public void flushAll() {
+		writeLock.lock();
+
+		try {
+			write(drain());
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Merges all pending rows into the knowledge tables and waits for writes
+	 * in progress to complete in case the day changed since the last call.
+	 * Returns immediately otherwise.
+	 *
+	 * @param day Current day of the simulation.
+	 */
+	public void flushOnDayChange(int day) {
+
+		synchronized (this) {
+
+			if (day == lastDay)
+				return;
+			lastDay = day;
+		}
+		flushAll();
+	}
+
+	/**
+	 * Merges all pending rows into the knowledge tables and stops the
+	 * background thread.
+	 */
+	public void shutdown() {
+		flushAll();
+		flusher.shutdown();
+	}
+
+	/**
+	 * Returns the number of rows waiting to be merged into knowledge tables.
+	 *
+	 * @return Number of pending rows.
+	 */
+	public synchronized int getPendingRows() {
+		return pendingRows;
+	}
+
+	private void scheduleFlush() {
+
+		if (flushScheduled || flusher.isShutdown())
+			return;
+		flushScheduled = true;
+		flusher.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				flushAll();
+			}
+		});
+	}
+
+	private synchronized Map<String, CRFTable> drain() {
+		Map<String, CRFTable> batch = pending;
+		pending = new HashMap<String, CRFTable>();
+		pendingRows = 0;
+		flushScheduled = false;
+		notifyAll();
+		return batch;
+	}
+
+	private boolean write(Map<String, CRFTable> batch) {
+
+		if (batch.size() == 0)
+			return true;
+		Connection con = null;
+
+		try {
+			con = DSFactory.getConnection();
+
+			for (Map.Entry<String, CRFTable> rows : batch.entrySet()) {
+				writer.write(con, rows.getKey(), rows.getValue());
+			}
+			return true;
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+
+		} finally {
+
+			try {
+				if (con != null)
+					con.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.sql.Statement;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import allow.simulator.core.EvoKnowledgeConfiguration;
 import allow.simulator.core.Simulator;
@@ -29,6 +30,8 @@ public class DBConnector {
 	private static EvoKnowledgeConfiguration config;
 	private static CRFKnowledgeModel model;
 	private static DBType dbType;
+	private static CRFWriteBehindQueue writeQueue;
+	private static CRFKnowledgeCompaction compaction;
 	
 	// Saves which tables already exist
 	public static ConcurrentHashMap<String, Boolean> aIdTableExists = new ConcurrentHashMap<String, Boolean>();
@@ -38,6 +41,12 @@ public class DBConnector {
 	private static final String KNOWLEDGE_MODEL_LOCAL_EXCHANGE = "local (with exchange)";
 	private static final String KNOWLEDGE_MODEL_GLOBAL_TEMPORAL = "global";
 	private static final String KNOWLEGDE_MODEL_REGIONAL = "regional";
+	private static final String KNOWLEDGE_MODEL_LOCAL_IN_MEMORY = "local (in memory)";
+	private static final String KNOWLEDGE_MODEL_LOCAL_IN_MEMORY_EXCHANGE = "local (in memory, with exchange)";
+	private static final String KNOWLEDGE_MODEL_GLOBAL_IN_MEMORY = "global (in memory)";
+	private static final String KNOWLEDGE_MODEL_REGIONAL_IN_MEMORY = "regional (in memory)";
+	private static final String KNOWLEDGE_MODEL_LOCAL_PARTITIONED = "local (partitioned)";
+	private static final String KNOWLEDGE_MODEL_LOCAL_PARTITIONED_EXCHANGE = "local (partitioned, with exchange)";
 	
 	private static void initMySQL() {
 		Connection con = null, con2 = null;
@@ -87,6 +96,47 @@ public class DBConnector {
 		}
 	}
 	
+	private static void initPartitionedMySQL(String tableName) {
+		Connection con = null, con2 = null;
+		Statement stmt = null, stmt2 = null;
+		
+		try {
+			// Init driver
+			Class.forName("com.mysql.jdbc.Driver");
+			
+			// Creating database
+			con = DriverManager.getConnection(config.getModelPath(), config.getUser(), config.getPassword());
+			stmt = con.createStatement();
+			stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + config.getModelName());
+			
+			// Creating knowledge and rollup tables once and resetting them
+			con2 = DriverManager.getConnection(config.getModelPath() + config.getModelName(), config.getUser(), config.getPassword());
+			stmt2 = con2.createStatement();
+			stmt2.executeUpdate(String.format(CRFQuerys.MY_SQL_CREATE_PARTITIONED_TABLE, tableName, CRFPartitionedKnowledge.PARTITIONS));
+			stmt2.executeUpdate(String.format(CRFQuerys.MY_SQL_CREATE_PARTITIONED_ROLLUP_TABLE, tableName, CRFPartitionedKnowledge.PARTITIONS));
+			stmt2.executeUpdate(String.format(CRFQuerys.SQL_TRUNCATE_TABLE, tableName));
+			stmt2.executeUpdate(String.format(CRFQuerys.SQL_TRUNCATE_TABLE, tableName + "_rollup"));
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+			
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+			
+		} finally {
+			
+			try {
+				if (stmt != null) stmt.close();
+				if (con != null) con.close();
+				if (stmt2 != null) stmt2.close();
+				if (con2 != null) con2.close();
+				
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	private static void initPostgre() {
 		Connection con = null;
 		Statement stmt = null;
@@ -180,11 +230,35 @@ public class DBConnector {
 		System.out.println("EvoKnowledge database connector initialized.");
 	}
 	
+	private static void initPartitionedDatabase(String tableName) {
+		
+		if (config.getModelPath().contains("mysql")) {
+			dbType = DBType.MYSQL;
+			initPartitionedMySQL(tableName);
+			
+		} else if (config.getModelPath().contains("postgres")) {
+			dbType = DBType.POSTGRE;
+			throw new UnsupportedOperationException("Error: Postgresql currently not supported.");
+			
+		} else {
+			throw new IllegalArgumentException("Error: Unknown database driver.");
+		}
+		System.out.println("EvoKnowledge database connector initialized.");
+	}
+	
 	public static void init(EvoKnowledgeConfiguration config, String knowledgeModel, String prefix) {
 		DBConnector.prefix = prefix;
 		DBConnector.config = config;
 		DSFactory.init(config);
 		
+		if (writeQueue != null)
+			writeQueue.shutdown();
+		writeQueue = null;
+		
+		if (compaction != null)
+			compaction.shutdown();
+		compaction = null;
+		
 		switch (knowledgeModel) {
 			case KNOWLEDGE_MODEL_NO_KNOWLEDGE:
 				model = CRFNoKnowledge.getInstance();
@@ -194,19 +268,45 @@ public class DBConnector {
 			case KNOWLEDGE_MODEL_LOCAL_EXCHANGE:
 				initDatabase();
 				initaIdTableExists();
-				model = new CRFLocalKnowledge(dbType, prefix, config.getModelName());
+				writeQueue = new CRFWriteBehindQueue(config.getWriteQueueCapacity(), new CRFWriteBehindQueue.TableWriter());
+				compaction = new CRFKnowledgeCompaction(config.getCompactionInterval(), config.getCompactionMinWeight(),
+						config.getCompactionFoldWeight(), config.getMaxRowsPerAgent());
+				model = new CRFLocalKnowledge(dbType, prefix, config.getModelName(), writeQueue, compaction);
 				break;
 				
 			case KNOWLEDGE_MODEL_GLOBAL_TEMPORAL:
 				initDatabase();
 				initaIdTableExists();
-				model = new CRFGlobalKnowledge(dbType);
+				writeQueue = new CRFWriteBehindQueue(config.getWriteQueueCapacity(), new CRFWriteBehindQueue.TableWriter());
+				model = new CRFGlobalKnowledge(dbType, writeQueue);
 				break;
 			
 			case KNOWLEGDE_MODEL_REGIONAL:
 				initDatabase();
 				initaIdTableExists();
-				model = new CRFRegionalKnowledge(dbType, prefix, config.getModelName());
+				writeQueue = new CRFWriteBehindQueue(config.getWriteQueueCapacity(), new CRFWriteBehindQueue.TableWriter());
+				model = new CRFRegionalKnowledge(dbType, prefix, config.getModelName(), writeQueue);
+				break;
+				
+			case KNOWLEDGE_MODEL_LOCAL_IN_MEMORY:
+			case KNOWLEDGE_MODEL_LOCAL_IN_MEMORY_EXCHANGE:
+				model = new CRFInMemoryKnowledge();
+				break;
+				
+			case KNOWLEDGE_MODEL_GLOBAL_IN_MEMORY:
+				model = new CRFSharedKnowledge(false);
+				break;
+				
+			case KNOWLEDGE_MODEL_REGIONAL_IN_MEMORY:
+				model = new CRFSharedKnowledge(true);
+				break;
+				
+			case KNOWLEDGE_MODEL_LOCAL_PARTITIONED:
+			case KNOWLEDGE_MODEL_LOCAL_PARTITIONED_EXCHANGE:
+				String tableName = prefix + "_knowledge";
+				initPartitionedDatabase(tableName);
+				writeQueue = new CRFWriteBehindQueue(config.getWriteQueueCapacity(), CRFPartitionedKnowledge.createWriter(tableName));
+				model = new CRFPartitionedKnowledge(tableName, writeQueue);
 				break;
 				
 			default:
@@ -222,11 +322,38 @@ public class DBConnector {
 		return model.getPredictedItinerary(agent, it, prefix);
 	}
 	
+	public static void getPredictedItineraries(List<Entity> agents, List<List<Experience>> its, ExecutorService service) {
+		model.getPredictedItineraries(agents, its, prefix, service);
+	}
+	
+	/**
+	 * Cleans the knowledge model. Experiences added to the write-behind
+	 * queue are merged into the knowledge tables by the first call of each
+	 * simulated day, which returns once they are written. Later calls of the
+	 * same day do not wait for pending experiences. Predictions and
+	 * exchanges flush the tables they read themselves, and shutdown() merges
+	 * all remaining experiences at the end of the simulation.
+	 * 
+	 * @param agent Entity to clean knowledge of or null for all entities.
+	 */
 	public static void cleanModel(Entity agent) {
+		
+		if (writeQueue != null)
+			writeQueue.flushOnDayChange(Simulator.Instance().getContext().getTime().getDays());
 		model.clean(agent, prefix);
 	}
 	
 	public static boolean exchangeKnowledge(Entity agent1, Entity agent2) {
 		return model.exchangeKnowledge(agent1, agent2, prefix);
 	}
+	
+	public static void shutdown() {
+		
+		if (compaction != null)
+			compaction.shutdown();
+		
+		if (writeQueue != null)
+			writeQueue.shutdown();
+		DSFactory.shutdown();
+	}
 }
\ No newline at end of file
@@ -1,22 +1,321 @@
 package allow.simulator.knowledge.crf;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import allow.simulator.core.EvoKnowledgeConfiguration;
 
+/**
+ * Provides connections to the knowledge database from a bounded pool.
+ * Connections returned by getConnection() are released to the pool when
+ * closed. Prepared statements are cached per connection such that the same
+ * parameterised query is parsed only once; closing a cached statement clears
+ * its parameters and batch but keeps it open.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public class DSFactory {
+	// Connection options enabling multiple queries per statement and rewriting
+	// of batched inserts into multi-row inserts
+	private static final String CONNECTION_OPTIONS = "?allowMultiQueries=true&rewriteBatchedStatements=true";
 
 	private static EvoKnowledgeConfiguration config = null;
-	
+
+	// Pool of idle connections and permits bounding the number of open connections
+	private static ConcurrentLinkedQueue<PooledConnection> idleConnections;
+	private static Semaphore permits;
+
+	// Pool metrics
+	private static final AtomicInteger activeConnections = new AtomicInteger();
+	private static final AtomicLong numberOfRequests = new AtomicLong();
+	private static final AtomicLong totalWaitTime = new AtomicLong();
+	private static final AtomicLong maxWaitTime = new AtomicLong();
+
+	/**
+	 * Physical connection together with its cache of prepared statements.
+	 */
+	private static final class PooledConnection implements InvocationHandler {
+		private final Connection connection;
+		private final LinkedHashMap<String, PreparedStatement[]> statements;
+		private Connection proxy;
+
+		public PooledConnection(Connection connection, final int statementCacheSize) {
+			this.connection = connection;
+			statements = new LinkedHashMap<String, PreparedStatement[]>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 5392617542069487720L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement[]> eldest) {
+
+					if (size() <= statementCacheSize)
+						return false;
+					closeQuietly(eldest.getValue()[1]);
+					return true;
+				}
+			};
+		}
+
+		public Connection open() {
+			proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+			return proxy;
+		}
+
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+
+			if (method.getDeclaringClass() == Object.class)
+				return method.invoke(this, args);
+
+			if (p != proxy)
+				throw new SQLException("Error: Connection has already been released to pool.");
+
+			switch (method.getName()) {
+			case "close":
+				proxy = null;
+				release(this);
+				return null;
+
+			case "isClosed":
+				return false;
+
+			case "prepareStatement":
+
+				if (args.length == 1)
+					return prepare((String) args[0]);
+				break;
+
+			default:
+				break;
+			}
+
+			try {
+				return method.invoke(connection, args);
+
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement cached[] = statements.get(sql);
+
+			if (cached == null) {
+				final PreparedStatement physical = connection.prepareStatement(sql);
+				PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+
+						if (method.getDeclaringClass() == Object.class)
+							return method.invoke(this, args);
+
+						if (method.getName().equals("close")) {
+							physical.clearParameters();
+							physical.clearBatch();
+							return null;
+						}
+
+						try {
+							return method.invoke(physical, args);
+
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+				cached = new PreparedStatement[] { stmt, physical };
+				statements.put(sql, cached);
+			}
+			return cached[0];
+		}
+
+		public boolean isValid() {
+
+			try {
+				return !connection.isClosed();
+
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+
+		public void close() {
+
+			for (PreparedStatement cached[] : statements.values()) {
+				closeQuietly(cached[1]);
+			}
+			statements.clear();
+
+			try {
+				connection.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private static void closeQuietly(PreparedStatement stmt) {
+
+			try {
+				stmt.close();
+
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	public static void init(EvoKnowledgeConfiguration config) {
+		shutdown();
 		DSFactory.config = config;
+		idleConnections = new ConcurrentLinkedQueue<PooledConnection>();
+		permits = new Semaphore(Math.max(config.getMaxConnections(), 1), true);
+		activeConnections.set(0);
+		numberOfRequests.set(0);
+		totalWaitTime.set(0);
+		maxWaitTime.set(0);
 	}
-	
+
+	/**
+	 * Returns a connection from the pool. If all connections are in use,
+	 * waits until a connection is released or the configured timeout expires.
+	 * Connection must be closed to release it to the pool again.
+	 *
+	 * @return Connection to the knowledge database.
+	 * @throws SQLException In case no connection could be obtained.
+	 */
 	public static Connection getConnection() throws SQLException {
-		Connection conn = DriverManager.getConnection(config.getModelPath() + config.getModelName() + "?allowMultiQueries=true", config.getUser(), config.getPassword());
-		return conn;
+		long start = System.nanoTime();
+
+		try {
+
+			if (!permits.tryAcquire(config.getConnectionTimeout(), TimeUnit.MILLISECONDS))
+				throw new SQLException("Error: Timeout waiting for database connection.");
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Error: Interrupted while waiting for database connection.");
+		}
+		updateWaitTime(System.nanoTime() - start);
+		PooledConnection con = null;
+
+		try {
+
+			while ((con = idleConnections.poll()) != null) {
+
+				if (con.isValid())
+					break;
+				con.close();
+			}
+
+			if (con == null) {
+				con = new PooledConnection(DriverManager.getConnection(config.getModelPath() + config.getModelName() + CONNECTION_OPTIONS,
+						config.getUser(), config.getPassword()), config.getStatementCacheSize());
+			}
+
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+		activeConnections.incrementAndGet();
+		return con.open();
     }
-	
+
+	private static void release(PooledConnection con) {
+		activeConnections.decrementAndGet();
+
+		if (con.isValid()) {
+			idleConnections.add(con);
+
+		} else {
+			con.close();
+		}
+		permits.release();
+	}
+
+	private static void updateWaitTime(long waitTime) {
+		numberOfRequests.incrementAndGet();
+		totalWaitTime.addAndGet(waitTime);
+		long max = maxWaitTime.get();
+
+		while ((waitTime > max) && !maxWaitTime.compareAndSet(max, waitTime)) {
+			max = maxWaitTime.get();
+		}
+	}
+
+	/**
+	 * Closes all idle connections of the pool.
+	 */
+	public static void shutdown() {
+
+		if (idleConnections == null)
+			return;
+		PooledConnection con = null;
+
+		while ((con = idleConnections.poll()) != null) {
+			con.close();
+		}
+	}
+
+	/**
+	 * Returns the number of connections currently in use.
+	 *
+	 * @return Number of connections in use.
+	 */
+	public static int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	/**
+	 * Returns the number of idle connections in the pool.
+	 *
+	 * @return Number of idle connections.
+	 */
+	public static int getIdleConnections() {
+		return (idleConnections != null) ? idleConnections.size() : 0;
+	}
+
+	/**
+	 * Returns the mean time in milliseconds requests waited for a connection.
+	 *
+	 * @return Mean time waited for a connection in milliseconds.
+	 */
+	public static double getMeanWaitTime() {
+		long requests = numberOfRequests.get();
+		return (requests == 0) ? 0.0 : totalWaitTime.get() / (requests * 1e6);
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds a request waited for a connection.
+	 *
+	 * @return Maximum time waited for a connection in milliseconds.
+	 */
+	public static double getMaxWaitTime() {
+		return maxWaitTime.get() / 1e6;
+	}
+
+	/**
+	 * Returns the number of connections requested from the pool.
+	 *
+	 * @return Number of connections requested.
+	 */
+	public static long getNumberOfRequests() {
+		return numberOfRequests.get();
+	}
 }
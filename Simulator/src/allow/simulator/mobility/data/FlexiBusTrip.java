@@ -0,0 +1,63 @@
+package allow.simulator.mobility.data;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import allow.simulator.entity.Person;
+import allow.simulator.world.Street;
+
+/**
+ * Trip of a FlexiBus scheduled on request. Each stop is the pick-up or
+ * drop-off of a person.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class FlexiBusTrip extends Trip {
+	// Persons getting in or out at the stops of the trip.
+	private final List<Person> persons;
+
+	/**
+	 * Creates a new FlexiBus trip.
+	 *
+	 * @param tripId Id of the trip.
+	 * @param stops Pick-up and drop-off stops of the trip.
+	 * @param stopTimes Scheduled times of the stops.
+	 * @param persons Persons getting in or out at the stops.
+	 * @param traces Traces between stops.
+	 */
+	public FlexiBusTrip(String tripId, List<BusStop> stops, List<LocalTime> stopTimes,
+			List<Person> persons, List<List<Street>> traces) {
+		super(tripId, new ArrayList<Stop>(stops), stopTimes, traces);
+		this.persons = persons;
+	}
+
+	/**
+	 * Returns the stops of this trip.
+	 *
+	 * @return Stops of this trip.
+	 */
+	public List<BusStop> getBusStops() {
+		List<BusStop> ret = new ArrayList<BusStop>(stops.size());
+
+		for (Stop s : stops) {
+			ret.add((BusStop) s);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the persons getting in or out at the stops of this trip in
+	 * order of the stops.
+	 *
+	 * @return Persons getting in or out at the stops of this trip.
+	 */
+	public List<Person> getPersons() {
+		return persons;
+	}
+
+	public String toString() {
+		return "[FlexiBusTrip " + tripId + "]";
+	}
+}
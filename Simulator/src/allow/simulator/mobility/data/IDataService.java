@@ -42,6 +42,15 @@ public interface IDataService {
 	 */
 	List<GTFSStop> getStops(String routeId);
 	
+	/**
+	 * Returns list of routes serving a certain stop.
+	 * 
+	 * @param stopId Id of stop.
+	 * 
+	 * @return List of routes serving the stop, empty if no route serves it.
+	 */
+	List<GTFSRoute> getRoutesOfStop(String stopId);
+	
 	/**
 	 * Returns a list of exceptions of a service given its Ids.
 	 * 
@@ -1,20 +1,34 @@
 package allow.simulator.mobility.data;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.ParseException;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import allow.simulator.mobility.data.gtfs.GTFSAgency;
 import allow.simulator.mobility.data.gtfs.GTFSRoute;
 import allow.simulator.mobility.data.gtfs.GTFSService;
 import allow.simulator.mobility.data.gtfs.GTFSServiceException;
+import allow.simulator.mobility.data.gtfs.GTFSReader;
 import allow.simulator.mobility.data.gtfs.GTFSStop;
+import allow.simulator.mobility.data.gtfs.GTFSStopTimeTable;
 import allow.simulator.mobility.data.gtfs.GTFSStopTimes;
 import allow.simulator.mobility.data.gtfs.GTFSTrip;
 import allow.simulator.util.Coordinate;
@@ -32,6 +46,12 @@ import allow.simulator.world.StreetSegment;
  */
 public class MobilityRepository {
 	
+	// Maximum number of threads loading GTFS files and processing shapes in parallel.
+	private static final int LOADER_THREADS = 8;
+	
+	// File consolidating the routing between stops of all shapes.
+	private static final String ROUTING_CACHE = "routing.cache";
+	
 	// Mapping of agencyId to GTFSAgency.
 	private Map<String, GTFSAgency> agencies;
 	
@@ -47,6 +67,9 @@ public class MobilityRepository {
 	// Mapping of stopId to GTFSStop.
 	private Map<String, GTFSStop> stops;
 	
+	// Stop times of all trips stored column wise.
+	private GTFSStopTimeTable stopTimeTable;
+	
 	// Mapping of tripId to GTFSStopTimes.
 	private Map<String, GTFSStopTimes> stoptimes;
 	
@@ -59,369 +82,671 @@ public class MobilityRepository {
 	/**
 	 * Constructor.
 	 * Creates a new instance of a mobility repository from a street map and 
-	 * a GTFS data set.
+	 * a GTFS data set. GTFS files are independent of each other and parsed
+	 * in parallel.
 	 * 
 	 * @param path Path to folder containing GTFS data set.
 	 * @param map Street map used for routing.
 	 * @throws IOException
 	 */
-	public MobilityRepository(Path path, StreetMap map) throws IOException {
-		agencies = loadAgencies(path.resolve("agency.txt"));
-		routes = loadRoutes(path.resolve("routes.txt"));
-		service = loadServices(path.resolve("calendar.txt"));
-		exceptions = loadServiceExceptions(path.resolve("calendar_dates.txt"));
-		stops = loadStops(path.resolve("stops.txt"));
-		stoptimes = loadStopTimes(path.resolve("stop_times.txt"));
-		trips = loadTrips(path.resolve("trips.txt"));
-		routing = createRoutingStreet(path, map);
-	}
-	
-	private Map<String, GTFSAgency> loadAgencies(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
-		// Initialize map to return.
-		Map<String, GTFSAgency> ret = new HashMap<String, GTFSAgency>(content.size() - 1);
+	public MobilityRepository(final Path path, StreetMap map) throws IOException {
+		ExecutorService loader = Executors.newFixedThreadPool(Math.min(LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
 		
-		// Parse agencies from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSAgency newAgency = GTFSAgency.fromGTFS(content.get(i));
-			ret.put(newAgency.getId(), newAgency);
+		try {
+			Future<Map<String, GTFSAgency>> agencyTask = loader.submit(new Callable<Map<String, GTFSAgency>>() {
+
+				@Override
+				public Map<String, GTFSAgency> call() throws IOException {
+					return loadAgencies(path.resolve("agency.txt"));
+				}
+			});
+			Future<Map<String, List<GTFSRoute>>> routeTask = loader.submit(new Callable<Map<String, List<GTFSRoute>>>() {
+
+				@Override
+				public Map<String, List<GTFSRoute>> call() throws IOException {
+					return loadRoutes(path.resolve("routes.txt"));
+				}
+			});
+			Future<Map<String, GTFSService>> serviceTask = loader.submit(new Callable<Map<String, GTFSService>>() {
+
+				@Override
+				public Map<String, GTFSService> call() throws IOException {
+					return loadServices(path.resolve("calendar.txt"));
+				}
+			});
+			Future<Map<String, List<GTFSServiceException>>> exceptionTask = loader.submit(new Callable<Map<String, List<GTFSServiceException>>>() {
+
+				@Override
+				public Map<String, List<GTFSServiceException>> call() throws IOException {
+					return loadServiceExceptions(path.resolve("calendar_dates.txt"));
+				}
+			});
+			Future<Map<String, GTFSStop>> stopTask = loader.submit(new Callable<Map<String, GTFSStop>>() {
+
+				@Override
+				public Map<String, GTFSStop> call() throws IOException {
+					return loadStops(path.resolve("stops.txt"));
+				}
+			});
+			Future<GTFSStopTimeTable> stopTimeTask = loader.submit(new Callable<GTFSStopTimeTable>() {
+
+				@Override
+				public GTFSStopTimeTable call() throws IOException {
+					return loadStopTimes(path.resolve("stop_times.txt"));
+				}
+			});
+			Future<Map<String, List<GTFSTrip>>> tripTask = loader.submit(new Callable<Map<String, List<GTFSTrip>>>() {
+
+				@Override
+				public Map<String, List<GTFSTrip>> call() throws IOException {
+					return loadTrips(path.resolve("trips.txt"));
+				}
+			});
+			Future<Map<String, List<Coordinate>>> shapeTask = loader.submit(new Callable<Map<String, List<Coordinate>>>() {
+
+				@Override
+				public Map<String, List<Coordinate>> call() throws IOException {
+					return loadShapes(path.resolve("shapes.txt"));
+				}
+			});
+			agencies = getResult(agencyTask);
+			routes = getResult(routeTask);
+			service = getResult(serviceTask);
+			exceptions = getResult(exceptionTask);
+			stops = getResult(stopTask);
+			stopTimeTable = getResult(stopTimeTask);
+			stoptimes = new HashMap<String, GTFSStopTimes>(stopTimeTable.getNumberOfTrips());
+			
+			for (int i = 0; i < stopTimeTable.getNumberOfTrips(); i++) {
+				GTFSStopTimes times = stopTimeTable.getStopTimes(i);
+				stoptimes.put(times.getTripId(), times);
+			}
+			trips = getResult(tripTask);
+			routing = createRoutingStreet(path, map, getResult(shapeTask), loader);
+			
+		} finally {
+			loader.shutdownNow();
 		}
-		return ret;
 	}
 	
-	private Map<String, List<GTFSRoute>> loadRoutes(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
-		// Initialize map to return.
-		Map<String, List<GTFSRoute>> ret = new HashMap<String, List<GTFSRoute>>(content.size() - 1);
+	// Returns the result of a loading task, rethrowing its exception
+	private static <T> T getResult(Future<T> task) throws IOException {
 		
-		// Parse route from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSRoute newRoute = GTFSRoute.fromGTFS(content.get(i));
-			List<GTFSRoute> temp = ret.get(newRoute.getAgencyId());
+		try {
+			return task.get();
 			
-			if (temp != null) {
-				temp.add(newRoute);
-			} else {
-				List<GTFSRoute> r = new ArrayList<GTFSRoute>();
-				r.add(newRoute);
-				ret.put(newRoute.getAgencyId(), r);
-			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+			
+		} catch (ExecutionException e) {
+			
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
 		}
-		return ret;
 	}
 	
-	private Map<String, GTFSService> loadServices(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
+	private static Map<String, GTFSAgency> loadAgencies(Path path) throws IOException {
 		// Initialize map to return.
-		Map<String, GTFSService> ret = new HashMap<String, GTFSService>(content.size() - 1);
-		
-		// Parse route from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSService newService;
-			try {
-				newService = GTFSService.fromGTFS(content.get(i));
-			} catch (ParseException e) {
-				throw new IOException(e);
+		Map<String, GTFSAgency> ret = new HashMap<String, GTFSAgency>();
+		
+		// Parse agencies from records.
+		try (GTFSReader in = new GTFSReader(path)) {
+			
+			while (in.next()) {
+				GTFSAgency newAgency = GTFSAgency.fromGTFS(in);
+				ret.put(newAgency.getId(), newAgency);
 			}
-			ret.put(newService.getServiceId(), newService);
 		}
 		return ret;
 	}
 	
-	private Map<String, List<GTFSServiceException>> loadServiceExceptions(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
+	private static Map<String, List<GTFSRoute>> loadRoutes(Path path) throws IOException {
 		// Initialize map to return.
-		Map<String, List<GTFSServiceException>> ret = new HashMap<String, List<GTFSServiceException>>(content.size() - 1);
-		
-		// Parse route from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSServiceException newServiceException;
-			try {
-				newServiceException = GTFSServiceException.fromGTFS(content.get(i));
-			} catch (ParseException e) {
-				throw new IOException(e);
-			}
-			List<GTFSServiceException> exceptions = ret.get(newServiceException.getServiceId());
+		Map<String, List<GTFSRoute>> ret = new HashMap<String, List<GTFSRoute>>();
+		
+		// Parse routes from records.
+		try (GTFSReader in = new GTFSReader(path)) {
 			
-			if (exceptions == null) {
-				List<GTFSServiceException> ex = new ArrayList<GTFSServiceException>();
-				ex.add(newServiceException);
-				ret.put(newServiceException.getServiceId(), ex);
+			while (in.next()) {
+				GTFSRoute newRoute = GTFSRoute.fromGTFS(in);
+				List<GTFSRoute> temp = ret.get(newRoute.getAgencyId());
 				
-			} else {
-				exceptions.add(newServiceException);
+				if (temp != null) {
+					temp.add(newRoute);
+				} else {
+					List<GTFSRoute> r = new ArrayList<GTFSRoute>();
+					r.add(newRoute);
+					ret.put(newRoute.getAgencyId(), r);
+				}
 			}
 		}
 		return ret;
 	}
 	
-	private Map<String, GTFSStop> loadStops(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
+	private static Map<String, GTFSService> loadServices(Path path) throws IOException {
 		// Initialize map to return.
-		Map<String, GTFSStop> ret = new HashMap<String, GTFSStop>(content.size() - 1);
+		Map<String, GTFSService> ret = new HashMap<String, GTFSService>();
 		
-		// Parse stops from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSStop newStop = GTFSStop.fromGTFS(content.get(i));
-			ret.put(newStop.getId(), newStop);
+		// Parse services from records.
+		try (GTFSReader in = new GTFSReader(path)) {
+			
+			while (in.next()) {
+				GTFSService newService = GTFSService.fromGTFS(in);
+				ret.put(newService.getServiceId(), newService);
+			}
 		}
 		return ret;
 	}
 	
-	private Map<String, GTFSStopTimes> loadStopTimes(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
+	private static Map<String, List<GTFSServiceException>> loadServiceExceptions(Path path) throws IOException {
 		// Initialize map to return.
-		Map<String, GTFSStopTimes> ret = new HashMap<String, GTFSStopTimes>();
-		
-		// Parse stop times from corresponding lines.
-		int startIdx = 1;
-		int endIdx = 1;
-		int seq = 0;
-		String previousTripId = "";
-		
-		for (int i = 1; i < content.size(); i++) {
-			String line = content.get(i);
-			String tokens[] = line.split(",");
-			int seqNumber = Integer.parseInt(tokens[4]);
-			String tripId = tokens[0];
-			
-			if (previousTripId.equals("")) {
-				previousTripId = tokens[0];
-			}
+		Map<String, List<GTFSServiceException>> ret = new HashMap<String, List<GTFSServiceException>>();
+		
+		// Parse service exceptions from records.
+		try (GTFSReader in = new GTFSReader(path)) {
 			
-			if (i == content.size() - 1) {
-				GTFSStopTimes newStopTime = GTFSStopTimes.fromGTFS(content.subList(startIdx, endIdx));
-				ret.put(newStopTime.getTripId(), newStopTime);
-				
-			} else if (seqNumber > seq && tripId.equals(previousTripId)) {
-				endIdx++;
-				seq = seqNumber;
+			while (in.next()) {
+				GTFSServiceException newServiceException = GTFSServiceException.fromGTFS(in);
+				List<GTFSServiceException> exceptions = ret.get(newServiceException.getServiceId());
 				
-			} else {
-				GTFSStopTimes newStopTime = GTFSStopTimes.fromGTFS(content.subList(startIdx, endIdx));
-				ret.put(newStopTime.getTripId(), newStopTime);
-				startIdx = endIdx;
-				endIdx++;
-				seq = seqNumber;
-				previousTripId = tripId;
-			}	
+				if (exceptions == null) {
+					List<GTFSServiceException> ex = new ArrayList<GTFSServiceException>();
+					ex.add(newServiceException);
+					ret.put(newServiceException.getServiceId(), ex);
+					
+				} else {
+					exceptions.add(newServiceException);
+				}
+			}
 		}
 		return ret;
 	}
 	
-	private Map<String, List<GTFSTrip>> loadTrips(Path path) throws IOException {
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-
+	private static Map<String, GTFSStop> loadStops(Path path) throws IOException {
 		// Initialize map to return.
-		Map<String, List<GTFSTrip>> ret = new HashMap<String, List<GTFSTrip>>();
+		Map<String, GTFSStop> ret = new HashMap<String, GTFSStop>();
 		
-		// Parse trips from lines.
-		for (int i = 1; i < content.size(); i++) {
-			GTFSTrip newTrip = GTFSTrip.fromGTFS(content.get(i));
-			List<GTFSTrip> temp = ret.get(newTrip.getRouteId());
+		// Parse stops from records.
+		try (GTFSReader in = new GTFSReader(path)) {
 			
-			if (temp != null) {
-				temp.add(newTrip);
-			} else {
-				List<GTFSTrip> n = new ArrayList<GTFSTrip>();
-				n.add(newTrip);
-				ret.put(newTrip.getRouteId(), n);
+			while (in.next()) {
+				GTFSStop newStop = GTFSStop.fromGTFS(in);
+				ret.put(newStop.getId(), newStop);
 			}
 		}
 		return ret;
 	}
 	
-	private Map<String, List<Coordinate>> loadShapes(Path path) throws IOException {
-		Map<String, List<Coordinate>> ret = new HashMap<String, List<Coordinate>>();
+	private static GTFSStopTimeTable loadStopTimes(Path path) throws IOException {
 		
-		// Read file.
-		List<String> content = Files.readAllLines(path);
-						
-		// Read first data line.
-		List<Coordinate> currentSequence = null;
-		String currentId = "";
-		
-		for (int i = 1; i < content.size(); i++) {
-			// Split current line.
-			String tokens[] = content.get(i).split(",");
-			
-			if (!tokens[0].equals(currentId)) {
-				currentId = tokens[0];
-				currentSequence = new ArrayList<Coordinate>(256);
-				ret.put(currentId, currentSequence);
+		try (GTFSReader in = new GTFSReader(path)) {
+			return GTFSStopTimeTable.read(in);
+		}
+	}
+	
+	private static Map<String, List<GTFSTrip>> loadTrips(Path path) throws IOException {
+		// Initialize map to return.
+		Map<String, List<GTFSTrip>> ret = new HashMap<String, List<GTFSTrip>>();
+		
+		// Parse trips from records.
+		try (GTFSReader in = new GTFSReader(path)) {
+			
+			while (in.next()) {
+				GTFSTrip newTrip = GTFSTrip.fromGTFS(in);
+				List<GTFSTrip> temp = ret.get(newTrip.getRouteId());
+				
+				if (temp != null) {
+					temp.add(newTrip);
+				} else {
+					List<GTFSTrip> n = new ArrayList<GTFSTrip>();
+					n.add(newTrip);
+					ret.put(newTrip.getRouteId(), n);
+				}
 			}
-			currentSequence.add(new Coordinate(Double.parseDouble(tokens[2]), Double.parseDouble(tokens[1])));
 		}
-		ret.put(currentId, currentSequence);
 		return ret;
 	}
 	
-	private Map<String, List<Street>> parseStreetRoutingFromFile(Path path, StreetMap map) throws IOException {
-		Map<String, List<Street>> ret = new HashMap<String, List<Street>>();
-		List<String> lines = Files.readAllLines(path);
+	private static Map<String, List<Coordinate>> loadShapes(Path path) throws IOException {
+		Map<String, List<Coordinate>> ret = new HashMap<String, List<Coordinate>>();
+		
+		// Sequence numbers of points of shapes which are not ordered in the file.
+		Map<String, List<Integer>> sequences = new HashMap<String, List<Integer>>();
 		
-		for (int i = 0; i < lines.size(); i += 2) {
-			String key = lines.get(i);
-			String nodes = lines.get(i + 1);
-			String tokens[] = nodes.split(" ");
-			List<Street> streets = new ArrayList<Street>();
+		try (GTFSReader in = new GTFSReader(path)) {
+			int idColumn = in.getRequiredColumn("shape_id");
+			int latColumn = in.getRequiredColumn("shape_pt_lat");
+			int lonColumn = in.getRequiredColumn("shape_pt_lon");
+			int sequenceColumn = in.getRequiredColumn("shape_pt_sequence");
 			
-			//for (int j = 0; j < tokens.length - 1; j++) {
-				StreetNode n1 = null, n2 = null;
-				int k = 0;
-
-				while ((k < tokens.length) && (n1 == null)) {
-					n1 = map.getStreetNodeReduced(tokens[k]);
-					k++;
-				}
-
-				while (k < tokens.length) {
-					n2 = null;
+			// Points of a shape are usually consecutive, avoid looking up its id for each point.
+			List<Coordinate> currentSequence = null;
+			List<Integer> currentNumbers = null;
+			String currentId = null;
+			
+			while (in.next()) {
+				
+				if ((currentId == null) || !in.equals(idColumn, currentId)) {
+					currentId = in.get(idColumn);
+					currentSequence = ret.get(currentId);
 					
-					while ((k < tokens.length) && (n2 == null)) {
-						n2 = map.getStreetNodeReduced(tokens[k]);
-						k++;
+					if (currentSequence == null) {
+						currentSequence = new ArrayList<Coordinate>(256);
+						ret.put(currentId, currentSequence);
 					}
+					currentNumbers = sequences.get(currentId);
 					
-					if (k == tokens.length)
-						break;
-					Street street = map.getStreet(n1.getLabel(), n2.getLabel());
-					
-					if (street == null)
-						throw new IllegalStateException("Error: Could not find street.");
-					n1 = n2;
-					streets.add(street);
+					if (currentNumbers == null) {
+						currentNumbers = new ArrayList<Integer>(256);
+						sequences.put(currentId, currentNumbers);
+					}
+				}
+				currentSequence.add(new Coordinate(in.getDouble(lonColumn), in.getDouble(latColumn)));
+				currentNumbers.add(in.getInt(sequenceColumn));
+			}
+		}
+		
+		// Order points of shapes by sequence number.
+		for (Map.Entry<String, List<Coordinate>> shape : ret.entrySet()) {
+			final List<Integer> numbers = sequences.get(shape.getKey());
+			List<Coordinate> points = shape.getValue();
+			boolean ordered = true;
+			
+			for (int i = 1; (i < numbers.size()) && ordered; i++) {
+				ordered = numbers.get(i - 1) <= numbers.get(i);
+			}
+			
+			if (ordered)
+				continue;
+			Integer order[] = new Integer[points.size()];
+			
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return Integer.compare(numbers.get(i1), numbers.get(i2));
 				}
-			//}
-			ret.put(key, streets);
+			});
+			List<Coordinate> sorted = new ArrayList<Coordinate>(points.size());
+			
+			for (Integer i : order) {
+				sorted.add(points.get(i));
+			}
+			shape.setValue(sorted);
 		}
 		return ret;
 	}
 	
-	private Map<String, List<Street>> createRoutingStreet(Path path, StreetMap map) throws IOException {
+	// Routing between consecutive stops along a shape.
+	private static final class ShapeRouting {
+		// Id of the shape.
+		final String shapeId;
+		
+		// Fingerprint of the shape, stops, and mapping file the routing was created from.
+		final long fingerprint;
+		
+		// Keys (stop1.id,stop2.id) of the routings.
+		final List<String> keys;
+		
+		// Labels of street nodes of map matched routings, null otherwise.
+		final List<String[]> nodes;
+		
+		// Points of virtual segments of routings which are not map matched, null otherwise.
+		final List<List<Coordinate>> traces;
+		
+		ShapeRouting(String shapeId, long fingerprint, List<String> keys, List<String[]> nodes, List<List<Coordinate>> traces) {
+			this.shapeId = shapeId;
+			this.fingerprint = fingerprint;
+			this.keys = keys;
+			this.nodes = nodes;
+			this.traces = traces;
+		}
+	}
+	
+	private Map<String, List<Street>> createRoutingStreet(final Path path, StreetMap map, final Map<String, List<Coordinate>> shapes, ExecutorService executor) throws IOException {
 		// Mapping to return.
 		Map<String, List<Street>> ret = new HashMap<String, List<Street>>();
-		List<String> processedShapes = new ArrayList<String>();
 		
-		// Load shapes.
-		Map<String, List<Coordinate>> shapes = loadShapes(path.resolve("shapes.txt"));
+		// Shapes to process and the stops of the first trip using them.
+		Set<String> processedShapes = new HashSet<String>();
+		List<String> shapeIds = new ArrayList<String>();
+		List<String[]> shapeStops = new ArrayList<String[]>();
 		
 		for (Iterator<String> ai = agencies.keySet().iterator(); ai.hasNext(); ) {
 			String agencyId = ai.next();
 			List<GTFSRoute> rts = routes.get(agencyId);
 			
+			if (rts == null)
+				continue;
+			
 			for (Iterator<GTFSRoute> ri = rts.iterator(); ri.hasNext(); ) {
 				GTFSRoute route = ri.next();
 				List<GTFSTrip> tps = trips.get(route.getId());
 				
+				if (tps == null)
+					continue;
+				
 				for (Iterator<GTFSTrip> ti = tps.iterator(); ti.hasNext(); ) {
 					GTFSTrip trip = ti.next();
-					String[] stopIds = stoptimes.get(trip.getTripId()).getStopIds();
+					GTFSStopTimes times = stoptimes.get(trip.getTripId());
 					
 					// Check if shape has already been processed.
-					if (processedShapes.contains(trip.getShapeId())) {
+					if ((times == null) || !processedShapes.add(trip.getShapeId())) {
 						continue;
 					}
+					shapeIds.add(trip.getShapeId());
+					shapeStops.add(times.getStopIds());
+				}
+			}
+		}
+		
+		// Routings of shapes which have been processed before.
+		Path cachePath = path.resolve("mapping").resolve(ROUTING_CACHE);
+		final Map<String, ShapeRouting> cache = readRoutingCache(cachePath);
+		
+		// Process shapes in parallel.
+		List<Future<ShapeRouting>> tasks = new ArrayList<Future<ShapeRouting>>(shapeIds.size());
+		
+		for (int i = 0; i < shapeIds.size(); i++) {
+			final String shapeId = shapeIds.get(i);
+			final String[] stopIds = shapeStops.get(i);
+			
+			tasks.add(executor.submit(new Callable<ShapeRouting>() {
+
+				@Override
+				public ShapeRouting call() throws IOException {
+					return createShapeRouting(path, shapeId, shapes.get(shapeId), stopIds, cache.get(shapeId));
+				}
+			}));
+		}
+		
+		// Create streets in order of shapes.
+		List<ShapeRouting> routings = new ArrayList<ShapeRouting>(tasks.size());
+		boolean modified = false;
+		
+		for (Future<ShapeRouting> task : tasks) {
+			ShapeRouting routing = getResult(task);
+			
+			if (routing == null)
+				continue;
+			routings.add(routing);
+			modified |= (routing != cache.get(routing.shapeId));
+			
+			if (routing.nodes != null) {
+				
+				for (int i = 0; i < routing.keys.size(); i++) {
+					ret.put(routing.keys.get(i), createStreetRouting(routing.nodes.get(i), map));
+				}
+				
+			} else {
+				System.out.println("Warning: No routing found for " + routing.shapeId + ". Using non matched GPS traces instead.");
+				
+				for (int i = 0; i < routing.keys.size(); i++) {
+					ret.put(routing.keys.get(i), createPolyTraceStreet(routing.traces.get(i)));
+				}
+			}
+		}
+		
+		if (modified || (routings.size() != cache.size()))
+			writeRoutingCache(cachePath, routings);
+		return ret;
+	}
+	
+	private ShapeRouting createShapeRouting(Path path, String shapeId, List<Coordinate> shape, String[] stopIds, ShapeRouting cached) throws IOException {
+		
+		if (shape == null)
+			return null;
+		
+		// Get trace of shape and return, if no trace is available.
+		List<Coordinate> points = new ArrayList<Coordinate>(shape.size());
+		
+		for (Coordinate c : shape) {
+			
+			if (points.isEmpty() || !points.get(points.size() - 1).equals(c))
+				points.add(c);
+		}
+		
+		if (points.size() < 2)
+			return null;
+		
+		// Check if shape has been processed before.
+		Path mappingPath = path.resolve("mapping/" + shapeId);
+		long fingerprint = getFingerprint(shape, stopIds, mappingPath);
+		
+		if ((cached != null) && (cached.fingerprint == fingerprint))
+			return cached;
+		
+		// Check if shape has map matched traces.
+		if (Files.exists(mappingPath)) {
+			List<String> lines = Files.readAllLines(mappingPath);
+			List<String> keys = new ArrayList<String>(lines.size() / 2);
+			List<String[]> nodes = new ArrayList<String[]>(lines.size() / 2);
+			
+			for (int i = 0; i < lines.size() - 1; i += 2) {
+				keys.add(lines.get(i));
+				nodes.add(lines.get(i + 1).split(" "));
+			}
+			return new ShapeRouting(shapeId, fingerprint, keys, nodes, null);
+		}
+		
+		// Otherwise split trace along stops and create "virtual segments".
+		ShapeSegmentGrid grid = new ShapeSegmentGrid(points);
+		List<List<Coordinate>> newShape = new ArrayList<List<Coordinate>>(stopIds.length);
+		int lastIndex = 0;
+		Coordinate lastCoordinate = grid.getPoint(0);
+		
+		for (int i = 0; i < stopIds.length; i++) {
+			// Get position of next stop.
+			GTFSStop stop = stops.get(stopIds[i]);
+			Coordinate stopPos = new Coordinate(stop.getLon(), stop.getLat());
+			List<Coordinate> s = new ArrayList<Coordinate>();
+			
+			// Find closest segment by projecting stop position to segment and measure distance.
+			int minIndex = grid.findClosestSegment(stopPos);
+			Coordinate minCoord = grid.project(stopPos, minIndex);
+			s.add(lastCoordinate);
+			
+			if (minIndex >= lastIndex) {
+				
+				for (int k = lastIndex; k < minIndex; k++) {
+					s.add(grid.getPoint(k + 1));
+				}
+				
+			} else {
+				// If point is closer to one of previous segments, iterate 
+				for (int k = lastIndex; k < grid.getNumberOfSegments(); k++) {
+					s.add(grid.getPoint(k + 1));
+				}
+				
+				for (int k = 0; k < minIndex; k++) {
+					s.add(grid.getPoint(k + 1));
+				}
+			}
+			s.add(minCoord);
+			lastIndex = minIndex;
+			lastCoordinate = minCoord;
+			newShape.add(s);
+		}
+		List<String> keys = new ArrayList<String>(Math.max(stopIds.length - 1, 0));
+		List<List<Coordinate>> traces = new ArrayList<List<Coordinate>>(Math.max(stopIds.length - 1, 0));
+		
+		for (int i = 0; i < stopIds.length - 1; i++) {
+			keys.add(stopIds[i] + "," + stopIds[i + 1]);
+			traces.add(newShape.get(i + 1));
+		}
+		return new ShapeRouting(shapeId, fingerprint, keys, null, traces);
+	}
+	
+	// Fingerprint of the points of a shape, the ids and positions of stops
+	// along it, and the size and modification time of its mapping file, such
+	// that routings are recomputed if the mapping file changes, appears, or
+	// disappears.
+	private long getFingerprint(List<Coordinate> shape, String[] stopIds, Path mappingPath) throws IOException {
+		long ret = 1125899906842597L;
+		
+		for (Coordinate c : shape) {
+			ret = 31 * ret + Double.doubleToLongBits(c.x);
+			ret = 31 * ret + Double.doubleToLongBits(c.y);
+		}
+		
+		for (String stopId : stopIds) {
+			GTFSStop stop = stops.get(stopId);
+			ret = 31 * ret + stopId.hashCode();
+			
+			if (stop != null) {
+				ret = 31 * ret + Double.doubleToLongBits(stop.getLon());
+				ret = 31 * ret + Double.doubleToLongBits(stop.getLat());
+			}
+		}
+		
+		if (Files.exists(mappingPath)) {
+			ret = 31 * ret + Files.size(mappingPath);
+			ret = 31 * ret + Files.getLastModifiedTime(mappingPath).toMillis();
+			
+		} else {
+			ret = 31 * ret - 1;
+		}
+		return ret;
+	}
+	
+	private static List<Street> createStreetRouting(String tokens[], StreetMap map) {
+		List<Street> streets = new ArrayList<Street>();
+		StreetNode n1 = null, n2 = null;
+		int k = 0;
+
+		while ((k < tokens.length) && (n1 == null)) {
+			n1 = map.getStreetNodeReduced(tokens[k]);
+			k++;
+		}
+
+		while (k < tokens.length) {
+			n2 = null;
+			
+			while ((k < tokens.length) && (n2 == null)) {
+				n2 = map.getStreetNodeReduced(tokens[k]);
+				k++;
+			}
+			
+			if (k == tokens.length)
+				break;
+			Street street = map.getStreet(n1.getLabel(), n2.getLabel());
+			
+			if (street == null)
+				throw new IllegalStateException("Error: Could not find street.");
+			n1 = n2;
+			streets.add(street);
+		}
+		return streets;
+	}
+	
+	// Reads routings of shapes from the cache file. Each shape is stored as
+	// a line "shapeId<TAB>fingerprint<TAB>M|V<TAB>number of routings"
+	// followed by two lines per routing, its key and either the labels of
+	// its street nodes (M) or the coordinates of its points (V).
+	private static Map<String, ShapeRouting> readRoutingCache(Path path) {
+		Map<String, ShapeRouting> ret = new HashMap<String, ShapeRouting>();
+		
+		if (!Files.exists(path))
+			return ret;
+		
+		try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			
+			while ((line = in.readLine()) != null) {
+				String header[] = line.split("\t");
+				
+				if (header.length != 4)
+					throw new IOException("Error: Invalid shape \"" + line + "\".");
+				boolean matched = header[2].equals("M");
+				int n = Integer.parseInt(header[3]);
+				List<String> keys = new ArrayList<String>(n);
+				List<String[]> nodes = matched ? new ArrayList<String[]>(n) : null;
+				List<List<Coordinate>> traces = matched ? null : new ArrayList<List<Coordinate>>(n);
+				
+				for (int i = 0; i < n; i++) {
+					String key = in.readLine();
+					String value = in.readLine();
+					
+					if (value == null)
+						throw new IOException("Error: Unexpected end of file.");
+					keys.add(key);
+					String tokens[] = value.split(" ");
 					
-					// Get trace of shape and continue, if no trace is available.
-					List<Street> polyTrace = createPolyTraceStreet(shapes.get(trip.getShapeId()));
-					if (polyTrace == null || polyTrace.size() == 0) {
+					if (matched) {
+						nodes.add(tokens);
 						continue;
 					}
+					List<Coordinate> trace = new ArrayList<Coordinate>(tokens.length / 2);
 					
-					// Check if shape has map matched traces.
-					Path mappingPath = path.resolve("mapping/" + trip.getShapeId());
-					
-					if (Files.exists(mappingPath)) {
-						Map<String, List<Street>> mapping = parseStreetRoutingFromFile(mappingPath, map);
-						ret.putAll(mapping);
-						processedShapes.add(trip.getShapeId());
-						continue;
+					for (int j = 0; j < tokens.length - 1; j += 2) {
+						trace.add(new Coordinate(Double.parseDouble(tokens[j]), Double.parseDouble(tokens[j + 1])));
 					}
-					System.out.println("Warning: No routing found for " + trip.getShapeId() + ". Using non matched GPS traces instead.");
-
-					// Otherwise split trace along stops and create "virtual segments".
-					List<List<Coordinate>> newShape = new ArrayList<List<Coordinate>>(stopIds.length);
-					int lastIndex = 0;
-					Coordinate lastCoordinate = polyTrace.get(0).getStartingNode().getPosition();
+					traces.add(trace);
+				}
+				ret.put(header[0], new ShapeRouting(header[0], Long.parseLong(header[1]), keys, nodes, traces));
+			}
+			
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Warning: Could not read routing cache " + path + ". Recomputing routing.");
+			ret.clear();
+		}
+		return ret;
+	}
+	
+	private static void writeRoutingCache(Path path, List<ShapeRouting> routings) {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		
+		try {
+			Files.createDirectories(path.getParent());
+			
+			try (BufferedWriter out = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+				
+				for (ShapeRouting routing : routings) {
+					out.write(routing.shapeId + "\t" + routing.fingerprint + "\t" + ((routing.nodes != null) ? "M" : "V") + "\t" + routing.keys.size());
+					out.newLine();
 					
-					for (int i = 0; i < stopIds.length; i++) {
-						// Get position of next stop.
-						GTFSStop stop = stops.get(stopIds[i]);
-						Coordinate stopPos = new Coordinate(stop.getLon(), stop.getLat());
-						List<Coordinate> s = new ArrayList<Coordinate>();
-						
-						// Find closest segment by projecting stop position to segment and measure distance.
-						int minIndex = 0;
-						double minDist = Geometry.haversineDistance(stopPos, projectPointToVirtualStreet(stopPos, polyTrace.get(0)));
-						Coordinate minCoord = projectPointToVirtualStreet(stopPos, polyTrace.get(0));
+					for (int i = 0; i < routing.keys.size(); i++) {
+						out.write(routing.keys.get(i));
+						out.newLine();
+						StringBuilder value = new StringBuilder();
 						
-						for (int j = 0; j < polyTrace.size(); j++) {
-							Coordinate d = projectPointToVirtualStreet(stopPos, polyTrace.get(j));
-							double dist = Geometry.haversineDistance(stopPos, d);
+						if (routing.nodes != null) {
 							
-							if (dist < minDist) {
-								minDist = dist;
-								minIndex = j;
-								minCoord = d;
+							for (String node : routing.nodes.get(i)) {
+								
+								if (value.length() > 0)
+									value.append(' ');
+								value.append(node);
 							}
-						}
-						
-						if (minIndex >= lastIndex) {
-							Street seg = polyTrace.get(lastIndex);
-							Coordinate start = lastCoordinate;
-							s.add(start);
-							
-							for (int k = lastIndex; k < minIndex; k++) {
-								seg = polyTrace.get(k);
-								s.add(seg.getEndNode().getPosition());
-							}
-							s.add(minCoord);
 							
 						} else {
-							Street seg = polyTrace.get(lastIndex);
-							Coordinate start = lastCoordinate;
-							s.add(start);
-							
-							// If point is closer to one of previous segments, iterate 
-							for (int k = lastIndex; k < polyTrace.size(); k++) {
-								seg = polyTrace.get(k);
-								s.add(seg.getEndNode().getPosition());
-							}
 							
-							for (int k = 0; k < minIndex; k++) {
-								seg = polyTrace.get(k);
-								s.add(seg.getEndNode().getPosition());
+							for (Coordinate c : routing.traces.get(i)) {
+								
+								if (value.length() > 0)
+									value.append(' ');
+								value.append(c.x).append(' ').append(c.y);
 							}
-							s.add(minCoord);
-
 						}
-						lastIndex = minIndex;
-						lastCoordinate = minCoord;
-						newShape.add(s);
-					}
-					
-					for (int i = 0; i < stopIds.length - 1; i++) {
-						ret.put(stopIds[i] + "," + stopIds[i + 1], createPolyTraceStreet(newShape.get(i + 1)));
+						out.write(value.toString());
+						out.newLine();
 					}
-					processedShapes.add(trip.getShapeId());
 				}
 			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			
+		} catch (IOException e) {
+			System.out.println("Warning: Could not write routing cache " + path + ".");
+			e.printStackTrace();
 		}
-		return ret;
 	}
 	
 	private static long virtualSegId = 1;
@@ -452,26 +777,6 @@ public class MobilityRepository {
 		return ret;
 	}
 	
-	private static Coordinate projectPointToVirtualStreet(Coordinate c, Street s) {
-		Coordinate start = s.getStartingNode().getPosition();
-		Coordinate end = s.getEndNode().getPosition();
-		Coordinate a = new Coordinate(end.x - start.x, end.y - start.y);
-		Coordinate b = new Coordinate(c.x - start.x, c.y - start.y);
-		
-		double norm_a_square = a.x * a.x + a.y * a.y;
-		double r = (a.x * b.x + a.y * b.y) / norm_a_square;
-		
-		if (r < 0.0) {
-			return start;
-			
-		} else if (r >= 0.0 && r < 1.0) {
-			return new Coordinate(start.x + r * a.x, start.y + r * a.y);
-		
-		} else {
-			return end;
-		}
-	}
-	
 	/**
 	 * Returns mapping (agencyId, agency) of all agencies of urban mobility
 	 * system.
@@ -507,10 +812,24 @@ public class MobilityRepository {
 		return stoptimes;
 	}
 	
+	public GTFSStopTimeTable getStopTimeTable() {
+		return stopTimeTable;
+	}
+	
 	public Map<String, List<GTFSTrip>> getTrips() {
 		return trips;
 	}
 	
+	/**
+	 * Returns mapping (stop1.id,stop2.id) to streets between consecutive
+	 * stops.
+	 * 
+	 * @return Streets between consecutive stops.
+	 */
+	public Map<String, List<Street>> getRoutings() {
+		return routing;
+	}
+	
 	public List<Street> getRouting(String stop1, String stop2) {
 		return routing.get(stop1 + "," + stop2);
 	}
@@ -1,8 +1,12 @@
 package allow.simulator.mobility.data;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import allow.simulator.mobility.data.gtfs.GTFSAgency;
 import allow.simulator.mobility.data.gtfs.GTFSRoute;
@@ -13,102 +17,195 @@ import allow.simulator.mobility.data.gtfs.GTFSStopTimes;
 import allow.simulator.mobility.data.gtfs.GTFSTrip;
 import allow.simulator.world.Street;
 
+/**
+ * Data service answering requests from a mobility repository. Indexes for
+ * all requests are built once when the service is created and not modified
+ * afterwards, hence requests are answered without searching the repository
+ * and the service may be queried concurrently.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public class OfflineDataService implements IDataService {
-	
+
 	// The mobility repository to answer requests.
 	MobilityRepository repos;
 
+	// Available agencies.
+	private final List<GTFSAgency> agencies;
+
+	// Mapping of agencyId to routes operated by that agency.
+	private final Map<String, List<GTFSRoute>> routesOfAgency;
+
+	// Mapping of routeId to distinct stops along the route in order of trips.
+	private final Map<String, List<GTFSStop>> stopsOfRoute;
+
+	// Mapping of stopId to routes serving the stop.
+	private final Map<String, List<GTFSRoute>> routesOfStop;
+
+	// Mapping of routeId to timetable of the route.
+	private final Map<String, TimeTable> timeTables;
+
+	// Mapping of tripId to trip and service of the trip.
+	private final Map<String, GTFSTrip> trips;
+	private final Map<String, GTFSService> serviceOfTrip;
+
+	// Mapping of (stop1.id, stop2.id) to streets between consecutive stops.
+	private final Map<String, Map<String, List<Street>>> routing;
+
 	public OfflineDataService(MobilityRepository repos) {
 		this.repos = repos;
+		agencies = Collections.unmodifiableList(new ArrayList<GTFSAgency>(repos.getAgencies().values()));
+		routesOfAgency = new HashMap<String, List<GTFSRoute>>();
+		Map<String, GTFSRoute> routes = new HashMap<String, GTFSRoute>();
+
+		for (Map.Entry<String, List<GTFSRoute>> entry : repos.getRoutes().entrySet()) {
+			routesOfAgency.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<GTFSRoute>(entry.getValue())));
+
+			for (GTFSRoute route : entry.getValue()) {
+				routes.put(route.getId(), route);
+			}
+		}
+		stopsOfRoute = new HashMap<String, List<GTFSStop>>();
+		routesOfStop = new HashMap<String, List<GTFSRoute>>();
+		timeTables = new HashMap<String, TimeTable>();
+		trips = new HashMap<String, GTFSTrip>();
+		serviceOfTrip = new HashMap<String, GTFSService>();
+
+		for (Map.Entry<String, List<GTFSTrip>> entry : repos.getTrips().entrySet()) {
+			String routeId = entry.getKey();
+			List<GTFSTrip> tripsOfRoute = entry.getValue();
+			List<GTFSStopTimes> times = new ArrayList<GTFSStopTimes>(tripsOfRoute.size());
+			List<GTFSService> services = new ArrayList<GTFSService>(tripsOfRoute.size());
+
+			// Distinct stops of all trips, null if stop times of a trip are unknown.
+			Set<GTFSStop> stops = new LinkedHashSet<GTFSStop>();
+
+			for (GTFSTrip trip : tripsOfRoute) {
+				GTFSService service = repos.getServices().get(trip.getServiceId());
+				GTFSStopTimes temp = repos.getStopTimes().get(trip.getTripId());
+				
+				if (!trips.containsKey(trip.getTripId())) {
+					trips.put(trip.getTripId(), trip);
+					serviceOfTrip.put(trip.getTripId(), service);
+				}
+				times.add(temp);
+				services.add(service);
+
+				if (stops == null)
+					continue;
+
+				if (temp == null) {
+					stops = null;
+					continue;
+				}
+
+				for (int i = 0; i < temp.getNumberOfStops(); i++) {
+					stops.add(repos.getStops().get(temp.getStopId(i)));
+				}
+			}
+			timeTables.put(routeId, new TimeTable(routeId, times, services));
+
+			if (stops == null)
+				continue;
+			stopsOfRoute.put(routeId, Collections.unmodifiableList(new ArrayList<GTFSStop>(stops)));
+			GTFSRoute route = routes.get(routeId);
+
+			if (route == null)
+				continue;
+
+			for (GTFSStop stop : stops) {
+
+				if (stop == null)
+					continue;
+				List<GTFSRoute> temp = routesOfStop.get(stop.getId());
+
+				if (temp == null) {
+					temp = new ArrayList<GTFSRoute>();
+					routesOfStop.put(stop.getId(), temp);
+				}
+				temp.add(route);
+			}
+		}
+
+		for (Map.Entry<String, List<GTFSRoute>> entry : routesOfStop.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		routing = new HashMap<String, Map<String, List<Street>>>();
+
+		for (Map.Entry<String, List<Street>> entry : repos.getRoutings().entrySet()) {
+			String key = entry.getKey();
+
+			// Split key (stop1.id,stop2.id) at the comma following a known stop id.
+			int split = key.indexOf(',');
+
+			for (int i = split; i >= 0; i = key.indexOf(',', i + 1)) {
+
+				if (repos.getStops().containsKey(key.substring(0, i)) && repos.getStops().containsKey(key.substring(i + 1))) {
+					split = i;
+					break;
+				}
+			}
+
+			if (split < 0)
+				continue;
+			String start = key.substring(0, split);
+			Map<String, List<Street>> temp = routing.get(start);
+
+			if (temp == null) {
+				temp = new HashMap<String, List<Street>>();
+				routing.put(start, temp);
+			}
+			temp.put(key.substring(split + 1), (entry.getValue() != null) ? Collections.unmodifiableList(entry.getValue()) : null);
+		}
 	}
 
 	@Override
 	public List<GTFSAgency> getAgencies() {
-		Map<String, GTFSAgency> temp = repos.getAgencies();
-		return new ArrayList<GTFSAgency>(temp.values());
+		return agencies;
 	}
 
 	@Override
 	public List<GTFSRoute> getRoutes(String agencyId) {
-		Map<String, List<GTFSRoute>> temp = repos.getRoutes();
-		return temp.get(agencyId);
+		return routesOfAgency.get(agencyId);
 	}
 
 	@Override
 	public List<GTFSStop> getStops(String routeId) {
-		// Get list of trips of route.
-		List<GTFSTrip> trips = repos.getTrips().get(routeId);
-
-		// If no trips are found for given routeId, return null (routeId is unknown).
-		if (trips == null) {
-			return null;
-		}
-		
-		// Get all stops from repository.
-		Map<String, GTFSStop> stops = repos.getStops();
-		
-		// List to return.
-		List<GTFSStop> ret = new ArrayList<GTFSStop>();
-		for (GTFSTrip trip : trips) {
-			GTFSStopTimes times = repos.getStopTimes().get(trip.getTripId());
-
-			// If not stop times are found for given trip, return null (tripId is unknown).
-			if (times == null) {
-				return null;
-			}
-			
-			for (String stopId : times.getStopIds()) {
-				GTFSStop toAdd = stops.get(stopId);
+		// If no trips or stop times are found for given routeId, return null (routeId is unknown).
+		return stopsOfRoute.get(routeId);
+	}
 
-				if (!ret.contains(toAdd)) {
-					ret.add(toAdd);
-				}
-			}
-		}
-		return ret;
+	@Override
+	public List<GTFSRoute> getRoutesOfStop(String stopId) {
+		List<GTFSRoute> ret = routesOfStop.get(stopId);
+		return (ret != null) ? ret : Collections.<GTFSRoute>emptyList();
 	}
 
 	@Override
 	public TimeTable getTimeTable(String routeId) {
-		List<GTFSTrip> trips = repos.getTrips().get(routeId);
-		
-		if (trips == null) {
-			return null;
-		}
-		Map<String, GTFSService> serviceIds = repos.getServices();
-		List<GTFSStopTimes> times = new ArrayList<GTFSStopTimes>(trips.size() - 1);
-		List<GTFSService> services = new ArrayList<GTFSService>(trips.size() - 1);
-		
-		for (GTFSTrip trip : trips) {
-			GTFSStopTimes temp = repos.getStopTimes().get(trip.getTripId());
-			times.add(temp);
-			services.add(serviceIds.get(trip.getServiceId()));
-		}
-		return new TimeTable(routeId, times, services);
+		return timeTables.get(routeId);
 	}
 
 	@Override
 	public List<Street> getBusstopRouting(String start, String end) {
-		return repos.getRouting(start, end);
+		Map<String, List<Street>> temp = routing.get(start);
+		return (temp != null) ? temp.get(end) : null;
 	}
 
 	@Override
 	public List<GTFSServiceException> getServiceExceptions(String serviceId) {
-		return repos.getServiceExceptions().containsKey(serviceId) 
+		return repos.getServiceExceptions().containsKey(serviceId)
 				? repos.getServiceExceptions().get(serviceId) : new ArrayList<GTFSServiceException>(0);
 	}
 
 	@Override
 	public GTFSService getServiceId(String routeId, String tripId) {
-		List<GTFSTrip> trips = repos.getTrips().get(routeId);
-		
-		for (int i = 0; i < trips.size(); i++) {
-			
-			if (trips.get(i).getTripId().equals(tripId)) {
-				return repos.getServices().get(trips.get(i).getServiceId());
-			}
-		}
-		return null;
+		GTFSTrip trip = trips.get(tripId);
+
+		if ((trip == null) || !trip.getRouteId().equals(routeId))
+			return null;
+		return serviceOfTrip.get(tripId);
 	}
 
 }
@@ -160,6 +160,11 @@ public class OnlineDataService implements IDataService {
 		return null;
 	}
 	
+	@Override
+	public List<GTFSRoute> getRoutesOfStop(String stopId) {
+		return new ArrayList<GTFSRoute>(0);
+	}
+	
 	@Override
 	public TimeTable getTimeTable(String routeId) {
 
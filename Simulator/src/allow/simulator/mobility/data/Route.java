@@ -2,7 +2,6 @@ package allow.simulator.mobility.data;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -44,8 +43,6 @@ public class Route {
 		tripsToReturn = new ArrayList<PublicTransportationTrip>(16);
 	}
 	
-	private static final DateTimeFormatter format = DateTimeFormatter.ofPattern("kk:mm:ss");
-	
 	private void timeTableToTrips(TimeTable tt) {
 		// For routing.
 		IDataService service = Simulator.Instance().getContext().getDataService();
@@ -63,12 +60,12 @@ public class Route {
 				GTFSStopTimes info = stoptimes.get(j);
 
 				// Allocate lists for times and stops and copy them.
-				List<LocalTime> tripTimes = new ArrayList<LocalTime>(info.getStopIds().length);
-				List<BusStop> tripStops = new ArrayList<BusStop>(info.getStopIds().length);
+				List<LocalTime> tripTimes = new ArrayList<LocalTime>(info.getNumberOfStops());
+				List<BusStop> tripStops = new ArrayList<BusStop>(info.getNumberOfStops());
 				
-				for (int k = 0; k < info.getStopIds().length; k++) {
-					tripStops.add(stops.get(info.getStopIds()[k]));
-					tripTimes.add(LocalTime.parse(info.getDepartureTimes()[k], format));
+				for (int k = 0; k < info.getNumberOfStops(); k++) {
+					tripStops.add(stops.get(info.getStopId(k)));
+					tripTimes.add(LocalTime.ofSecondOfDay(info.getDepartureTime(k) % 86400));
 				}
 				
 				// Allocate lists for traces and generate them.
@@ -0,0 +1,225 @@
+package allow.simulator.mobility.data;
+
+import java.util.List;
+
+import allow.simulator.util.Coordinate;
+import allow.simulator.util.Geometry;
+
+/**
+ * Uniform grid over the segments of a shape (polyline) to find the segment
+ * closest to a position without testing all segments. The grid covers the
+ * bounding box of the shape with roughly one cell per segment, each
+ * segment is stored in all cells its bounding box overlaps. Cells are
+ * searched in rings around the position until no segment outside the
+ * searched cells can be closer than the closest segment found.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class ShapeSegmentGrid {
+	// Earth radius in meters as used by Geometry.haversineDistance().
+	private static final double EARTH_RADIUS = 6371000.0;
+	private static final double DEG2RAD = Math.PI / 180.0;
+
+	// Points of the shape, segment i connects points i and i + 1.
+	private final Coordinate points[];
+
+	// Origin, cell size (degrees), and dimensions of the grid.
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+
+	// Segments of cell i are segments[offsets[i]] to segments[offsets[i + 1] - 1].
+	private final int offsets[];
+	private final int segments[];
+
+	/**
+	 * Creates a new grid over the segments of a shape.
+	 *
+	 * @param points Points of the shape, at least two and no two consecutive
+	 * points must be equal.
+	 */
+	ShapeSegmentGrid(List<Coordinate> points) {
+
+		if (points.size() < 2)
+			throw new IllegalArgumentException("Error: Shape must have at least two points.");
+		this.points = points.toArray(new Coordinate[points.size()]);
+		int n = this.points.length - 1;
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+
+		for (Coordinate c : this.points) {
+			minX = Math.min(minX, c.x);
+			minY = Math.min(minY, c.y);
+			maxX = Math.max(maxX, c.x);
+			maxY = Math.max(maxY, c.y);
+		}
+		double width = maxX - minX;
+		double height = maxY - minY;
+		this.minX = minX;
+		this.minY = minY;
+		cellSize = Math.max(Math.max(Math.sqrt(width * height / n), Math.max(width, height) / n), 1e-9);
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// Count segments per cell and store them cell wise.
+		offsets = new int[columns * rows + 1];
+
+		for (int s = 0; s < n; s++) {
+
+			for (int j = getRow(Math.min(this.points[s].y, this.points[s + 1].y)); j <= getRow(Math.max(this.points[s].y, this.points[s + 1].y)); j++) {
+
+				for (int i = getColumn(Math.min(this.points[s].x, this.points[s + 1].x)); i <= getColumn(Math.max(this.points[s].x, this.points[s + 1].x)); i++) {
+					offsets[j * columns + i + 1]++;
+				}
+			}
+		}
+
+		for (int i = 0; i < columns * rows; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		segments = new int[offsets[columns * rows]];
+		int next[] = new int[columns * rows];
+		System.arraycopy(offsets, 0, next, 0, next.length);
+
+		for (int s = 0; s < n; s++) {
+
+			for (int j = getRow(Math.min(this.points[s].y, this.points[s + 1].y)); j <= getRow(Math.max(this.points[s].y, this.points[s + 1].y)); j++) {
+
+				for (int i = getColumn(Math.min(this.points[s].x, this.points[s + 1].x)); i <= getColumn(Math.max(this.points[s].x, this.points[s + 1].x)); i++) {
+					segments[next[j * columns + i]++] = s;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of segments of the shape.
+	 *
+	 * @return Number of segments of the shape.
+	 */
+	int getNumberOfSegments() {
+		return points.length - 1;
+	}
+
+	/**
+	 * Returns a point of the shape.
+	 *
+	 * @param i Index of the point.
+	 * @return Point of the shape.
+	 */
+	Coordinate getPoint(int i) {
+		return points[i];
+	}
+
+	/**
+	 * Projects a position onto a segment of the shape.
+	 *
+	 * @param c Position to project.
+	 * @param segment Index of the segment.
+	 * @return Point of the segment closest to the position in the plane.
+	 */
+	Coordinate project(Coordinate c, int segment) {
+		Coordinate start = points[segment];
+		Coordinate end = points[segment + 1];
+		double ax = end.x - start.x;
+		double ay = end.y - start.y;
+		double r = (ax * (c.x - start.x) + ay * (c.y - start.y)) / (ax * ax + ay * ay);
+
+		if (r < 0.0) {
+			return start;
+
+		} else if (r < 1.0) {
+			return new Coordinate(start.x + r * ax, start.y + r * ay);
+
+		} else {
+			return end;
+		}
+	}
+
+	/**
+	 * Returns the segment closest to a position, i.e. the segment with the
+	 * smallest haversine distance between the position and its projection
+	 * onto the segment. Ties are resolved in favour of the first segment.
+	 *
+	 * @param c Position to find closest segment of.
+	 * @return Index of the closest segment.
+	 */
+	int findClosestSegment(Coordinate c) {
+		int cx = getCell(c.x, minX);
+		int cy = getCell(c.y, minY);
+
+		// Start with the first ring overlapping the grid.
+		int r = Math.max(Math.max(Math.max(-cx, cx - (columns - 1)), Math.max(-cy, cy - (rows - 1))), 0);
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+
+		while (true) {
+
+			for (int j = Math.max(cy - r, 0); j <= Math.min(cy + r, rows - 1); j++) {
+				// Inner rows of the ring only have their first and last cell in the ring.
+				boolean edge = (j == cy - r) || (j == cy + r);
+				int first = edge ? Math.max(cx - r, 0) : cx - r;
+				int last = edge ? Math.min(cx + r, columns - 1) : cx + r;
+				int step = edge ? 1 : 2 * r;
+
+				for (int i = first; i <= last; i += step) {
+
+					if ((i < 0) || (i >= columns))
+						continue;
+					int cell = j * columns + i;
+
+					for (int k = offsets[cell]; k < offsets[cell + 1]; k++) {
+						int s = segments[k];
+						double distance = Geometry.haversineDistance(c, project(c, s));
+
+						if ((distance < bestDistance) || ((distance == bestDistance) && (s < best))) {
+							bestDistance = distance;
+							best = s;
+						}
+					}
+				}
+			}
+
+			// Stop if all cells have been searched.
+			if ((cx - r <= 0) && (cx + r >= columns - 1) && (cy - r <= 0) && (cy + r >= rows - 1))
+				break;
+
+			// Stop if segments outside the searched cells cannot be closer.
+			if ((best != -1) && (bestDistance < getLowerBound(c, r * cellSize)))
+				break;
+			r++;
+		}
+		return best;
+	}
+
+	private int getColumn(double x) {
+		return Math.min(Math.max(getCell(x, minX), 0), columns - 1);
+	}
+
+	private int getRow(double y) {
+		return Math.min(Math.max(getCell(y, minY), 0), rows - 1);
+	}
+
+	private int getCell(double v, double min) {
+		double cell = Math.floor((v - min) / cellSize);
+		return (int) Math.min(Math.max(cell, -(1 << 30)), 1 << 30);
+	}
+
+	// Returns the smallest distance (meters) between a position and any
+	// point differing by more than delta degrees in longitude or latitude.
+	private static double getLowerBound(Coordinate c, double delta) {
+		double latitude = EARTH_RADIUS * DEG2RAD * delta;
+
+		if (delta >= 90.0)
+			return latitude;
+
+		// Distance to the meridian delta degrees apart along a great circle.
+		double longitude = EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sin(DEG2RAD * delta) * Math.cos(DEG2RAD * c.y)));
+		return Math.min(latitude, longitude);
+	}
+}
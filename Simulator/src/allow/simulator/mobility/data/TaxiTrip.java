@@ -4,13 +4,26 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 
+import allow.simulator.util.Coordinate;
 import allow.simulator.world.Street;
 
 public class TaxiTrip extends Trip {
+	// Position of the taxi the trip has been planned for
+	private final Coordinate start;
 
-	public TaxiTrip(String tripId, List<TaxiStop> stops, List<LocalTime> stopTimes, List<List<Street>> traces) {
+	public TaxiTrip(String tripId, Coordinate start, List<TaxiStop> stops, List<LocalTime> stopTimes, List<List<Street>> traces) {
 		super(tripId, new ArrayList<Stop>(stops), stopTimes, traces);
-		
+		this.start = start;
+	}
+	
+	/**
+	 * Returns the position the first trace of the trip has been planned
+	 * from, i.e. the position of the taxi the trip has been planned for.
+	 * 
+	 * @return Starting position of the trip.
+	 */
+	public Coordinate getStartingPosition() {
+		return start;
 	}
 	
 	public List<TaxiStop> getTaxiStops() {
@@ -14,7 +14,7 @@ public class TimeTable {
 
 		@Override
 		public int compare(GTFSStopTimes trip1, GTFSStopTimes trip2) {
-			return trip1.getStartingTime().compareTo(trip2.getStartingTime());
+			return Integer.compare(trip1.getStartingTime(), trip2.getStartingTime());
 		}
 
 	}
@@ -98,6 +98,10 @@ public class TransportationRepository {
 			context.getEntityManager().addEntity(b);
 			taxiAgency.addTaxi(b);
 		}
+		
+		// Plan taxi trips to start from the idle taxi closest to the pickup point
+		if (context.getJourneyPlanner().getTaxiPlannerService() != null)
+			context.getJourneyPlanner().getTaxiPlannerService().setTaxiLocator(taxiAgency);
 	}
 	
 	public static TransportationRepository loadPublicTransportation(Context context) {
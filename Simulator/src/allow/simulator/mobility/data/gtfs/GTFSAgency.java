@@ -51,18 +51,18 @@ public final class GTFSAgency {
 		return name;
 	}
 	
-	// Constants when agency is read from a GTFS file directly.
-	private static int AGENCY_ID = 0;
-	private static int AGENCY_NAME = 1;
+	// Columns when agency is read from a GTFS file directly.
+	private static final String AGENCY_ID = "agency_id";
+	private static final String AGENCY_NAME = "agency_name";
 
 	/**
-	 * Parses a GTFSAgency from a line in the corresponding GTFS file (agency.txt).
+	 * Parses a GTFSAgency from the current record of the corresponding GTFS
+	 * file (agency.txt).
 	 * 
-	 * @param line Line from GTFS file (agency.txt).
+	 * @param in Reader of GTFS file (agency.txt).
 	 * @return GTFSAgency parsed from GTFS file.
 	 */
-	public static GTFSAgency fromGTFS(String line) {
-		String tokens[] = line.split(",");
-		return new GTFSAgency(tokens[AGENCY_ID], tokens[AGENCY_NAME]);
+	public static GTFSAgency fromGTFS(GTFSReader in) {
+		return new GTFSAgency(in.get(in.getColumn(AGENCY_ID)), in.get(in.getColumn(AGENCY_NAME)));
 	}
 }
@@ -0,0 +1,79 @@
+package allow.simulator.mobility.data.gtfs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of GTFS identifiers (e.g. stop or trip ids) mapping each distinct id
+ * to a consecutive integer in order of first occurrence. Data read from
+ * GTFS files refers to ids by their index such that every id is stored
+ * once.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class GTFSIdPool {
+	// Index of ids.
+	private final Map<String, Integer> indices;
+
+	// Ids by index.
+	private final List<String> ids;
+
+	/**
+	 * Creates a new empty pool of ids.
+	 */
+	public GTFSIdPool() {
+		indices = new HashMap<String, Integer>();
+		ids = new ArrayList<String>();
+	}
+
+	/**
+	 * Returns the index of an id and adds the id to the pool, if it is not
+	 * contained yet.
+	 *
+	 * @param id Id to intern.
+	 * @return Index of the id.
+	 */
+	public int intern(String id) {
+		Integer index = indices.get(id);
+
+		if (index != null)
+			return index;
+		index = ids.size();
+		ids.add(id);
+		indices.put(id, index);
+		return index;
+	}
+
+	/**
+	 * Returns the index of an id.
+	 *
+	 * @param id Id to look up.
+	 * @return Index of the id or -1, if the id is not contained in the pool.
+	 */
+	public int indexOf(String id) {
+		Integer index = indices.get(id);
+		return (index != null) ? index : -1;
+	}
+
+	/**
+	 * Returns the id with the given index.
+	 *
+	 * @param index Index of the id.
+	 * @return Id with the given index.
+	 */
+	public String get(int index) {
+		return ids.get(index);
+	}
+
+	/**
+	 * Returns the number of ids in the pool.
+	 *
+	 * @return Number of ids in the pool.
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
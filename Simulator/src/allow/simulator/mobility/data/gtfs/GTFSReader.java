@@ -0,0 +1,386 @@
+package allow.simulator.mobility.data.gtfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming reader of GTFS files (https://developers.google.com/transit/gtfs/reference).
+ * Records are read one at a time following RFC 4180: fields may be quoted,
+ * quoted fields may contain delimiters, line breaks, and escaped quotes.
+ * Columns are resolved by the names of the header line, hence the order of
+ * columns may differ between data sets. Fields are kept in a buffer and
+ * converted on access, numbers and times are parsed without creating
+ * strings.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class GTFSReader implements Closeable {
+	// Size of the read buffer in characters.
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// File being read.
+	private final Path path;
+
+	// Reader of the file.
+	private final Reader in;
+
+	// Read buffer.
+	private final char buffer[];
+	private int position;
+	private int limit;
+
+	// Unescaped characters of the current record and bounds of its fields.
+	private final StringBuilder record;
+	private int fieldStart[];
+	private int fieldEnd[];
+	private int fields;
+
+	// Columns by name.
+	private final Map<String, Integer> header;
+
+	// Number of the line the current record ends in.
+	private long line;
+
+	/**
+	 * Creates a new reader of a GTFS file and reads its header.
+	 *
+	 * @param path GTFS file to read.
+	 * @throws IOException
+	 */
+	public GTFSReader(Path path) throws IOException {
+		this.path = path;
+		in = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8);
+		buffer = new char[BUFFER_SIZE];
+		record = new StringBuilder(256);
+		fieldStart = new int[16];
+		fieldEnd = new int[16];
+		header = new HashMap<String, Integer>();
+
+		if (!next()) {
+			in.close();
+			throw new IOException("Error: " + path + " has no header.");
+		}
+
+		for (int i = 0; i < fields; i++) {
+			String name = get(i).trim();
+
+			// Skip byte order mark.
+			if ((i == 0) && name.startsWith("\uFEFF"))
+				name = name.substring(1);
+			header.put(name, i);
+		}
+	}
+
+	/**
+	 * Returns the index of a column.
+	 *
+	 * @param name Name of the column.
+	 * @return Index of the column or -1, if the file has no such column.
+	 */
+	public int getColumn(String name) {
+		Integer column = header.get(name);
+		return (column != null) ? column : -1;
+	}
+
+	/**
+	 * Returns the index of a column which must be present.
+	 *
+	 * @param name Name of the column.
+	 * @return Index of the column.
+	 * @throws IOException If the file has no such column.
+	 */
+	public int getRequiredColumn(String name) throws IOException {
+		Integer column = header.get(name);
+
+		if (column == null)
+			throw new IOException("Error: " + path + " has no column " + name + ".");
+		return column;
+	}
+
+	/**
+	 * Reads the next record. Empty lines are skipped.
+	 *
+	 * @return True, if a record was read, false if the end of the file has
+	 * been reached.
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		record.setLength(0);
+		fields = 0;
+		int c = read();
+
+		// Skip empty lines.
+		while ((c == '\n') || (c == '\r')) {
+
+			if (c == '\n')
+				line++;
+			c = read();
+		}
+
+		if (c == -1)
+			return false;
+
+		while (true) {
+			int start = record.length();
+
+			if (c == '"') {
+				// Quoted field, quotes are escaped by doubling them.
+				while (true) {
+					c = read();
+
+					if (c == -1)
+						throw new IOException("Error: Unterminated quoted field in line " + (line + 1) + " of " + path + ".");
+
+					if (c == '"') {
+						c = read();
+
+						if (c != '"')
+							break;
+
+					} else if (c == '\n') {
+						line++;
+					}
+					record.append((char) c);
+				}
+			}
+
+			// Unquoted field or characters following a quoted field.
+			while ((c != ',') && (c != '\n') && (c != '\r') && (c != -1)) {
+				record.append((char) c);
+				c = read();
+			}
+			addField(start, record.length());
+
+			if (c != ',')
+				break;
+			c = read();
+		}
+
+		// Skip line break.
+		if (c == '\r') {
+			c = read();
+
+			if ((c != '\n') && (c != -1))
+				position--;
+		}
+		line++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of fields of the current record.
+	 *
+	 * @return Number of fields of the current record.
+	 */
+	public int getNumberOfFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns a field of the current record.
+	 *
+	 * @param column Index of the column.
+	 * @return Field of the current record or an empty string, if the record
+	 * has no such field.
+	 */
+	public String get(int column) {
+
+		if ((column < 0) || (column >= fields))
+			return "";
+		return record.substring(fieldStart[column], fieldEnd[column]);
+	}
+
+	/**
+	 * Checks if a field of the current record equals a string without
+	 * creating a string of the field.
+	 *
+	 * @param column Index of the column.
+	 * @param s String to compare field to.
+	 * @return True, if the field equals the string, false otherwise.
+	 */
+	public boolean equals(int column, String s) {
+
+		if ((column < 0) || (column >= fields))
+			return s.isEmpty();
+		int start = fieldStart[column];
+		int length = fieldEnd[column] - start;
+
+		if (length != s.length())
+			return false;
+
+		for (int i = 0; i < length; i++) {
+
+			if (record.charAt(start + i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a field of the current record is empty.
+	 *
+	 * @param column Index of the column.
+	 * @return True, if the field is empty or missing, false otherwise.
+	 */
+	public boolean isEmpty(int column) {
+		int start = trimStart(column);
+		return start == trimEnd(column, start);
+	}
+
+	/**
+	 * Parses a field of the current record as integer.
+	 *
+	 * @param column Index of the column.
+	 * @return Integer value of the field.
+	 * @throws IOException If the field is not an integer.
+	 */
+	public int getInt(int column) throws IOException {
+		int start = trimStart(column);
+		int end = trimEnd(column, start);
+		boolean negative = (start < end) && (record.charAt(start) == '-');
+		int i = negative ? start + 1 : start;
+
+		if (i == end)
+			throw invalid(column, "integer");
+		int value = 0;
+
+		for (; i < end; i++) {
+			char c = record.charAt(i);
+
+			if ((c < '0') || (c > '9'))
+				throw invalid(column, "integer");
+			value = 10 * value + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a field of the current record as floating point number.
+	 *
+	 * @param column Index of the column.
+	 * @return Value of the field.
+	 * @throws IOException If the field is not a number.
+	 */
+	public double getDouble(int column) throws IOException {
+
+		try {
+			return Double.parseDouble(get(column).trim());
+
+		} catch (NumberFormatException e) {
+			throw invalid(column, "number");
+		}
+	}
+
+	/**
+	 * Parses a field of the current record as time (H:MM:SS). Hours may
+	 * exceed 23 for trips running past midnight.
+	 *
+	 * @param column Index of the column.
+	 * @return Seconds since midnight or -1, if the field is empty.
+	 * @throws IOException If the field is not a time.
+	 */
+	public int getTime(int column) throws IOException {
+		int start = trimStart(column);
+		int end = trimEnd(column, start);
+
+		if (start == end)
+			return -1;
+		int value = 0;
+		int part = 0;
+		int parts = 1;
+
+		for (int i = start; i < end; i++) {
+			char c = record.charAt(i);
+
+			if (c == ':') {
+				value = 60 * (value + part);
+				part = 0;
+				parts++;
+
+			} else if ((c >= '0') && (c <= '9')) {
+				part = 10 * part + (c - '0');
+
+			} else {
+				throw invalid(column, "time");
+			}
+		}
+
+		if (parts != 3)
+			throw invalid(column, "time");
+		return value + part;
+	}
+
+	/**
+	 * Returns the number of the line the current record ends in.
+	 *
+	 * @return Number of the line the current record ends in.
+	 */
+	public long getLineNumber() {
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private int read() throws IOException {
+
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++];
+	}
+
+	private void addField(int start, int end) {
+
+		if (fields == fieldStart.length) {
+			fieldStart = Arrays.copyOf(fieldStart, 2 * fields);
+			fieldEnd = Arrays.copyOf(fieldEnd, 2 * fields);
+		}
+		fieldStart[fields] = start;
+		fieldEnd[fields] = end;
+		fields++;
+	}
+
+	private int trimStart(int column) {
+
+		if ((column < 0) || (column >= fields))
+			return 0;
+		int start = fieldStart[column];
+
+		while ((start < fieldEnd[column]) && (record.charAt(start) == ' '))
+			start++;
+		return start;
+	}
+
+	private int trimEnd(int column, int start) {
+
+		if ((column < 0) || (column >= fields))
+			return 0;
+		int end = fieldEnd[column];
+
+		while ((end > start) && (record.charAt(end - 1) == ' '))
+			end--;
+		return end;
+	}
+
+	private IOException invalid(int column, String type) {
+		return new IOException("Error: Invalid " + type + " \"" + get(column) + "\" in line " + line + " of " + path + ".");
+	}
+}
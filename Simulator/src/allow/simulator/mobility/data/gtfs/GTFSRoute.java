@@ -1,5 +1,7 @@
 package allow.simulator.mobility.data.gtfs;
 
+import java.io.IOException;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -91,19 +93,20 @@ public final class GTFSRoute {
 		return mode;
 	}
 	
-	// Constants when route is read from a GTFS file directly.
-	private static int ROUTE_ID = 0;
-	private static int ROUTE_AGENCY_ID = 1;
-	private static int ROUTE_MODE = 4;
+	// Columns when route is read from a GTFS file directly.
+	private static final String ROUTE_ID = "route_id";
+	private static final String ROUTE_AGENCY_ID = "agency_id";
+	private static final String ROUTE_MODE = "route_type";
 	
 	/**
-	 * Parse route info from line in GTFS file (routes.txt).
+	 * Parse route info from current record of GTFS file (routes.txt).
 	 * 
-	 * @param line Line from GTFS file (routes.txt).
+	 * @param in Reader of GTFS file (routes.txt).
 	 * @return Route info parsed from GTFS file.
+	 * @throws IOException
 	 */
-	public static GTFSRoute fromGTFS(String line) {
-		String tokens[] = line.split(",");
-		return new GTFSRoute(tokens[ROUTE_ID], tokens[ROUTE_AGENCY_ID], Integer.parseInt(tokens[ROUTE_MODE]));
+	public static GTFSRoute fromGTFS(GTFSReader in) throws IOException {
+		return new GTFSRoute(in.get(in.getRequiredColumn(ROUTE_ID)), in.get(in.getColumn(ROUTE_AGENCY_ID)),
+				in.getInt(in.getRequiredColumn(ROUTE_MODE)));
 	}
 }
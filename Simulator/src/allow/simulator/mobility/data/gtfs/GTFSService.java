@@ -1,6 +1,6 @@
 package allow.simulator.mobility.data.gtfs;
 
-import java.text.ParseException;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -61,22 +61,20 @@ public final class GTFSService {
 		return endDate;
 	}
 	
-	private static int SERVICE_ID = 0;
-	private static int SERVICE_DAYS_START = 1;
-	private static int SERVICE_DAYS_END = 7;
-	private static int SERVICE_STARTDATE = 8;
-	private static int SERVICE_ENDDATE = 9;
+	private static final String SERVICE_ID = "service_id";
+	private static final String SERVICE_DAYS[] = { "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday" };
+	private static final String SERVICE_STARTDATE = "start_date";
+	private static final String SERVICE_ENDDATE = "end_date";
 	
-	public static GTFSService fromGTFS(String line) throws ParseException {
+	public static GTFSService fromGTFS(GTFSReader in) throws IOException {
 		GTFSService i = new GTFSService();
-		String tokens[] = line.split(",");
-		i.serviceId = tokens[SERVICE_ID];
+		i.serviceId = in.get(in.getRequiredColumn(SERVICE_ID));
 		
-		for (int j = SERVICE_DAYS_START; j <= SERVICE_DAYS_END; j++) {
-			i.days[j - SERVICE_DAYS_START] = (tokens[j].equals("1"));
+		for (int j = 0; j < SERVICE_DAYS.length; j++) {
+			i.days[j] = in.equals(in.getRequiredColumn(SERVICE_DAYS[j]), "1");
 		}
-		i.startDate = LocalDate.parse(tokens[SERVICE_STARTDATE], gtfsDate);
-		i.endDate = LocalDate.parse(tokens[SERVICE_ENDDATE], gtfsDate);
+		i.startDate = LocalDate.parse(in.get(in.getRequiredColumn(SERVICE_STARTDATE)).trim(), gtfsDate);
+		i.endDate = LocalDate.parse(in.get(in.getRequiredColumn(SERVICE_ENDDATE)).trim(), gtfsDate);
 		return i;
 	}
 }
@@ -1,6 +1,6 @@
 package allow.simulator.mobility.data.gtfs;
 
-import java.text.ParseException;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -12,9 +12,9 @@ public class GTFSServiceException {
 	private LocalDate date;
 	private int type;
 	
-	private static int SERVICE_ID = 0;
-	private static int SERVICE_EXCEPTION_DATE = 1;
-	private static int SERVICE_EXCEPTION_TYPE = 2;
+	private static final String SERVICE_ID = "service_id";
+	private static final String SERVICE_EXCEPTION_DATE = "date";
+	private static final String SERVICE_EXCEPTION_TYPE = "exception_type";
 	
 	public String getServiceId() {
 		return serviceId;
@@ -28,12 +28,11 @@ public class GTFSServiceException {
 		return type;
 	}
 	
-	public static GTFSServiceException fromGTFS(String line) throws ParseException {
+	public static GTFSServiceException fromGTFS(GTFSReader in) throws IOException {
 		GTFSServiceException i = new GTFSServiceException();
-		String tokens[] = line.split(",");
-		i.serviceId = tokens[SERVICE_ID];
-		i.date = LocalDate.parse(tokens[SERVICE_EXCEPTION_DATE], gtfsDate);
-		i.type = Integer.parseInt(tokens[SERVICE_EXCEPTION_TYPE]);
+		i.serviceId = in.get(in.getRequiredColumn(SERVICE_ID));
+		i.date = LocalDate.parse(in.get(in.getRequiredColumn(SERVICE_EXCEPTION_DATE)).trim(), gtfsDate);
+		i.type = in.getInt(in.getRequiredColumn(SERVICE_EXCEPTION_TYPE));
 		return i;
 	}
 }
@@ -1,5 +1,7 @@
 package allow.simulator.mobility.data.gtfs;
 
+import java.io.IOException;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -81,22 +83,22 @@ public class GTFSStop {
 		return lon;
 	}
 	
-	private static int STOP_ID = 0;
-	private static int STOP_NAME = 1;
-	private static int STOP_LAT = 3;
-	private static int STOP_LON = 4;
+	private static final String STOP_ID = "stop_id";
+	private static final String STOP_NAME = "stop_name";
+	private static final String STOP_LAT = "stop_lat";
+	private static final String STOP_LON = "stop_lon";
 	
 	/**
-	 * Parse stop info from line in GTFS file.
+	 * Parse stop info from current record of GTFS file (stops.txt).
 	 * 
-	 * @param line Line from GTFS file.
+	 * @param in Reader of GTFS file (stops.txt).
 	 * @return Stop info parsed from GTFS file.
+	 * @throws IOException
 	 */
-	public static GTFSStop fromGTFS(String line) {
-		String tokens[] = line.split(",");
-		return new GTFSStop(tokens[STOP_ID],
-				tokens[STOP_NAME],
-				Double.parseDouble(tokens[STOP_LAT]),
-				Double.parseDouble(tokens[STOP_LON]));
+	public static GTFSStop fromGTFS(GTFSReader in) throws IOException {
+		return new GTFSStop(in.get(in.getRequiredColumn(STOP_ID)),
+				in.get(in.getColumn(STOP_NAME)),
+				in.getDouble(in.getRequiredColumn(STOP_LAT)),
+				in.getDouble(in.getRequiredColumn(STOP_LON)));
 	}
 }
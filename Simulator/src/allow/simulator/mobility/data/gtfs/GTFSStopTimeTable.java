@@ -0,0 +1,234 @@
+package allow.simulator.mobility.data.gtfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Stop times of all trips of a GTFS data set (stop_times.txt) stored column
+ * wise. Stops and times of a trip are consecutive entries of primitive
+ * arrays, trip and stop ids are interned to indices of id pools.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class GTFSStopTimeTable {
+	// Ids of trips and stops.
+	private final GTFSIdPool tripIds;
+	private final GTFSIdPool stopIds;
+
+	// First entry of each trip, entries of trip i are offsets[i] to offsets[i + 1] - 1.
+	private final int offsets[];
+
+	// Stop indices, arrival, and departure times (seconds since midnight) of entries.
+	private final int stops[];
+	private final int arrivalTimes[];
+	private final int departureTimes[];
+
+	private GTFSStopTimeTable(GTFSIdPool tripIds, GTFSIdPool stopIds, int offsets[],
+			int stops[], int arrivalTimes[], int departureTimes[]) {
+		this.tripIds = tripIds;
+		this.stopIds = stopIds;
+		this.offsets = offsets;
+		this.stops = stops;
+		this.arrivalTimes = arrivalTimes;
+		this.departureTimes = departureTimes;
+	}
+
+	/**
+	 * Returns the ids of trips.
+	 *
+	 * @return Ids of trips.
+	 */
+	public GTFSIdPool getTripIds() {
+		return tripIds;
+	}
+
+	/**
+	 * Returns the ids of stops.
+	 *
+	 * @return Ids of stops.
+	 */
+	public GTFSIdPool getStopIds() {
+		return stopIds;
+	}
+
+	/**
+	 * Returns the number of trips.
+	 *
+	 * @return Number of trips.
+	 */
+	public int getNumberOfTrips() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Returns the stop times of a trip.
+	 *
+	 * @param trip Index of the trip.
+	 * @return Stop times of the trip.
+	 */
+	public GTFSStopTimes getStopTimes(int trip) {
+		return new GTFSStopTimes(this, trip);
+	}
+
+	int getFirstEntry(int trip) {
+		return offsets[trip];
+	}
+
+	int getNumberOfEntries(int trip) {
+		return offsets[trip + 1] - offsets[trip];
+	}
+
+	int getStop(int entry) {
+		return stops[entry];
+	}
+
+	int getArrivalTime(int entry) {
+		return arrivalTimes[entry];
+	}
+
+	int getDepartureTime(int entry) {
+		return departureTimes[entry];
+	}
+
+	/**
+	 * Reads stop times from a GTFS file (stop_times.txt). Entries are ordered
+	 * by trip and stop sequence, hence the file does not need to be sorted.
+	 * Missing arrival or departure times are replaced by the other one, stops
+	 * without any times are interpolated between the surrounding stops.
+	 *
+	 * @param in Reader of stop_times.txt.
+	 * @return Stop times read from the file.
+	 * @throws IOException
+	 */
+	public static GTFSStopTimeTable read(GTFSReader in) throws IOException {
+		int tripColumn = in.getRequiredColumn("trip_id");
+		int arrivalColumn = in.getRequiredColumn("arrival_time");
+		int departureColumn = in.getRequiredColumn("departure_time");
+		int stopColumn = in.getRequiredColumn("stop_id");
+		int sequenceColumn = in.getRequiredColumn("stop_sequence");
+		GTFSIdPool tripIds = new GTFSIdPool();
+		GTFSIdPool stopIds = new GTFSIdPool();
+
+		// Entries in order of the file.
+		int capacity = 1024;
+		int trips[] = new int[capacity];
+		int sequences[] = new int[capacity];
+		int stops[] = new int[capacity];
+		int arrivals[] = new int[capacity];
+		int departures[] = new int[capacity];
+		int n = 0;
+
+		// Entries of a trip are usually consecutive, avoid looking up its id for each entry.
+		String lastTripId = null;
+		int lastTrip = -1;
+
+		while (in.next()) {
+
+			if (n == capacity) {
+				capacity *= 2;
+				trips = Arrays.copyOf(trips, capacity);
+				sequences = Arrays.copyOf(sequences, capacity);
+				stops = Arrays.copyOf(stops, capacity);
+				arrivals = Arrays.copyOf(arrivals, capacity);
+				departures = Arrays.copyOf(departures, capacity);
+			}
+
+			if ((lastTripId == null) || !in.equals(tripColumn, lastTripId)) {
+				lastTripId = in.get(tripColumn);
+				lastTrip = tripIds.intern(lastTripId);
+			}
+			trips[n] = lastTrip;
+			sequences[n] = in.getInt(sequenceColumn);
+			stops[n] = stopIds.intern(in.get(stopColumn));
+			arrivals[n] = in.getTime(arrivalColumn);
+			departures[n] = in.getTime(departureColumn);
+			n++;
+		}
+
+		// Group entries by trip.
+		int offsets[] = new int[tripIds.size() + 1];
+
+		for (int i = 0; i < n; i++) {
+			offsets[trips[i] + 1]++;
+		}
+
+		for (int i = 0; i < tripIds.size(); i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int next[] = Arrays.copyOf(offsets, tripIds.size());
+		int order[] = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			order[next[trips[i]]++] = i;
+		}
+
+		// Order entries of each trip by stop sequence.
+		for (int t = 0; t < tripIds.size(); t++) {
+
+			for (int i = offsets[t] + 1; i < offsets[t + 1]; i++) {
+				int entry = order[i];
+				int j = i;
+
+				while ((j > offsets[t]) && (sequences[order[j - 1]] > sequences[entry])) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = entry;
+			}
+		}
+		int sortedStops[] = new int[n];
+		int sortedArrivals[] = new int[n];
+		int sortedDepartures[] = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			sortedStops[i] = stops[order[i]];
+			sortedArrivals[i] = (arrivals[order[i]] >= 0) ? arrivals[order[i]] : departures[order[i]];
+			sortedDepartures[i] = (departures[order[i]] >= 0) ? departures[order[i]] : arrivals[order[i]];
+		}
+
+		for (int t = 0; t < tripIds.size(); t++) {
+			interpolate(sortedArrivals, sortedDepartures, offsets[t], offsets[t + 1]);
+		}
+		return new GTFSStopTimeTable(tripIds, stopIds, offsets, sortedStops, sortedArrivals, sortedDepartures);
+	}
+
+	// Interpolates times of entries without times linearly between the
+	// surrounding entries with times. Entries before the first or after
+	// the last entry with times get the time of that entry.
+	private static void interpolate(int arrivals[], int departures[], int first, int end) {
+		int previous = -1;
+
+		for (int i = first; i < end; i++) {
+
+			if (arrivals[i] < 0)
+				continue;
+
+			if (previous == -1) {
+				// Entries before the first one with times.
+				for (int j = first; j < i; j++) {
+					arrivals[j] = arrivals[i];
+					departures[j] = arrivals[i];
+				}
+
+			} else {
+				int t0 = departures[previous];
+				int t1 = arrivals[i];
+
+				for (int j = previous + 1; j < i; j++) {
+					arrivals[j] = t0 + (int) ((long) (t1 - t0) * (j - previous) / (i - previous));
+					departures[j] = arrivals[j];
+				}
+			}
+			previous = i;
+		}
+
+		if (previous == -1)
+			return;
+
+		for (int j = previous + 1; j < end; j++) {
+			arrivals[j] = departures[previous];
+			departures[j] = departures[previous];
+		}
+	}
+}
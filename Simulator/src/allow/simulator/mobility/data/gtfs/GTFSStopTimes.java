@@ -1,75 +1,84 @@
 package allow.simulator.mobility.data.gtfs;
 
-import java.util.List;
-
+/**
+ * Stops and stop times of a trip. Stop times are a view of the trip's
+ * entries in a GTFSStopTimeTable. Times are given in seconds since midnight
+ * of the service day and may exceed one day for trips running past
+ * midnight.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public class GTFSStopTimes {
+	// Table containing the stop times.
+	private final GTFSStopTimeTable table;
+
+	// Index of the trip.
+	private final int trip;
+
+	GTFSStopTimes(GTFSStopTimeTable table, int trip) {
+		this.table = table;
+		this.trip = trip;
+	}
 
-	private String tripId;
-	private String arrivalTimes[] = new String[0];
-	private String departureTimes[] = new String[0];
-	private String stopIds[] = new String[0];
-	
 	public String getTripId() {
-		return tripId;
+		return table.getTripIds().get(trip);
 	}
-	
-	public String[] getArrivalTimes() {
-		return arrivalTimes;
+
+	public int getNumberOfStops() {
+		return table.getNumberOfEntries(trip);
 	}
-	
-	public String[] getDepartureTimes() {
-		return departureTimes;
+
+	public String getStopId(int i) {
+		return table.getStopIds().get(table.getStop(table.getFirstEntry(trip) + i));
 	}
-	
+
 	public String[] getStopIds() {
-		return stopIds;
+		String ret[] = new String[getNumberOfStops()];
+
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = getStopId(i);
+		}
+		return ret;
+	}
+
+	public int getArrivalTime(int i) {
+		return table.getArrivalTime(table.getFirstEntry(trip) + i);
 	}
-	
-	public String getStartingTime() {
-		return arrivalTimes[0];
+
+	public int getDepartureTime(int i) {
+		return table.getDepartureTime(table.getFirstEntry(trip) + i);
 	}
-	
-	public String getEndingTime() {
-		return arrivalTimes[arrivalTimes.length - 1];
+
+	public int getStartingTime() {
+		return getArrivalTime(0);
 	}
-	
-	private static int STOPTIMES_TRIP_ID = 0;
-	private static int STOPTIMES_ARRIVAL_TIME = 1;
-	private static int STOPTIMES_DEPARTURE_TIME = 2;
-	private static int STOPTIMES_STOP_ID = 3;
-	
-	public static GTFSStopTimes fromGTFS(List<String> sequence) {
-		GTFSStopTimes i = new GTFSStopTimes();
-		i.arrivalTimes = new String[sequence.size()];
-		i.departureTimes = new String[sequence.size()];
-		i.stopIds = new String[sequence.size()];
-
-		for (int j = 0; j < sequence.size(); j++) {
-			String tokens[] = sequence.get(j).split(",");
-			i.tripId = tokens[STOPTIMES_TRIP_ID];
-			i.arrivalTimes[j] = tokens[STOPTIMES_ARRIVAL_TIME];
-			i.departureTimes[j] = tokens[STOPTIMES_DEPARTURE_TIME];
-			i.stopIds[j] = tokens[STOPTIMES_STOP_ID];	
-		}
-		return i;
+
+	public int getEndingTime() {
+		return getArrivalTime(getNumberOfStops() - 1);
 	}
-	
+
 	public String toString() {
 		StringBuilder bldr = new StringBuilder();
-		bldr.append(tripId + " ");
+		bldr.append(getTripId() + " ");
 		bldr.append("[");
-		
-		for (int i = 0; i < arrivalTimes.length - 1; i++) {
-			bldr.append(arrivalTimes[i] + ", ");
+
+		for (int i = 0; i < getNumberOfStops(); i++) {
+
+			if (i > 0)
+				bldr.append(", ");
+			int t = getArrivalTime(i);
+			bldr.append(String.format("%02d:%02d:%02d", t / 3600, (t / 60) % 60, t % 60));
 		}
-		bldr.append(arrivalTimes[arrivalTimes.length - 1]);
 		bldr.append("] ");
 		bldr.append("[");
-		
-		for (int i = 0; i < stopIds.length - 1; i++) {
-			bldr.append(stopIds[i] + ", ");
+
+		for (int i = 0; i < getNumberOfStops(); i++) {
+
+			if (i > 0)
+				bldr.append(", ");
+			bldr.append(getStopId(i));
 		}
-		bldr.append(stopIds[stopIds.length - 1]);
 		bldr.append("] ");
 		return bldr.toString();
 	}
@@ -1,5 +1,7 @@
 package allow.simulator.mobility.data.gtfs;
 
+import java.io.IOException;
+
 public class GTFSTrip {
 
 	private String routeId;
@@ -9,12 +11,12 @@ public class GTFSTrip {
 	private String directionId;
 	private String shapeId;
 	
-	private static int TRIP_ROUTE_ID = 0;
-	private static int TRIP_SERIVCE_ID = 1;
-	private static int TRIP_ID = 2;
-	private static int TRIP_HEADSIGN = 3;
-	private static int TRIP_DIRECTION_ID = 4;
-	private static int TRIP_SHAPE_ID = 5;
+	private static final String TRIP_ROUTE_ID = "route_id";
+	private static final String TRIP_SERIVCE_ID = "service_id";
+	private static final String TRIP_ID = "trip_id";
+	private static final String TRIP_HEADSIGN = "trip_headsign";
+	private static final String TRIP_DIRECTION_ID = "direction_id";
+	private static final String TRIP_SHAPE_ID = "shape_id";
 
 	public String getRouteId() {
 		return routeId;
@@ -40,15 +42,14 @@ public class GTFSTrip {
 		return shapeId;
 	}
 	
-	public static GTFSTrip fromGTFS(String line) {
+	public static GTFSTrip fromGTFS(GTFSReader in) throws IOException {
 		GTFSTrip t = new GTFSTrip();
-		String tokens[] = line.split(",");
-		t.routeId = tokens[TRIP_ROUTE_ID];
-		t.serviceId = tokens[TRIP_SERIVCE_ID];
-		t.tripId = tokens[TRIP_ID];
-		t.tripHeadsign = tokens[TRIP_HEADSIGN];
-		t.directionId = tokens[TRIP_DIRECTION_ID];
-		t.shapeId = (tokens.length == 6) ? tokens[TRIP_SHAPE_ID] : "";
+		t.routeId = in.get(in.getRequiredColumn(TRIP_ROUTE_ID));
+		t.serviceId = in.get(in.getRequiredColumn(TRIP_SERIVCE_ID));
+		t.tripId = in.get(in.getRequiredColumn(TRIP_ID));
+		t.tripHeadsign = in.get(in.getColumn(TRIP_HEADSIGN));
+		t.directionId = in.get(in.getColumn(TRIP_DIRECTION_ID));
+		t.shapeId = in.get(in.getColumn(TRIP_SHAPE_ID));
 		return t;
 	}
 }
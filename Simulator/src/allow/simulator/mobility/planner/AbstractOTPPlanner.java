@@ -3,19 +3,17 @@ package allow.simulator.mobility.planner;
 import java.io.IOException;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import allow.simulator.util.Coordinate;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 public abstract class AbstractOTPPlanner implements IPlannerService {
-	// Json mapper to parse planner responses.
-	protected static final ObjectMapper mapper = new ObjectMapper();
+	// Json factory creating streaming parsers for planner responses.
+	protected static final JsonFactory jsonFactory = new JsonFactory();
 
 	// General URL to send requests to.
 	private static final String RoutingURL = "/otp/routers/%1$s/plan";
@@ -30,32 +28,132 @@ public abstract class AbstractOTPPlanner implements IPlannerService {
 	private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("hh:mma");
 		
 	/**
-	 * Parses an itinerary from a Json node.
+	 * Parses the itineraries of a planner response. The response is decoded
+	 * with a streaming parser filling itineraries and legs directly, hence no
+	 * intermediate tree is built and fields which are not used are skipped.
 	 * 
-	 * @param it Json node.
-	 * @return Itinerary parsed from given node.
+	 * @param res Response of the planner.
+	 * @param itineraries List to add parsed itineraries to.
+	 * @return True if the response contains a plan, false if the planner
+	 * returned an error.
 	 * 
-	 * @throws JsonParseException
-	 * @throws JsonMappingException
 	 * @throws IOException
 	 */
-	protected Itinerary parseItinerary(JsonNode it) throws JsonParseException,
-			JsonMappingException, IOException {
+	protected boolean parsePlan(String res, List<Itinerary> itineraries) throws IOException {
+		List<Itinerary> parsed = new ArrayList<Itinerary>();
+		boolean error = false;
+		JsonParser parser = jsonFactory.createParser(res);
+
+		try {
+			expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+
+				if (field.equals("error")) {
+					error = true;
+					parser.skipChildren();
+
+				} else if (field.equals("plan") && (value == JsonToken.START_OBJECT)) {
+					parseItineraries(parser, parsed);
+
+				} else {
+					parser.skipChildren();
+				}
+			}
+
+		} finally {
+			parser.close();
+		}
+
+		if (error)
+			return false;
+		itineraries.addAll(parsed);
+		return true;
+	}
+
+	private void parseItineraries(JsonParser parser, List<Itinerary> itineraries) throws IOException {
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			if (field.equals("itineraries") && (value == JsonToken.START_ARRAY)) {
+
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					itineraries.add(parseItinerary(parser));
+				}
+
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Parses an itinerary from a Json object. The parser must be positioned
+	 * at the start of the object and is positioned at its end afterwards.
+	 * 
+	 * @param parser Json parser.
+	 * @return Itinerary parsed from the current object.
+	 * 
+	 * @throws IOException
+	 */
+	protected Itinerary parseItinerary(JsonParser parser) throws IOException {
 		Itinerary newIt = new Itinerary();
-		newIt.startTime = it.get("startTime").asLong();
-		newIt.endTime = it.get("endTime").asLong();
-		newIt.walkTime = it.get("walkTime").asLong();
-		newIt.transitTime = it.get("transitTime").asLong();
-		newIt.waitingTime = it.get("waitingTime").asLong();
-		newIt.walkDistance = it.get("walkDistance").asDouble();
-		newIt.transfers = it.get("transfers").asInt();
-		newIt.duration = it.get("duration").asLong();
-		JsonNode legNode = it.get("legs");
-
-		for (Iterator<JsonNode> jt = legNode.elements(); jt.hasNext();) {
-			Leg newLeg = parseLeg(jt.next());
-			newIt.legs.add(newLeg);
-			newIt.costs += newLeg.costs;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			switch (field) {
+			case "startTime":
+				newIt.startTime = parser.getValueAsLong();
+				break;
+
+			case "endTime":
+				newIt.endTime = parser.getValueAsLong();
+				break;
+
+			case "walkTime":
+				newIt.walkTime = parser.getValueAsLong();
+				break;
+
+			case "transitTime":
+				newIt.transitTime = parser.getValueAsLong();
+				break;
+
+			case "waitingTime":
+				newIt.waitingTime = parser.getValueAsLong();
+				break;
+
+			case "walkDistance":
+				newIt.walkDistance = parser.getValueAsDouble();
+				break;
+
+			case "transfers":
+				newIt.transfers = parser.getValueAsInt();
+				break;
+
+			case "duration":
+				newIt.duration = parser.getValueAsLong();
+				break;
+
+			case "legs":
+				expect(value, JsonToken.START_ARRAY);
+
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					Leg newLeg = parseLeg(parser);
+					newIt.legs.add(newLeg);
+					newIt.costs += newLeg.costs;
+				}
+				break;
+
+			default:
+				parser.skipChildren();
+				break;
+			}
 		}
 		newIt.itineraryType = Itinerary.getItineraryType(newIt);
 		
@@ -66,22 +164,110 @@ public abstract class AbstractOTPPlanner implements IPlannerService {
 	}
 
 	/**
-	 * Parses a leg from a Json node.
+	 * Parses a leg from a Json object. The parser must be positioned at the
+	 * start of the object and is positioned at its end afterwards. The
+	 * geometry of the leg is kept encoded (see Leg.getGeometry()).
 	 * 
-	 * @param lt Json node.
-	 * @return Leg parsed from given Json node.
+	 * @param parser Json parser.
+	 * @return Leg parsed from the current object.
+	 * 
+	 * @throws IOException
 	 */
-	protected Leg parseLeg(JsonNode lt) {
+	protected Leg parseLeg(JsonParser parser) throws IOException {
 		Leg newLeg = new Leg();
-		newLeg.startTime = Long.parseLong(lt.get("startTime").asText());
-		newLeg.endTime = Long.parseLong(lt.get("endTime").asText());
-		newLeg.distance = lt.get("distance").asDouble();
-		newLeg.from = parsePlace(lt.get("from"));
-		newLeg.stopIdFrom = parseStopId(lt.get("from"));
-		newLeg.to = parsePlace(lt.get("to"));
-		newLeg.stopIdTo = parseStopId(lt.get("to"));
-		newLeg.legGeometry = lt.get("legGeometry").get("points").asText();
-		newLeg.mode = TType.valueOf(lt.get("mode").asText());
+		String routeId = null;
+		String agencyId = null;
+		String tripId = null;
+		List<String> stops = null;
+		String mode = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			switch (field) {
+			case "startTime":
+				newLeg.startTime = parser.getValueAsLong();
+				break;
+
+			case "endTime":
+				newLeg.endTime = parser.getValueAsLong();
+				break;
+
+			case "distance":
+				newLeg.distance = parser.getValueAsDouble();
+				break;
+
+			case "from":
+				newLeg.from = new Coordinate();
+				newLeg.stopIdFrom = parsePlace(parser, newLeg.from);
+				break;
+
+			case "to":
+				newLeg.to = new Coordinate();
+				newLeg.stopIdTo = parsePlace(parser, newLeg.to);
+				break;
+
+			case "legGeometry":
+				expect(value, JsonToken.START_OBJECT);
+
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String geometryField = parser.getCurrentName();
+					parser.nextToken();
+
+					if (geometryField.equals("points")) {
+						newLeg.legGeometry = parser.getText();
+
+					} else {
+						parser.skipChildren();
+					}
+				}
+				break;
+
+			case "mode":
+				mode = parser.getText();
+				break;
+
+			case "routeId":
+				routeId = parser.getText();
+				break;
+
+			case "agencyId":
+				agencyId = parser.getText();
+				break;
+
+			case "tripId":
+				tripId = parser.getText();
+				break;
+
+			case "intermediateStops":
+				expect(value, JsonToken.START_ARRAY);
+				stops = new ArrayList<String>();
+
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					stops.add(parsePlace(parser, null));
+				}
+				break;
+
+			case "osmNodes":
+				expect(value, JsonToken.START_ARRAY);
+				List<String> nodes = new ArrayList<String>();
+
+				while (parser.nextToken() != JsonToken.END_ARRAY) {
+					nodes.add(parser.getText());
+				}
+				newLeg.osmNodes = nodes;
+				break;
+
+			default:
+				parser.skipChildren();
+				break;
+			}
+		}
+
+		if (mode == null)
+			throw new IllegalArgumentException("Error: Missing transport type of leg.");
+		newLeg.mode = TType.valueOf(mode);
 		
 		switch (newLeg.mode) {
 		case WALK:
@@ -94,11 +280,11 @@ public abstract class AbstractOTPPlanner implements IPlannerService {
 			
 		case BUS:
 		case CABLE_CAR:
-			newLeg.routeId = lt.get("routeId").asText();
-			newLeg.agencyId = lt.get("agencyId").asText();
-			newLeg.tripId = lt.get("tripId").asText();			
+			newLeg.routeId = routeId;
+			newLeg.agencyId = agencyId;
+			newLeg.tripId = tripId;
 			newLeg.costs = 1.2;
-			newLeg.stops = parseStopIds(lt.get("intermediateStops"));
+			newLeg.stops = (stops != null) ? stops : new ArrayList<String>();
 			break;
 			
 		case CAR:
@@ -114,37 +300,41 @@ public abstract class AbstractOTPPlanner implements IPlannerService {
 			throw new IllegalArgumentException("Error: Unknown transport type " + newLeg.mode);
 		}
 		
-		List<String> nodes = new ArrayList<String>();
-		for (Iterator<JsonNode> it = lt.get("osmNodes").iterator(); it.hasNext(); ) {
-			nodes.add(it.next().asText());
-		}
-		newLeg.osmNodes = nodes;
+		if (newLeg.osmNodes == null)
+			newLeg.osmNodes = new ArrayList<String>();
 		return newLeg;
 	}
 
-	protected String parseStopId(JsonNode place) {
-		JsonNode stopId = place.get("stopId");
-		
-		if (stopId != null) {
-			String tokens[] = stopId.asText().split(":");
-			return tokens[1];
-		}
-		return null;
-	}
-	
-	protected List<String> parseStopIds(JsonNode stops) {
-		List<String> ids = new ArrayList<String>();
-		
-		for (Iterator<JsonNode> it = stops.iterator(); it.hasNext(); ) {
-			ids.add(parseStopId(it.next()));
+	// Parses a place object setting the position of the given coordinate (if
+	// not null) and returns the stop id of the place or null if there is none
+	private static String parsePlace(JsonParser parser, Coordinate position) throws IOException {
+		String stopId = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+
+			if ((position != null) && field.equals("lon")) {
+				position.x = parser.getValueAsDouble();
+
+			} else if ((position != null) && field.equals("lat")) {
+				position.y = parser.getValueAsDouble();
+
+			} else if (field.equals("stopId")) {
+				String tokens[] = parser.getText().split(":");
+				stopId = tokens[1];
+
+			} else {
+				parser.skipChildren();
+			}
 		}
-		return ids;
+		return stopId;
 	}
-	
-	protected Coordinate parsePlace(JsonNode place) {
-		Coordinate c = new Coordinate(place.get("lon").doubleValue(),
-				place.get("lat").doubleValue());
-		return c;
+
+	private static void expect(JsonToken token, JsonToken expected) throws IOException {
+
+		if (token != expected)
+			throw new IOException("Error: Unexpected token " + token + " in planner response, expected " + expected + ".");
 	}
 	
 	protected static String createQueryString(JourneyRequest request) {
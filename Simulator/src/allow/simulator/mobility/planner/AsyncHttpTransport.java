@@ -0,0 +1,349 @@
+package allow.simulator.mobility.planner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal non-blocking HTTP/1.1 client sending GET requests to a single host.
+ * Requests are executed on asynchronous socket channels of a small channel
+ * group shared by all transports, hence no thread is blocked while a request
+ * is in flight. The number of outstanding requests per transport is limited,
+ * further requests are queued and sent as soon as outstanding requests
+ * complete.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class AsyncHttpTransport {
+	// Number of threads executing completion handlers of all transports
+	private static final int IO_THREADS = 2;
+
+	// Size of buffers reading responses
+	private static final int READ_BUFFER_SIZE = 16384;
+
+	// Maximum time to wait for a write or read to complete in seconds
+	private static final long TIMEOUT = 60;
+
+	private static final byte HEADER_END[] = new byte[] { '\r', '\n', '\r', '\n' };
+
+	// Channel group shared by all transports, created on first use
+	private static AsynchronousChannelGroup group;
+
+	/**
+	 * State of a single request/response exchange.
+	 */
+	private static final class Exchange {
+		private final AsyncHttpTransport transport;
+		private final CompletableFuture<String> future;
+		private final String uri;
+		private AsynchronousSocketChannel channel;
+		private ByteBuffer writeBuffer;
+		private ByteBuffer readBuffer;
+		private ByteArrayOutputStream response;
+
+		public Exchange(AsyncHttpTransport transport, String uri) {
+			this.transport = transport;
+			this.uri = uri;
+			future = new CompletableFuture<String>();
+		}
+	}
+
+	private static final CompletionHandler<Void, Exchange> connectHandler = new CompletionHandler<Void, Exchange>() {
+
+		@Override
+		public void completed(Void result, Exchange ex) {
+			ex.channel.write(ex.writeBuffer, TIMEOUT, TimeUnit.SECONDS, ex, writeHandler);
+		}
+
+		@Override
+		public void failed(Throwable t, Exchange ex) {
+			ex.transport.fail(ex, t);
+		}
+	};
+
+	private static final CompletionHandler<Integer, Exchange> writeHandler = new CompletionHandler<Integer, Exchange>() {
+
+		@Override
+		public void completed(Integer result, Exchange ex) {
+
+			if (ex.writeBuffer.hasRemaining()) {
+				ex.channel.write(ex.writeBuffer, TIMEOUT, TimeUnit.SECONDS, ex, writeHandler);
+				return;
+			}
+			ex.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			ex.response = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+			ex.channel.read(ex.readBuffer, TIMEOUT, TimeUnit.SECONDS, ex, readHandler);
+		}
+
+		@Override
+		public void failed(Throwable t, Exchange ex) {
+			ex.transport.fail(ex, t);
+		}
+	};
+
+	private static final CompletionHandler<Integer, Exchange> readHandler = new CompletionHandler<Integer, Exchange>() {
+
+		@Override
+		public void completed(Integer result, Exchange ex) {
+
+			// Connections are closed by the server after the response has been sent
+			if (result < 0) {
+				ex.transport.complete(ex);
+				return;
+			}
+			ex.response.write(ex.readBuffer.array(), 0, ex.readBuffer.position());
+			ex.readBuffer.clear();
+			ex.channel.read(ex.readBuffer, TIMEOUT, TimeUnit.SECONDS, ex, readHandler);
+		}
+
+		@Override
+		public void failed(Throwable t, Exchange ex) {
+			ex.transport.fail(ex, t);
+		}
+	};
+
+	// Address of the host to send requests to
+	private final InetSocketAddress address;
+
+	// Value of the host header of requests
+	private final String host;
+
+	// Maximum number of outstanding requests
+	private final int maxOutstanding;
+
+	// Number of outstanding requests and queued requests, guarded by this
+	private int outstanding;
+	private final Queue<Exchange> waiting;
+
+	/**
+	 * Creates a new transport sending requests to the given host. In case
+	 * maxOutstanding is not positive, the number of outstanding requests is
+	 * not limited.
+	 *
+	 * @param host Host to send requests to.
+	 * @param port Port of the host.
+	 * @param maxOutstanding Maximum number of outstanding requests.
+	 */
+	public AsyncHttpTransport(String host, int port, int maxOutstanding) {
+		address = new InetSocketAddress(host, port);
+		this.host = host + ":" + port;
+		this.maxOutstanding = maxOutstanding;
+		waiting = new ArrayDeque<Exchange>();
+	}
+
+	/**
+	 * Sends a GET request. The returned future is completed with the body of
+	 * the response on a thread of the shared channel group, or exceptionally
+	 * in case the request failed or the response status is not 200.
+	 *
+	 * @param uri Path and query of the request.
+	 * @return Future completed with the body of the response.
+	 */
+	public CompletableFuture<String> get(String uri) {
+		Exchange ex = new Exchange(this, uri);
+		boolean send;
+
+		synchronized (this) {
+			send = (maxOutstanding <= 0) || (outstanding < maxOutstanding);
+
+			if (send) {
+				outstanding++;
+
+			} else {
+				waiting.add(ex);
+			}
+		}
+
+		if (send)
+			send(ex);
+		return ex.future;
+	}
+
+	/**
+	 * Returns the number of requests which have been sent and not completed
+	 * yet.
+	 *
+	 * @return Number of outstanding requests.
+	 */
+	public synchronized int getOutstandingRequests() {
+		return outstanding;
+	}
+
+	/**
+	 * Returns the number of requests waiting to be sent.
+	 *
+	 * @return Number of queued requests.
+	 */
+	public synchronized int getQueuedRequests() {
+		return waiting.size();
+	}
+
+	private void send(Exchange ex) {
+		String request = "GET " + ex.uri + " HTTP/1.1\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "Accept: application/json\r\n"
+				+ "Connection: close\r\n\r\n";
+		ex.writeBuffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+
+		try {
+			ex.channel = AsynchronousSocketChannel.open(getGroup());
+			ex.channel.connect(address, ex, connectHandler);
+
+		} catch (IOException e) {
+			fail(ex, e);
+		}
+	}
+
+	private void complete(Exchange ex) {
+		close(ex);
+		String body = null;
+		IOException error = null;
+
+		try {
+			body = decode(ex.response.toByteArray());
+
+		} catch (IOException e) {
+			error = e;
+		}
+		release();
+
+		if (error != null) {
+			ex.future.completeExceptionally(error);
+
+		} else {
+			ex.future.complete(body);
+		}
+	}
+
+	private void fail(Exchange ex, Throwable t) {
+		close(ex);
+		release();
+		ex.future.completeExceptionally(t);
+	}
+
+	private void release() {
+		Exchange next = null;
+
+		synchronized (this) {
+			next = waiting.poll();
+
+			if (next == null) {
+				outstanding--;
+				return;
+			}
+		}
+		send(next);
+	}
+
+	private static void close(Exchange ex) {
+
+		try {
+			if (ex.channel != null)
+				ex.channel.close();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String decode(byte data[]) throws IOException {
+		int headerEnd = indexOf(data, HEADER_END, 0);
+
+		if (headerEnd < 0)
+			throw new IOException("Error: Incomplete HTTP response.");
+		String headers[] = new String(data, 0, headerEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+		String status[] = headers[0].split(" ");
+
+		if ((status.length < 2) || !status[1].equals("200"))
+			throw new IOException("Error: Unexpected HTTP response " + headers[0]);
+		boolean chunked = false;
+		int contentLength = -1;
+
+		for (int i = 1; i < headers.length; i++) {
+			String header = headers[i].toLowerCase();
+
+			if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+				chunked = true;
+
+			} else if (header.startsWith("content-length:")) {
+				contentLength = Integer.parseInt(header.substring(15).trim());
+			}
+		}
+		int bodyStart = headerEnd + HEADER_END.length;
+
+		if (!chunked) {
+			int length = (contentLength >= 0) ? Math.min(contentLength, data.length - bodyStart) : data.length - bodyStart;
+			return new String(data, bodyStart, length, StandardCharsets.UTF_8);
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream(data.length - bodyStart);
+		int pos = bodyStart;
+
+		while (true) {
+			int lineEnd = indexOf(data, HEADER_END, pos, 2);
+
+			if (lineEnd < 0)
+				throw new IOException("Error: Incomplete chunked HTTP response.");
+			String sizeLine = new String(data, pos, lineEnd - pos, StandardCharsets.ISO_8859_1);
+			int extension = sizeLine.indexOf(';');
+			int size = Integer.parseInt(((extension >= 0) ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+
+			if (size == 0)
+				break;
+			pos = lineEnd + 2;
+
+			if (pos + size > data.length)
+				throw new IOException("Error: Incomplete chunked HTTP response.");
+			body.write(data, pos, size);
+			pos += size + 2;
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static int indexOf(byte data[], byte pattern[], int from) {
+		return indexOf(data, pattern, from, pattern.length);
+	}
+
+	// Returns the index of the first occurrence of the first length bytes of
+	// pattern in data starting at from, or -1 if there is none
+	private static int indexOf(byte data[], byte pattern[], int from, int length) {
+
+		for (int i = from; i <= data.length - length; i++) {
+			int j = 0;
+
+			while ((j < length) && (data[i + j] == pattern[j])) {
+				j++;
+			}
+
+			if (j == length)
+				return i;
+		}
+		return -1;
+	}
+
+	private static synchronized AsynchronousChannelGroup getGroup() throws IOException {
+
+		if (group == null) {
+			group = AsynchronousChannelGroup.withFixedThreadPool(IO_THREADS, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "planner-io");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return group;
+	}
+}
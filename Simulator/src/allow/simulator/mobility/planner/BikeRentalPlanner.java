@@ -3,16 +3,15 @@ package allow.simulator.mobility.planner;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
 
 import allow.simulator.util.Coordinate;
 
 public class BikeRentalPlanner implements IPlannerService {
 
-	private List<OTPPlannerService> plannerServices;
+	private List<? extends IPlannerService> plannerServices;
 	private Coordinate bikeRentalStation;
 	
-	public BikeRentalPlanner(List<OTPPlannerService> plannerServices, Coordinate bikeRentalStation) {
+	public BikeRentalPlanner(List<? extends IPlannerService> plannerServices, Coordinate bikeRentalStation) {
 		this.plannerServices = plannerServices;
 		this.bikeRentalStation = bikeRentalStation;
 	}
@@ -38,8 +37,7 @@ public class BikeRentalPlanner implements IPlannerService {
 
 	private Itinerary createBikeRentalItinerary(JourneyRequest req) {
 		// Get planner instance
-		int randomPlannerId = ThreadLocalRandom.current().nextInt(plannerServices.size());
-		IPlannerService planner = plannerServices.get(randomPlannerId);		
+		IPlannerService planner = plannerServices.get((int) (req.ReqId % plannerServices.size()));		
 				
 		// Request walking leg from starting point to bike rental station
 		Leg walkingLeg = createWalkingLeg(req.From, bikeRentalStation, planner, req);
@@ -73,7 +71,7 @@ public class BikeRentalPlanner implements IPlannerService {
 	}
 	
 	private Leg createWalkingLeg(Coordinate from, Coordinate to, IPlannerService planner, JourneyRequest req2) {
-		RequestId reqId = new RequestId();
+		RequestId reqId = new RequestId(req2.ReqId);
 		JourneyRequest req = JourneyRequest.createRequest(from, to, LocalDateTime.of(req2.Date, req2.DepartureTime), false, new TType[] { TType.WALK }, reqId);
 		List<Itinerary> temp = new ArrayList<Itinerary>();
 		planner.requestSingleJourney(req, temp);
@@ -93,7 +91,7 @@ public class BikeRentalPlanner implements IPlannerService {
 	}
 	
 	private Itinerary createBikeItinerary(Coordinate from, Coordinate to, IPlannerService planner, JourneyRequest req2, long startTime) {
-		RequestId reqId = new RequestId();
+		RequestId reqId = new RequestId(req2.ReqId);
 		JourneyRequest req = JourneyRequest.createRequest(from, to, LocalDateTime.of(req2.Date, req2.ArrivalTime), false, new TType[] { TType.BICYCLE }, reqId);
 		List<Itinerary> temp = new ArrayList<Itinerary>();
 		planner.requestSingleJourney(req, temp);
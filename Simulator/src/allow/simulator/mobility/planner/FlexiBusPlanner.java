@@ -1,56 +1,776 @@
 package allow.simulator.mobility.planner;
 
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import allow.simulator.entity.Person;
+import allow.simulator.mobility.data.BusStop;
+import allow.simulator.mobility.data.FlexiBusTrip;
 import allow.simulator.mobility.data.Trip;
 import allow.simulator.util.Coordinate;
+import allow.simulator.world.Street;
 
+/**
+ * Demand-responsive scheduler of FlexiBus trips. Persons register requests
+ * consisting of a starting point, a destination, and an earliest starting
+ * time. Each request is inserted into the route of a vehicle at the
+ * positions which increase the driving time of the route least, subject to
+ * the capacity of the vehicle and the time windows of all requests of the
+ * route. Candidate vehicles are looked up in a spatial-temporal index of
+ * route stops and idle vehicles around the starting point of a request.
+ * Routes are frozen and returned as trips once their vehicle has to depart.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public class FlexiBusPlanner implements IPlannerService {
+	// Default number of vehicles
+	public static final int DEFAULT_NUMBER_OF_VEHICLES = 200;
+
+	// Default number of passengers per vehicle
+	public static final int DEFAULT_CAPACITY = 20;
+
+	// Average speed of vehicles in meters per second
+	private static final double SPEED = 8.0;
+
+	// Radius of the earth in meters
+	private static final double EARTH_RADIUS = 6371000.0;
+
+	// Factor of street distance over beeline distance
+	private static final double DETOUR_FACTOR = 1.3;
+
+	// Time spent at a stop in seconds
+	private static final long DWELL_TIME = 30;
+
+	// Maximum time between earliest starting time and pick-up in seconds
+	private static final long MAX_WAITING_TIME = 900;
+
+	// Maximum ride time relative to the direct ride time
+	private static final double MAX_RIDE_FACTOR = 2.0;
+
+	// Size of grid cells in degrees (about 1 km)
+	private static final double CELL_SIZE = 0.01;
+
+	// Length of time buckets of the index in seconds
+	private static final long BUCKET_SIZE = 900;
+
+	// Maximum number of rings of cells searched around a starting point
+	private static final int MAX_SEARCH_RINGS = 20;
+
+	// Number of candidate vehicles evaluated per request
+	private static final int CANDIDATES = 8;
+
+	// Maximum number of candidate vehicles if none of the closest ones can
+	// serve a request
+	private static final int MAX_CANDIDATES = 128;
+
+	// Maximum number of stops of a route relative to the capacity
+	private static final int MAX_STOPS_PER_SEAT = 4;
+
+	/**
+	 * Request of a person waiting to be scheduled or scheduled in a route.
+	 */
+	private static final class Request {
+		private final Person person;
+		private final long id;
+		private final Coordinate start;
+		private final Coordinate destination;
+		private final long earliestPickUp;
+		private final long latestPickUp;
+		private final long latestDropOff;
+		private Vehicle vehicle;
+
+		public Request(Person person, long id, Coordinate start, Coordinate destination, long earliestStartingTime) {
+			this.person = person;
+			this.id = id;
+			this.start = start;
+			this.destination = destination;
+			earliestPickUp = earliestStartingTime;
+			latestPickUp = earliestStartingTime + MAX_WAITING_TIME;
+			latestDropOff = latestPickUp + DWELL_TIME + (long) (MAX_RIDE_FACTOR * getTravelTime(start, destination));
+		}
+	}
+
+	/**
+	 * Pick-up or drop-off of a request in the route of a vehicle.
+	 */
+	private static final class RouteStop {
+		private final Request request;
+		private final boolean pickUp;
+		private final Coordinate position;
+		private final long earliest;
+		private final long latest;
+		private long time;
+
+		public RouteStop(Request request, boolean pickUp) {
+			this.request = request;
+			this.pickUp = pickUp;
+			position = pickUp ? request.start : request.destination;
+			earliest = pickUp ? request.earliestPickUp : Long.MIN_VALUE;
+			latest = pickUp ? request.latestPickUp : request.latestDropOff;
+		}
+	}
+
+	/**
+	 * Vehicle with the route it is scheduled to drive next.
+	 */
+	private static final class Vehicle {
+		private final int id;
+		private final List<RouteStop> route;
+		private final List<Long> keys;
+		private Coordinate position;
+		private long available;
+		private long idleCell;
+		private long departure;
+		private int version;
+
+		public Vehicle(int id, Coordinate position) {
+			this.id = id;
+			this.position = position;
+			route = new ArrayList<RouteStop>();
+			keys = new ArrayList<Long>();
+			available = Long.MIN_VALUE;
+			idleCell = Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Departure of the route of a vehicle. Departures of routes which have
+	 * changed since are outdated and skipped.
+	 */
+	private static final class Departure implements Comparable<Departure> {
+		private final Vehicle vehicle;
+		private final long time;
+		private final int version;
+
+		public Departure(Vehicle vehicle) {
+			this.vehicle = vehicle;
+			time = vehicle.departure;
+			version = vehicle.version;
+		}
+
+		@Override
+		public int compareTo(Departure other) {
+			int c = Long.compare(time, other.time);
+			return (c != 0) ? c : Integer.compare(vehicle.id, other.vehicle.id);
+		}
+	}
+
+	/**
+	 * Cheapest insertion of a request into the route of a vehicle.
+	 */
+	private static final class Insertion {
+		private final Vehicle vehicle;
+		private final int pickUp;
+		private final int dropOff;
+		private final long costs;
+
+		public Insertion(Vehicle vehicle, int pickUp, int dropOff, long costs) {
+			this.vehicle = vehicle;
+			this.pickUp = pickUp;
+			this.dropOff = dropOff;
+			this.costs = costs;
+		}
+	}
+
+	// Orders idle vehicles by the time they are available
+	private static final Comparator<Vehicle> AVAILABILITY = new Comparator<Vehicle>() {
+
+		@Override
+		public int compare(Vehicle v1, Vehicle v2) {
+			int c = Long.compare(v1.available, v2.available);
+			return (c != 0) ? c : Integer.compare(v1.id, v2.id);
+		}
+	};
+
+	// Number of passengers per vehicle
+	private final int capacity;
+
+	// Vehicles of the FlexiBus service
+	private final List<Vehicle> vehicles;
+
+	// Idle vehicles by grid cell of their position, ordered by availability
+	private final Map<Long, TreeSet<Vehicle>> idleIndex;
+
+	// Vehicles by grid cell and time bucket of the stops of their routes
+	private final Map<Long, Set<Vehicle>> routeIndex;
+
+	// Departures of routes ordered by time
+	private final PriorityQueue<Departure> departures;
+
+	// Requests registered or unregistered since the last rescheduling
+	private final Queue<Request> registrations;
+	private final Queue<Person> cancellations;
+
+	// Requests waiting for a vehicle
+	private final List<Request> waiting;
+
+	// Vehicles whose routes have departed or shrunk since the last rescheduling
+	private final Set<Vehicle> changed;
+
+	// Requests waiting or scheduled in routes which have not departed yet
+	private final Map<Person, Request> requests;
+
+	// Number of registered requests
+	private long requestCount;
+
+	// Number of departed trips
+	private long tripCount;
+
+	/**
+	 * Creates a new FlexiBus planner with a fleet of vehicles waiting at a
+	 * depot.
+	 *
+	 * @param depot Position of the depot.
+	 * @param numberOfVehicles Number of vehicles.
+	 * @param capacity Number of passengers per vehicle.
+	 */
+	public FlexiBusPlanner(Coordinate depot, int numberOfVehicles, int capacity) {
+
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Error: Capacity of FlexiBus vehicles must be positive.");
+		this.capacity = capacity;
+		vehicles = new ArrayList<Vehicle>(numberOfVehicles);
+		idleIndex = new HashMap<Long, TreeSet<Vehicle>>();
+		routeIndex = new HashMap<Long, Set<Vehicle>>();
+		departures = new PriorityQueue<Departure>();
+		registrations = new ConcurrentLinkedQueue<Request>();
+		cancellations = new ConcurrentLinkedQueue<Person>();
+		waiting = new ArrayList<Request>();
+		changed = new HashSet<Vehicle>();
+		requests = new HashMap<Person, Request>();
+
+		for (int i = 0; i < numberOfVehicles; i++) {
+			Vehicle v = new Vehicle(i, depot);
+			vehicles.add(v);
+			updateIndex(v);
+		}
+	}
 
-	
-//	@Override
-//	public List<Itinerary> requestSingleJourney(JourneyRequest request) {
-//		return null;
-//	}
-	
 	@Override
 	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
 		return false;
 	}
-	
+
 	/**
-	 * Registers a person to the FlexiBus planner.
-	 * 
+	 * Registers a person to the FlexiBus planner. The request is scheduled by
+	 * the next call to reschedule(). A previous request of the person is
+	 * replaced.
+	 *
 	 * @param p Person registering to the FlexiBus planner.
-	 * @param request Journey request of person p.
+	 * @param start Starting point of the journey.
+	 * @param dest Destination of the journey.
+	 * @param startingTime Earliest starting time of the journey.
 	 */
 	public void register(Person p, Coordinate start, Coordinate dest, LocalDateTime startingTime) {
-		// Here the persons can be registered to the planner.
+		registrations.add(new Request(p, 0, start, dest, toSeconds(startingTime)));
 	}
-	
+
 	/**
-	 * Unregisters a person from the FlexiBus planner.
-	 * 
+	 * Unregisters a person from the FlexiBus planner. The request of the person
+	 * is removed from its route by the next call to reschedule() unless the
+	 * route has departed already.
+	 *
 	 * @param p Person to unregister from the planner.
 	 */
 	public void unregister(Person p) {
-		// Persons are unregistered from the planner 
+		cancellations.add(p);
 	}
-	
-	
-	public void reschedule() {
-		// Leads to a rescheduling of possible trips.
-		// Called during every time step or whenever a person registers?
+
+	/**
+	 * Schedules the requests registered since the last call and the requests
+	 * still waiting for a vehicle. Waiting requests which cannot be picked up
+	 * in time anymore are dropped.
+	 *
+	 * @param time Current time.
+	 */
+	public synchronized void reschedule(LocalDateTime time) {
+		long now = toSeconds(time);
+		Person p;
+
+		while ((p = cancellations.poll()) != null) {
+			cancel(p, now);
+		}
+		List<Request> newRequests = new ArrayList<Request>();
+		Request r;
+
+		while ((r = registrations.poll()) != null) {
+			newRequests.add(r);
+		}
+
+		// Requests are registered concurrently, order them to be reproducible
+		Collections.sort(newRequests, new Comparator<Request>() {
+
+			@Override
+			public int compare(Request r1, Request r2) {
+				int c = Long.compare(r1.earliestPickUp, r2.earliestPickUp);
+				return (c != 0) ? c : Long.compare(r1.person.getId(), r2.person.getId());
+			}
+		});
+
+		for (Request request : newRequests) {
+			cancel(request.person, now);
+		}
+		List<Request> stillWaiting = new ArrayList<Request>();
+
+		// Requests which could not be scheduled before can only be served by
+		// vehicles around their starting point whose routes have departed or
+		// shrunk since
+		for (Request request : waiting) {
+
+			if (request.latestPickUp < now) {
+				requests.remove(request.person);
+				continue;
+			}
+			Insertion best = null;
+
+			if (!changed.isEmpty()) {
+				Set<Vehicle> candidates = findVehicles(request, CANDIDATES);
+				candidates.retainAll(changed);
+				best = getCheapestInsertion(candidates, request, now);
+			}
+
+			if (best != null) {
+				insert(best, request, now);
+
+			} else {
+				stillWaiting.add(request);
+			}
+		}
+		changed.clear();
+
+		for (Request request : newRequests) {
+			Request numbered = new Request(request.person, requestCount++, request.start,
+					request.destination, request.earliestPickUp);
+			requests.put(numbered.person, numbered);
+
+			if (!schedule(numbered, now))
+				stillWaiting.add(numbered);
+		}
+		waiting.clear();
+		waiting.addAll(stillWaiting);
 	}
-	
+
 	/**
-	 * Polls the trips which are ready to depart.
-	 * 
+	 * Polls the trips which are ready to depart. Vehicles of departed trips
+	 * wait at the last stop of their trip for their next route once the trip
+	 * has ended.
+	 *
+	 * @param time Current time.
 	 * @return List of trips which are ready to depart. List can be empty.
 	 */
-	public List<Trip> getTripsToDepart() {
-		return null;
+	public synchronized List<Trip> getTripsToDepart(LocalDateTime time) {
+		long now = toSeconds(time);
+		List<Trip> ret = new ArrayList<Trip>();
+
+		while (!departures.isEmpty() && (departures.peek().time <= now)) {
+			Departure d = departures.poll();
+
+			if ((d.version != d.vehicle.version) || d.vehicle.route.isEmpty())
+				continue;
+			ret.add(depart(d.vehicle));
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the number of requests waiting for a vehicle.
+	 *
+	 * @return Number of requests waiting for a vehicle.
+	 */
+	public synchronized int getNumberOfWaitingRequests() {
+		return waiting.size();
+	}
+
+	// Inserts a request into the cheapest route of the candidate vehicles
+	// around its starting point. In case no candidate can serve the request,
+	// the search is repeated with more candidates.
+	private boolean schedule(Request request, long now) {
+		int min = CANDIDATES;
+
+		while (true) {
+			Set<Vehicle> candidates = findVehicles(request, min);
+			Insertion best = getCheapestInsertion(candidates, request, now);
+
+			if (best != null) {
+				insert(best, request, now);
+				return true;
+			}
+
+			// Search is exhausted
+			if ((candidates.size() < min) || (min >= MAX_CANDIDATES))
+				return false;
+			min *= 4;
+		}
+	}
+
+	// Returns the cheapest insertion of a request into the routes of the
+	// given vehicles or null if none of them can serve the request
+	private Insertion getCheapestInsertion(Set<Vehicle> vehicles, Request request, long now) {
+		Insertion best = null;
+
+		for (Vehicle v : vehicles) {
+			Insertion ins = getCheapestInsertion(v, request, now);
+
+			if ((ins != null) && ((best == null) || (ins.costs < best.costs)
+					|| ((ins.costs == best.costs) && (ins.vehicle.id < best.vehicle.id))))
+				best = ins;
+		}
+		return best;
+	}
+
+	// Adds vehicles with route stops or idle vehicles in rings of cells around
+	// the starting point of a request until at least the given number of
+	// vehicles has been found. One more ring is searched afterwards since
+	// cells are not equally sized in meters. Idle vehicles of a cell are
+	// interchangeable, hence only the ones available first are added.
+	private Set<Vehicle> findVehicles(Request request, int min) {
+		Set<Vehicle> ret = new HashSet<Vehicle>();
+		int x = getX(request.start);
+		int y = getY(request.start);
+		long firstBucket = getBucket(request.earliestPickUp) - 1;
+		long lastBucket = getBucket(request.latestPickUp) + 1;
+		int lastRing = MAX_SEARCH_RINGS;
+
+		for (int ring = 0; ring <= lastRing; ring++) {
+
+			for (int i = x - ring; i <= x + ring; i++) {
+
+				for (int j = y - ring; j <= y + ring; j++) {
+
+					// Only cells on the border of the ring
+					if ((Math.abs(i - x) != ring) && (Math.abs(j - y) != ring))
+						continue;
+					TreeSet<Vehicle> idle = idleIndex.get(getCell(i, j));
+
+					if (idle != null) {
+						int added = 0;
+
+						for (Vehicle v : idle) {
+
+							if (added++ == min)
+								break;
+							ret.add(v);
+						}
+					}
+
+					for (long b = firstBucket; b <= lastBucket; b++) {
+						Set<Vehicle> scheduled = routeIndex.get(getKey(i, j, b));
+
+						if (scheduled != null)
+							ret.addAll(scheduled);
+					}
+				}
+			}
+
+			if ((ret.size() >= min) && (lastRing == MAX_SEARCH_RINGS))
+				lastRing = Math.min(ring + 1, MAX_SEARCH_RINGS);
+		}
+		return ret;
+	}
+
+	// Returns the cheapest feasible insertion of a request into the route of
+	// a vehicle or null if the vehicle cannot serve the request. The pick-up
+	// is inserted before stop i and the drop-off before stop j >= i of the
+	// route. Delays of the remaining stops are checked against the maximum
+	// delay they can absorb, hence evaluation is quadratic in route length
+	// with travel times computed once per stop.
+	private Insertion getCheapestInsertion(Vehicle v, Request request, long now) {
+		List<RouteStop> route = v.route;
+		int n = route.size();
+
+		if (n + 2 > MAX_STOPS_PER_SEAT * capacity)
+			return null;
+		long start = Math.max(v.available, now);
+
+		// Travel times between stops of the route (stop k is preceded by
+		// node k, node 0 is the vehicle, node k + 1 is stop k) and from and
+		// to the starting point and destination of the request
+		long leg[] = new long[n];
+		long toStart[] = new long[n + 1];
+		long toDest[] = new long[n + 1];
+		long fromStart[] = new long[n];
+		long fromDest[] = new long[n];
+		Coordinate pos = v.position;
+
+		for (int k = 0; k <= n; k++) {
+			toStart[k] = getTravelTime(pos, request.start);
+			toDest[k] = getTravelTime(pos, request.destination);
+
+			if (k == n)
+				break;
+			RouteStop s = route.get(k);
+			leg[k] = getTravelTime(pos, s.position);
+			fromStart[k] = getTravelTime(request.start, s.position);
+			fromDest[k] = getTravelTime(request.destination, s.position);
+			pos = s.position;
+		}
+		long direct = getTravelTime(request.start, request.destination);
+
+		// Schedule of the current route
+		long arrival[] = new long[n];
+		long time[] = new long[n];
+		int load[] = new int[n];
+		long t = start;
+		int l = 0;
+
+		for (int k = 0; k < n; k++) {
+			RouteStop s = route.get(k);
+			arrival[k] = t + leg[k];
+			time[k] = Math.max(arrival[k], s.earliest);
+
+			if (time[k] > s.latest)
+				return null;
+			l += s.pickUp ? 1 : -1;
+			load[k] = l;
+			t = time[k] + DWELL_TIME;
+		}
+
+		// Maximum delay of the arrival at each stop keeping the route feasible
+		long maxDelay[] = new long[n + 1];
+		maxDelay[n] = Long.MAX_VALUE;
+
+		for (int k = n - 1; k >= 0; k--) {
+			long slack = Math.min(route.get(k).latest - time[k], maxDelay[k + 1]);
+			maxDelay[k] = (time[k] - arrival[k]) + slack;
+		}
+		Insertion best = null;
+
+		for (int i = 0; i <= n; i++) {
+			long prevTime = (i == 0) ? start : time[i - 1] + DWELL_TIME;
+
+			// Later stops are not earlier
+			if (prevTime > request.latestPickUp)
+				break;
+			int prevLoad = (i == 0) ? 0 : load[i - 1];
+
+			if (prevLoad + 1 > capacity)
+				continue;
+			long pickUpTime = Math.max(prevTime + toStart[i], request.earliestPickUp);
+
+			if (pickUpTime > request.latestPickUp)
+				continue;
+			long pickUpCosts = toStart[i] + ((i < n) ? fromStart[i] - leg[i] : 0);
+
+			// Stops between pick-up and drop-off shifted by the pick-up
+			long t2 = pickUpTime + DWELL_TIME;
+
+			for (int j = i; j <= n; j++) {
+				long costs;
+				long dropOffTime;
+
+				if (j == i) {
+					// Drop-off directly follows pick-up
+					dropOffTime = t2 + direct;
+					costs = toStart[i] + direct + ((i < n) ? fromDest[i] - leg[i] : 0);
+
+				} else {
+					// Stop j - 1 is visited between pick-up and drop-off
+					RouteStop s = route.get(j - 1);
+					long a = Math.max(t2 + ((j - 1 == i) ? fromStart[i] : leg[j - 1]), s.earliest);
+
+					if ((a > s.latest) || (load[j - 1] + 1 > capacity))
+						break;
+					t2 = a + DWELL_TIME;
+					dropOffTime = t2 + toDest[j];
+					costs = pickUpCosts + toDest[j] + ((j < n) ? fromDest[j] - leg[j] : 0);
+				}
+
+				if (dropOffTime > request.latestDropOff)
+					break;
+
+				// Delay of the remaining stops
+				if ((j < n) && (dropOffTime + DWELL_TIME + fromDest[j] - arrival[j] > maxDelay[j]))
+					continue;
+
+				if ((best == null) || (costs < best.costs))
+					best = new Insertion(v, i, j, costs);
+			}
+		}
+		return best;
+	}
+
+	private void insert(Insertion ins, Request request, long now) {
+		Vehicle v = ins.vehicle;
+		v.route.add(ins.dropOff, new RouteStop(request, false));
+		v.route.add(ins.pickUp, new RouteStop(request, true));
+		request.vehicle = v;
+		update(v, now);
+	}
+
+	// Removes the request of a person if it has not departed yet
+	private void cancel(Person p, long now) {
+		Request request = requests.remove(p);
+
+		if (request == null)
+			return;
+
+		if (request.vehicle == null) {
+			waiting.remove(request);
+			return;
+		}
+		Vehicle v = request.vehicle;
+
+		for (int k = v.route.size() - 1; k >= 0; k--) {
+
+			if (v.route.get(k).request == request)
+				v.route.remove(k);
+		}
+		update(v, now);
+		changed.add(v);
+	}
+
+	// Updates the schedule, departure, and index entries of a vehicle after
+	// its route has changed
+	private void update(Vehicle v, long now) {
+		long t = Math.max(v.available, now);
+		Coordinate pos = v.position;
+
+		for (RouteStop s : v.route) {
+			s.time = Math.max(t + getTravelTime(pos, s.position), s.earliest);
+			t = s.time + DWELL_TIME;
+			pos = s.position;
+		}
+		v.version++;
+
+		if (!v.route.isEmpty()) {
+			RouteStop first = v.route.get(0);
+			v.departure = Math.max(Math.max(v.available, now), first.time - getTravelTime(v.position, first.position));
+			departures.add(new Departure(v));
+		}
+		updateIndex(v);
+	}
+
+	// Freezes the route of a vehicle and returns it as a trip
+	private Trip depart(Vehicle v) {
+		List<BusStop> stops = new ArrayList<BusStop>(v.route.size());
+		List<LocalTime> stopTimes = new ArrayList<LocalTime>(v.route.size());
+		List<Person> persons = new ArrayList<Person>(v.route.size());
+		List<List<Street>> traces = new ArrayList<List<Street>>(v.route.size());
+		String tripId = "flexibus" + tripCount++;
+
+		for (RouteStop s : v.route) {
+			stops.add(new BusStop(s.pickUp ? "FlexiBus pick-up" : "FlexiBus drop-off",
+					tripId + (s.pickUp ? "_p" : "_d") + s.request.id, s.position));
+			stopTimes.add(LocalDateTime.ofEpochSecond(s.time, 0, ZoneOffset.UTC).toLocalTime());
+			persons.add(s.request.person);
+			traces.add(new ArrayList<Street>());
+
+			if (requests.get(s.request.person) == s.request)
+				requests.remove(s.request.person);
+		}
+		RouteStop last = v.route.get(v.route.size() - 1);
+		v.position = last.position;
+		v.available = last.time + DWELL_TIME;
+		v.route.clear();
+		v.version++;
+		updateIndex(v);
+		changed.add(v);
+		return new FlexiBusTrip(tripId, stops, stopTimes, persons, traces);
+	}
+
+	private void updateIndex(Vehicle v) {
+
+		for (Long key : v.keys) {
+			remove(routeIndex, key, v);
+		}
+		v.keys.clear();
+
+		if (v.idleCell != Long.MIN_VALUE) {
+			TreeSet<Vehicle> idle = idleIndex.get(v.idleCell);
+			idle.remove(v);
+
+			if (idle.isEmpty())
+				idleIndex.remove(v.idleCell);
+			v.idleCell = Long.MIN_VALUE;
+		}
+
+		if (v.route.isEmpty()) {
+			v.idleCell = getCell(getX(v.position), getY(v.position));
+			TreeSet<Vehicle> idle = idleIndex.get(v.idleCell);
+
+			if (idle == null) {
+				idle = new TreeSet<Vehicle>(AVAILABILITY);
+				idleIndex.put(v.idleCell, idle);
+			}
+			idle.add(v);
+			return;
+		}
+
+		for (RouteStop s : v.route) {
+			long key = getKey(getX(s.position), getY(s.position), getBucket(s.time));
+
+			if (!v.keys.contains(key)) {
+				v.keys.add(key);
+				add(routeIndex, key, v);
+			}
+		}
+	}
+
+	private static void add(Map<Long, Set<Vehicle>> index, long key, Vehicle v) {
+		Set<Vehicle> set = index.get(key);
+
+		if (set == null) {
+			set = new HashSet<Vehicle>(4);
+			index.put(key, set);
+		}
+		set.add(v);
+	}
+
+	private static void remove(Map<Long, Set<Vehicle>> index, long key, Vehicle v) {
+		Set<Vehicle> set = index.get(key);
+
+		if (set == null)
+			return;
+		set.remove(v);
+
+		if (set.isEmpty())
+			index.remove(key);
+	}
+
+	// Returns the estimated driving time between two positions in seconds.
+	// Distances are approximated equirectangularly, which is sufficiently
+	// accurate within a city and avoids trigonometric functions per leg.
+	private static long getTravelTime(Coordinate from, Coordinate to) {
+		double dx = Math.toRadians(to.x - from.x) * Math.cos(Math.toRadians((from.y + to.y) / 2.0));
+		double dy = Math.toRadians(to.y - from.y);
+		return (long) Math.ceil(EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy) * DETOUR_FACTOR / SPEED);
+	}
+
+	private static long toSeconds(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	private static int getX(Coordinate c) {
+		return (int) Math.floor(c.x / CELL_SIZE);
+	}
+
+	private static int getY(Coordinate c) {
+		return (int) Math.floor(c.y / CELL_SIZE);
+	}
+
+	private static long getBucket(long time) {
+		return Math.floorDiv(time, BUCKET_SIZE);
+	}
+
+	private static long getCell(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private static long getKey(int x, int y, long bucket) {
+		return ((bucket & 0x3FFFFFL) << 42) | ((x & 0x1FFFFFL) << 21) | (y & 0x1FFFFFL);
 	}
 }
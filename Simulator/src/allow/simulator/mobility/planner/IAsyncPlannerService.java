@@ -0,0 +1,26 @@
+package allow.simulator.mobility.planner;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface of a journey planner service which can be queried without
+ * blocking the calling thread.
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public interface IAsyncPlannerService extends IPlannerService {
+	
+	/**
+	 * Requests a single journey from the planner without blocking the calling
+	 * thread. The returned future is completed with the itineraries returned
+	 * by the planner, which is empty in case the planner did not find a
+	 * journey, or exceptionally in case the planner could not be queried.
+	 * 
+	 * @param request Request containing the parameters of the journey.
+	 * @return Future completed with the itineraries returned by the planner.
+	 */
+	public CompletableFuture<List<Itinerary>> requestSingleJourneyAsync(JourneyRequest request);
+	
+}
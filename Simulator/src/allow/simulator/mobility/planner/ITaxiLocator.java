@@ -0,0 +1,22 @@
+package allow.simulator.mobility.planner;
+
+import allow.simulator.util.Coordinate;
+
+/**
+ * Interface of a service locating idle taxis, such that taxi trips can be
+ * planned to start from the taxi which is likely to be dispatched.
+ * 
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public interface ITaxiLocator {
+	
+	/**
+	 * Returns the position of the idle taxi closest to a pickup point.
+	 * 
+	 * @param pickup Position of the pickup point.
+	 * @return Position of the closest idle taxi or null if no taxi is idle.
+	 */
+	public Coordinate getTaxiPosition(Coordinate pickup);
+	
+}
@@ -1,18 +1,31 @@
 package allow.simulator.mobility.planner;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-
-import scala.concurrent.forkjoin.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public final class JourneyPlanner {
+	// Default maximum number of journeys planned concurrently
+	public static final int DEFAULT_MAX_CONCURRENT_JOURNEYS = 256;
+	
+	// Number of attempts to query an OTP planner instance
+	private static final int OTP_ATTEMPTS = 2;
+	
 	// Threadpool execution service
 	private ExecutorService service;
 	
-	// OTP planner instances
-	private final List<OTPPlannerService> otpPlanner;
+	// OTP planner instances (or services recording or replaying them)
+	private final List<? extends IPlannerService> otpPlanner;
+	
+	// Indicates whether all planner instances can be queried asynchronously
+	private final boolean asyncPlanner;
 	
 	// Taxi planner service instance
 	private final TaxiPlanner taxiPlanner;
@@ -23,26 +36,125 @@ public final class JourneyPlanner {
 	// Bike rental planner service instance
 	private final BikeRentalPlanner bikeRentalPlanner;
 	
-	public JourneyPlanner(List<OTPPlannerService> otpPlanner, TaxiPlanner taxiPlanner, 
+	// Planner services replacing OTP planner instances for certain modes
+	private final Map<TType, IPlannerService> modePlanners;
+	
+	// Cache of planned journeys (optional)
+	private PlanCache planCache;
+	
+	// Scheduler limiting the number of journeys planned concurrently
+	private JourneyScheduler scheduler;
+	
+	public JourneyPlanner(List<? extends IPlannerService> otpPlanner, TaxiPlanner taxiPlanner, 
 			BikeRentalPlanner bikeRentalPlanner, FlexiBusPlanner flexiBusPlanner,
 			ExecutorService service) {
 		this.otpPlanner = otpPlanner;
+		boolean async = true;
+		
+		for (IPlannerService planner : otpPlanner) {
+			async &= (planner instanceof IAsyncPlannerService);
+		}
+		asyncPlanner = async;
 		this.taxiPlanner = taxiPlanner;
 		this.bikeRentalPlanner = bikeRentalPlanner;
 		this.flexiBusPlanner = flexiBusPlanner;
 		this.service = service;
+		modePlanners = new EnumMap<TType, IPlannerService>(TType.class);
+		scheduler = new JourneyScheduler(this, DEFAULT_MAX_CONCURRENT_JOURNEYS);
+	}
+	
+	/**
+	 * Sets the maximum number of journeys planned concurrently. Journeys
+	 * requested while the maximum number of journeys are planned are queued
+	 * and planned in order of their departure time. Must be called before
+	 * journeys are requested.
+	 * 
+	 * @param maxConcurrentJourneys Maximum number of journeys planned concurrently.
+	 */
+	public void setMaxConcurrentJourneys(int maxConcurrentJourneys) {
+		scheduler = new JourneyScheduler(this, maxConcurrentJourneys);
+	}
+	
+	/**
+	 * Returns the number of journeys waiting to be planned.
+	 * 
+	 * @return Number of queued journeys.
+	 */
+	public int getQueuedJourneys() {
+		return scheduler.getQueuedJourneys();
+	}
+	
+	/**
+	 * Sets the planner service to use for requests of a certain mode instead
+	 * of the OTP planner instances (e.g. a StreetMapPlanner for CAR, WALK,
+	 * and BICYCLE). The mode of a request is its first transport type. Must be
+	 * called before journeys are requested.
+	 * 
+	 * @param mode Mode of requests to plan with the given planner.
+	 * @param planner Planner service to use for requests of the given mode.
+	 */
+	public void setPlannerService(TType mode, IPlannerService planner) {
+		modePlanners.put(mode, planner);
+	}
+	
+	/**
+	 * Sets the cache of planned journeys. Journeys of requests which are not
+	 * planned by taxi, bike rental, or FlexiBus planners are looked up in the
+	 * cache before they are planned. Must be called before journeys are
+	 * requested.
+	 * 
+	 * @param planCache Cache of planned journeys or null to disable caching.
+	 */
+	public void setPlanCache(PlanCache planCache) {
+		this.planCache = planCache;
 	}
 	
+	/**
+	 * Returns the cache of planned journeys.
+	 * 
+	 * @return Cache of planned journeys or null if caching is disabled.
+	 */
+	public PlanCache getPlanCache() {
+		return planCache;
+	}
+	
+	/**
+	 * Requests a journey consisting of alternative requests without blocking
+	 * the calling thread. The returned future is completed with the planned
+	 * itineraries of all requests once the journey has been planned, which
+	 * may be delayed in case many journeys are requested at once. Callers
+	 * must poll the future by isDone() instead of waiting for it.
+	 * 
+	 * @param requests Alternative requests of the journey.
+	 * @param buffer Buffer to add planned itineraries to.
+	 * @return Future completed with the planned itineraries.
+	 */
 	public Future<List<Itinerary>> requestSingleJourney(List<JourneyRequest> requests, List<Itinerary> buffer) {
-		return service.submit(new Callable<List<Itinerary>>() {
+		return scheduler.schedule(requests, buffer);
+	}
+	
+	// Plans a journey, called by the scheduler
+	CompletableFuture<List<Itinerary>> plan(final List<JourneyRequest> requests, final List<Itinerary> buffer) {
+		// Look up cached journeys, null entries are planned
+		final List<List<Itinerary>> cached = lookup(requests);
+		
+		// Requests served by OTP only are sent asynchronously without occupying a thread
+		if (asyncPlanner && isOTPOnly(requests))
+			return requestOTPJourneysAsync(requests, cached, buffer);
+		
+		return CompletableFuture.supplyAsync(new Supplier<List<Itinerary>>() {
 
 			@Override
-			public List<Itinerary> call() throws Exception {	
+			public List<Itinerary> get() {	
 				buffer.clear();
 				
-				for (JourneyRequest req : requests) {
+				for (int k = 0; k < requests.size(); k++) {
+					JourneyRequest req = requests.get(k);
 					
-					if (req.TransportTypes[0] == TType.FLEXIBUS) {
+					if (cached.get(k) != null) {
+						buffer.addAll(cached.get(k));
+						
+					} else if (req.TransportTypes[0] == TType.FLEXIBUS) {
 						flexiBusPlanner.requestSingleJourney(req, buffer);
 					
 					} else if (req.TransportTypes[0] == TType.SHARED_BICYCLE) {
@@ -51,9 +163,16 @@ public final class JourneyPlanner {
 					} else if ((req.TransportTypes[0] == TType.TAXI) || (req.TransportTypes[0] == TType.SHARED_TAXI)) {
 						taxiPlanner.requestSingleJourney(req, buffer);
 						
+					} else if (modePlanners.containsKey(req.TransportTypes[0])) {
+						int first = buffer.size();
+						modePlanners.get(req.TransportTypes[0]).requestSingleJourney(req, buffer);
+						cache(req, buffer.subList(first, buffer.size()));
+						
 					} else {
+						int first = buffer.size();
 						int i = 0;
-						IPlannerService planner = otpPlanner.get(ThreadLocalRandom.current().nextInt(otpPlanner.size()));
+						// Instances are replicas, choice depends on request only to be reproducible
+						IPlannerService planner = otpPlanner.get((int) (req.ReqId % otpPlanner.size()));
 						while (i < 2) {
 							try {
 								boolean success = planner.requestSingleJourney(req, buffer);
@@ -66,11 +185,107 @@ public final class JourneyPlanner {
 								ex.printStackTrace();
 							}
 						}
+						cache(req, buffer.subList(first, buffer.size()));
 					}
 				}
 				return buffer;
 			}		
-		});	
+		}, service);	
+	}
+	
+	private boolean isOTPOnly(List<JourneyRequest> requests) {
+		
+		for (JourneyRequest req : requests) {
+			TType type = req.TransportTypes[0];
+			
+			if ((type == TType.FLEXIBUS) || (type == TType.SHARED_BICYCLE) || (type == TType.TAXI) || (type == TType.SHARED_TAXI)
+					|| modePlanners.containsKey(type))
+				return false;
+		}
+		return true;
+	}
+	
+	private List<List<Itinerary>> lookup(List<JourneyRequest> requests) {
+		List<List<Itinerary>> cached = new ArrayList<List<Itinerary>>(requests.size());
+		
+		for (JourneyRequest req : requests) {
+			cached.add(((planCache != null) && PlanCache.isCacheable(req)) ? planCache.get(req) : null);
+		}
+		return cached;
+	}
+	
+	private void cache(JourneyRequest req, List<Itinerary> itineraries) {
+		
+		if (planCache != null)
+			planCache.put(req, itineraries);
+	}
+	
+	private CompletableFuture<List<Itinerary>> requestOTPJourneysAsync(List<JourneyRequest> requests,
+			List<List<Itinerary>> cached, final List<Itinerary> buffer) {
+		final List<CompletableFuture<List<Itinerary>>> results = new ArrayList<CompletableFuture<List<Itinerary>>>(requests.size());
+		
+		for (int k = 0; k < requests.size(); k++) {
+			final JourneyRequest req = requests.get(k);
+			
+			if (cached.get(k) != null) {
+				results.add(CompletableFuture.completedFuture(cached.get(k)));
+				continue;
+			}
+			// Instances are replicas, choice depends on request only to be reproducible
+			IAsyncPlannerService planner = (IAsyncPlannerService) otpPlanner.get((int) (req.ReqId % otpPlanner.size()));
+			results.add(requestOTPJourneyAsync(planner, req, OTP_ATTEMPTS).thenApply(new Function<List<Itinerary>, List<Itinerary>>() {
+
+				@Override
+				public List<Itinerary> apply(List<Itinerary> its) {
+					cache(req, its);
+					return its;
+				}
+			}));
+		}
+		CompletableFuture<?> all = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]));
+		return all.thenApply(new Function<Object, List<Itinerary>>() {
+
+			@Override
+			public List<Itinerary> apply(Object t) {
+				buffer.clear();
+				
+				// Itineraries are added in order of requests
+				for (CompletableFuture<List<Itinerary>> result : results) {
+					buffer.addAll(result.join());
+				}
+				return buffer;
+			}
+		});
+	}
+	
+	// Retries failed requests and completes with an empty list once all attempts failed
+	private static CompletableFuture<List<Itinerary>> requestOTPJourneyAsync(final IAsyncPlannerService planner,
+			final JourneyRequest req, final int attempts) {
+		final CompletableFuture<List<Itinerary>> result = new CompletableFuture<List<Itinerary>>();
+		planner.requestSingleJourneyAsync(req).whenComplete(new BiConsumer<List<Itinerary>, Throwable>() {
+
+			@Override
+			public void accept(List<Itinerary> its, Throwable t) {
+				
+				if (t == null) {
+					result.complete(its);
+					
+				} else if (attempts > 1) {
+					requestOTPJourneyAsync(planner, req, attempts - 1).whenComplete(new BiConsumer<List<Itinerary>, Throwable>() {
+
+						@Override
+						public void accept(List<Itinerary> its, Throwable t) {
+							result.complete(its);
+						}
+					});
+					
+				} else {
+					t.printStackTrace();
+					result.complete(new ArrayList<Itinerary>(0));
+				}
+			}
+		});
+		return result;
 	}
 	
 	public TaxiPlanner getTaxiPlannerService() {
@@ -0,0 +1,187 @@
+package allow.simulator.mobility.planner;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Schedules journeys to be planned by a JourneyPlanner. At most a fixed
+ * number of journeys are planned concurrently. Further journeys are queued
+ * and planned in order of their departure (or arrival) time, such that
+ * journeys whose departure is closest are planned first when planner
+ * services cannot keep up. Scheduling never blocks the calling thread.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class JourneyScheduler {
+
+	/**
+	 * Journey waiting to be planned.
+	 */
+	private static final class Job implements Comparable<Job> {
+		private final List<JourneyRequest> requests;
+		private final List<Itinerary> buffer;
+		private final CompletableFuture<List<Itinerary>> result;
+		private final long departure;
+		private final long sequence;
+
+		public Job(List<JourneyRequest> requests, List<Itinerary> buffer, long sequence) {
+			this.requests = requests;
+			this.buffer = buffer;
+			this.sequence = sequence;
+			result = new CompletableFuture<List<Itinerary>>();
+			departure = getDeparture(requests);
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int c = Long.compare(departure, other.departure);
+			return (c != 0) ? c : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	// Planner to plan journeys with
+	private final JourneyPlanner planner;
+
+	// Maximum number of journeys planned concurrently
+	private final int maxConcurrent;
+
+	// Journeys waiting to be planned, guarded by this
+	private final PriorityQueue<Job> queue;
+
+	// Number of journeys being planned, guarded by this
+	private int planning;
+
+	// Indicates whether a thread is dispatching queued journeys, guarded by this
+	private boolean dispatching;
+
+	// Number of scheduled journeys, guarded by this
+	private long sequence;
+
+	/**
+	 * Creates a new scheduler planning at most the given number of journeys
+	 * concurrently.
+	 *
+	 * @param planner Planner to plan journeys with.
+	 * @param maxConcurrent Maximum number of journeys planned concurrently.
+	 */
+	public JourneyScheduler(JourneyPlanner planner, int maxConcurrent) {
+
+		if (maxConcurrent <= 0)
+			throw new IllegalArgumentException("Error: Maximum number of concurrently planned journeys must be positive.");
+		this.planner = planner;
+		this.maxConcurrent = maxConcurrent;
+		queue = new PriorityQueue<Job>();
+	}
+
+	/**
+	 * Schedules a journey to be planned. The returned future is completed
+	 * once the journey has been planned.
+	 *
+	 * @param requests Requests of the journey.
+	 * @param buffer Buffer to add planned itineraries to.
+	 * @return Future completed with the planned itineraries.
+	 */
+	public CompletableFuture<List<Itinerary>> schedule(List<JourneyRequest> requests, List<Itinerary> buffer) {
+		Job job;
+
+		synchronized (this) {
+			job = new Job(requests, buffer, sequence++);
+			queue.add(job);
+		}
+		dispatch();
+		return job.result;
+	}
+
+	/**
+	 * Returns the number of journeys waiting to be planned.
+	 *
+	 * @return Number of queued journeys.
+	 */
+	public synchronized int getQueuedJourneys() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of journeys being planned.
+	 *
+	 * @return Number of journeys being planned.
+	 */
+	public synchronized int getPlanningJourneys() {
+		return planning;
+	}
+
+	// Starts queued journeys while there are free slots. Journeys completing
+	// while another thread dispatches are picked up by that thread, hence
+	// journeys completing immediately (e.g. cached ones) do not recurse.
+	private void dispatch() {
+
+		synchronized (this) {
+
+			if (dispatching)
+				return;
+			dispatching = true;
+		}
+
+		while (true) {
+			Job job;
+
+			synchronized (this) {
+
+				if ((planning >= maxConcurrent) || queue.isEmpty()) {
+					dispatching = false;
+					return;
+				}
+				job = queue.poll();
+				planning++;
+			}
+			start(job);
+		}
+	}
+
+	private void start(final Job job) {
+		CompletableFuture<List<Itinerary>> future;
+
+		try {
+			future = planner.plan(job.requests, job.buffer);
+
+		} catch (RuntimeException e) {
+			future = new CompletableFuture<List<Itinerary>>();
+			future.completeExceptionally(e);
+		}
+		future.whenComplete(new BiConsumer<List<Itinerary>, Throwable>() {
+
+			@Override
+			public void accept(List<Itinerary> its, Throwable t) {
+
+				synchronized (JourneyScheduler.this) {
+					planning--;
+				}
+
+				if (t != null) {
+					job.result.completeExceptionally(t);
+
+				} else {
+					job.result.complete(its);
+				}
+				dispatch();
+			}
+		});
+	}
+
+	// Returns the departure (or arrival) time of the first request of a
+	// journey in seconds
+	private static long getDeparture(List<JourneyRequest> requests) {
+
+		if (requests.size() == 0)
+			return Long.MIN_VALUE;
+		JourneyRequest request = requests.get(0);
+		LocalTime t = (request.ArrivalTime != null) ? request.ArrivalTime : request.DepartureTime;
+		return LocalDateTime.of(request.Date, t).toEpochSecond(ZoneOffset.UTC);
+	}
+}
@@ -14,11 +14,14 @@
 package allow.simulator.mobility.planner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import allow.simulator.util.Coordinate;
+import allow.simulator.util.Geometry;
 import allow.simulator.world.Street;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @JsonIgnoreProperties(ignoreUnknown = true)
 
@@ -103,10 +106,16 @@ public class Leg {
     public List<String> stops;
     
     /**
-     * The leg's geometry.
+     * The leg's geometry as encoded polyline.
      */
     public String legGeometry;
     
+    /**
+     * The leg's geometry decoded on first access.
+     */
+    @JsonIgnore
+    private List<Coordinate> geometry;
+    
     /**
      * List of nodes passed in the routing graph.
      */
@@ -135,8 +144,27 @@ public class Leg {
 		stopIdTo = other.stopIdTo;
 		stops = (other.stops != null) ? new ArrayList<String>(other.stops) : null;
 		legGeometry = other.legGeometry;
+		geometry = other.geometry;
 		osmNodes = (other.osmNodes != null) ? new ArrayList<String>(other.osmNodes) : null;
 		streets = (other.streets != null) ? new ArrayList<Street>(other.streets) : null;
 		costs = other.costs;
-	} 
+	}
+    
+    /**
+     * Returns the points of the leg's geometry. The encoded polyline is
+     * decoded on first access, hence legs whose geometry is never used do
+     * not pay for decoding.
+     * 
+     * @return Points of the leg's geometry.
+     */
+    @JsonIgnore
+    public List<Coordinate> getGeometry() {
+    	List<Coordinate> points = geometry;
+    	
+    	if (points == null) {
+    		points = (legGeometry != null) ? Collections.unmodifiableList(Geometry.decodePolyline(legGeometry)) : Collections.<Coordinate>emptyList();
+    		geometry = points;
+    	}
+    	return points;
+    }
 }
@@ -4,8 +4,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
@@ -23,9 +24,6 @@ import allow.simulator.core.Time;
 import allow.simulator.mobility.data.IDataService;
 import allow.simulator.world.Street;
 import allow.simulator.world.StreetMap;
-import allow.simulator.world.StreetNode;
-
-import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * Represents a journey planner for the Allow Ensembles urban traffic
@@ -35,9 +33,15 @@ import com.fasterxml.jackson.databind.JsonNode;
  * @author Andreas Poxrucker (DFKI)
  *
  */
-public final class OTPPlannerService extends AbstractOTPPlanner {
+public final class OTPPlannerService extends AbstractOTPPlanner implements IAsyncPlannerService {
+	// Default maximum number of outstanding asynchronous requests.
+	public static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 64;
+	
 	// Client to send requests.
 	private final HttpClient client;
+	
+	// Transport to send asynchronous requests.
+	private final AsyncHttpTransport transport;
 
 	// Host requests are send to.
 	private final HttpHost target;
@@ -74,6 +78,24 @@ public final class OTPPlannerService extends AbstractOTPPlanner {
 	 * @param dataService Service providing routing between bus stops
 	 */
 	public OTPPlannerService(String host, int port, StreetMap map, IDataService dataService, Time time) {
+		this(host, port, map, dataService, time, DEFAULT_MAX_OUTSTANDING_REQUESTS);
+	}
+	
+	/**
+	 * Creates a new instance of OTPJourneyPlanner sending requests to
+	 * an OpenTripPlanner server instance limiting the number of outstanding
+	 * asynchronous requests (see requestSingleJourneyAsync()).
+	 * 
+	 * @param host Host running OpenTripPlanner service
+	 * @param port Port of OpenTripPlanner service
+	 * @param map Streetmap to map returned traces to
+	 * @param dataService Service providing routing between bus stops
+	 * @param time Time instance to use
+	 * @param maxOutstandingRequests Maximum number of outstanding asynchronous
+	 * requests, not limited if not positive
+	 */
+	public OTPPlannerService(String host, int port, StreetMap map, IDataService dataService, Time time,
+			int maxOutstandingRequests) {
 		target = new HttpHost(host, port, "http");
 		SchemeRegistry schemeRegistry = new SchemeRegistry();
 		schemeRegistry.register(new Scheme("http", port, PlainSocketFactory.getSocketFactory()));
@@ -81,6 +103,7 @@ public final class OTPPlannerService extends AbstractOTPPlanner {
 		cm.setMaxTotal(300);
 		cm.setDefaultMaxPerRoute(150);
 		client = new DefaultHttpClient(cm);
+		transport = new AsyncHttpTransport(host, port, maxOutstandingRequests);
 		this.map = map;
 		this.dataService = dataService;
 		this.time = time;
@@ -102,32 +125,7 @@ public final class OTPPlannerService extends AbstractOTPPlanner {
 			// Execute request and receive response
 			HttpResponse httpResponse = client.execute(target, getRequest);
 			String res = EntityUtils.toString(httpResponse.getEntity());
-
-			// Check for errors
-			final JsonNode root = mapper.readTree(res);
-			final JsonNode error = root.get("error");
-
-			if (error != null)
-				return false;
-
-			// Parse response
-			JsonNode travelPlan = root.get("plan");
-			JsonNode it = travelPlan.get("itineraries");
-
-			for (Iterator<JsonNode> jt = it.elements(); jt.hasNext();) {
-				JsonNode next = jt.next();
-				Itinerary nextIt = parseItinerary(next);
-				nextIt.from = request.From;
-				nextIt.to = request.To;
-				nextIt.reqId = request.ReqId;
-				nextIt.reqNumber = request.ReqNumber;
-				
-				for (Leg l : nextIt.legs) {
-					mapTracesToStreets(l);
-				}
-				nextIt.initialWaitingTime = (time != null) ? Math.max((nextIt.startTime - time.getTimestamp()) / 1000, 0) : 0;
-				itineraries.add(nextIt);
-			}
+			return parseResponse(res, request, itineraries);
 			
 		} catch (ClientProtocolException e) {
 			e.printStackTrace();
@@ -138,17 +136,79 @@ public final class OTPPlannerService extends AbstractOTPPlanner {
 		return true;
 	}
 	
+	/**
+	 * Requests a single journey from the planner without blocking the calling
+	 * thread. The returned future is completed with the itineraries returned
+	 * by the planner on a thread of the HTTP transport (empty if the planner
+	 * returned an error), or exceptionally in case the request failed.
+	 * Requests exceeding the maximum number of outstanding requests are
+	 * queued.
+	 * 
+	 * @param request Request containing the parameters of the journey.
+	 * @return Future completed with the itineraries returned by the planner.
+	 */
+	@Override
+	public CompletableFuture<List<Itinerary>> requestSingleJourneyAsync(final JourneyRequest request) {
+		final CompletableFuture<List<Itinerary>> result = new CompletableFuture<List<Itinerary>>();
+		transport.get(createQueryString(request)).whenComplete(new BiConsumer<String, Throwable>() {
+
+			@Override
+			public void accept(String res, Throwable t) {
+				
+				if (t != null) {
+					result.completeExceptionally(t);
+					return;
+				}
+				List<Itinerary> itineraries = new ArrayList<Itinerary>();
+				
+				try {
+					
+					// Errors returned by the planner (e.g. no path found) are no failures of the instance
+					parseResponse(res, request, itineraries);
+					result.complete(itineraries);
+					
+				} catch (Exception e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	private boolean parseResponse(String res, JourneyRequest request, List<Itinerary> itineraries) throws IOException {
+		List<Itinerary> parsed = new ArrayList<Itinerary>();
+
+		if (!parsePlan(res, parsed))
+			return false;
+
+		for (Itinerary nextIt : parsed) {
+			nextIt.from = request.From;
+			nextIt.to = request.To;
+			nextIt.reqId = request.ReqId;
+			nextIt.reqNumber = request.ReqNumber;
+			
+			for (Leg l : nextIt.legs) {
+				mapTracesToStreets(l);
+			}
+			nextIt.initialWaitingTime = (time != null) ? Math.max((nextIt.startTime - time.getTimestamp()) / 1000, 0) : 0;
+			itineraries.add(nextIt);
+		}
+		return true;
+	}
+	
 	private void mapTracesToStreets(Leg leg) {
 		leg.streets = new ArrayList<Street>();
 		if (map != null && (leg.mode == TType.CAR || leg.mode == TType.BICYCLE || leg.mode == TType.WALK)) {
 
+			int first = (leg.osmNodes.size() > 0) ? normalize(leg.osmNodes.get(0), map) : -1;
+
 			for (int j = 0; j < leg.osmNodes.size() - 1; j++) {
-				String first = normalize(leg.osmNodes.get(j), map);
-				String second = normalize(leg.osmNodes.get(j + 1), map);
+				int second = normalize(leg.osmNodes.get(j + 1), map);
 				Street street = map.getStreet(first, second);
 
 				if (street != null)
 					leg.streets.add(street);
+				first = second;
 			}
 
 		} else if (dataService != null && leg.mode == TType.BUS) {
@@ -171,23 +231,19 @@ public final class OTPPlannerService extends AbstractOTPPlanner {
 		}
 	}
 	
-	private static String normalize(String nodeLabel, StreetMap map) {
+	private static int normalize(String nodeLabel, StreetMap map) {
 		if (nodeLabel.startsWith("osm:node") || nodeLabel.startsWith("split"))
 			// These are nodes which have the same label as in the planner.
-			return nodeLabel;
-		String tokens[] = nodeLabel.split("_");
+			return map.getNodeId(nodeLabel);
+		int start = nodeLabel.indexOf('_');
 
-		if (tokens.length == 1) {
+		if ((start < 0) || (start == nodeLabel.length() - 1)) {
 			// These are unknown nodes.
-			return "";
+			return -1;
 		}
 		// These are intermediate nodes which can be determined by their position.
 		// Planner returns "streetname_lat,lon".
-		StreetNode n = map.getStreetNodeFromPosition(tokens[1]);
-
-		if (n == null) {
-			return "";
-		}
-		return n.getLabel();
+		int end = nodeLabel.indexOf('_', start + 1);
+		return map.getNodeIdFromPosition(nodeLabel, start + 1, (end < 0) ? nodeLabel.length() : end);
 	}
 }
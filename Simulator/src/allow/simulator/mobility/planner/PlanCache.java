@@ -0,0 +1,364 @@
+package allow.simulator.mobility.planner;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import allow.simulator.mobility.data.IDataService;
+import allow.simulator.mobility.data.gtfs.GTFSService;
+import allow.simulator.mobility.data.gtfs.GTFSServiceException;
+import allow.simulator.world.StreetMap;
+
+/**
+ * Bounded least recently used cache of planned journeys. Journeys are keyed
+ * by the nodes of the street map closest to origin and destination, the
+ * requested transport types, and the time of day of departure (or arrival)
+ * rounded down to buckets, such that repeated daily trips of agents are
+ * planned once. Itineraries without transit legs are shifted in time to the
+ * requested departure. Itineraries with transit legs keep their scheduled
+ * times and are invalidated if they depart before the requested departure
+ * (or arrive after the requested arrival), or if they are reused on another
+ * day and one of their trips does not run on the requested day.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class PlanCache {
+	// Default size of departure time buckets in minutes
+	public static final int DEFAULT_BUCKET_SIZE = 15;
+
+	private static final long MILLIS_PER_DAY = 24 * 3600 * 1000;
+
+	// GTFS exception type of services added on a date
+	private static final int SERVICE_ADDED = 1;
+
+	/**
+	 * Key of a planned journey.
+	 */
+	private static final class Key {
+		private final long nodes;
+		private final long modes;
+		private final int bucket;
+
+		public Key(long nodes, long modes, int bucket) {
+			this.nodes = nodes;
+			this.modes = modes;
+			this.bucket = bucket;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+
+			if (this == other)
+				return true;
+
+			if (!(other instanceof Key))
+				return false;
+			Key k = (Key) other;
+			return (nodes == k.nodes) && (modes == k.modes) && (bucket == k.bucket);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = (int) (nodes ^ (nodes >>> 32));
+			h = 31 * h + (int) (modes ^ (modes >>> 32));
+			return 31 * h + bucket;
+		}
+	}
+
+	/**
+	 * Planned itineraries and the time the request was issued for.
+	 */
+	private static final class Entry {
+		private final List<Itinerary> itineraries;
+		private final long requestTime;
+
+		public Entry(List<Itinerary> itineraries, long requestTime) {
+			this.itineraries = itineraries;
+			this.requestTime = requestTime;
+		}
+	}
+
+	// Street map to determine nodes closest to origins and destinations
+	private final StreetMap map;
+
+	// Data service to look up the calendar of trips
+	private final IDataService dataService;
+
+	// Services of trips and exceptions of services looked up so far
+	private final Map<String, GTFSService> services;
+	private final Map<String, List<GTFSServiceException>> exceptions;
+
+	// Size of departure time buckets in minutes
+	private final int bucketSize;
+
+	// Cached journeys in access order, guarded by this
+	private final LinkedHashMap<Key, Entry> entries;
+
+	// Number of hits and misses, guarded by this
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new cache holding at most the given number of planned
+	 * journeys.
+	 *
+	 * @param map Street map to determine nodes closest to origins and destinations.
+	 * @param dataService Data service to look up the calendar of trips.
+	 * @param capacity Maximum number of cached journeys.
+	 * @param bucketSize Size of departure time buckets in minutes.
+	 */
+	public PlanCache(StreetMap map, IDataService dataService, final int capacity, int bucketSize) {
+
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Error: Capacity of plan cache must be positive.");
+
+		if (bucketSize <= 0)
+			throw new IllegalArgumentException("Error: Bucket size of plan cache must be positive.");
+		this.map = map;
+		this.dataService = dataService;
+		this.bucketSize = bucketSize;
+		services = new ConcurrentHashMap<String, GTFSService>();
+		exceptions = new ConcurrentHashMap<String, List<GTFSServiceException>>();
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns true if journeys of the given request can be cached, i.e. the
+	 * request is planned by OTP or a planner replacing OTP for its mode.
+	 * Requests of taxis, shared bicycles, and FlexiBus are not cached since
+	 * planning them reserves resources.
+	 *
+	 * @param request Request to check.
+	 * @return True if journeys of the request can be cached, false otherwise.
+	 */
+	public static boolean isCacheable(JourneyRequest request) {
+		TType type = request.TransportTypes[0];
+		return (type != TType.FLEXIBUS) && (type != TType.SHARED_BICYCLE) && (type != TType.TAXI)
+				&& (type != TType.SHARED_TAXI);
+	}
+
+	/**
+	 * Returns copies of the cached itineraries planned for a similar request
+	 * adapted to the given request, or null if there are no valid cached
+	 * itineraries.
+	 *
+	 * @param request Request to look up itineraries for.
+	 * @return Itineraries for the request or null in case of a cache miss.
+	 */
+	public List<Itinerary> get(JourneyRequest request) {
+		Key key = createKey(request);
+
+		if (key == null) {
+			countMiss();
+			return null;
+		}
+		Entry entry;
+
+		synchronized (this) {
+			entry = entries.get(key);
+
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+		}
+		long requestTime = getRequestTime(request);
+		// Transit itineraries are moved by whole days only to keep their schedule
+		long days = Math.round((double) (requestTime - entry.requestTime) / MILLIS_PER_DAY);
+		List<Itinerary> ret = new ArrayList<Itinerary>(entry.itineraries.size());
+
+		for (Itinerary cached : entry.itineraries) {
+			boolean transit = hasTransitLegs(cached);
+			long shift = transit ? days * MILLIS_PER_DAY : requestTime - entry.requestTime;
+			Itinerary it = copy(cached, shift);
+
+			if (transit && ((request.ArrivalTime != null) ? (it.endTime > requestTime) : (it.startTime < requestTime))) {
+				// Departure does not fit anymore, plan again
+				invalidate(key, entry);
+				return null;
+			}
+
+			if (transit && (days != 0) && !runsOn(it, request.Date)) {
+				// Trips do not run on the requested day, plan again
+				invalidate(key, entry);
+				return null;
+			}
+			it.from = request.From;
+			it.to = request.To;
+			it.reqId = request.ReqId;
+			it.reqNumber = request.ReqNumber;
+
+			if (request.ArrivalTime == null)
+				it.initialWaitingTime = Math.max((it.startTime - requestTime) / 1000, 0);
+			ret.add(it);
+		}
+
+		synchronized (this) {
+			hits++;
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds itineraries planned for a request to the cache. Empty results are
+	 * not cached.
+	 *
+	 * @param request Request the itineraries were planned for.
+	 * @param itineraries Itineraries planned for the request.
+	 */
+	public void put(JourneyRequest request, List<Itinerary> itineraries) {
+
+		if (itineraries.size() == 0)
+			return;
+		Key key = createKey(request);
+
+		if (key == null)
+			return;
+		List<Itinerary> copies = new ArrayList<Itinerary>(itineraries.size());
+
+		for (Itinerary it : itineraries) {
+			copies.add(copy(it, 0));
+		}
+		Entry entry = new Entry(copies, getRequestTime(request));
+
+		synchronized (this) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Returns the ratio of lookups which returned cached itineraries.
+	 *
+	 * @return Ratio of hits to lookups or 0 if there were no lookups.
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = hits + misses;
+		return (lookups > 0) ? (double) hits / lookups : 0.0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "[PlanCache " + entries.size() + " journeys, " + hits + " hits, " + misses + " misses, hit ratio "
+				+ String.format("%.3f", getHitRatio()) + "]";
+	}
+
+	private synchronized void countMiss() {
+		misses++;
+	}
+
+	private synchronized void invalidate(Key key, Entry entry) {
+		misses++;
+
+		// Entry may have been replaced in the meantime
+		if (entries.get(key) == entry)
+			entries.remove(key);
+	}
+
+	private Key createKey(JourneyRequest request) {
+		int from = map.getNearestNodeId(request.From);
+		int to = map.getNearestNodeId(request.To);
+
+		if ((from < 0) || (to < 0))
+			return null;
+		long modes = 0;
+
+		for (TType type : request.TransportTypes) {
+			modes |= 1L << type.ordinal();
+		}
+		LocalTime t = (request.ArrivalTime != null) ? request.ArrivalTime : request.DepartureTime;
+		int bucket = t.toSecondOfDay() / 60 / bucketSize;
+
+		// Arrive-by requests use negative buckets
+		if (request.ArrivalTime != null)
+			bucket = -bucket - 1;
+		return new Key(((long) from << 32) | (to & 0xFFFFFFFFL), modes, bucket);
+	}
+
+	private static long getRequestTime(JourneyRequest request) {
+		LocalTime t = (request.ArrivalTime != null) ? request.ArrivalTime : request.DepartureTime;
+		return Timestamp.valueOf(LocalDateTime.of(request.Date, t).truncatedTo(ChronoUnit.SECONDS)).getTime();
+	}
+
+	// Returns true if all trips of transit legs of an itinerary run on the
+	// given day according to the calendar of their services
+	private boolean runsOn(Itinerary it, LocalDate day) {
+
+		for (Leg l : it.legs) {
+
+			if ((l.mode != TType.BUS) && (l.mode != TType.CABLE_CAR) && (l.mode != TType.RAIL))
+				continue;
+
+			if ((l.routeId == null) || (l.tripId == null))
+				return false;
+			GTFSService service = services.get(l.tripId);
+
+			if (service == null) {
+				service = dataService.getServiceId(l.routeId, l.tripId);
+
+				if (service == null)
+					return false;
+				services.put(l.tripId, service);
+			}
+			List<GTFSServiceException> temp = exceptions.get(service.getServiceId());
+
+			if (temp == null) {
+				temp = dataService.getServiceExceptions(service.getServiceId());
+				exceptions.put(service.getServiceId(), temp);
+			}
+			boolean runs = !day.isBefore(service.startDate()) && !day.isAfter(service.endDate())
+					&& service.getDays()[day.getDayOfWeek().ordinal()];
+
+			for (GTFSServiceException e : temp) {
+
+				if (e.getDate().equals(day))
+					runs = (e.getType() == SERVICE_ADDED);
+			}
+
+			if (!runs)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean hasTransitLegs(Itinerary it) {
+
+		for (Leg l : it.legs) {
+
+			if ((l.mode == TType.BUS) || (l.mode == TType.CABLE_CAR) || (l.mode == TType.RAIL))
+				return true;
+		}
+		return false;
+	}
+
+	// Returns a deep copy of an itinerary with all times shifted by the given
+	// number of milliseconds
+	private static Itinerary copy(Itinerary it, long shift) {
+		Itinerary ret = it.clone();
+		ret.legs = new ArrayList<Leg>(it.legs.size());
+		ret.startTime += shift;
+		ret.endTime += shift;
+
+		for (Leg l : it.legs) {
+			Leg leg = new Leg(l);
+			leg.startTime += shift;
+			leg.endTime += shift;
+			ret.legs.add(leg);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,476 @@
+package allow.simulator.mobility.planner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Distributes requests among replicated planner instances. Instances are
+ * chosen by request id, by the number of outstanding requests, or by an
+ * exponentially weighted moving average (EWMA) of their latency. Instances
+ * failing repeatedly are removed for some time by a circuit breaker and
+ * probed with a single request afterwards. Failed requests are retried on
+ * other instances. Optionally, requests which take longer than a percentile
+ * of recent latencies are hedged, i.e. sent to a second instance, and
+ * completed with the first response.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class PlannerLoadBalancer implements IAsyncPlannerService {
+	// Default number of consecutive failures after which an instance is removed
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	// Default time an instance is removed for in milliseconds
+	public static final long DEFAULT_OPEN_TIME = 30000;
+
+	// Default number of instances a request is sent to before it fails
+	public static final int DEFAULT_ATTEMPTS = 2;
+
+	// Weight of new samples of the latency average
+	private static final double EWMA_WEIGHT = 0.2;
+
+	// Number of recent latencies to determine the hedging delay from
+	private static final int LATENCY_SAMPLES = 256;
+
+	// Minimum number of latencies before requests are hedged
+	private static final int MIN_HEDGE_SAMPLES = 32;
+
+	// Number of latencies after which the hedging delay is updated
+	private static final int HEDGE_UPDATE_INTERVAL = 32;
+
+	/**
+	 * Policy to choose the instance a request is sent to.
+	 */
+	public enum Policy {
+
+		/**
+		 * Instances are chosen by request id such that runs are reproducible.
+		 */
+		REQUEST_ID,
+
+		/**
+		 * The instance with the least outstanding requests is chosen.
+		 */
+		LEAST_OUTSTANDING,
+
+		/**
+		 * The instance with the least average latency weighted by its
+		 * outstanding requests is chosen.
+		 */
+		EWMA
+	}
+
+	/**
+	 * Load and health of a planner instance, guarded by the balancer.
+	 */
+	private static final class Instance {
+		private final IAsyncPlannerService planner;
+		private final int index;
+		private int outstanding;
+		private double latency;
+		private boolean sampled;
+		private int failures;
+		private long openUntil;
+		private boolean probing;
+		private long requests;
+		private long errors;
+		private int opened;
+
+		public Instance(IAsyncPlannerService planner, int index) {
+			this.planner = planner;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * State of a request which may be sent to several instances.
+	 */
+	private static final class Exchange {
+		private final JourneyRequest request;
+		private final CompletableFuture<List<Itinerary>> result;
+		private final boolean tried[];
+		private int failures;
+		private int pending;
+		private ScheduledFuture<?> hedge;
+
+		public Exchange(JourneyRequest request, int instances) {
+			this.request = request;
+			result = new CompletableFuture<List<Itinerary>>();
+			tried = new boolean[instances];
+		}
+	}
+
+	// Planner instances
+	private final Instance instances[];
+
+	// Policy to choose instances
+	private final Policy policy;
+
+	// Number of consecutive failures after which an instance is removed
+	private final int failureThreshold;
+
+	// Time an instance is removed for in milliseconds
+	private final long openTime;
+
+	// Percentile of latencies after which requests are hedged, 0 if disabled
+	private final double hedgePercentile;
+
+	// Number of instances a request is sent to before it fails
+	private final int attempts;
+
+	// Scheduler sending hedged requests, null if hedging is disabled
+	private final ScheduledExecutorService hedgeScheduler;
+
+	// Recent latencies in milliseconds, guarded by this
+	private final long latencies[];
+	private long samples;
+
+	// Delay after which requests are hedged, negative if not enough samples yet
+	private volatile long hedgeDelay;
+
+	// Number of hedged requests and hedged requests answered first, guarded by this
+	private long hedges;
+	private long hedgeWins;
+
+	/**
+	 * Creates a new balancer choosing instances by the given policy with
+	 * default parameters of the circuit breaker and without hedging.
+	 *
+	 * @param planners Planner instances to distribute requests among.
+	 * @param policy Policy to choose instances.
+	 */
+	public PlannerLoadBalancer(List<? extends IAsyncPlannerService> planners, Policy policy) {
+		this(planners, policy, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME, 0.0, DEFAULT_ATTEMPTS);
+	}
+
+	/**
+	 * Creates a new balancer distributing requests among the given planner
+	 * instances.
+	 *
+	 * @param planners Planner instances to distribute requests among.
+	 * @param policy Policy to choose instances.
+	 * @param failureThreshold Number of consecutive failures after which an instance is removed.
+	 * @param openTime Time an instance is removed for in milliseconds.
+	 * @param hedgePercentile Percentile of latencies (e.g. 0.95) after which requests are hedged, 0 to disable hedging.
+	 * @param attempts Number of instances a request is sent to before it fails.
+	 */
+	public PlannerLoadBalancer(List<? extends IAsyncPlannerService> planners, Policy policy, int failureThreshold,
+			long openTime, double hedgePercentile, int attempts) {
+
+		if (planners.size() == 0)
+			throw new IllegalArgumentException("Error: Load balancer requires at least one planner instance.");
+
+		if (failureThreshold <= 0)
+			throw new IllegalArgumentException("Error: Failure threshold of load balancer must be positive.");
+
+		if ((hedgePercentile < 0.0) || (hedgePercentile >= 1.0))
+			throw new IllegalArgumentException("Error: Hedging percentile of load balancer must be in [0, 1).");
+
+		if (attempts <= 0)
+			throw new IllegalArgumentException("Error: Attempts of load balancer must be positive.");
+		instances = new Instance[planners.size()];
+
+		for (int i = 0; i < instances.length; i++) {
+			instances[i] = new Instance(planners.get(i), i);
+		}
+		this.policy = policy;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+		this.hedgePercentile = hedgePercentile;
+		this.attempts = attempts;
+		latencies = new long[LATENCY_SAMPLES];
+		hedgeDelay = -1;
+
+		if ((hedgePercentile > 0.0) && (instances.length > 1)) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "planner-hedge");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			scheduler.setRemoveOnCancelPolicy(true);
+			hedgeScheduler = scheduler;
+
+		} else {
+			hedgeScheduler = null;
+		}
+	}
+
+	@Override
+	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
+		List<Itinerary> its = requestSingleJourneyAsync(request).join();
+		itineraries.addAll(its);
+		return its.size() > 0;
+	}
+
+	/**
+	 * Sends a request to an instance chosen by the policy of the balancer.
+	 * The returned future is completed with the first itineraries returned by
+	 * an instance, or with an empty list in case all attempts failed. It is
+	 * never completed exceptionally.
+	 *
+	 * @param request Request containing the parameters of the journey.
+	 * @return Future completed with the itineraries returned by an instance.
+	 */
+	@Override
+	public CompletableFuture<List<Itinerary>> requestSingleJourneyAsync(JourneyRequest request) {
+		final Exchange ex = new Exchange(request, instances.length);
+
+		if (!send(ex, false)) {
+			ex.result.complete(new ArrayList<Itinerary>(0));
+			return ex.result;
+		}
+		long delay = hedgeDelay;
+
+		if ((hedgeScheduler != null) && (delay >= 0)) {
+			ScheduledFuture<?> hedge = hedgeScheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+
+					if (!ex.result.isDone() && send(ex, true)) {
+
+						synchronized (PlannerLoadBalancer.this) {
+							hedges++;
+						}
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+
+			synchronized (ex) {
+				ex.hedge = hedge;
+			}
+		}
+		return ex.result;
+	}
+
+	/**
+	 * Returns the number of instances which are currently removed by the
+	 * circuit breaker.
+	 *
+	 * @return Number of removed instances.
+	 */
+	public synchronized int getOpenInstances() {
+		long now = System.currentTimeMillis();
+		int open = 0;
+
+		for (Instance instance : instances) {
+
+			if (instance.openUntil > now)
+				open++;
+		}
+		return open;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("[PlannerLoadBalancer ").append(policy);
+
+		for (int i = 0; i < instances.length; i++) {
+			Instance instance = instances[i];
+			builder.append(", instance ").append(i).append(": ").append(instance.requests).append(" requests, ")
+					.append(instance.errors).append(" failures, opened ").append(instance.opened).append(" times, latency ")
+					.append(String.format("%.1f", instance.latency)).append(" ms");
+		}
+
+		if (hedgeScheduler != null)
+			builder.append(", ").append(hedges).append(" hedges, ").append(hedgeWins).append(" won, delay ").append(hedgeDelay).append(" ms");
+		return builder.append("]").toString();
+	}
+
+	// Sends a request of an exchange to an instance it has not been sent to
+	// yet, returns false if no instance is left
+	private boolean send(final Exchange ex, final boolean hedged) {
+		final Instance instance;
+
+		synchronized (ex) {
+			int index = select(ex.request, ex.tried);
+
+			if (index < 0)
+				return false;
+			ex.tried[index] = true;
+			ex.pending++;
+			instance = instances[index];
+		}
+		final long start = System.nanoTime();
+		CompletableFuture<List<Itinerary>> future;
+
+		try {
+			future = instance.planner.requestSingleJourneyAsync(ex.request);
+
+		} catch (RuntimeException e) {
+			future = new CompletableFuture<List<Itinerary>>();
+			future.completeExceptionally(e);
+		}
+		future.whenComplete(new BiConsumer<List<Itinerary>, Throwable>() {
+
+			@Override
+			public void accept(List<Itinerary> its, Throwable t) {
+				long latency = (System.nanoTime() - start) / 1000000;
+				update(instance, latency, t == null);
+				complete(ex, its, t, hedged);
+			}
+		});
+		return true;
+	}
+
+	private void complete(Exchange ex, List<Itinerary> its, Throwable t, boolean hedged) {
+		boolean retry = false;
+		boolean failed = false;
+
+		synchronized (ex) {
+			ex.pending--;
+
+			if (t == null) {
+
+				if (ex.result.complete(its)) {
+
+					if (ex.hedge != null)
+						ex.hedge.cancel(false);
+
+					if (hedged) {
+
+						synchronized (this) {
+							hedgeWins++;
+						}
+					}
+				}
+				return;
+			}
+
+			if (ex.result.isDone())
+				return;
+			ex.failures++;
+
+			if (ex.failures < attempts) {
+				retry = true;
+
+			} else if (ex.pending == 0) {
+				failed = true;
+			}
+		}
+
+		if (retry && send(ex, false))
+			return;
+
+		synchronized (ex) {
+			failed |= retry && (ex.pending == 0);
+		}
+
+		if (failed) {
+			t.printStackTrace();
+			ex.result.complete(new ArrayList<Itinerary>(0));
+		}
+	}
+
+	// Returns the index of the instance to send a request to, or -1 if the
+	// request has been sent to all instances
+	private synchronized int select(JourneyRequest request, boolean tried[]) {
+		long now = System.currentTimeMillis();
+		int first = (int) (Math.abs(request.ReqId) % instances.length);
+		int best = -1;
+		double bestScore = Double.MAX_VALUE;
+
+		for (int pass = 0; (pass < 2) && (best < 0); pass++) {
+
+			// Second pass ignores the circuit breaker in case no instance is available
+			for (int k = 0; k < instances.length; k++) {
+				int i = (first + k) % instances.length;
+				Instance instance = instances[i];
+
+				if (tried[i] || ((pass == 0) && !isAvailable(instance, now)))
+					continue;
+				double score;
+
+				switch (policy) {
+				case LEAST_OUTSTANDING:
+					score = instance.outstanding;
+					break;
+
+				case EWMA:
+					// Instances without latency samples are chosen by outstanding requests
+					score = (instance.latency + 1.0) * (instance.outstanding + 1);
+					break;
+
+				default:
+					score = k;
+					break;
+				}
+
+				if (score < bestScore) {
+					best = i;
+					bestScore = score;
+				}
+			}
+		}
+
+		if (best < 0)
+			return -1;
+		Instance instance = instances[best];
+
+		// Instances whose removal time has passed are probed with a single request
+		if ((instance.openUntil > 0) && (instance.openUntil <= now))
+			instance.probing = true;
+		instance.outstanding++;
+		instance.requests++;
+		return best;
+	}
+
+	private boolean isAvailable(Instance instance, long now) {
+
+		if (instance.openUntil == 0)
+			return true;
+
+		if (instance.openUntil > now)
+			return false;
+		return !instance.probing && (instance.outstanding == 0);
+	}
+
+	private synchronized void update(Instance instance, long latency, boolean success) {
+		instance.outstanding--;
+
+		if (!success) {
+			instance.errors++;
+			instance.failures++;
+			boolean probe = instance.probing;
+			instance.probing = false;
+
+			if (probe || ((instance.openUntil == 0) && (instance.failures >= failureThreshold))) {
+				instance.openUntil = System.currentTimeMillis() + openTime;
+				instance.opened++;
+				System.out.println("Planner instance " + instance.index + " failed "
+						+ instance.failures + " times, removed for " + openTime + " ms.");
+			}
+			return;
+		}
+		instance.failures = 0;
+		instance.openUntil = 0;
+		instance.probing = false;
+		instance.latency = instance.sampled ? (1.0 - EWMA_WEIGHT) * instance.latency + EWMA_WEIGHT * latency : latency;
+		instance.sampled = true;
+
+		if (hedgeScheduler == null)
+			return;
+		latencies[(int) (samples % LATENCY_SAMPLES)] = latency;
+		samples++;
+
+		if ((samples >= MIN_HEDGE_SAMPLES) && (samples % HEDGE_UPDATE_INTERVAL == 0)) {
+			int n = (int) Math.min(samples, LATENCY_SAMPLES);
+			long sorted[] = Arrays.copyOf(latencies, n);
+			Arrays.sort(sorted);
+			hedgeDelay = sorted[Math.min((int) (hedgePercentile * n), n - 1)];
+		}
+	}
+}
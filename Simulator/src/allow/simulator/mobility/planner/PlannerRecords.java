@@ -0,0 +1,370 @@
+package allow.simulator.mobility.planner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import allow.simulator.util.Coordinate;
+import allow.simulator.world.Street;
+import allow.simulator.world.StreetMap;
+
+/**
+ * Compact binary file format of planner requests and responses recorded by
+ * RecordingPlannerService and served by ReplayPlannerService. A file is a
+ * gzip stream of a header followed by records. Each record consists of the
+ * key of a request (see getRequestKey()), the length of the encoded
+ * response, and the response. Strings of a response are written once per
+ * response and referenced by index afterwards. Streets of legs are stored
+ * as ids of their start and end nodes in the street map.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+final class PlannerRecords {
+	private static final int MAGIC = 0x504C4E52;
+	private static final int VERSION = 1;
+
+	// Seed and multiplier of the hash of request keys (64 bit FNV-1a)
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private PlannerRecords() { }
+
+	/**
+	 * Appends records to a file. Records are flushed to the file after each
+	 * response, hence files of runs which are not shut down properly can be
+	 * read up to the last complete record.
+	 */
+	static final class Writer {
+		private final DataOutputStream out;
+
+		public Writer(Path path) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path), true)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.flush();
+		}
+
+		public void write(long key, boolean success, List<Itinerary> itineraries) throws IOException {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+			encodeResponse(new DataOutputStream(buffer), success, itineraries);
+
+			synchronized (this) {
+				out.writeLong(key);
+				out.writeInt(buffer.size());
+				buffer.writeTo(out);
+				out.flush();
+			}
+		}
+
+		public synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the records of a file. In case a key was recorded several times,
+	 * the first response is kept.
+	 *
+	 * @param path File to read records from.
+	 * @return Encoded responses by request key.
+	 * @throws IOException
+	 */
+	static Map<Long, byte[]> read(Path path) throws IOException {
+		Map<Long, byte[]> records = new HashMap<Long, byte[]>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+				throw new IOException("Error: " + path + " is not a planner record file of version " + VERSION + ".");
+
+			while (true) {
+				long key;
+				byte response[];
+
+				try {
+					key = in.readLong();
+					response = new byte[in.readInt()];
+					in.readFully(response);
+
+				} catch (EOFException e) {
+					// End of file or incomplete last record
+					break;
+				}
+
+				if (!records.containsKey(key))
+					records.put(key, response);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the key of a request derived from its parameters. Request ids
+	 * and numbers are not part of the key since they depend on the order in
+	 * which requests are issued.
+	 *
+	 * @param request Request to determine key for.
+	 * @return Key of the request.
+	 */
+	static long getRequestKey(JourneyRequest request) {
+		long h = FNV_OFFSET;
+		h = hash(h, request.From);
+		h = hash(h, request.To);
+		h = hash(h, request.Date.toEpochDay());
+		h = hash(h, (request.ArrivalTime != null) ? -request.ArrivalTime.toNanoOfDay() - 1 : request.DepartureTime.toNanoOfDay());
+
+		for (TType type : request.TransportTypes) {
+			h = hash(h, type.ordinal());
+		}
+		h = hash(h, (request.OTPRouterID != null) ? request.OTPRouterID.hashCode() : 0);
+		h = hash(h, request.RouteType.ordinal());
+		h = hash(h, request.ResultsNumber);
+
+		if (request.StartingPoints != null) {
+
+			for (Coordinate c : request.StartingPoints) {
+				h = hash(h, c);
+			}
+		}
+
+		if (request.Destinations != null) {
+
+			for (Coordinate c : request.Destinations) {
+				h = hash(h, c);
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Decodes a response recorded for a request. Request ids and numbers of
+	 * itineraries are set to the ones of the given request.
+	 *
+	 * @param response Encoded response.
+	 * @param request Request to decode response for.
+	 * @param map Street map to resolve streets of legs.
+	 * @param itineraries List to add decoded itineraries to.
+	 * @return True if planning was successful when the response was recorded.
+	 * @throws IOException
+	 */
+	static boolean decodeResponse(byte response[], JourneyRequest request, StreetMap map, List<Itinerary> itineraries) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+		List<String> strings = new ArrayList<String>();
+		boolean success = in.readBoolean();
+		int n = in.readInt();
+
+		for (int i = 0; i < n; i++) {
+			Itinerary it = new Itinerary();
+			it.from = readCoordinate(in);
+			it.to = readCoordinate(in);
+			it.startTime = in.readLong();
+			it.endTime = in.readLong();
+			it.duration = in.readLong();
+			it.walkTime = in.readLong();
+			it.transitTime = in.readLong();
+			it.waitingTime = in.readLong();
+			it.initialWaitingTime = in.readLong();
+			it.walkDistance = in.readDouble();
+			it.transfers = in.readInt();
+			it.costs = in.readDouble();
+			it.itineraryType = readType(in);
+			it.reqId = request.ReqId;
+			it.reqNumber = request.ReqNumber;
+			int legs = in.readInt();
+
+			for (int j = 0; j < legs; j++) {
+				Leg l = new Leg();
+				l.startTime = in.readLong();
+				l.endTime = in.readLong();
+				l.distance = in.readDouble();
+				l.costs = in.readDouble();
+				l.mode = readType(in);
+				l.routeId = readString(in, strings);
+				l.agencyId = readString(in, strings);
+				l.tripId = readString(in, strings);
+				l.from = readCoordinate(in);
+				l.to = readCoordinate(in);
+				l.stopIdFrom = readString(in, strings);
+				l.stopIdTo = readString(in, strings);
+				l.stops = readStrings(in, strings);
+				l.legGeometry = readString(in, strings);
+				l.osmNodes = readStrings(in, strings);
+				int streets = in.readInt();
+
+				if (streets >= 0) {
+					l.streets = new ArrayList<Street>(streets);
+
+					for (int k = 0; k < streets; k++) {
+						Street s = map.getStreet(in.readInt(), in.readInt());
+
+						if (s == null)
+							throw new IOException("Error: Recorded street does not exist in street map.");
+						l.streets.add(s);
+					}
+				}
+				it.legs.add(l);
+			}
+			itineraries.add(it);
+		}
+		return success;
+	}
+
+	private static void encodeResponse(DataOutputStream out, boolean success, List<Itinerary> itineraries) throws IOException {
+		Map<String, Integer> strings = new HashMap<String, Integer>();
+		out.writeBoolean(success);
+		out.writeInt(itineraries.size());
+
+		for (Itinerary it : itineraries) {
+			writeCoordinate(out, it.from);
+			writeCoordinate(out, it.to);
+			out.writeLong(it.startTime);
+			out.writeLong(it.endTime);
+			out.writeLong(it.duration);
+			out.writeLong(it.walkTime);
+			out.writeLong(it.transitTime);
+			out.writeLong(it.waitingTime);
+			out.writeLong(it.initialWaitingTime);
+			out.writeDouble(it.walkDistance);
+			out.writeInt(it.transfers);
+			out.writeDouble(it.costs);
+			writeType(out, it.itineraryType);
+			out.writeInt(it.legs.size());
+
+			for (Leg l : it.legs) {
+				out.writeLong(l.startTime);
+				out.writeLong(l.endTime);
+				out.writeDouble(l.distance);
+				out.writeDouble(l.costs);
+				writeType(out, l.mode);
+				writeString(out, l.routeId, strings);
+				writeString(out, l.agencyId, strings);
+				writeString(out, l.tripId, strings);
+				writeCoordinate(out, l.from);
+				writeCoordinate(out, l.to);
+				writeString(out, l.stopIdFrom, strings);
+				writeString(out, l.stopIdTo, strings);
+				writeStrings(out, l.stops, strings);
+				writeString(out, l.legGeometry, strings);
+				writeStrings(out, l.osmNodes, strings);
+
+				if (l.streets == null) {
+					out.writeInt(-1);
+
+				} else {
+					out.writeInt(l.streets.size());
+
+					for (Street s : l.streets) {
+						out.writeInt((int) s.getStartingNode().getId());
+						out.writeInt((int) s.getEndNode().getId());
+					}
+				}
+			}
+		}
+		out.flush();
+	}
+
+	// Strings are written as index into the strings of the response, new
+	// strings are written in full after their index, null as -1
+	private static void writeString(DataOutputStream out, String s, Map<String, Integer> strings) throws IOException {
+
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		Integer index = strings.get(s);
+
+		if (index != null) {
+			out.writeInt(index);
+			return;
+		}
+		out.writeInt(strings.size());
+		out.writeUTF(s);
+		strings.put(s, strings.size());
+	}
+
+	private static String readString(DataInputStream in, List<String> strings) throws IOException {
+		int index = in.readInt();
+
+		if (index < 0)
+			return null;
+
+		if (index == strings.size())
+			strings.add(in.readUTF());
+		return strings.get(index);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> list, Map<String, Integer> strings) throws IOException {
+
+		if (list == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(list.size());
+
+		for (String s : list) {
+			writeString(out, s, strings);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in, List<String> strings) throws IOException {
+		int n = in.readInt();
+
+		if (n < 0)
+			return null;
+		List<String> list = new ArrayList<String>(n);
+
+		for (int i = 0; i < n; i++) {
+			list.add(readString(in, strings));
+		}
+		return list;
+	}
+
+	private static void writeCoordinate(DataOutputStream out, Coordinate c) throws IOException {
+		out.writeBoolean(c != null);
+
+		if (c != null) {
+			out.writeDouble(c.x);
+			out.writeDouble(c.y);
+		}
+	}
+
+	private static Coordinate readCoordinate(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Coordinate(in.readDouble(), in.readDouble()) : null;
+	}
+
+	private static void writeType(DataOutputStream out, TType type) throws IOException {
+		out.writeByte((type != null) ? type.ordinal() : -1);
+	}
+
+	private static TType readType(DataInputStream in) throws IOException {
+		int ordinal = in.readByte();
+		return (ordinal >= 0) ? TType.values()[ordinal] : null;
+	}
+
+	private static long hash(long h, Coordinate c) {
+		return hash(hash(h, Double.doubleToLongBits(c.x)), Double.doubleToLongBits(c.y));
+	}
+
+	private static long hash(long h, long value) {
+
+		for (int i = 0; i < 8; i++) {
+			h ^= (value >>> (8 * i)) & 0xFF;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+}
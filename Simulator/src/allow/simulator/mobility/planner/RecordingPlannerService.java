@@ -0,0 +1,80 @@
+package allow.simulator.mobility.planner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Planner service forwarding requests to another planner service and
+ * recording every request and response to a file (see PlannerRecords), such
+ * that runs can be replayed by a ReplayPlannerService without the original
+ * planner. Several recording services may share the same file.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class RecordingPlannerService implements IPlannerService {
+	
+	/**
+	 * File shared by recording planner services.
+	 */
+	public static final class Recording {
+		private final PlannerRecords.Writer writer;
+		
+		/**
+		 * Creates a new recording writing to the given file. Existing files
+		 * are overwritten.
+		 * 
+		 * @param path File to write to.
+		 * @throws IOException
+		 */
+		public Recording(Path path) throws IOException {
+			writer = new PlannerRecords.Writer(path);
+		}
+		
+		/**
+		 * Closes the file of the recording.
+		 */
+		public void close() {
+			
+			try {
+				writer.close();
+				
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// Planner service to forward requests to
+	private final IPlannerService planner;
+	
+	// Recording to write requests and responses to
+	private final Recording recording;
+	
+	/**
+	 * Creates a new planner service recording requests and responses of the
+	 * given planner service.
+	 * 
+	 * @param planner Planner service to forward requests to.
+	 * @param recording Recording to write requests and responses to.
+	 */
+	public RecordingPlannerService(IPlannerService planner, Recording recording) {
+		this.planner = planner;
+		this.recording = recording;
+	}
+	
+	@Override
+	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
+		int first = itineraries.size();
+		boolean success = planner.requestSingleJourney(request, itineraries);
+		
+		try {
+			recording.writer.write(PlannerRecords.getRequestKey(request), success, itineraries.subList(first, itineraries.size()));
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return success;
+	}
+}
@@ -0,0 +1,86 @@
+package allow.simulator.mobility.planner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import allow.simulator.world.StreetMap;
+
+/**
+ * Planner service answering requests with responses recorded by a
+ * RecordingPlannerService (see PlannerRecords). Responses are looked up by
+ * the parameters of requests, hence replays are deterministic and do not
+ * need network access or a planner instance. An artificial latency can be
+ * added to every request to emulate the response time of a planner.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class ReplayPlannerService implements IPlannerService {
+	// Encoded responses by request key
+	private final Map<Long, byte[]> responses;
+	
+	// Street map to resolve streets of legs
+	private final StreetMap map;
+	
+	// Latency added to every request in milliseconds
+	private final long latency;
+	
+	// Number of requests without recorded response
+	private final AtomicLong misses;
+	
+	/**
+	 * Creates a new planner service replaying the responses of a recording.
+	 * 
+	 * @param path File containing the recording.
+	 * @param map Street map the recording was created with.
+	 * @param latency Latency added to every request in milliseconds.
+	 * @throws IOException
+	 */
+	public ReplayPlannerService(Path path, StreetMap map, long latency) throws IOException {
+		responses = PlannerRecords.read(path);
+		this.map = map;
+		this.latency = latency;
+		misses = new AtomicLong();
+		System.out.println("Loaded " + responses.size() + " recorded planner responses from " + path + ".");
+	}
+	
+	@Override
+	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
+		
+		if (latency > 0) {
+			
+			try {
+				Thread.sleep(latency);
+				
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		byte response[] = responses.get(PlannerRecords.getRequestKey(request));
+		
+		if (response == null) {
+			misses.incrementAndGet();
+			return false;
+		}
+		
+		try {
+			return PlannerRecords.decodeResponse(response, request, map, itineraries);
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the number of requests for which no response was recorded.
+	 * 
+	 * @return Number of requests without recorded response.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
@@ -1,30 +1,61 @@
 package allow.simulator.mobility.planner;
 
+/**
+ * Id of a journey request. Ids are derived from the id of the requesting
+ * entity and a sequence number maintained by that entity, hence they do not
+ * depend on the order entities are executed in. Ids are non-negative and
+ * spread uniformly, such that they can be used to choose planner instances.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
 public final class RequestId {
+	// Number of bits of the sequence number.
+	private static final int SEQUENCE_BITS = 24;
 
-	private static long reqId = 0;
+	// Number of bits of the entity id.
+	private static final int ENTITY_BITS = 63 - SEQUENCE_BITS;
 
 	private final long requestId;
 	private int requestNumber;
-	
-	public RequestId() {
-		requestId = getReqId();
+
+	/**
+	 * Creates a new id of a request of an entity.
+	 *
+	 * @param entityId Id of the requesting entity.
+	 * @param sequence Number of the request among the requests of the entity.
+	 */
+	public RequestId(long entityId, long sequence) {
+
+		if ((entityId < 0) || (entityId >= (1L << ENTITY_BITS)))
+			throw new IllegalArgumentException("Error: Entity id " + entityId + " out of range.");
+		requestId = mix((entityId << SEQUENCE_BITS) | (sequence & ((1L << SEQUENCE_BITS) - 1)));
+	}
+
+	/**
+	 * Creates a new id for requests issued on behalf of another request,
+	 * e.g. legs planned by a planner to answer the request.
+	 *
+	 * @param requestId Id of the original request.
+	 */
+	public RequestId(long requestId) {
+		this.requestId = requestId;
 	}
-	
+
 	public long getRequestId() {
 		return requestId;
 	}
-	
+
 	public int getNextRequestNumber() {
 		int ret = requestNumber;
 		requestNumber++;
 		return ret;
 	}
-	
-	private static synchronized long getReqId() {
-		long id = reqId;
-		reqId++;
-		return id;
+
+	// Bijective mixing of non-negative 63 bit values keeping ids unique.
+	private static long mix(long z) {
+		z = ((z ^ (z >>> 31)) * 0x7fb5d329728ea185L) & Long.MAX_VALUE;
+		z = ((z ^ (z >>> 27)) * 0x81dadef4bc2dd44dL) & Long.MAX_VALUE;
+		return z ^ (z >>> 33);
 	}
-	
 }
@@ -0,0 +1,505 @@
+package allow.simulator.mobility.planner;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import allow.simulator.core.Time;
+import allow.simulator.world.Street;
+import allow.simulator.world.StreetMap;
+import allow.simulator.world.StreetSegment;
+
+/**
+ * Journey planner routing car, walking, and cycling journeys directly on the
+ * graph of a StreetMap instead of querying OpenTripPlanner. Shortest paths
+ * are found using A* with landmark lower bounds (ALT), which are computed
+ * once when the planner is created. Returned legs contain the streets of the
+ * path already, hence they do not need to be mapped to the street map.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class StreetMapPlanner implements IPlannerService {
+	// Number of landmarks per metric
+	private static final int LANDMARKS = 8;
+
+	// Metrics to route on: Length in m (walking and cycling), free flow driving time in s
+	private static final int METRIC_LENGTH = 0;
+	private static final int METRIC_DRIVING_TIME = 1;
+
+	/**
+	 * Binary min heap of nodes ordered by key. Nodes are not updated in
+	 * place but inserted again, outdated entries are skipped when polled.
+	 */
+	private static final class NodeHeap {
+		private int nodes[] = new int[64];
+		private float keys[] = new float[64];
+		private int size;
+
+		public void clear() {
+			size = 0;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public float peekKey() {
+			return keys[0];
+		}
+
+		public void add(int node, float key) {
+
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			int i = size++;
+
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+
+				if (keys[parent] <= key)
+					break;
+				nodes[i] = nodes[parent];
+				keys[i] = keys[parent];
+				i = parent;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+		}
+
+		public int poll() {
+			int min = nodes[0];
+			int node = nodes[--size];
+			float key = keys[size];
+			int i = 0;
+
+			while (true) {
+				int child = 2 * i + 1;
+
+				if (child >= size)
+					break;
+
+				if ((child + 1 < size) && (keys[child + 1] < keys[child]))
+					child++;
+
+				if (keys[child] >= key)
+					break;
+				nodes[i] = nodes[child];
+				keys[i] = keys[child];
+				i = child;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+			return min;
+		}
+	}
+
+	/**
+	 * Per-thread state of searches such that queries do not allocate arrays
+	 * of the size of the graph. Entries of dist and parent are valid only if
+	 * the stamp of the node equals the current generation.
+	 */
+	private static final class SearchState {
+		private final float dist[];
+		private final int parent[];
+		private final int stamp[];
+		private final NodeHeap heap;
+		private int generation;
+
+		public SearchState(int numberOfNodes) {
+			dist = new float[numberOfNodes];
+			parent = new int[numberOfNodes];
+			stamp = new int[numberOfNodes];
+			heap = new NodeHeap();
+		}
+
+		public void reset() {
+			heap.clear();
+			generation++;
+
+			if (generation == 0) {
+				Arrays.fill(stamp, 0);
+				generation = 1;
+			}
+		}
+
+		public float getDistance(int node) {
+			return (stamp[node] == generation) ? dist[node] : Float.POSITIVE_INFINITY;
+		}
+
+		public void setDistance(int node, float distance, int edge) {
+			stamp[node] = generation;
+			dist[node] = distance;
+			parent[node] = edge;
+		}
+	}
+
+	// Street map to route on
+	private final StreetMap map;
+
+	// Time of the simulation to determine initial waiting times
+	private final Time time;
+
+	// Forward graph in compressed sparse row format (edges are streets)
+	private final int firstOut[];
+	private final int edgeTarget[];
+	private final int edgeSource[];
+	private final Street edgeStreet[];
+	private final float edgeWeight[][];
+
+	// Reverse graph referencing forward edges
+	private final int firstIn[];
+	private final int inEdge[];
+
+	// Distances from and to landmarks by metric, landmark, and node
+	private final float fromLandmark[][][];
+	private final float toLandmark[][][];
+
+	// Search state of calling thread
+	private final ThreadLocal<SearchState> searchState;
+
+	/**
+	 * Creates a new planner routing on the given street map and computes
+	 * landmark distances.
+	 *
+	 * @param map Street map to route on.
+	 * @param time Time of the simulation.
+	 */
+	public StreetMapPlanner(StreetMap map, Time time) {
+		long start = System.currentTimeMillis();
+		this.map = map;
+		this.time = time;
+		final int n = map.getNumberOfNodes();
+
+		// Build forward graph from streets
+		Collection<Street> streets = map.getStreets();
+		int m = streets.size();
+		firstOut = new int[n + 1];
+		edgeTarget = new int[m];
+		edgeSource = new int[m];
+		edgeStreet = new Street[m];
+		edgeWeight = new float[2][m];
+
+		for (Street street : streets) {
+			firstOut[(int) street.getStartingNode().getId() + 1]++;
+		}
+
+		for (int i = 0; i < n; i++) {
+			firstOut[i + 1] += firstOut[i];
+		}
+		int next[] = Arrays.copyOf(firstOut, n);
+
+		for (Street street : streets) {
+			int source = (int) street.getStartingNode().getId();
+			int e = next[source]++;
+			edgeSource[e] = source;
+			edgeTarget[e] = (int) street.getEndNode().getId();
+			edgeStreet[e] = street;
+			edgeWeight[METRIC_LENGTH][e] = (float) street.getLength();
+			edgeWeight[METRIC_DRIVING_TIME][e] = (float) getFreeFlowDrivingTime(street);
+		}
+
+		// Build reverse graph
+		firstIn = new int[n + 1];
+		inEdge = new int[m];
+
+		for (int e = 0; e < m; e++) {
+			firstIn[edgeTarget[e] + 1]++;
+		}
+
+		for (int i = 0; i < n; i++) {
+			firstIn[i + 1] += firstIn[i];
+		}
+		next = Arrays.copyOf(firstIn, n);
+
+		for (int e = 0; e < m; e++) {
+			inEdge[next[edgeTarget[e]]++] = e;
+		}
+
+		// Select landmarks and compute distances
+		searchState = new ThreadLocal<SearchState>() {
+
+			@Override
+			protected SearchState initialValue() {
+				return new SearchState(n);
+			}
+		};
+		fromLandmark = new float[2][][];
+		toLandmark = new float[2][][];
+
+		for (int metric = 0; metric < 2; metric++) {
+			selectLandmarks(metric);
+		}
+		System.out.println("Preprocessed street network for local routing (|V|: " + n + ", |E|: " + m + ", "
+				+ fromLandmark[METRIC_LENGTH].length + " landmarks) in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	/**
+	 * Returns true if the planner can route journeys of the given mode.
+	 *
+	 * @param mode Mode of journeys.
+	 * @return True if journeys of the given mode can be planned, false otherwise.
+	 */
+	public static boolean supportsMode(TType mode) {
+		return (mode == TType.CAR) || (mode == TType.WALK) || (mode == TType.BICYCLE);
+	}
+
+	@Override
+	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
+		TType mode = request.TransportTypes[0];
+
+		if (!supportsMode(mode))
+			throw new IllegalArgumentException("Error: Local routing does not support transport type " + mode);
+		int source = map.getNearestNodeId(request.From);
+		int target = map.getNearestNodeId(request.To);
+
+		if ((source < 0) || (target < 0))
+			return false;
+		List<Street> path = route(source, target, (mode == TType.CAR) ? METRIC_DRIVING_TIME : METRIC_LENGTH);
+
+		if (path == null)
+			return false;
+		itineraries.add(createItinerary(request, mode, source, path));
+		return true;
+	}
+
+	private Itinerary createItinerary(JourneyRequest request, TType mode, int source, List<Street> path) {
+		Leg leg = new Leg();
+		leg.mode = mode;
+		leg.from = request.From;
+		leg.to = request.To;
+		leg.streets = path;
+		leg.osmNodes = new ArrayList<String>(path.size() + 1);
+		leg.osmNodes.add(map.getStreetNode(source).getLabel());
+		double duration = 0.0;
+
+		for (Street street : path) {
+			leg.distance += street.getLength();
+			leg.osmNodes.add(street.getEndNode().getLabel());
+
+			switch (mode) {
+			case CAR:
+				duration += getFreeFlowDrivingTime(street);
+				break;
+
+			case BICYCLE:
+				duration += street.getLength() / StreetSegment.CYCLING_SPEED;
+				break;
+
+			default:
+				duration += street.getLength() / StreetSegment.WALKING_SPEED;
+				break;
+			}
+		}
+
+		// Costs of legs as for legs returned by OpenTripPlanner
+		switch (mode) {
+		case CAR:
+			leg.costs = leg.distance * 0.00035;
+			break;
+
+		case BICYCLE:
+			leg.costs = leg.distance * 0.000005;
+			break;
+
+		default:
+			leg.costs = 0.0;
+			break;
+		}
+		long durationMillis = (long) (duration * 1000);
+
+		if (request.ArrivalTime != null) {
+			leg.endTime = Timestamp.valueOf(LocalDateTime.of(request.Date, request.ArrivalTime)).getTime();
+			leg.startTime = leg.endTime - durationMillis;
+
+		} else {
+			leg.startTime = Timestamp.valueOf(LocalDateTime.of(request.Date, request.DepartureTime)).getTime();
+			leg.endTime = leg.startTime + durationMillis;
+		}
+
+		Itinerary it = new Itinerary();
+		it.legs.add(leg);
+		it.from = request.From;
+		it.to = request.To;
+		it.reqId = request.ReqId;
+		it.reqNumber = request.ReqNumber;
+		it.startTime = leg.startTime;
+		it.endTime = leg.endTime;
+		it.duration = durationMillis / 1000;
+		it.costs = leg.costs;
+		it.itineraryType = mode;
+
+		if (mode == TType.WALK) {
+			it.walkTime = it.duration;
+			it.walkDistance = leg.distance;
+		}
+		it.initialWaitingTime = (time != null) ? Math.max((it.startTime - time.getTimestamp()) / 1000, 0) : 0;
+		return it;
+	}
+
+	// Returns the streets of a shortest path from source to target or null
+	// if target cannot be reached
+	private List<Street> route(int source, int target, int metric) {
+		SearchState state = searchState.get();
+		state.reset();
+		NodeHeap heap = state.heap;
+		float weights[] = edgeWeight[metric];
+		state.setDistance(source, 0.0f, -1);
+		heap.add(source, getLowerBound(metric, source, target));
+
+		while (!heap.isEmpty()) {
+			float key = heap.peekKey();
+			int node = heap.poll();
+			float dist = state.getDistance(node);
+
+			// Skip outdated heap entries
+			if (key > dist + getLowerBound(metric, node, target))
+				continue;
+
+			if (node == target)
+				break;
+
+			for (int e = firstOut[node]; e < firstOut[node + 1]; e++) {
+
+				if (edgeStreet[e].isBlocked())
+					continue;
+				int succ = edgeTarget[e];
+				float newDist = dist + weights[e];
+
+				if (newDist < state.getDistance(succ)) {
+					state.setDistance(succ, newDist, e);
+					heap.add(succ, newDist + getLowerBound(metric, succ, target));
+				}
+			}
+		}
+
+		if (state.getDistance(target) == Float.POSITIVE_INFINITY)
+			return null;
+		List<Street> path = new ArrayList<Street>();
+
+		for (int e = state.parent[target]; e >= 0; e = state.parent[edgeSource[e]]) {
+			path.add(edgeStreet[e]);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	// Returns a lower bound of the distance from node to target using the
+	// triangle inequality with respect to all landmarks
+	private float getLowerBound(int metric, int node, int target) {
+		float from[][] = fromLandmark[metric];
+		float to[][] = toLandmark[metric];
+		float bound = 0.0f;
+
+		for (int l = 0; l < from.length; l++) {
+			float forward = from[l][target] - from[l][node];
+			float backward = to[l][node] - to[l][target];
+
+			// Bounds involving unreachable nodes are not valid
+			if ((forward > bound) && (forward != Float.POSITIVE_INFINITY) && !Float.isNaN(forward))
+				bound = forward;
+
+			if ((backward > bound) && (backward != Float.POSITIVE_INFINITY) && !Float.isNaN(backward))
+				bound = backward;
+		}
+		return bound;
+	}
+
+	// Selects landmarks farthest from each other and computes distances from
+	// and to landmarks for the given metric
+	private void selectLandmarks(int metric) {
+		List<float[]> from = new ArrayList<float[]>(LANDMARKS);
+		List<float[]> to = new ArrayList<float[]>(LANDMARKS);
+
+		int n = firstOut.length - 1;
+		int first = 0;
+
+		while ((first < n) && (firstOut[first + 1] == firstOut[first])) {
+			first++;
+		}
+
+		if (first == n) {
+			fromLandmark[metric] = new float[0][];
+			toLandmark[metric] = new float[0][];
+			return;
+		}
+
+		// Distances to the nearest landmark, initially from an arbitrary node
+		float nearest[] = computeDistances(first, metric, true);
+
+		for (int l = 0; l < LANDMARKS; l++) {
+			int landmark = -1;
+			float maxDist = -1.0f;
+
+			for (int i = 0; i < n; i++) {
+
+				if ((nearest[i] != Float.POSITIVE_INFINITY) && (nearest[i] > maxDist)) {
+					maxDist = nearest[i];
+					landmark = i;
+				}
+			}
+
+			if ((landmark < 0) || ((l > 0) && (maxDist == 0.0f)))
+				break;
+			float fromDist[] = computeDistances(landmark, metric, true);
+			from.add(fromDist);
+			to.add(computeDistances(landmark, metric, false));
+
+			for (int i = 0; i < n; i++) {
+
+				if ((l == 0) || (fromDist[i] < nearest[i]))
+					nearest[i] = fromDist[i];
+			}
+		}
+		fromLandmark[metric] = from.toArray(new float[from.size()][]);
+		toLandmark[metric] = to.toArray(new float[to.size()][]);
+	}
+
+	// Computes distances from (forward) or to (backward) a node to all other nodes
+	private float[] computeDistances(int node, int metric, boolean forward) {
+		int n = firstOut.length - 1;
+		float dist[] = new float[n];
+		Arrays.fill(dist, Float.POSITIVE_INFINITY);
+		float weights[] = edgeWeight[metric];
+		NodeHeap heap = new NodeHeap();
+		dist[node] = 0.0f;
+		heap.add(node, 0.0f);
+
+		while (!heap.isEmpty()) {
+			float key = heap.peekKey();
+			int current = heap.poll();
+
+			if (key > dist[current])
+				continue;
+			int first = forward ? firstOut[current] : firstIn[current];
+			int last = forward ? firstOut[current + 1] : firstIn[current + 1];
+
+			for (int i = first; i < last; i++) {
+				int e = forward ? i : inEdge[i];
+				int other = forward ? edgeTarget[e] : edgeSource[e];
+				float newDist = key + weights[e];
+
+				if (newDist < dist[other]) {
+					dist[other] = newDist;
+					heap.add(other, newDist);
+				}
+			}
+		}
+		return dist;
+	}
+
+	private static double getFreeFlowDrivingTime(Street street) {
+		double time = 0.0;
+
+		for (StreetSegment seg : street.getSubSegments()) {
+			time += seg.getLength() / Math.max(seg.getMaxSpeed(), StreetSegment.MIN_DRIVING_SPEED);
+		}
+		return time;
+	}
+}
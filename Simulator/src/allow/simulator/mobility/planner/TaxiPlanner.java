@@ -5,10 +5,10 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
 
 import allow.simulator.mobility.data.TaxiStop;
 import allow.simulator.mobility.data.TaxiTrip;
@@ -19,11 +19,53 @@ public final class TaxiPlanner implements IPlannerService {
 	// Costs per meter for using a taxi
 	public static final double COST_PER_METER = 0.001;
 	
+	// Maximum number of destinations of a shared trip which are ordered
+	// exactly, more destinations are ordered heuristically
+	private static final int MAX_EXACT_DESTINATIONS = 10;
+	
+	/**
+	 * Car legs between the locations of a shared taxi trip. Each leg is
+	 * planned once on first use, hence at most n * (n - 1) legs are planned
+	 * for n locations.
+	 */
+	private final class LegMatrix {
+		private final List<Coordinate> locations;
+		private final IPlannerService planner;
+		private final JourneyRequest req;
+		private final Leg legs[][];
+		private final boolean planned[][];
+		
+		public LegMatrix(List<Coordinate> locations, IPlannerService planner, JourneyRequest req) {
+			this.locations = locations;
+			this.planner = planner;
+			this.req = req;
+			legs = new Leg[locations.size()][locations.size()];
+			planned = new boolean[locations.size()][locations.size()];
+		}
+		
+		public Leg get(int from, int to) {
+			
+			if (!planned[from][to]) {
+				legs[from][to] = createLeg(locations.get(from), locations.get(to), TType.CAR, planner, req);
+				planned[from][to] = true;
+			}
+			return legs[from][to];
+		}
+		
+		public double getDuration(int from, int to) {
+			Leg l = get(from, to);
+			return (l != null) ? (l.endTime - l.startTime) : Double.POSITIVE_INFINITY;
+		}
+	}
+	
 	// List of planner services to create car trips
-	private final List<OTPPlannerService> plannerServices;
+	private final List<? extends IPlannerService> plannerServices;
 	
-	// Position of taxi rank 
+	// Position of taxi rank, taxi trips start from if no taxi can be located
 	private final Coordinate taxiRank;
+	
+	// Service locating idle taxis (optional)
+	private volatile ITaxiLocator taxiLocator;
 
 	// Buffer to store planned trips which can be requested 
 	private final Map<String, TaxiTrip> tripBuffer;
@@ -33,14 +75,25 @@ public final class TaxiPlanner implements IPlannerService {
 	 * underlying set of planners from the given taxi rank position.
 	 * 
 	 * @param plannerServices Set of planners to use for creating taxi itineraries
-	 * @param taxiRank Position of taxi rank where all taxis start from
+	 * @param taxiRank Position of taxi rank trips start from if no idle taxi can be located
 	 */
-	public TaxiPlanner(List<OTPPlannerService> plannerServices, Coordinate taxiRank) {
+	public TaxiPlanner(List<? extends IPlannerService> plannerServices, Coordinate taxiRank) {
 		this.plannerServices = plannerServices;
 		this.taxiRank = taxiRank;
 		tripBuffer = new ConcurrentHashMap<String, TaxiTrip>();
 	}
 	
+	/**
+	 * Sets the service locating idle taxis. Taxi trips are planned to start
+	 * from the idle taxi closest to the pickup point instead of the taxi rank.
+	 * 
+	 * @param taxiLocator Service locating idle taxis or null to start all
+	 * trips from the taxi rank.
+	 */
+	public void setTaxiLocator(ITaxiLocator taxiLocator) {
+		this.taxiLocator = taxiLocator;
+	}
+	
 	@Override
 	public boolean requestSingleJourney(JourneyRequest request, List<Itinerary> itineraries) {
 		TType modes[] = request.TransportTypes;
@@ -77,17 +130,71 @@ public final class TaxiPlanner implements IPlannerService {
 		return tripBuffer.remove(tripId);
 	}
 
+	/**
+	 * Creates the request for the leg of a trip to its first pickup point
+	 * from the position of the taxi it has been assigned to. Trips are
+	 * planned from the idle taxi closest to the pickup point, which may be
+	 * assigned to another trip until the trip is dispatched. In this case the
+	 * leg to the pickup point is requested again from the position of the
+	 * assigned taxi and applied by replanApproach().
+	 * 
+	 * @param trip Trip assigned to the taxi.
+	 * @param position Position of the assigned taxi.
+	 * @param time Current time.
+	 * @return Request of the leg to the pickup point or null in case the trip
+	 * starts at the position of the taxi already.
+	 */
+	public JourneyRequest createApproachRequest(TaxiTrip trip, Coordinate position, LocalDateTime time) {
+		
+		if (position.equals(trip.getStartingPosition()))
+			return null;
+		RequestId reqId = new RequestId(trip.getTripId().hashCode() & Integer.MAX_VALUE);
+		return JourneyRequest.createRequest(position, trip.getTaxiStops().get(0).getPosition(), time, false, new TType[] { TType.CAR }, reqId);
+	}
+
+	/**
+	 * Returns a trip starting from the position of the taxi it has been
+	 * assigned to using the itineraries planned for the request created by
+	 * createApproachRequest(). Stops and stop times are kept, hence a longer
+	 * leg delays the pickup.
+	 * 
+	 * @param trip Trip assigned to the taxi.
+	 * @param position Position of the assigned taxi.
+	 * @param approach Itineraries planned from the position of the taxi to
+	 * the first pickup point.
+	 * @return Trip starting from the position of the taxi or the given trip in
+	 * case no leg to the pickup point has been planned.
+	 */
+	public TaxiTrip replanApproach(TaxiTrip trip, Coordinate position, List<Itinerary> approach) {
+		Leg leg = null;
+		
+		for (Itinerary it : approach) {
+			
+			if ((it.itineraryType == TType.CAR) && (it.legs.size() == 1)) {
+				leg = it.legs.get(0);
+				break;
+			}
+		}
+		
+		if (leg == null) {
+			System.out.println("Warning: Could not plan approach of taxi trip " + trip.getTripId() + " from " + position);
+			return trip;
+		}
+		List<List<Street>> traces = new ArrayList<List<Street>>(trip.getTraces());
+		traces.set(0, new ArrayList<Street>(leg.streets));
+		return new TaxiTrip(trip.getTripId(), new Coordinate(position), trip.getTaxiStops(), trip.getStopTimes(), traces);
+	}
+
 	private Itinerary createTaxiItinerary(JourneyRequest req) {
 		// Get planner instance
-		int randomPlannerId = ThreadLocalRandom.current().nextInt(plannerServices.size());
-		IPlannerService planner = plannerServices.get(randomPlannerId);			
+		IPlannerService planner = plannerServices.get((int) (req.ReqId % plannerServices.size()));			
 				
-		// Query legs for complete journey (base - pickup - dest - base)
+		// Query legs for complete journey (taxi - pickup - dest), taxis wait
+		// at the destination for their next trip
 		List<Coordinate> locations = new ArrayList<Coordinate>(3);
-		locations.add(taxiRank);
+		locations.add(getTaxiPosition(req.From));
 		locations.add(req.From);
 		locations.add(req.To);
-		locations.add(taxiRank);
 		List<Leg> legs = createTripLegs(locations, planner, req);
 		
 		if (legs == null)
@@ -116,8 +223,7 @@ public final class TaxiPlanner implements IPlannerService {
 	
 	private Itinerary createSharedTaxiItinerary(JourneyRequest req) {
 		// Get planner instance
-		int randomPlannerId = ThreadLocalRandom.current().nextInt(plannerServices.size());
-		IPlannerService planner = plannerServices.get(randomPlannerId);	
+		IPlannerService planner = plannerServices.get((int) (req.ReqId % plannerServices.size()));	
 		
 		// Plan walking legs form starting points to pickup point
 		final List<Leg> walkingLegs = createWalkingLegs(req, planner);
@@ -154,7 +260,7 @@ public final class TaxiPlanner implements IPlannerService {
 		tripBuffer.put(taxiTrip.getTripId(), taxiTrip);
 
 		// Summarize costs
-		final List<Leg> tripLegs = taxilegs.subList(1, taxilegs.size() - 1);
+		final List<Leg> tripLegs = taxilegs.subList(1, taxilegs.size());
 		final double totalCosts = calculateCosts(tripLegs);
 		
 		// Create return itinerary
@@ -334,47 +440,191 @@ public final class TaxiPlanner implements IPlannerService {
 				continue;
 			uniqueDestinations.add(c);
 		}
-		// Buffer containing all destinations to visit - contains fixed points
-		// as well as points whose order will be determined in the loop below
-		final List<Coordinate> buffer = new ArrayList<Coordinate>(6);
-		buffer.add(taxiRank);
-		buffer.add(req.From);
-		
-		for (Coordinate c : uniqueDestinations) {		
-			buffer.add(c);
+		// Locations of the trip - taxi, pickup point, and destinations whose
+		// order is determined below
+		final List<Coordinate> locations = new ArrayList<Coordinate>(uniqueDestinations.size() + 2);
+		locations.add(getTaxiPosition(req.From));
+		locations.add(req.From);
+		locations.addAll(uniqueDestinations);
+		LegMatrix matrix = new LegMatrix(locations, planner, req);
+		
+		if (matrix.get(0, 1) == null)
+			return null;
+		
+		// Determines the best order of destinations based on a given optimization
+		// criteria (currently lowest time affecting passengers)
+		final int order[] = (uniqueDestinations.size() <= MAX_EXACT_DESTINATIONS) ? orderExact(matrix, uniqueDestinations.size())
+				: orderHeuristic(matrix, uniqueDestinations.size());
+		
+		if (order == null)
+			return null;
+		List<Leg> ret = new ArrayList<Leg>(order.length + 1);
+		ret.add(new Leg(matrix.get(0, 1)));
+		int previous = 1;
+		
+		for (int next : order) {
+			ret.add(new Leg(matrix.get(previous, next)));
+			previous = next;
+		}
+		return linkTripLegs(ret, req);
+	}
+	
+	// Returns the position of the idle taxi closest to a pickup point or the
+	// taxi rank if no taxi can be located
+	private Coordinate getTaxiPosition(Coordinate pickup) {
+		ITaxiLocator locator = taxiLocator;
+		Coordinate position = (locator != null) ? locator.getTaxiPosition(pickup) : null;
+		return (position != null) ? position : taxiRank;
+	}
+	
+	// Orders destinations by dynamic programming over subsets of destinations
+	// (Held-Karp). Returns indices of destinations in the matrix in order of
+	// visit, or null if there is no feasible order.
+	private static int[] orderExact(LegMatrix matrix, int n) {
+		
+		if (n == 0)
+			return new int[0];
+		final int subsets = 1 << n;
+		double costs[][] = new double[subsets][n];
+		int previous[][] = new int[subsets][n];
+		
+		for (int mask = 0; mask < subsets; mask++) {
+			Arrays.fill(costs[mask], Double.POSITIVE_INFINITY);
 		}
-		buffer.add(taxiRank);
 		
-		// Creates the best itinerary based on a given optimization criteria
-		// (currently lowest time affecting passengers - without time to return
-		// to the taxi rank)
-		PermutationIterator<Coordinate> it = new PermutationIterator<Coordinate>(uniqueDestinations);
-		double minTime = Double.MAX_VALUE;
-		List<Leg> legs = null;
+		for (int j = 0; j < n; j++) {
+			costs[1 << j][j] = matrix.getDuration(1, j + 2);
+			previous[1 << j][j] = -1;
+		}
 		
-		while (it.hasNext()) {
-			List<Coordinate> c = it.next();
+		for (int mask = 1; mask < subsets; mask++) {
 			
-			for (int i = 0; i < c.size(); i++) {
-				buffer.set(2 + i, c.get(i));
+			for (int j = 0; j < n; j++) {
+				
+				if (((mask & (1 << j)) == 0) || (costs[mask][j] == Double.POSITIVE_INFINITY))
+					continue;
+				
+				for (int k = 0; k < n; k++) {
+					
+					if ((mask & (1 << k)) != 0)
+						continue;
+					double cost = costs[mask][j] + matrix.getDuration(j + 2, k + 2);
+					int next = mask | (1 << k);
+					
+					if (cost < costs[next][k]) {
+						costs[next][k] = cost;
+						previous[next][k] = j;
+					}
+				}
 			}
-			List<Leg> temp = createTripLegs(buffer, planner, req);
+		}
+		int mask = subsets - 1;
+		int last = -1;
+		
+		for (int j = 0; j < n; j++) {
 			
-			if (temp == null)
-				continue;
+			if ((costs[mask][j] < Double.POSITIVE_INFINITY) && ((last < 0) || (costs[mask][j] < costs[mask][last])))
+				last = j;
+		}
+		
+		if (last < 0)
+			return null;
+		int order[] = new int[n];
+		
+		for (int i = n - 1; i >= 0; i--) {
+			order[i] = last + 2;
+			int p = previous[mask][last];
+			mask &= ~(1 << last);
+			last = p;
+		}
+		return order;
+	}
+	
+	// Orders destinations by cheapest insertion followed by 2-opt. Returns
+	// indices of destinations in the matrix in order of visit, or null if
+	// there is no feasible order.
+	private static int[] orderHeuristic(LegMatrix matrix, int n) {
+		int order[] = new int[n];
+		boolean inserted[] = new boolean[n];
+		
+		for (int size = 0; size < n; size++) {
+			int bestDestination = -1;
+			int bestPosition = -1;
+			double bestCost = Double.POSITIVE_INFINITY;
 			
-			double time = 0.0;
-			for (int i = 0; i < temp.size() - 1; i++) {
-				Leg l = temp.get(i);
-				time += (l.endTime - l.startTime);
+			for (int k = 0; k < n; k++) {
+				
+				if (inserted[k])
+					continue;
+				
+				// Position i inserts before order[i], position size appends
+				for (int i = 0; i <= size; i++) {
+					int before = (i > 0) ? order[i - 1] : 1;
+					double cost = matrix.getDuration(before, k + 2);
+					
+					if (i < size)
+						cost += matrix.getDuration(k + 2, order[i]) - matrix.getDuration(before, order[i]);
+					
+					if (cost < bestCost) {
+						bestDestination = k;
+						bestPosition = i;
+						bestCost = cost;
+					}
+				}
 			}
 			
-			if (time < minTime) {
-				minTime = time;
-				legs = temp;
+			if (bestDestination < 0)
+				return null;
+			System.arraycopy(order, bestPosition, order, bestPosition + 1, size - bestPosition);
+			order[bestPosition] = bestDestination + 2;
+			inserted[bestDestination] = true;
+		}
+		
+		// Reverse segments as long as this shortens the trip. Durations are
+		// not symmetric, hence the cost of each candidate is computed in full.
+		double cost = getDuration(matrix, order);
+		boolean improved = true;
+		
+		while (improved) {
+			improved = false;
+			
+			for (int i = 0; i < n - 1; i++) {
+				
+				for (int j = i + 1; j < n; j++) {
+					reverse(order, i, j);
+					double candidate = getDuration(matrix, order);
+					
+					if (candidate < cost) {
+						cost = candidate;
+						improved = true;
+						
+					} else {
+						reverse(order, i, j);
+					}
+				}
 			}
 		}
-		return legs;
+		return order;
+	}
+	
+	// Returns the duration of visiting destinations in the given order
+	// starting from the pickup point
+	private static double getDuration(LegMatrix matrix, int order[]) {
+		double duration = matrix.getDuration(1, order[0]);
+		
+		for (int i = 1; i < order.length; i++) {
+			duration += matrix.getDuration(order[i - 1], order[i]);
+		}
+		return duration;
+	}
+	
+	private static void reverse(int order[], int i, int j) {
+		
+		while (i < j) {
+			int temp = order[i];
+			order[i++] = order[j];
+			order[j--] = temp;
+		}
 	}
 	
 	private List<Leg> createTripLegs(List<Coordinate> locations, IPlannerService planner, JourneyRequest req) {
@@ -390,8 +640,14 @@ public final class TaxiPlanner implements IPlannerService {
 				return null;
 			ret.add(l);
 		}
+		return linkTripLegs(ret, req);
+	}
+	
+	// Assigns trip and stop ids to consecutive legs of a taxi trip and
+	// updates their times such that each leg starts when the previous ends
+	private List<Leg> linkTripLegs(List<Leg> ret, JourneyRequest req) {
 		String agencyId = "taxiagency";
-		String tripId = agencyId + "_trip_" + String.valueOf(ThreadLocalRandom.current().nextLong(0, Long.MAX_VALUE));
+		String tripId = agencyId + "_trip_" + req.ReqId + "_" + req.ReqNumber;
 		ret.get(0).stopIdFrom = tripId + "_0";
 		
 		for (int i = 0; i < ret.size(); i++) {
@@ -414,7 +670,7 @@ public final class TaxiPlanner implements IPlannerService {
 	}
 	
 	private Leg createLeg(Coordinate from, Coordinate to, TType type, IPlannerService planner, JourneyRequest req2) {
-		RequestId reqId = new RequestId();
+		RequestId reqId = new RequestId(req2.ReqId);
 		LocalTime t = req2.ArrivalTime != null ? req2.ArrivalTime : req2.DepartureTime;
 		JourneyRequest req = JourneyRequest.createRequest(from, to, LocalDateTime.of(req2.Date, t), false, new TType[] { TType.CAR }, reqId);
 		List<Itinerary> temp = new ArrayList<Itinerary>();
@@ -448,6 +704,6 @@ public final class TaxiPlanner implements IPlannerService {
 			stopTimes.add(LocalDateTime.ofInstant(Instant.ofEpochMilli(l.endTime), ZoneId.of("UTC+2")).toLocalTime());
 			traces.add(new ArrayList<Street>(l.streets));
 		}
-		return new TaxiTrip(tripLegs.get(1).tripId, stops, stopTimes, traces);
+		return new TaxiTrip(tripLegs.get(1).tripId, tripLegs.get(0).from, stops, stopTimes, traces);
 	}	
 }
@@ -41,6 +41,7 @@ public class SetupSimulator extends DefaultReporter {
 		params.BehaviourSpaceRunNumber = args[1].getIntValue();
 		params.KnowledgeModel = args[2].getString();
 		params.AdaptationStrategy = args[3].getString();
+		params.Seed = params.BehaviourSpaceRunNumber;
 		
 		org.nlogo.api.World w = context.getAgent().world();
 		params.GridResX = w.worldWidth();
@@ -1,5 +1,7 @@
 package allow.simulator.relation;
 
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 
@@ -27,6 +29,9 @@ public class RelationGraph {
 	
 	LongSet blackList;
 	
+	// Version of knowledge last exchanged with other entities.
+	Long2LongMap exchangedVersions;
+	
 	/**
 	 * Constructor.
 	 * Creates a new instance of an empty relation graph.
@@ -36,6 +41,8 @@ public class RelationGraph {
 		relations = new EnumMap<Relation.Type, Relation>(Relation.Type.class);
 		toUpdate = new HashSet<Relation.Type>();
 		blackList = new LongOpenHashSet();
+		exchangedVersions = new Long2LongOpenHashMap();
+		exchangedVersions.defaultReturnValue(0);
 		
 		// Initialize map for each relation type.
 		relations.put(Relation.Type.DISTANCE, new DistanceRelation(entity));
@@ -60,6 +67,27 @@ public class RelationGraph {
 		blackList.clear();
 	}
 	
+	/**
+	 * Returns the version of knowledge last exchanged with another entity.
+	 * 
+	 * @param other Entity knowledge has been exchanged with.
+	 * @return Version of knowledge last exchanged or 0 if no knowledge has
+	 * been exchanged yet.
+	 */
+	public synchronized long getExchangedVersion(Entity other) {
+		return exchangedVersions.get(other.getId());
+	}
+	
+	/**
+	 * Sets the version of knowledge last exchanged with another entity.
+	 * 
+	 * @param other Entity knowledge has been exchanged with.
+	 * @param version Version of knowledge exchanged.
+	 */
+	public synchronized void setExchangedVersion(Entity other, long version) {
+		exchangedVersions.put(other.getId(), version);
+	}
+	
 	/**
 	 * Updates the relations of an entity based on the types that have been
 	 * registered with addToUpdate() method and returns a list of entities
@@ -1,14 +1,57 @@
 package allow.simulator.statistics;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import allow.simulator.core.Context;
+import allow.simulator.core.ParallelTickEngine;
 import allow.simulator.entity.Entity;
 import allow.simulator.entity.EntityTypes;
 import allow.simulator.entity.Person;
 import allow.simulator.utility.Preferences;
 
 public class Statistics {
+	
+	/**
+	 * Report to a sliding window made during the compute phase of a parallel
+	 * tick. Reports are applied in the order entities would have been executed
+	 * sequentially.
+	 */
+	private static final class DeferredReport implements Comparable<DeferredReport> {
+		private final long ordinal;
+		private final long sequence;
+		private final SlidingWindow first;
+		private final double firstValue;
+		private final SlidingWindow second;
+		private final double secondValue;
+		
+		public DeferredReport(long ordinal, long sequence, SlidingWindow first, double firstValue, SlidingWindow second, double secondValue) {
+			this.ordinal = ordinal;
+			this.sequence = sequence;
+			this.first = first;
+			this.firstValue = firstValue;
+			this.second = second;
+			this.secondValue = secondValue;
+		}
+		
+		public void apply() {
+			first.addValue(firstValue);
+			
+			if (second != null)
+				second.addValue(secondValue);
+		}
+
+		@Override
+		public int compareTo(DeferredReport other) {
+			int c = Long.compare(ordinal, other.ordinal);
+			return (c != 0) ? c : Long.compare(sequence, other.sequence);
+		}
+	}
+	
 	// Sliding windows covering mean prior and posterior travel time for
 	// different means of transportation.
 	private SlidingWindow priorCarTravelTime;
@@ -42,6 +85,10 @@ public class Statistics {
 	private double taxiJourneyRatio;
 	private int numberOfCongestedStreets;
 	
+	// Reports deferred during the compute phase of a parallel tick
+	private final ConcurrentLinkedQueue<DeferredReport> deferredReports;
+	private final AtomicLong reportSequence;
+	
 	public Statistics(int windowSize) {
 		priorCarTravelTime = new SlidingWindow(windowSize);
 		posteriorCarTravelTime = new SlidingWindow(windowSize);
@@ -75,6 +122,8 @@ public class Statistics {
 		numberOfTaxiJourneysPerDay = 0;
 		
 		numberOfCongestedStreets = 0;
+		deferredReports = new ConcurrentLinkedQueue<DeferredReport>();
+		reportSequence = new AtomicLong();
 	}
 	
 	public void reset() {
@@ -209,43 +258,105 @@ public class Statistics {
 	}
 	
 	public synchronized void reportPriorAndPosteriorCarTravelTimes(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorCarTravelTime, priorToAdd, posteriorCarTravelTime, posteriorToAdd);
+			return;
+		}
 		priorCarTravelTime.addValue(priorToAdd);
 		posteriorCarTravelTime.addValue(posteriorToAdd);
 	}
 	
 	public synchronized void reportPriorAndPosteriorTransitTravelTimes(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorBusTravelTime, priorToAdd, posteriorBusTravelTime, posteriorToAdd);
+			return;
+		}
 		priorBusTravelTime.addValue(priorToAdd);
 		posteriorBusTravelTime.addValue(posteriorToAdd);
 	}
 	
 	public synchronized void reportPriorAndPosteriorBikeTravelTimes(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorBikeTravelTime, priorToAdd, posteriorBikeTravelTime, posteriorToAdd);
+			return;
+		}
 		priorBikeTravelTime.addValue(priorToAdd);
 		posteriorBikeTravelTime.addValue(posteriorToAdd);
 	}
 	
 	public synchronized void reportPriorAndPosteriorWalkTravelTimes(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorWalkTravelTime, priorToAdd, posteriorWalkTravelTime, posteriorToAdd);
+			return;
+		}
 		priorWalkTravelTime.addValue(priorToAdd);
 		posteriorWalkTravelTime.addValue(posteriorToAdd);
 	}
 	
 	public synchronized void reportBusFillingLevel(double fillingLevel) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(busFillingLevel, fillingLevel, null, 0.0);
+			return;
+		}
 		busFillingLevel.addValue(fillingLevel);
 	}
 	
 	public synchronized void reportReplaningWaitingTime(double waitingTime) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(replaningWaitingTime, waitingTime, null, 0.0);
+			return;
+		}
 		replaningWaitingTime.addValue(waitingTime);
 	}
 	
 	public synchronized void reportPriorAndPosteriorUtilityCar(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorUtilityCar, priorToAdd, posteriorUtilityCar, posteriorToAdd);
+			return;
+		}
 		priorUtilityCar.addValue(priorToAdd);
 		posteriorUtilityCar.addValue(posteriorToAdd);
 	}
 	
 	public synchronized void reportPriorAndPosteriorUtilityBus(double priorToAdd, double posteriorToAdd) {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			defer(priorUtilityBus, priorToAdd, posteriorUtilityBus, posteriorToAdd);
+			return;
+		}
 		priorUtilityBus.addValue(priorToAdd);
 		posteriorUtilityBus.addValue(posteriorToAdd);
 	}
 	
+	/**
+	 * Applies reports deferred during the compute phase of a parallel tick in
+	 * the order entities would have been executed sequentially.
+	 */
+	public synchronized void commitDeferredReports() {
+		
+		if (deferredReports.isEmpty())
+			return;
+		List<DeferredReport> reports = new ArrayList<DeferredReport>(deferredReports);
+		deferredReports.clear();
+		Collections.sort(reports);
+		
+		for (DeferredReport report : reports) {
+			report.apply();
+		}
+	}
+	
+	private void defer(SlidingWindow first, double firstValue, SlidingWindow second, double secondValue) {
+		deferredReports.add(new DeferredReport(ParallelTickEngine.getExecutionOrdinal(),
+				reportSequence.getAndIncrement(), first, firstValue, second, secondValue));
+	}
+	
 	public synchronized void updateGlobalStatistics(Context simulationContext) {
 		Collection<Entity> persons = simulationContext.getEntityManager().getEntitiesOfType(EntityTypes.PERSON);
 		updateMeanTransportPreferences(persons);
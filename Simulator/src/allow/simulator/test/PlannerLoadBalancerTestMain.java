@@ -0,0 +1,343 @@
+package allow.simulator.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import allow.simulator.mobility.planner.Itinerary;
+import allow.simulator.mobility.planner.JourneyRequest;
+import allow.simulator.mobility.planner.OTPPlannerService;
+import allow.simulator.mobility.planner.PlannerLoadBalancer;
+import allow.simulator.mobility.planner.RequestId;
+import allow.simulator.mobility.planner.TType;
+import allow.simulator.util.Coordinate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the circuit breaker, retries and hedging of the planner load
+ * balancer. Requests are sent by OTPPlannerService instances through their
+ * asynchronous HTTP transport to stub OpenTripPlanner servers with
+ * configurable latency and failure modes. Prints the result of each check
+ * and fails with an exception in case a check does not hold.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class PlannerLoadBalancerTestMain {
+	// Time to wait for a request or state change before a check fails
+	private static final long TIMEOUT = 10000;
+
+	// Time instances are removed for by the circuit breaker in milliseconds
+	private static final long OPEN_TIME = 200;
+
+	/**
+	 * Response of a stub server.
+	 */
+	private enum Mode {
+
+		/**
+		 * A plan with a single itinerary whose duration is the index of the
+		 * server is returned.
+		 */
+		OK,
+
+		/**
+		 * Status 500 is returned.
+		 */
+		ERROR,
+
+		/**
+		 * The connection is closed without a response.
+		 */
+		RESET
+	}
+
+	/**
+	 * OpenTripPlanner stub answering plan requests after a configurable
+	 * latency. Requests may be held until they are released by the check.
+	 */
+	private static final class StubServer implements HttpHandler {
+		private final int index;
+		private final HttpServer server;
+		private final ExecutorService executor;
+		private volatile Mode mode;
+		private volatile long latency;
+
+		// Requests whose URI contains the marker are held until released,
+		// null to disable.
+		private volatile String holdMarker;
+
+		// Released when held requests are answered
+		private volatile CountDownLatch release;
+
+		// Number of requests received and held
+		private final AtomicInteger requests;
+		private final AtomicInteger held;
+
+		// Permits released for each request received
+		private final Semaphore arrivals;
+
+		public StubServer(int index) throws IOException {
+			this.index = index;
+			mode = Mode.OK;
+			release = new CountDownLatch(0);
+			requests = new AtomicInteger();
+			held = new AtomicInteger();
+			arrivals = new Semaphore(0);
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "stub-planner");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+			server.createContext("/", this);
+			server.setExecutor(executor);
+			server.start();
+		}
+
+		public OTPPlannerService createPlanner() {
+			return new OTPPlannerService("127.0.0.1", server.getAddress().getPort());
+		}
+
+		// Holds requests whose URI contains the marker until release() is
+		// called, all requests in case the marker is empty
+		public void hold(String marker) {
+			release = new CountDownLatch(1);
+			holdMarker = marker;
+		}
+
+		public void release() {
+			holdMarker = null;
+			release.countDown();
+		}
+
+		// Waits until n requests have been received since the last call
+		public void awaitRequests(int n) throws InterruptedException {
+			check(arrivals.tryAcquire(n, TIMEOUT, TimeUnit.MILLISECONDS), "Stub " + index + " received " + n + " requests");
+		}
+
+		public void stop() {
+			release();
+			server.stop(1);
+			executor.shutdownNow();
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			requests.incrementAndGet();
+			Mode m = mode;
+			String marker = holdMarker;
+			arrivals.release();
+
+			try {
+
+				if ((marker != null) && exchange.getRequestURI().toString().contains(marker)) {
+					held.incrementAndGet();
+					release.await();
+
+				} else if (latency > 0) {
+					Thread.sleep(latency);
+				}
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			switch (m) {
+			case ERROR:
+				exchange.sendResponseHeaders(500, -1);
+				break;
+
+			case RESET:
+				break;
+
+			default:
+				byte body[] = ("{\"plan\":{\"itineraries\":[{\"duration\":" + index + ",\"startTime\":0,\"endTime\":0,"
+						+ "\"legs\":[{\"mode\":\"WALK\",\"startTime\":0,\"endTime\":0,\"distance\":1.0,\"osmNodes\":[]}]}]}}")
+						.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+				break;
+			}
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Condition to wait for.
+	 */
+	private interface Condition {
+		boolean holds();
+	}
+
+	public static void main(String[] args) throws Exception {
+		checkCircuitBreaker(Mode.ERROR);
+		checkCircuitBreaker(Mode.RESET);
+		checkHedging();
+		System.out.println("All checks passed.");
+	}
+
+	// Instance 1 fails until removed, is probed after the open time and
+	// rejoins once a probe succeeds. Requests with even ids are sent to
+	// instance 0 first, requests with odd ids to instance 1.
+	private static void checkCircuitBreaker(Mode failure) throws Exception {
+		StubServer healthy = new StubServer(0);
+		StubServer broken = new StubServer(1);
+
+		try {
+			broken.mode = failure;
+			final PlannerLoadBalancer balancer = new PlannerLoadBalancer(Arrays.asList(healthy.createPlanner(), broken.createPlanner()),
+					PlannerLoadBalancer.Policy.REQUEST_ID, 3, OPEN_TIME, 0.0, 2);
+
+			// Failed requests are retried on instance 0
+			for (int i = 0; i < 20; i++) {
+				check(answeredBy(balancer, i) == 0, failure + ": Request " + i + " answered by healthy instance");
+			}
+			check(broken.requests.get() == 3, failure + ": Failing instance removed after 3 failures (" + broken.requests.get() + " requests)");
+			check(balancer.getOpenInstances() == 1, failure + ": Circuit of failing instance open");
+
+			// Half-open: a single probe fails and removes the instance again
+			awaitClosed(balancer);
+			check(answeredBy(balancer, 1) == 0, failure + ": Request answered by healthy instance after failed probe");
+			check(broken.requests.get() == 4, failure + ": Failing instance probed once (" + broken.requests.get() + " requests)");
+			check(balancer.getOpenInstances() == 1, failure + ": Circuit open again after failed probe");
+
+			// Half-open: while the probe is held, no other request is sent to the instance
+			broken.mode = Mode.OK;
+			broken.hold("");
+			awaitClosed(balancer);
+			broken.arrivals.drainPermits();
+			CompletableFuture<List<Itinerary>> probe = balancer.requestSingleJourneyAsync(createRequest(1));
+			broken.awaitRequests(1);
+
+			for (int i = 1; i <= 10; i++) {
+				check(answeredBy(balancer, 2 * i + 1) == 0, failure + ": Request " + (2 * i + 1) + " answered by healthy instance while probing");
+			}
+			check(broken.requests.get() == 5, failure + ": Recovering instance probed by a single request (" + broken.requests.get() + " requests)");
+			broken.release();
+			List<Itinerary> its = probe.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			check((its.size() == 1) && (its.get(0).duration == 1), failure + ": Probe answered by recovered instance");
+			check(balancer.getOpenInstances() == 0, failure + ": Circuit closed after successful probe");
+			check(answeredBy(balancer, 1) == 1, failure + ": Recovered instance answers requests again");
+			System.out.println("Circuit breaker " + failure + ": " + balancer);
+
+		} finally {
+			healthy.stop();
+			broken.stop();
+		}
+	}
+
+	// Some requests sent to instance 1 first are held until the end of the
+	// check. Hedging answers these requests from instance 0, hence all
+	// requests complete while held requests are outstanding.
+	private static void checkHedging() throws Exception {
+		StubServer planner0 = new StubServer(0);
+		StubServer planner1 = new StubServer(1);
+
+		try {
+			planner0.latency = 2;
+			planner1.latency = 2;
+			planner1.hold("mode=" + TType.BICYCLE);
+			PlannerLoadBalancer balancer = new PlannerLoadBalancer(Arrays.asList(planner0.createPlanner(), planner1.createPlanner()),
+					PlannerLoadBalancer.Policy.REQUEST_ID, PlannerLoadBalancer.DEFAULT_FAILURE_THRESHOLD,
+					PlannerLoadBalancer.DEFAULT_OPEN_TIME, 0.9, PlannerLoadBalancer.DEFAULT_ATTEMPTS);
+			int hedged = 0;
+
+			for (int i = 0; i < 400; i++) {
+
+				// Hold requests only after enough latencies are known to hedge
+				if ((i < 100) || (i % 20 != 1)) {
+					answeredBy(balancer, createRequest(i, TType.WALK));
+					continue;
+				}
+				check(answeredBy(balancer, createRequest(i, TType.BICYCLE)) == 0, "Held request " + i + " answered by other instance");
+				hedged++;
+			}
+			final int expected = hedged;
+			final StubServer holding = planner1;
+			await(new Condition() {
+
+				@Override
+				public boolean holds() {
+					return holding.held.get() == expected;
+				}
+			}, "Held requests outstanding (" + hedged + ")");
+			System.out.println("Hedging: " + balancer);
+
+		} finally {
+			planner0.stop();
+			planner1.stop();
+		}
+	}
+
+	// Waits until the removal time of all instances has passed
+	private static void awaitClosed(final PlannerLoadBalancer balancer) {
+		await(new Condition() {
+
+			@Override
+			public boolean holds() {
+				return balancer.getOpenInstances() == 0;
+			}
+		}, "Removal time of failing instance passed");
+	}
+
+	private static void await(Condition condition, String description) {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (!condition.holds()) {
+
+			if (System.currentTimeMillis() >= deadline)
+				throw new IllegalStateException("Error: Check failed: " + description);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		System.out.println("OK: " + description);
+	}
+
+	private static int answeredBy(PlannerLoadBalancer balancer, long requestId) throws Exception {
+		return answeredBy(balancer, createRequest(requestId, TType.WALK));
+	}
+
+	private static int answeredBy(PlannerLoadBalancer balancer, JourneyRequest request) throws Exception {
+		List<Itinerary> its = balancer.requestSingleJourneyAsync(request).get(TIMEOUT, TimeUnit.MILLISECONDS);
+		return (its.size() > 0) ? (int) its.get(0).duration : -1;
+	}
+
+	private static JourneyRequest createRequest(long requestId) {
+		return createRequest(requestId, TType.WALK);
+	}
+
+	private static JourneyRequest createRequest(long requestId, TType mode) {
+		return JourneyRequest.createRequest(new Coordinate(11.1198448, 46.0719489), new Coordinate(11.1248895, 46.0711398),
+				LocalDateTime.of(2014, 9, 1, 8, 0), false, new TType[] { mode }, new RequestId(requestId));
+	}
+
+	private static void check(boolean condition, String description) {
+
+		if (!condition)
+			throw new IllegalStateException("Error: Check failed: " + description);
+		System.out.println("OK: " + description);
+	}
+}
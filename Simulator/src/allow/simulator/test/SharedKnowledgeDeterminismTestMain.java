@@ -0,0 +1,168 @@
+package allow.simulator.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import allow.simulator.entity.Entity;
+import allow.simulator.knowledge.Experience;
+import allow.simulator.knowledge.crf.CRFSharedKnowledge;
+import allow.simulator.mobility.planner.TType;
+import allow.simulator.world.Street;
+import allow.simulator.world.StreetSegment;
+import allow.simulator.world.Weather;
+
+/**
+ * Checks that the tables of the shared knowledge model do not depend on the
+ * threads adding experiences. Experiences generated from the same seed are
+ * added with different numbers of threads and orders of entities, and
+ * predictions from the resulting tables are compared. Fails with an
+ * exception in case predictions differ.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public class SharedKnowledgeDeterminismTestMain {
+	private static final long SEED = 42;
+	private static final int ENTITIES = 300;
+	private static final int STREETS = 40;
+	private static final int TICKS = 20;
+	private static final int SEGMENTS = 6;
+	private static final int PROBES = 200;
+	private static final TType MODES[] = { TType.CAR, TType.BUS, TType.WALK };
+
+	private static final Weather.State CLEAR = new Weather.State("Clear", false, false, false, false) { };
+	private static final Weather.State RAIN = new Weather.State("Rain", false, true, false, false) { };
+
+	/**
+	 * Entity adding experiences only.
+	 */
+	private static final class StubEntity extends Entity {
+
+		public StubEntity(long id) {
+			super(id);
+		}
+
+		@Override
+		public String getType() {
+			return "stub";
+		}
+
+		@Override
+		public boolean isActive() {
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<Street> streets = new ArrayList<Street>(STREETS);
+
+		for (int i = 0; i < STREETS; i++) {
+			streets.add(new Street(i, "Street " + i, Collections.<StreetSegment>emptyList()));
+		}
+		List<Entity> entities = new ArrayList<Entity>(ENTITIES);
+
+		for (int i = 0; i < ENTITIES; i++) {
+			entities.add(new StubEntity(i));
+		}
+		double[] run1 = run(streets, entities, 1, 1);
+		double[] run2 = run(streets, entities, 4, 2);
+		double[] run3 = run(streets, entities, 7, 3);
+		check(Arrays.equals(run1, run2), "Same tables with 1 and 4 threads");
+		check(Arrays.equals(run1, run3), "Same tables with 1 and 7 threads");
+		System.out.println("All checks passed.");
+	}
+
+	// Adds the experiences of all ticks in an order of entities determined by
+	// orderSeed and returns the predicted travel times and filling levels of
+	// a fixed set of itineraries.
+	private static double[] run(List<Street> streets, List<Entity> entities, int threads, long orderSeed) throws Exception {
+		final CRFSharedKnowledge model = new CRFSharedKnowledge(false);
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		Random data = new Random(SEED);
+		Random order = new Random(orderSeed);
+
+		try {
+
+			for (int tick = 0; tick < TICKS; tick++) {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(entities.size());
+
+				for (final Entity entity : entities) {
+					final List<List<Experience>> its = new ArrayList<List<Experience>>(2);
+
+					for (int i = data.nextInt(3); i > 0; i--) {
+						its.add(createItinerary(streets, data, tick, true));
+					}
+					tasks.add(new Callable<Void>() {
+
+						@Override
+						public Void call() throws Exception {
+
+							for (List<Experience> it : its) {
+								model.addEntry(entity, it, "test");
+							}
+							return null;
+						}
+					});
+				}
+				Collections.shuffle(tasks, order);
+
+				for (Future<Void> f : service.invokeAll(tasks)) {
+					f.get();
+				}
+				model.clean(null, "test");
+			}
+
+		} finally {
+			service.shutdown();
+		}
+		Random probes = new Random(SEED + 1);
+		double[] predictions = new double[2 * PROBES * SEGMENTS];
+		int n = 0;
+
+		for (int i = 0; i < PROBES; i++) {
+			List<Experience> it = createItinerary(streets, probes, probes.nextInt(TICKS), false);
+			model.getPredictedItinerary(null, it, "test");
+
+			for (Experience ex : it) {
+				predictions[n++] = ex.getTravelTime();
+				predictions[n++] = ex.getPublicTransportationFillingLevel();
+			}
+		}
+		System.out.println("Run with " + threads + " threads: " + n + " predictions");
+		return predictions;
+	}
+
+	private static List<Experience> createItinerary(List<Street> streets, Random random, int tick, boolean observed) {
+		List<Experience> it = new ArrayList<Experience>(SEGMENTS);
+		TType mode = MODES[random.nextInt(MODES.length)];
+		Weather.State weather = random.nextBoolean() ? CLEAR : RAIN;
+
+		// Ticks are spread over two days in steps of 5 hours
+		long time = 1409551200000L + tick * 18000000L;
+		int street = random.nextInt(STREETS);
+
+		for (int i = 0; i < SEGMENTS; i++) {
+			double travelTime = observed ? 10 + random.nextInt(50) + random.nextDouble() : 1;
+			double fillLevel = observed && (mode == TType.BUS) ? random.nextDouble() : 0.0;
+			it.add(new Experience(streets.get(street), travelTime, 0.0, mode, time, time + (long) (travelTime * 1000), 1,
+					fillLevel, null, weather));
+			time += (long) (travelTime * 1000);
+			street = (street + 1 + random.nextInt(3)) % STREETS;
+		}
+		return it;
+	}
+
+	private static void check(boolean condition, String description) {
+
+		if (!condition)
+			throw new IllegalStateException("Error: Check failed: " + description);
+		System.out.println("OK: " + description);
+	}
+}
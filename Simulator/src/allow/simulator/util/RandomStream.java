@@ -0,0 +1,156 @@
+package allow.simulator.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * Stream of pseudo random numbers owned by a single entity. Streams of
+ * different entities are derived from a global seed and the id of the entity
+ * such that random decisions of an entity do not depend on the order in which
+ * entities are executed. Hence, sequential and parallel runs using the same
+ * seed make the same decisions.
+ *
+ * A stream must not be shared among threads. Use split() to derive an
+ * independent stream instead.
+ *
+ * @author Andreas Poxrucker (DFKI)
+ *
+ */
+public final class RandomStream {
+	// Odd constant used to spread entity ids over the seed space
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	// Underlying generator
+	private final SplittableRandom random;
+
+	// Second value generated by the polar method
+	private double nextGaussian;
+	private boolean hasNextGaussian;
+
+	private RandomStream(SplittableRandom random) {
+		this.random = random;
+		hasNextGaussian = false;
+	}
+
+	/**
+	 * Creates a new stream of random numbers from the given seed.
+	 *
+	 * @param seed Seed of the stream.
+	 */
+	public RandomStream(long seed) {
+		this(new SplittableRandom(mix(seed)));
+	}
+
+	/**
+	 * Creates a new stream of random numbers for the entity with the given id.
+	 *
+	 * @param seed Global seed of the simulation.
+	 * @param entityId Id of the entity the stream belongs to.
+	 * @return Random stream of the entity.
+	 */
+	public static RandomStream forEntity(long seed, long entityId) {
+		return new RandomStream(mix(seed) ^ ((entityId + 1) * GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Derives a new stream which is independent from this stream.
+	 *
+	 * @return New independent stream.
+	 */
+	public RandomStream split() {
+		return new RandomStream(random.split());
+	}
+
+	/**
+	 * Returns a uniformly distributed value between 0 (inclusive) and bound
+	 * (exclusive).
+	 *
+	 * @param bound Upper bound (exclusive).
+	 * @return Uniformly distributed value.
+	 */
+	public int nextInt(int bound) {
+		return random.nextInt(bound);
+	}
+
+	/**
+	 * Returns a uniformly distributed value between origin (inclusive) and
+	 * bound (exclusive).
+	 *
+	 * @param origin Lower bound (inclusive).
+	 * @param bound Upper bound (exclusive).
+	 * @return Uniformly distributed value.
+	 */
+	public int nextInt(int origin, int bound) {
+		return random.nextInt(origin, bound);
+	}
+
+	/**
+	 * Returns a uniformly distributed value.
+	 *
+	 * @return Uniformly distributed value.
+	 */
+	public long nextLong() {
+		return random.nextLong();
+	}
+
+	/**
+	 * Returns a uniformly distributed value between 0.0 (inclusive) and 1.0
+	 * (exclusive).
+	 *
+	 * @return Uniformly distributed value.
+	 */
+	public double nextDouble() {
+		return random.nextDouble();
+	}
+
+	/**
+	 * Returns a uniformly distributed value between origin (inclusive) and
+	 * bound (exclusive).
+	 *
+	 * @param origin Lower bound (inclusive).
+	 * @param bound Upper bound (exclusive).
+	 * @return Uniformly distributed value.
+	 */
+	public double nextDouble(double origin, double bound) {
+		return random.nextDouble(origin, bound);
+	}
+
+	/**
+	 * Returns a uniformly distributed boolean value.
+	 *
+	 * @return Uniformly distributed boolean value.
+	 */
+	public boolean nextBoolean() {
+		return random.nextBoolean();
+	}
+
+	/**
+	 * Returns a normally distributed value with mean 0.0 and standard deviation
+	 * 1.0 using the polar method.
+	 *
+	 * @return Normally distributed value.
+	 */
+	public double nextGaussian() {
+
+		if (hasNextGaussian) {
+			hasNextGaussian = false;
+			return nextGaussian;
+		}
+		double v1, v2, s;
+
+		do {
+			v1 = 2 * random.nextDouble() - 1;
+			v2 = 2 * random.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+		nextGaussian = v2 * multiplier;
+		hasNextGaussian = true;
+		return v1 * multiplier;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
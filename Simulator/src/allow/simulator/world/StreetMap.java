@@ -1,5 +1,7 @@
 package allow.simulator.world;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
@@ -41,12 +43,36 @@ public final class StreetMap extends World implements Observer {
 		
 	}
 	
+	// Scale of fixed-point coordinates keying the position index.
+	private static final double POSITION_SCALE = 1e7;
+	
+	// Size of cells of the grid to find nearest nodes in degrees.
+	private static final double CELL_SIZE = 0.005;
+	
+	// Maximum number of grid rings searched to find nearest nodes.
+	private static final int MAX_SEARCH_RINGS = 20;
+	
 	// Encodes network structure of StreetMap.
 	private Graph<StreetNode, Street> map;
-	private Object2ObjectOpenHashMap<String, StreetNode> nodesReduced;	
-	private Object2ObjectOpenHashMap<String, Street> streets;
-	private Object2ObjectOpenHashMap<String, StreetNode> nodes;
-	private Object2ObjectOpenHashMap<String, StreetNode> posNodes;
+	private Object2ObjectOpenHashMap<String, StreetNode> nodesReduced;
+	
+	// Nodes by dense id and dense ids of nodes by label.
+	private StreetNode nodes[];
+	private Object2IntOpenHashMap<String> nodeIds;
+	
+	// Streets by packed ids of start and end node (see streetKey()).
+	private Long2ObjectOpenHashMap<Street> streets;
+	
+	// Spatial hash of nodes by packed fixed-point position (see positionKey()).
+	private Long2ObjectOpenHashMap<StreetNode> posNodes;
+	
+	// Grid of nodes where streets start: origin, sorted cell keys, offsets of
+	// cells, and ids of nodes by cell.
+	private double originX;
+	private double originY;
+	private long cellKeys[];
+	private int cellStart[];
+	private int cellNodes[];
 	
 	// Set of street segments to update after each time step.
 	private ObjectOpenHashSet<Street> streetsToUpdate;
@@ -54,9 +80,8 @@ public final class StreetMap extends World implements Observer {
 	
 	public StreetMap(Path path) throws IOException {
 		map = new DirectedSparseMultigraph<StreetNode, Street>(); 
-		streets = new Object2ObjectOpenHashMap<String, Street>();
+		streets = new Long2ObjectOpenHashMap<Street>();
 		nodesReduced = new Object2ObjectOpenHashMap<String, StreetNode>();
-		posNodes = new Object2ObjectOpenHashMap<String, StreetNode>();
 		busiestStreets = new LinkedList<Street>();
 		loadStreetNetwork(path);
 	}
@@ -73,8 +98,10 @@ public final class StreetMap extends World implements Observer {
 		String headerNodes = lines.get(offset++);
 		String tokens[] = headerNodes.split(" ");
 		int numberOfNodes = Integer.parseInt(tokens[1]);
-		nodes = new Object2ObjectOpenHashMap<String, StreetNode>();
-		long nodeIds = 0;
+		nodes = new StreetNode[numberOfNodes];
+		nodeIds = new Object2IntOpenHashMap<String>(numberOfNodes);
+		nodeIds.defaultReturnValue(-1);
+		posNodes = new Long2ObjectOpenHashMap<StreetNode>(numberOfNodes);
 			
 		for (int i = 0; i < numberOfNodes; i++) {
 			String temp = lines.get(offset++);
@@ -84,10 +111,11 @@ public final class StreetMap extends World implements Observer {
 			if (c.x > dimensions[1]) dimensions[1] = c.x;
 			if (c.y < dimensions[2]) dimensions[2] = c.y;
 			if (c.y > dimensions[3]) dimensions[3] = c.y;
-			StreetNode n = new StreetNode(nodeIds++, tokens[0], c);
+			StreetNode n = new StreetNode(i, tokens[0], c);
 			// map.addVertex(n);
-			nodes.put(tokens[0], n);
-			posNodes.put(c.y + "," + c.x, n);
+			nodes[i] = n;
+			nodeIds.put(tokens[0], i);
+			posNodes.put(positionKey(toFixedPoint(c.y), toFixedPoint(c.x)), n);
 		}
 		offset++;
 
@@ -107,8 +135,8 @@ public final class StreetMap extends World implements Observer {
 			double speedLimit = Double.parseDouble(tokens[4]) * mphTomps;
 			String subSegs[] = tokens[5].split(" ");
 				
-			StreetNode source = nodes.get(idStart);
-			StreetNode dest = nodes.get(idEnd);
+			StreetNode source = getStreetNode(idStart);
+			StreetNode dest = getStreetNode(idEnd);
 			nodesReduced.put(source.getLabel(), source);
 			nodesReduced.put(dest.getLabel(), dest);
 			
@@ -117,8 +145,8 @@ public final class StreetMap extends World implements Observer {
 			List<StreetSegment> segmentsRev = new ArrayList<StreetSegment>();
 			
 			for (int j = 0; j < subSegs.length - 1; j++) {
-				StreetNode start = nodes.get(subSegs[j]);
-				StreetNode end = nodes.get(subSegs[j + 1]);
+				StreetNode start = getStreetNode(subSegs[j]);
+				StreetNode end = getStreetNode(subSegs[j + 1]);
 				StreetSegment seg = new StreetSegment(linkIds++, start, end, speedLimit, Geometry.haversineDistance(start.getPosition(), end.getPosition()));
 				segments.add(seg);
 				//map.addEdge(seg, start, end, EdgeType.DIRECTED);
@@ -133,7 +161,7 @@ public final class StreetMap extends World implements Observer {
 			
 			//if (!streets.containsKey(source.getLabel() + ";;" + dest.getLabel())) {
 				s.addObserver(this);
-				streets.put(source.getLabel() + ";;" + dest.getLabel(), s);
+				streets.put(streetKey((int) source.getId(), (int) dest.getId()), s);
 				map.addEdge(s, segments.get(0).getStartingNode(), segments.get(segments.size() - 1).getEndingNode());
 			//}
 
@@ -142,11 +170,12 @@ public final class StreetMap extends World implements Observer {
 			
 			//if (!streets.containsKey(dest.getLabel() + ";;" + source.getLabel())) {
 				sRev.addObserver(this);
-				streets.put(dest.getLabel() + ";;" + source.getLabel(), sRev);
+				streets.put(streetKey((int) dest.getId(), (int) source.getId()), sRev);
 				map.addEdge(sRev, segmentsRev.get(0).getStartingNode(), segmentsRev.get(segmentsRev.size() - 1).getEndingNode());
 			//}
 		}
 		streetsToUpdate = new ObjectOpenHashSet<Street>(streets.size() / 2);
+		createNodeGrid();
 		System.out.println("|V|: " + map.getVertexCount() + ", |E|: " + map.getEdgeCount() + " " 
 		+ dimensions[0] + " " + dimensions[1] + " " + dimensions[2] + " " + dimensions[3]);
 	}
@@ -238,7 +267,22 @@ public final class StreetMap extends World implements Observer {
 	 * @return
 	 */
 	public Street getStreet(String first, String second) {
-		return streets.get(first + ";;" + second);
+		return getStreet(getNodeId(first), getNodeId(second));
+	}
+	
+	/**
+	 * Returns a street given the ids of its start and end node (see
+	 * getNodeId()).
+	 * 
+	 * @param first Id of start node of street.
+	 * @param second Id of end node of street.
+	 * @return Street from first to second or null if there is none.
+	 */
+	public Street getStreet(int first, int second) {
+		
+		if ((first < 0) || (second < 0))
+			return null;
+		return streets.get(streetKey(first, second));
 	}
 
 	public Collection<Street> getStreets() {
@@ -249,7 +293,38 @@ public final class StreetMap extends World implements Observer {
 	}
 	
 	public StreetNode getStreetNode(String label) {
-		return nodes.get(label);
+		int id = nodeIds.getInt(label);
+		return (id >= 0) ? nodes[id] : null;
+	}
+	
+	/**
+	 * Returns a node given its dense id (see getNodeId()).
+	 * 
+	 * @param id Id of the node.
+	 * @return Node with the given id.
+	 */
+	public StreetNode getStreetNode(int id) {
+		return nodes[id];
+	}
+	
+	/**
+	 * Returns the number of nodes, i.e. the upper bound of node ids.
+	 * 
+	 * @return Number of nodes.
+	 */
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+	
+	/**
+	 * Returns the dense id of a node given its label. Ids range from 0 to
+	 * the number of nodes - 1 and equal the ids of StreetNode instances.
+	 * 
+	 * @param label Label of the node.
+	 * @return Id of the node or -1 if there is no node with the given label.
+	 */
+	public int getNodeId(String label) {
+		return nodeIds.getInt(label);
 	}
 	
 	public StreetNode getStreetNodeReduced(String label) {
@@ -257,7 +332,216 @@ public final class StreetMap extends World implements Observer {
 	}
 	
 	public StreetNode getStreetNodeFromPosition(String posString) {
-		return posNodes.get(posString);
+		int id = getNodeIdFromPosition(posString, 0, posString.length());
+		return (id >= 0) ? nodes[id] : null;
+	}
+	
+	/**
+	 * Returns the id of the node at a position given as "lat,lon" in the
+	 * range [start; end) of a sequence of characters. The position is parsed
+	 * in place and resolved using a spatial hash of node positions, hence no
+	 * objects are allocated.
+	 * 
+	 * @param s Sequence containing the position.
+	 * @param start Index of the first character of the position.
+	 * @param end Index after the last character of the position.
+	 * @return Id of the node at the given position or -1 if there is none.
+	 */
+	public int getNodeIdFromPosition(CharSequence s, int start, int end) {
+		int comma = -1;
+		
+		for (int i = start; i < end; i++) {
+			
+			if (s.charAt(i) == ',') {
+				comma = i;
+				break;
+			}
+		}
+		
+		if (comma < 0)
+			return -1;
+		long lat = parseFixedPoint(s, start, comma);
+		long lon = parseFixedPoint(s, comma + 1, end);
+		
+		if ((lat == Long.MIN_VALUE) || (lon == Long.MIN_VALUE))
+			return -1;
+		StreetNode n = posNodes.get(positionKey(lat, lon));
+		return (n != null) ? (int) n.getId() : -1;
+	}
+	
+	/**
+	 * Returns the id of the node closest to a position among the nodes where
+	 * streets start. Nodes are searched in a grid of cells of 0.005 degrees
+	 * around the position.
+	 * 
+	 * @param pos Position to find closest node for.
+	 * @return Id of the closest node or -1 if there is no node in the vicinity
+	 * of the position.
+	 */
+	public int getNearestNodeId(Coordinate pos) {
+		int cx = getCellX(pos.x);
+		int cy = getCellY(pos.y);
+		double cosLat = Math.cos(Math.toRadians(pos.y));
+		int best = -1;
+		double bestDist = Double.MAX_VALUE;
+
+		for (int r = 0; r <= MAX_SEARCH_RINGS; r++) {
+			// Nodes outside of ring r - 1 are farther away than r - 1 cells
+			double ringDist = (r - 1) * CELL_SIZE * cosLat;
+
+			if ((best >= 0) && (ringDist * ringDist > bestDist))
+				break;
+
+			for (int x = cx - r; x <= cx + r; x++) {
+
+				for (int y = cy - r; y <= cy + r; y++) {
+
+					if ((Math.abs(x - cx) != r) && (Math.abs(y - cy) != r))
+						continue;
+					int cell = Arrays.binarySearch(cellKeys, cellKey(x, y));
+
+					if (cell < 0)
+						continue;
+
+					for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+						Coordinate nodePos = nodes[cellNodes[i]].getPosition();
+						double dx = (nodePos.x - pos.x) * cosLat;
+						double dy = nodePos.y - pos.y;
+						double dist = dx * dx + dy * dy;
+
+						if (dist < bestDist) {
+							bestDist = dist;
+							best = cellNodes[i];
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+	
+	private void createNodeGrid() {
+		// Nodes where streets start, i.e. start and end nodes of links
+		int ids[] = new int[nodesReduced.size()];
+		int k = 0;
+		originX = Double.MAX_VALUE;
+		originY = Double.MAX_VALUE;
+		
+		for (StreetNode n : nodesReduced.values()) {
+			ids[k++] = (int) n.getId();
+			originX = Math.min(originX, n.getPosition().x);
+			originY = Math.min(originY, n.getPosition().y);
+		}
+		long keyed[] = new long[ids.length];
+
+		for (int i = 0; i < ids.length; i++) {
+			Coordinate pos = nodes[ids[i]].getPosition();
+			long key = cellKey(getCellX(pos.x), getCellY(pos.y));
+
+			if (key < 0)
+				throw new IllegalStateException("Error: Extent of street map is too large.");
+			// Cell keys fit into 32 bits, node ids are kept in the lower bits
+			keyed[i] = (key << 32) | ids[i];
+		}
+		Arrays.sort(keyed);
+		cellNodes = new int[keyed.length];
+		long keys[] = new long[keyed.length];
+		int starts[] = new int[keyed.length + 1];
+		int cells = 0;
+
+		for (int i = 0; i < keyed.length; i++) {
+			long key = keyed[i] >>> 32;
+			cellNodes[i] = (int) keyed[i];
+
+			if ((cells == 0) || (keys[cells - 1] != key)) {
+				keys[cells] = key;
+				starts[cells++] = i;
+			}
+		}
+		starts[cells] = keyed.length;
+		cellKeys = Arrays.copyOf(keys, cells);
+		cellStart = Arrays.copyOf(starts, cells + 1);
+	}
+	
+	private int getCellX(double lon) {
+		return (int) Math.floor((lon - originX) / CELL_SIZE);
+	}
+
+	private int getCellY(double lat) {
+		return (int) Math.floor((lat - originY) / CELL_SIZE);
+	}
+
+	// Returns the key of a cell or -1 if the cell is outside of the grid
+	private static long cellKey(int x, int y) {
+
+		if ((x < 0) || (y < 0) || (x > 0xFFFF) || (y > 0xFFFF))
+			return -1;
+		return ((long) x << 16) | y;
+	}
+	
+	private static long streetKey(int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+	
+	private static long positionKey(long lat, long lon) {
+		// Fixed-point coordinates fit into 32 bits for valid latitudes and longitudes
+		return (lat << 32) ^ (lon & 0xFFFFFFFFL);
+	}
+	
+	private static long toFixedPoint(double value) {
+		// Round magnitude such that rounding matches parseFixedPoint()
+		return (value < 0) ? -Math.round(-value * POSITION_SCALE) : Math.round(value * POSITION_SCALE);
+	}
+	
+	// Parses a decimal number in the range [start; end) of a sequence to fixed
+	// point, returns Long.MIN_VALUE if the range is not a plain decimal number
+	private static long parseFixedPoint(CharSequence s, int start, int end) {
+		
+		if (start >= end)
+			return Long.MIN_VALUE;
+		boolean negative = (s.charAt(start) == '-');
+		int i = negative ? start + 1 : start;
+		long value = 0;
+		long scale = -1;
+		boolean digits = false;
+		
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			
+			if (c == '.' && (scale < 0)) {
+				scale = 1;
+				
+			} else if ((c >= '0') && (c <= '9')) {
+				digits = true;
+				
+				if (scale < 0) {
+					value = value * 10 + (c - '0');
+					
+				} else if (scale < (long) POSITION_SCALE) {
+					value = value * 10 + (c - '0');
+					scale *= 10;
+					
+				} else if (scale == (long) POSITION_SCALE) {
+					// Round at the first digit beyond the precision of the index
+					if (c >= '5')
+						value++;
+					scale *= 10;
+				}
+				
+			} else {
+				return Long.MIN_VALUE;
+			}
+		}
+		
+		if (!digits)
+			return Long.MIN_VALUE;
+		
+		if (scale < 0)
+			scale = 1;
+		else if (scale > (long) POSITION_SCALE)
+			scale = (long) POSITION_SCALE;
+		value *= (long) POSITION_SCALE / scale;
+		return negative ? -value : value;
 	}
 	
 	@Override
@@ -1,7 +1,10 @@
 package allow.simulator.world;
 
 import java.util.Observable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import allow.simulator.core.ParallelTickEngine;
 import allow.simulator.util.Coordinate;
 
 /**
@@ -23,6 +26,10 @@ public class StreetSegment extends Observable implements Comparable<StreetSegmen
 	// Walking speed on segment (from OpenTripPlanner).
 	public static final double WALKING_SPEED = 1.3;
 	
+	// Segments with changes of the number of vehicles deferred during the
+	// compute phase of a parallel tick.
+	private static final Queue<StreetSegment> deferredSegments = new ConcurrentLinkedQueue<StreetSegment>();
+	
 	// Id of the segment.
 	private long id;
 	
@@ -44,6 +51,11 @@ public class StreetSegment extends Observable implements Comparable<StreetSegmen
 	// Number of vehicles on the segment.
 	private int numberOfVehicles;
 	
+	// Deferred change of the number of vehicles and flag indicating that
+	// segment is registered for the next commit.
+	private int deferredVehicles;
+	private boolean deferred;
+	
 	/**
 	 * Creates a new street segment given its adjacent nodes, maximum allowed
 	 * driving speed in m/s and length in m.
@@ -82,23 +94,71 @@ public class StreetSegment extends Observable implements Comparable<StreetSegmen
 	}
 
 	/**
-	 * Increases number of vehicles on the segment by 1.
+	 * Increases number of vehicles on the segment by 1. During the compute
+	 * phase of a parallel tick, the change is deferred until the next call of
+	 * commitDeferredUpdates().
 	 */
 	public synchronized void addVehicle() {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			deferVehicles(1);
+			return;
+		}
 		numberOfVehicles++;
 		setChanged();
 		notifyObservers();
 	}
 
 	/**
-	 * Decreases number of vehicles on the segment by 1.
+	 * Decreases number of vehicles on the segment by 1. During the compute
+	 * phase of a parallel tick, the change is deferred until the next call of
+	 * commitDeferredUpdates().
 	 */
 	public synchronized void removeVehicle() {
+		
+		if (ParallelTickEngine.isComputePhase()) {
+			deferVehicles(-1);
+			return;
+		}
 		numberOfVehicles--;
 		setChanged();
 		notifyObservers();
 	}
 	
+	private void deferVehicles(int delta) {
+		deferredVehicles += delta;
+		
+		if (!deferred) {
+			deferred = true;
+			deferredSegments.add(this);
+		}
+	}
+	
+	private synchronized void commit() {
+		int delta = deferredVehicles;
+		deferredVehicles = 0;
+		deferred = false;
+		
+		if (delta == 0)
+			return;
+		numberOfVehicles += delta;
+		setChanged();
+		notifyObservers();
+	}
+	
+	/**
+	 * Applies all changes of the number of vehicles which have been deferred
+	 * during the compute phase of a parallel tick. Observers of the changed
+	 * segments are notified sequentially by the calling thread.
+	 */
+	public static void commitDeferredUpdates() {
+		StreetSegment seg = null;
+		
+		while ((seg = deferredSegments.poll()) != null) {
+			seg.commit();
+		}
+	}
+	
 	public StreetNode getStartingNode() {
 		return start;
 	}